@@ -0,0 +1,150 @@
+package mtymes.common.batch;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Coalesces items added by many threads into batches.
+ * <p>
+ * A batch is sent once it reaches {@code maxBatchSize} items or once {@code linger} elapses since its first item was
+ * added, whichever comes first. The results of a sent batch are expected in the same order as its items.
+ * <p>
+ * Items added after {@link #close()} fail right away.
+ */
+public class Batcher<I, O> {
+
+    private final int maxBatchSize;
+    private final Duration linger;
+    private final ScheduledExecutorService scheduler;
+    private final Function<List<I>, CompletableFuture<List<O>>> sendBatch;
+
+    private final Object lock = new Object();
+    private List<PendingItem<I, O>> pendingItems = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed = false;
+
+    public Batcher(
+            int maxBatchSize,
+            Duration linger,
+            ScheduledExecutorService scheduler,
+            Function<List<I>, CompletableFuture<List<O>>> sendBatch
+    ) {
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be greater than 0");
+        checkArgument(linger != null && !linger.isNegative(), "linger can't be null or negative");
+        checkArgument(scheduler != null, "scheduler can't be null");
+        checkArgument(sendBatch != null, "sendBatch can't be null");
+
+        this.maxBatchSize = maxBatchSize;
+        this.linger = linger;
+        this.scheduler = scheduler;
+        this.sendBatch = sendBatch;
+    }
+
+    public CompletableFuture<O> add(I item) {
+        CompletableFuture<O> result = new CompletableFuture<>();
+
+        List<PendingItem<I, O>> batch = null;
+        synchronized (lock) {
+            if (closed) {
+                result.completeExceptionally(new IllegalStateException("Batcher has been closed"));
+                return result;
+            }
+            pendingItems.add(new PendingItem<>(item, result));
+            if (pendingItems.size() >= maxBatchSize) {
+                batch = takePendingItems();
+            } else if (pendingItems.size() == 1) {
+                try {
+                    scheduledFlush = scheduler.schedule(this::flush, linger.toNanos(), NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    // the scheduler has been shut down, so nothing would ever send the pending items
+                    batch = takePendingItems();
+                }
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+
+        return result;
+    }
+
+    /**
+     * Sends the pending items and rejects any items added later.
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        flush();
+    }
+
+    public void flush() {
+        List<PendingItem<I, O>> batch;
+        synchronized (lock) {
+            batch = takePendingItems();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    private List<PendingItem<I, O>> takePendingItems() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        List<PendingItem<I, O>> batch = pendingItems;
+        pendingItems = new ArrayList<>();
+        return batch;
+    }
+
+    private void send(List<PendingItem<I, O>> batch) {
+        List<I> items = new ArrayList<>(batch.size());
+        for (PendingItem<I, O> pendingItem : batch) {
+            items.add(pendingItem.item);
+        }
+
+        CompletableFuture<List<O>> response;
+        try {
+            response = sendBatch.apply(items);
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+
+        response.whenComplete((results, failure) -> {
+            if (failure == null && results.size() != batch.size()) {
+                failure = new IllegalStateException(String.format(
+                        "Expected %d results but got %d", batch.size(), results.size()
+                ));
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (failure != null) {
+                    batch.get(i).result.completeExceptionally(failure);
+                } else {
+                    batch.get(i).result.complete(results.get(i));
+                }
+            }
+        });
+    }
+
+    private static class PendingItem<I, O> {
+
+        final I item;
+        final CompletableFuture<O> result;
+
+        PendingItem(I item, CompletableFuture<O> result) {
+            this.item = item;
+            this.result = result;
+        }
+    }
+}
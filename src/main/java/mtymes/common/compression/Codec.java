@@ -0,0 +1,10 @@
+package mtymes.common.compression;
+
+public interface Codec {
+
+    String name();
+
+    byte[] encode(byte[] data);
+
+    byte[] decode(byte[] data);
+}
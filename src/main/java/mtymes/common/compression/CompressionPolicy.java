@@ -0,0 +1,63 @@
+package mtymes.common.compression;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Maps.newHashMap;
+import static mtymes.common.compression.DeflateCodec.fastestDeflate;
+import static mtymes.common.compression.DeflateCodec.strongestDeflate;
+
+/**
+ * Picks a codec based on the size of the content. Content that is too small to benefit from compression is left as is.
+ */
+public class CompressionPolicy {
+
+    private final NavigableMap<Integer, Codec> codecsByMinSize;
+    private final Map<String, Codec> codecsByName;
+
+    private CompressionPolicy(NavigableMap<Integer, Codec> codecsByMinSize, Map<String, Codec> codecsByName) {
+        this.codecsByMinSize = codecsByMinSize;
+        this.codecsByName = codecsByName;
+    }
+
+    public static CompressionPolicy noCompression() {
+        Map<String, Codec> codecsByName = newHashMap();
+        // always able to read previously compressed content
+        codecsByName.put(DeflateCodec.NAME, fastestDeflate());
+        return new CompressionPolicy(new TreeMap<>(), codecsByName);
+    }
+
+    public static CompressionPolicy defaultCompression() {
+        return noCompression()
+                .compressFrom(1024, fastestDeflate())
+                .compressFrom(64 * 1024, strongestDeflate());
+    }
+
+    public CompressionPolicy compressFrom(int minSizeInBytes, Codec codec) {
+        checkArgument(minSizeInBytes >= 0, "minSizeInBytes can't be negative");
+        checkArgument(codec != null, "codec can't be null");
+
+        NavigableMap<Integer, Codec> newCodecsByMinSize = new TreeMap<>(codecsByMinSize);
+        newCodecsByMinSize.put(minSizeInBytes, codec);
+        Map<String, Codec> newCodecsByName = newHashMap(codecsByName);
+        newCodecsByName.put(codec.name(), codec);
+
+        return new CompressionPolicy(newCodecsByMinSize, newCodecsByName);
+    }
+
+    public Optional<Codec> codecFor(int sizeInBytes) {
+        return Optional.ofNullable(codecsByMinSize.floorEntry(sizeInBytes))
+                .map(Map.Entry::getValue);
+    }
+
+    public Codec codecFor(String name) {
+        Codec codec = codecsByName.get(name);
+        if (codec == null) {
+            throw new IllegalStateException(String.format("Unknown codec '%s'", name));
+        }
+        return codec;
+    }
+}
@@ -0,0 +1,78 @@
+package mtymes.common.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class DeflateCodec implements Codec {
+
+    public static final String NAME = "deflate";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final int level;
+
+    public DeflateCodec(int level) {
+        checkArgument(level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION, "level must be between 1 and 9");
+        this.level = level;
+    }
+
+    public static DeflateCodec fastestDeflate() {
+        return new DeflateCodec(Deflater.BEST_SPEED);
+    }
+
+    public static DeflateCodec strongestDeflate() {
+        return new DeflateCodec(Deflater.BEST_COMPRESSION);
+    }
+
+    // level is not needed for decoding so all levels share the same name
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decode(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Unable to decode truncated deflate content");
+                }
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Unable to decode deflate content", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package mtymes.common.json;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import javafixes.object.Microtype;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static mtymes.common.time.DateUtil.UTC_ZONE_ID;
+
+public class JsonMapper {
+
+    public static ObjectMapper objectMapper() {
+        SimpleModule customTypes = new SimpleModule("smartQueueTypes")
+                .addSerializer(microtypeClass(), new JsonSerializer<Microtype<?>>() {
+                    @Override
+                    public void serialize(Microtype<?> value, JsonGenerator generator, SerializerProvider serializers) throws IOException {
+                        generator.writeString(value.getValue().toString());
+                    }
+                })
+                .addSerializer(ZonedDateTime.class, new JsonSerializer<ZonedDateTime>() {
+                    @Override
+                    public void serialize(ZonedDateTime value, JsonGenerator generator, SerializerProvider serializers) throws IOException {
+                        generator.writeString(DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(value));
+                    }
+                })
+                .addDeserializer(ZonedDateTime.class, new JsonDeserializer<ZonedDateTime>() {
+                    @Override
+                    public ZonedDateTime deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+                        return ZonedDateTime.parse(parser.getValueAsString(), DateTimeFormatter.ISO_OFFSET_DATE_TIME)
+                                .withZoneSameInstant(UTC_ZONE_ID);
+                    }
+                })
+                // durations are represented as milliseconds
+                .addSerializer(Duration.class, new JsonSerializer<Duration>() {
+                    @Override
+                    public void serialize(Duration value, JsonGenerator generator, SerializerProvider serializers) throws IOException {
+                        generator.writeNumber(value.toMillis());
+                    }
+                })
+                .addDeserializer(Duration.class, new JsonDeserializer<Duration>() {
+                    @Override
+                    public Duration deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+                        return Duration.ofMillis(parser.getValueAsLong());
+                    }
+                });
+
+        return new ObjectMapper()
+                .registerModule(new AfterburnerModule())
+                .registerModule(new Jdk8Module())
+                .registerModule(customTypes)
+                .setSerializationInclusion(JsonInclude.Include.NON_ABSENT)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<Microtype<?>> microtypeClass() {
+        return (Class<Microtype<?>>) (Class<?>) Microtype.class;
+    }
+}
@@ -0,0 +1,145 @@
+package mtymes.common.mongo;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows a change stream on a background thread and resumes it after transient failures.
+ * Change streams are only available on replica sets and sharded clusters, on a standalone server the watcher stops itself.
+ */
+public class ChangeStreamWatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeStreamWatcher.class);
+
+    private static final long RETRY_DELAY_IN_MILLIS = 1_000;
+    // returned by standalone servers that don't support change streams
+    private static final int CHANGE_STREAM_NOT_SUPPORTED_CODE = 40573;
+
+    private final String name;
+    private final MongoCollection<Document> collection;
+    private final List<Bson> pipeline;
+    private final Consumer<ChangeStreamDocument<Document>> onChange;
+    private final Runnable onEventsPossiblyMissed;
+
+    private volatile boolean running = false;
+    private volatile boolean supported = true;
+    private Thread thread;
+
+    public ChangeStreamWatcher(
+            String name,
+            MongoCollection<Document> collection,
+            List<Bson> pipeline,
+            Consumer<ChangeStreamDocument<Document>> onChange,
+            Runnable onEventsPossiblyMissed
+    ) {
+        this.name = name;
+        this.collection = collection;
+        this.pipeline = pipeline;
+        this.onChange = onChange;
+        this.onEventsPossiblyMissed = onEventsPossiblyMissed;
+    }
+
+    public synchronized ChangeStreamWatcher start() {
+        if (running) {
+            throw new IllegalStateException(String.format("ChangeStreamWatcher '%s' is already running", name));
+        }
+        running = true;
+        thread = new Thread(this::watch, "changeStream-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    private void watch() {
+        BsonDocument resumeToken = null;
+        while (running) {
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = openCursor(resumeToken)) {
+                while (running) {
+                    ChangeStreamDocument<Document> change = cursor.tryNext();
+                    if (change != null) {
+                        notifyAbout(change);
+                    }
+                    if (cursor.getResumeToken() != null) {
+                        resumeToken = cursor.getResumeToken();
+                    }
+                }
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == CHANGE_STREAM_NOT_SUPPORTED_CODE) {
+                    LOG.warn("Change streams are not supported by this server - stopping ChangeStreamWatcher '{}'", name);
+                    supported = false;
+                    running = false;
+                } else {
+                    handleFailure(e);
+                    resumeToken = null;
+                }
+            } catch (MongoException | IllegalStateException e) {
+                handleFailure(e);
+            }
+        }
+    }
+
+    private void notifyAbout(ChangeStreamDocument<Document> change) {
+        try {
+            onChange.accept(change);
+        } catch (RuntimeException e) {
+            LOG.error("Failed to process change in ChangeStreamWatcher '{}'", name, e);
+        }
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openCursor(BsonDocument resumeToken) {
+        if (resumeToken != null) {
+            return collection.watch(pipeline)
+                    .resumeAfter(resumeToken)
+                    .maxAwaitTime(1, TimeUnit.SECONDS)
+                    .cursor();
+        } else {
+            MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = collection.watch(pipeline)
+                    .maxAwaitTime(1, TimeUnit.SECONDS)
+                    .cursor();
+            // anything could have changed before the stream was opened
+            onEventsPossiblyMissed.run();
+            return cursor;
+        }
+    }
+
+    private void handleFailure(RuntimeException e) {
+        if (!running) {
+            return;
+        }
+        LOG.warn("ChangeStreamWatcher '{}' failed - will resume in {} ms", name, RETRY_DELAY_IN_MILLIS, e);
+        onEventsPossiblyMissed.run();
+        try {
+            Thread.sleep(RETRY_DELAY_IN_MILLIS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
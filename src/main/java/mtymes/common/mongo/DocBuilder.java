@@ -23,6 +23,12 @@ public class DocBuilder {
         return new DocBuilder();
     }
 
+    public static DocBuilder docBuilder(Document doc) {
+        DocBuilder builder = new DocBuilder();
+        builder.values.putAll(doc);
+        return builder;
+    }
+
     public static Document doc(String key, Object value) {
         return docBuilder().put(key, value).build();
     }
@@ -44,6 +50,11 @@ public class DocBuilder {
         return this;
     }
 
+    public DocBuilder remove(String key) {
+        values.remove(key);
+        return this;
+    }
+
     private Object toValueToStore(Object value) {
         Object valueToStore = value;
 
@@ -7,6 +7,7 @@ import mtymes.smartqueue.domain.ExecutionState;
 import mtymes.smartqueue.domain.TaskId;
 import mtymes.smartqueue.domain.TaskState;
 import org.bson.Document;
+import org.bson.types.Binary;
 
 import java.time.ZonedDateTime;
 import java.util.Collections;
@@ -41,6 +42,16 @@ public class DocWrapper extends DataObject {
         return getField(fieldName);
     }
 
+    public Double getDouble(String fieldName) {
+        Number value = getField(fieldName);
+        return value.doubleValue();
+    }
+
+    public Optional<Long> getOptionalLong(String fieldName) {
+        Optional<Number> value = getOptionalField(fieldName);
+        return value.map(Number::longValue);
+    }
+
     public String getString(String fieldName) {
         return getField(fieldName);
     }
@@ -49,11 +60,26 @@ public class DocWrapper extends DataObject {
         return getOptionalField(fieldName);
     }
 
+    public byte[] getBytes(String fieldName) {
+        Binary value = getField(fieldName);
+        return value.getData();
+    }
+
     public ZonedDateTime getZonedDateTime(String fieldName) {
         Date value = getField(fieldName);
         return toZonedDateTime(value, DateUtil.UTC_ZONE_ID);
     }
 
+    public Optional<ZonedDateTime> getOptionalZonedDateTime(String fieldName) {
+        Optional<Date> value = getOptionalField(fieldName);
+        return value.map(date -> toZonedDateTime(date, DateUtil.UTC_ZONE_ID));
+    }
+
+    public Optional<DocWrapper> getOptionalDoc(String fieldName) {
+        Optional<Document> value = getOptionalField(fieldName);
+        return value.map(DocWrapper::wrap);
+    }
+
     public DocListWrapper getList(String fieldName) {
         List value = getField(fieldName);
         return DocListWrapper.wrap(value);
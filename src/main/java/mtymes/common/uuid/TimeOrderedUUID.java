@@ -0,0 +1,36 @@
+package mtymes.common.uuid;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * UUIDs with the layout of version 7 UUIDs: the first 48 bits hold epoch millis, the rest is random.
+ * They sort (by their string value) in the order of their timestamps and the timestamp can be read back from them.
+ */
+public class TimeOrderedUUID {
+
+    private static final long MAX_EPOCH_MILLIS = (1L << 48) - 1;
+
+    private static final long VERSION_7 = 0x7000L;
+    private static final long IETF_VARIANT = 0x8000_0000_0000_0000L;
+
+    public static UUID timeOrderedUUID(long epochMillis) {
+        checkArgument(epochMillis >= 0 && epochMillis <= MAX_EPOCH_MILLIS, "epochMillis must fit into 48 bits");
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSignificantBits = (epochMillis << 16) | VERSION_7 | (random.nextLong() & 0x0FFFL);
+        long leastSignificantBits = IETF_VARIANT | (random.nextLong() & 0x3FFF_FFFF_FFFF_FFFFL);
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    public static boolean isTimeOrdered(UUID uuid) {
+        return uuid.version() == 7;
+    }
+
+    public static long epochMillisOf(UUID uuid) {
+        checkArgument(isTimeOrdered(uuid), "UUID '%s' is not time ordered", uuid);
+        return uuid.getMostSignificantBits() >>> 16;
+    }
+}
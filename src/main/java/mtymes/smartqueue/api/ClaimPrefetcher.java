@@ -0,0 +1,215 @@
+package mtymes.smartqueue.api;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import mtymes.smartqueue.domain.ExecutionWithBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Keeps a small local buffer of already claimed executions so workers don't have to wait for a round trip on each claim.
+ * <p>
+ * The buffer is sized to hold {@code lookahead} worth of executions at the observed processing rate (capped by
+ * {@code maxPrefetchCount}). Executions that are not handed to a worker within {@code lease} are given back to the queue.
+ */
+public class ClaimPrefetcher implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClaimPrefetcher.class);
+
+    private static final double RATE_SMOOTHING = 0.3;
+    private static final long MIN_RATE_SAMPLE_NANOS = MILLISECONDS.toNanos(100);
+
+    private final SmartQueueClient client;
+    private final int maxPrefetchCount;
+    private final Duration lookahead;
+    private final Duration lease;
+
+    private final ConcurrentLinkedQueue<PrefetchedExecution> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+    private final AtomicBoolean refillInProgress = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final ScheduledExecutorService expiryScheduler;
+
+    private final Object rateLock = new Object();
+    private double claimsPerSecond = 0.0;
+    private long claimsSinceSample = 0;
+    private long lastSampleAt = System.nanoTime();
+
+    public ClaimPrefetcher(SmartQueueClient client, int maxPrefetchCount, Duration lookahead, Duration lease) {
+        checkArgument(client != null, "client can't be null");
+        checkArgument(maxPrefetchCount > 0, "maxPrefetchCount must be greater than 0");
+        checkArgument(lookahead != null && !lookahead.isNegative(), "lookahead can't be null or negative");
+        checkArgument(lease != null && lease.toMillis() > 0, "lease must be greater than 0");
+
+        this.client = client;
+        this.maxPrefetchCount = maxPrefetchCount;
+        this.lookahead = lookahead;
+        this.lease = lease;
+
+        this.expiryScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("smart-queue-claim-prefetcher").setDaemon(true).build()
+        );
+        long expiryCheckMillis = max(10, lease.toMillis() / 4);
+        expiryScheduler.scheduleWithFixedDelay(this::releaseExpired, expiryCheckMillis, expiryCheckMillis, MILLISECONDS);
+    }
+
+    public Optional<ExecutionWithBody> claim() {
+        checkState(!closed.get(), "prefetcher has already been closed");
+
+        recordClaim();
+        Optional<ExecutionWithBody> execution = pollUnexpired();
+        refillIfNeeded();
+
+        return execution.isPresent() ? execution : client.claimExecution();
+    }
+
+    public int bufferedCount() {
+        return bufferSize.get();
+    }
+
+    int targetPrefetchCount() {
+        double rate;
+        synchronized (rateLock) {
+            rate = claimsPerSecond;
+        }
+        long target = (long) Math.ceil(rate * lookahead.toNanos() / SECONDS.toNanos(1));
+        return (int) max(1, min(maxPrefetchCount, target));
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            expiryScheduler.shutdown();
+            PrefetchedExecution prefetched;
+            while ((prefetched = poll()) != null) {
+                release(prefetched.execution);
+            }
+        }
+    }
+
+    private void recordClaim() {
+        synchronized (rateLock) {
+            claimsSinceSample++;
+            long now = System.nanoTime();
+            long elapsed = now - lastSampleAt;
+            if (elapsed >= MIN_RATE_SAMPLE_NANOS) {
+                double sampledRate = claimsSinceSample * (double) SECONDS.toNanos(1) / elapsed;
+                claimsPerSecond = claimsPerSecond == 0.0
+                        ? sampledRate
+                        : RATE_SMOOTHING * sampledRate + (1 - RATE_SMOOTHING) * claimsPerSecond;
+                claimsSinceSample = 0;
+                lastSampleAt = now;
+            }
+        }
+    }
+
+    private Optional<ExecutionWithBody> pollUnexpired() {
+        PrefetchedExecution prefetched;
+        while ((prefetched = poll()) != null) {
+            if (prefetched.isExpired(System.nanoTime())) {
+                release(prefetched.execution);
+            } else {
+                return Optional.of(prefetched.execution);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private PrefetchedExecution poll() {
+        PrefetchedExecution prefetched = buffer.poll();
+        if (prefetched != null) {
+            bufferSize.decrementAndGet();
+        }
+        return prefetched;
+    }
+
+    private void refillIfNeeded() {
+        int missingCount = targetPrefetchCount() - bufferSize.get();
+        if (missingCount <= 0 || !refillInProgress.compareAndSet(false, true)) {
+            return;
+        }
+
+        client.claimExecutionsAsync(missingCount).whenComplete((executions, failure) -> {
+            try {
+                if (failure != null) {
+                    logger.warn("Failed to prefetch executions", failure);
+                } else {
+                    buffer(executions);
+                }
+            } finally {
+                refillInProgress.set(false);
+            }
+        });
+    }
+
+    private void buffer(List<ExecutionWithBody> executions) {
+        long expiresAt = System.nanoTime() + lease.toNanos();
+        for (ExecutionWithBody execution : executions) {
+            if (closed.get()) {
+                release(execution);
+            } else {
+                buffer.add(new PrefetchedExecution(execution, expiresAt));
+                bufferSize.incrementAndGet();
+            }
+        }
+        // close() could have drained the buffer while we were adding to it
+        if (closed.get()) {
+            PrefetchedExecution prefetched;
+            while ((prefetched = poll()) != null) {
+                release(prefetched.execution);
+            }
+        }
+    }
+
+    private void releaseExpired() {
+        long now = System.nanoTime();
+        Iterator<PrefetchedExecution> iterator = buffer.iterator();
+        while (iterator.hasNext()) {
+            PrefetchedExecution prefetched = iterator.next();
+            // only the thread that manages to remove the execution can release it
+            if (prefetched.isExpired(now) && buffer.remove(prefetched)) {
+                bufferSize.decrementAndGet();
+                release(prefetched.execution);
+            }
+        }
+    }
+
+    private void release(ExecutionWithBody execution) {
+        client.releaseExecutionAsync(execution.execution.executionId).whenComplete((applied, failure) -> {
+            if (failure != null) {
+                logger.warn("Failed to release prefetched execution '{}'", execution.execution.executionId, failure);
+            }
+        });
+    }
+
+    private static class PrefetchedExecution {
+
+        final ExecutionWithBody execution;
+        final long expiresAtNanos;
+
+        PrefetchedExecution(ExecutionWithBody execution, long expiresAtNanos) {
+            this.execution = execution;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isExpired(long nowNanos) {
+            return nowNanos - expiresAtNanos >= 0;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package mtymes.smartqueue.api;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import mtymes.common.batch.Batcher;
+import mtymes.smartqueue.api.dto.*;
+import mtymes.smartqueue.domain.*;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static mtymes.common.json.JsonMapper.objectMapper;
+
+/**
+ * {@link SmartQueueClient} talking to the SmartQueue http server.
+ * <p>
+ * Submissions, state lookups and completions coming from many threads are coalesced into batch requests
+ * (see {@link Batcher}). All requests are sent asynchronously, so many of them can be in flight at once over the pool of
+ * keep-alive connections.
+ */
+public class HttpSmartQueueClient implements SmartQueueClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpSmartQueueClient.class);
+
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final byte[] NO_CONTENT = new byte[0];
+
+    private final SmartQueueClientConfig config;
+    private final ObjectMapper mapper;
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService scheduler;
+    private final Set<CompletableFuture<?>> inFlightRequests = ConcurrentHashMap.newKeySet();
+
+    private final Batcher<SubmitTaskRequest, TaskId> submitBatcher;
+    private final Batcher<TaskId, Optional<TaskState>> stateBatcher;
+    private final Batcher<ExecutionOutcome, Boolean> completeBatcher;
+
+    public HttpSmartQueueClient(SmartQueueClientConfig config) {
+        checkArgument(config != null, "config can't be null");
+
+        this.config = config;
+        this.mapper = objectMapper();
+
+        QueuedThreadPool threadPool = new QueuedThreadPool();
+        threadPool.setName("smart-queue-client");
+        threadPool.setDaemon(true);
+
+        this.httpClient = new HttpClient();
+        httpClient.setExecutor(threadPool);
+        httpClient.setMaxConnectionsPerDestination(config.maxConnections);
+        httpClient.setFollowRedirects(false);
+        try {
+            httpClient.start();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to start http client", e);
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("smart-queue-client-batcher").setDaemon(true).build()
+        );
+
+        this.submitBatcher = new Batcher<>(
+                config.maxBatchSize,
+                config.linger,
+                scheduler,
+                tasks -> post("/tasks/batch", new SubmitTasksRequest(tasks), SubmitTasksResponse.class)
+                        .thenApply(response -> response.taskIds)
+        );
+        this.stateBatcher = new Batcher<>(
+                config.maxBatchSize,
+                config.linger,
+                scheduler,
+                taskIds -> post("/tasks/statuses", new TaskStatusesRequest(taskIds), TaskStatusesResponse.class)
+                        .thenApply(response -> response.statuses.stream().map(status -> status.state).collect(Collectors.toList()))
+        );
+        this.completeBatcher = new Batcher<>(
+                config.maxBatchSize,
+                config.linger,
+                scheduler,
+                outcomes -> post("/executions/batch/complete", new CompleteExecutionsRequest(outcomes), CompleteExecutionsResponse.class)
+                        .thenApply(response -> response.applied)
+        );
+    }
+
+    @Override
+    public TaskId submitTask(TaskConfig config, TaskBody body) {
+        return await(submitTaskAsync(config, body));
+    }
+
+    @Override
+    public CompletableFuture<TaskId> submitTaskAsync(TaskConfig config, TaskBody body) {
+        return submitBatcher.add(new SubmitTaskRequest(config, body));
+    }
+
+    @Override
+    public Optional<Task> loadTask(TaskId taskId) {
+        return await(loadTaskAsync(taskId));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Task>> loadTaskAsync(TaskId taskId) {
+        return getIfFound("/tasks/" + taskId.getValue(), Task.class);
+    }
+
+    @Override
+    public Optional<TaskBody> loadTaskBody(TaskId taskId) {
+        return await(loadTaskBodyAsync(taskId));
+    }
+
+    @Override
+    public CompletableFuture<Optional<TaskBody>> loadTaskBodyAsync(TaskId taskId) {
+        return getIfFound("/tasks/" + taskId.getValue() + "/body", TaskBody.class);
+    }
+
+    @Override
+    public Optional<TaskResult> loadTaskResult(TaskId taskId) {
+        return await(loadTaskResultAsync(taskId));
+    }
+
+    @Override
+    public CompletableFuture<Optional<TaskResult>> loadTaskResultAsync(TaskId taskId) {
+        return getIfFound("/tasks/" + taskId.getValue() + "/result", TaskResult.class);
+    }
+
+    @Override
+    public Optional<TaskState> getTaskState(TaskId taskId) {
+        return await(getTaskStateAsync(taskId));
+    }
+
+    @Override
+    public CompletableFuture<Optional<TaskState>> getTaskStateAsync(TaskId taskId) {
+        return stateBatcher.add(taskId);
+    }
+
+    @Override
+    public boolean cancelTask(TaskId taskId, Optional<ExecutionId> lastAssumedExecutionId) {
+        return await(cancelTaskAsync(taskId, lastAssumedExecutionId));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> cancelTaskAsync(TaskId taskId, Optional<ExecutionId> lastAssumedExecutionId) {
+        return post("/tasks/" + taskId.getValue() + "/cancel", new CancelTaskRequest(lastAssumedExecutionId), AppliedResponse.class)
+                .thenApply(response -> response.applied);
+    }
+
+    @Override
+    public Optional<ExecutionWithBody> claimExecution() {
+        return await(claimExecutionAsync());
+    }
+
+    @Override
+    public CompletableFuture<Optional<ExecutionWithBody>> claimExecutionAsync() {
+        return send(HttpMethod.POST, "/executions", NO_CONTENT).thenApply(response -> {
+            if (response.status == 204) {
+                return Optional.empty();
+            }
+            return Optional.of(parse(response, ExecutionWithBody.class));
+        });
+    }
+
+    @Override
+    public List<ExecutionWithBody> claimExecutions(int maxCount) {
+        return await(claimExecutionsAsync(maxCount));
+    }
+
+    @Override
+    public CompletableFuture<List<ExecutionWithBody>> claimExecutionsAsync(int maxCount) {
+        checkArgument(maxCount > 0, "maxCount must be greater than 0");
+
+        // a stream with no idle time returns whatever is available right now
+        return send(HttpMethod.POST, "/executions/stream?idleTimeoutMs=0&limit=" + maxCount, NO_CONTENT).thenApply(response -> {
+            if (response.status < 200 || response.status >= 300) {
+                throw new SmartQueueClientException(response.status, errorMessage(response));
+            }
+            List<ExecutionWithBody> executions = new ArrayList<>();
+            try (MappingIterator<ExecutionWithBody> lines = mapper.readerFor(ExecutionWithBody.class).readValues(response.content)) {
+                while (lines.hasNext()) {
+                    executions.add(lines.next());
+                }
+            } catch (IOException | RuntimeException e) {
+                // some executions may have been claimed already, so they are lost to this client
+                throw new SmartQueueClientException("Failed to parse claimed executions", e);
+            }
+            return executions;
+        });
+    }
+
+    @Override
+    public boolean markAsSucceeded(ExecutionId executionId) {
+        return await(markAsSucceededAsync(executionId));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> markAsSucceededAsync(ExecutionId executionId) {
+        return completeBatcher.add(new ExecutionOutcome(executionId, ExecutionState.SUCCEEDED));
+    }
+
+    @Override
+    public boolean markAsSucceeded(ExecutionId executionId, TaskResult result) {
+        return await(markAsSucceededAsync(executionId, result));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> markAsSucceededAsync(ExecutionId executionId, TaskResult result) {
+        // results are sent one by one as they could make the batched requests too big
+        return post("/executions/" + executionId.getValue() + "/succeeded", result, AppliedResponse.class)
+                .thenApply(response -> response.applied);
+    }
+
+    @Override
+    public boolean markAsFailed(ExecutionId executionId) {
+        return await(markAsFailedAsync(executionId));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> markAsFailedAsync(ExecutionId executionId) {
+        return completeBatcher.add(new ExecutionOutcome(executionId, ExecutionState.FAILED));
+    }
+
+    @Override
+    public boolean markAsFailed(ExecutionId executionId, TaskResult errorDetails) {
+        return await(markAsFailedAsync(executionId, errorDetails));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> markAsFailedAsync(ExecutionId executionId, TaskResult errorDetails) {
+        return post("/executions/" + executionId.getValue() + "/failed", errorDetails, AppliedResponse.class)
+                .thenApply(response -> response.applied);
+    }
+
+    @Override
+    public boolean releaseExecution(ExecutionId executionId) {
+        return await(releaseExecutionAsync(executionId));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseExecutionAsync(ExecutionId executionId) {
+        return completeBatcher.add(new ExecutionOutcome(executionId, ExecutionState.RELEASED));
+    }
+
+    @Override
+    public boolean setTTL(TaskId taskId, Duration duration) {
+        return await(setTTLAsync(taskId, duration));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setTTLAsync(TaskId taskId, Duration duration) {
+        return send(HttpMethod.PUT, "/tasks/" + taskId.getValue() + "/ttl", toJson(new TTLRequest(duration)))
+                .thenApply(response -> parse(response, AppliedResponse.class).applied);
+    }
+
+    @Override
+    public boolean keepForever(TaskId taskId) {
+        return await(keepForeverAsync(taskId));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> keepForeverAsync(TaskId taskId) {
+        return send(HttpMethod.DELETE, "/tasks/" + taskId.getValue() + "/ttl", NO_CONTENT)
+                .thenApply(response -> parse(response, AppliedResponse.class).applied);
+    }
+
+    @Override
+    public Optional<Duration> getTTL(TaskId taskId) {
+        return await(getTTLAsync(taskId));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Duration>> getTTLAsync(TaskId taskId) {
+        return getIfFound("/tasks/" + taskId.getValue() + "/ttl", TTLResponse.class)
+                .thenApply(response -> response.flatMap(ttl -> ttl.ttl));
+    }
+
+    @Override
+    public void close() {
+        submitBatcher.close();
+        stateBatcher.close();
+        completeBatcher.close();
+        scheduler.shutdown();
+
+        try {
+            CompletableFuture.allOf(inFlightRequests.toArray(new CompletableFuture<?>[0]))
+                    .get(config.requestTimeout.toMillis(), MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // failures are reported to the callers of the failed requests
+        }
+
+        try {
+            httpClient.stop();
+        } catch (Exception e) {
+            logger.warn("Failed to stop http client", e);
+        }
+    }
+
+    private <T> CompletableFuture<Optional<T>> getIfFound(String path, Class<T> type) {
+        return send(HttpMethod.GET, path, NO_CONTENT).thenApply(response -> {
+            if (response.status == 404) {
+                return Optional.empty();
+            }
+            return Optional.of(parse(response, type));
+        });
+    }
+
+    private <T> CompletableFuture<T> post(String path, Object body, Class<T> responseType) {
+        return send(HttpMethod.POST, path, toJson(body))
+                .thenApply(response -> parse(response, responseType));
+    }
+
+    private CompletableFuture<HttpResponse> send(HttpMethod method, String path, byte[] content) {
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        inFlightRequests.add(result);
+        result.whenComplete((response, failure) -> inFlightRequests.remove(result));
+
+        Request request = httpClient.newRequest(config.baseUrl + path)
+                .method(method)
+                .timeout(config.requestTimeout.toMillis(), MILLISECONDS);
+        if (content.length > 0) {
+            request.content(new BytesContentProvider(JSON_CONTENT_TYPE, content));
+        }
+        request.send(new BufferingResponseListener(config.maxResponseSize) {
+            @Override
+            public void onComplete(Result httpResult) {
+                if (httpResult.isFailed()) {
+                    result.completeExceptionally(new SmartQueueClientException(
+                            String.format("%s %s failed", method, path), httpResult.getFailure()
+                    ));
+                } else {
+                    result.complete(new HttpResponse(httpResult.getResponse().getStatus(), getContent()));
+                }
+            }
+        });
+
+        return result;
+    }
+
+    private <T> T parse(HttpResponse response, Class<T> type) {
+        if (response.status < 200 || response.status >= 300) {
+            throw new SmartQueueClientException(response.status, errorMessage(response));
+        }
+        try {
+            return mapper.readValue(response.content, type);
+        } catch (IOException e) {
+            throw new SmartQueueClientException("Failed to parse " + type.getSimpleName(), e);
+        }
+    }
+
+    private String errorMessage(HttpResponse response) {
+        try {
+            return mapper.readValue(response.content, ErrorResponse.class).error;
+        } catch (IOException e) {
+            return "unexpected response status " + response.status;
+        }
+    }
+
+    private byte[] toJson(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to serialize " + value.getClass().getSimpleName(), e);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static class HttpResponse {
+
+        final int status;
+        final byte[] content;
+
+        HttpResponse(int status, byte[] content) {
+            this.status = status;
+            this.content = content;
+        }
+    }
+}
@@ -1,9 +1,78 @@
 package mtymes.smartqueue.api;
 
-import mtymes.smartqueue.domain.TaskId;
+import mtymes.smartqueue.domain.*;
 
-// todo: mtymes - define the api
-public interface SmartQueueClient {
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
-    TaskId submitTask();
+public interface SmartQueueClient extends AutoCloseable {
+
+    TaskId submitTask(TaskConfig config, TaskBody body);
+
+    CompletableFuture<TaskId> submitTaskAsync(TaskConfig config, TaskBody body);
+
+    Optional<Task> loadTask(TaskId taskId);
+
+    CompletableFuture<Optional<Task>> loadTaskAsync(TaskId taskId);
+
+    Optional<TaskBody> loadTaskBody(TaskId taskId);
+
+    CompletableFuture<Optional<TaskBody>> loadTaskBodyAsync(TaskId taskId);
+
+    Optional<TaskResult> loadTaskResult(TaskId taskId);
+
+    CompletableFuture<Optional<TaskResult>> loadTaskResultAsync(TaskId taskId);
+
+    Optional<TaskState> getTaskState(TaskId taskId);
+
+    CompletableFuture<Optional<TaskState>> getTaskStateAsync(TaskId taskId);
+
+    boolean cancelTask(TaskId taskId, Optional<ExecutionId> lastAssumedExecutionId);
+
+    CompletableFuture<Boolean> cancelTaskAsync(TaskId taskId, Optional<ExecutionId> lastAssumedExecutionId);
+
+    Optional<ExecutionWithBody> claimExecution();
+
+    CompletableFuture<Optional<ExecutionWithBody>> claimExecutionAsync();
+
+    List<ExecutionWithBody> claimExecutions(int maxCount);
+
+    CompletableFuture<List<ExecutionWithBody>> claimExecutionsAsync(int maxCount);
+
+    boolean markAsSucceeded(ExecutionId executionId);
+
+    CompletableFuture<Boolean> markAsSucceededAsync(ExecutionId executionId);
+
+    boolean markAsSucceeded(ExecutionId executionId, TaskResult result);
+
+    CompletableFuture<Boolean> markAsSucceededAsync(ExecutionId executionId, TaskResult result);
+
+    boolean markAsFailed(ExecutionId executionId);
+
+    CompletableFuture<Boolean> markAsFailedAsync(ExecutionId executionId);
+
+    boolean markAsFailed(ExecutionId executionId, TaskResult errorDetails);
+
+    CompletableFuture<Boolean> markAsFailedAsync(ExecutionId executionId, TaskResult errorDetails);
+
+    boolean releaseExecution(ExecutionId executionId);
+
+    CompletableFuture<Boolean> releaseExecutionAsync(ExecutionId executionId);
+
+    boolean setTTL(TaskId taskId, Duration duration);
+
+    CompletableFuture<Boolean> setTTLAsync(TaskId taskId, Duration duration);
+
+    boolean keepForever(TaskId taskId);
+
+    CompletableFuture<Boolean> keepForeverAsync(TaskId taskId);
+
+    Optional<Duration> getTTL(TaskId taskId);
+
+    CompletableFuture<Optional<Duration>> getTTLAsync(TaskId taskId);
+
+    @Override
+    void close();
 }
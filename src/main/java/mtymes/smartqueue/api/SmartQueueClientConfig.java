@@ -0,0 +1,46 @@
+package mtymes.smartqueue.api;
+
+import javafixes.object.DataObject;
+
+import java.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class SmartQueueClientConfig extends DataObject {
+
+    // has to match the limit of the server batch endpoints
+    public static final int MAX_BATCH_SIZE = 1_000;
+
+    public final String baseUrl;
+    public final Duration linger;
+    public final int maxBatchSize;
+    public final int maxConnections;
+    public final Duration requestTimeout;
+    public final int maxResponseSize;
+
+    public SmartQueueClientConfig(
+            String baseUrl,
+            Duration linger,
+            int maxBatchSize,
+            int maxConnections,
+            Duration requestTimeout,
+            int maxResponseSize
+    ) {
+        checkArgument(baseUrl != null && !baseUrl.isEmpty(), "baseUrl can't be null or empty");
+        checkArgument(linger != null, "linger can't be null");
+        checkArgument(!linger.isNegative(), "linger can't be negative");
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be greater than 0");
+        checkArgument(maxBatchSize <= MAX_BATCH_SIZE, "maxBatchSize can't be greater than " + MAX_BATCH_SIZE);
+        checkArgument(maxConnections > 0, "maxConnections must be greater than 0");
+        checkArgument(requestTimeout != null, "requestTimeout can't be null");
+        checkArgument(requestTimeout.toMillis() > 0, "requestTimeout must be greater than 0");
+        checkArgument(maxResponseSize > 0, "maxResponseSize must be greater than 0");
+
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.linger = linger;
+        this.maxBatchSize = maxBatchSize;
+        this.maxConnections = maxConnections;
+        this.requestTimeout = requestTimeout;
+        this.maxResponseSize = maxResponseSize;
+    }
+}
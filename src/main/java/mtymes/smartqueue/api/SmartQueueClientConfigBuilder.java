@@ -0,0 +1,61 @@
+package mtymes.smartqueue.api;
+
+import java.time.Duration;
+
+public class SmartQueueClientConfigBuilder {
+
+    private final String baseUrl;
+    private Duration linger = Duration.ofMillis(5);
+    private int maxBatchSize = 500;
+    private int maxConnections = 16;
+    private Duration requestTimeout = Duration.ofSeconds(30);
+    private int maxResponseSize = 32 * 1024 * 1024;
+
+    private SmartQueueClientConfigBuilder(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    public static SmartQueueClientConfigBuilder smartQueueClientConfigBuilder(String baseUrl) {
+        return new SmartQueueClientConfigBuilder(baseUrl);
+    }
+
+    public static SmartQueueClientConfig defaultSmartQueueClientConfig(String baseUrl) {
+        return smartQueueClientConfigBuilder(baseUrl).build();
+    }
+
+    public SmartQueueClientConfig build() {
+        return new SmartQueueClientConfig(
+                baseUrl,
+                linger,
+                maxBatchSize,
+                maxConnections,
+                requestTimeout,
+                maxResponseSize
+        );
+    }
+
+    public SmartQueueClientConfigBuilder linger(Duration linger) {
+        this.linger = linger;
+        return this;
+    }
+
+    public SmartQueueClientConfigBuilder maxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public SmartQueueClientConfigBuilder maxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public SmartQueueClientConfigBuilder requestTimeout(Duration requestTimeout) {
+        this.requestTimeout = requestTimeout;
+        return this;
+    }
+
+    public SmartQueueClientConfigBuilder maxResponseSize(int maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+        return this;
+    }
+}
@@ -0,0 +1,18 @@
+package mtymes.smartqueue.api;
+
+public class SmartQueueClientException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final int status; // 0 if no response was received
+
+    public SmartQueueClientException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public SmartQueueClientException(String message, Throwable cause) {
+        super(message, cause);
+        this.status = 0;
+    }
+}
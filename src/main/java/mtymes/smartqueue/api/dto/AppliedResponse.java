@@ -0,0 +1,15 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+public class AppliedResponse extends DataObject {
+
+    public final boolean applied;
+
+    @JsonCreator
+    public AppliedResponse(@JsonProperty("applied") boolean applied) {
+        this.applied = applied;
+    }
+}
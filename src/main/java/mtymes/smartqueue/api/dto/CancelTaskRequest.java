@@ -0,0 +1,18 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+import mtymes.smartqueue.domain.ExecutionId;
+
+import java.util.Optional;
+
+public class CancelTaskRequest extends DataObject {
+
+    public final Optional<ExecutionId> lastAssumedExecutionId;
+
+    @JsonCreator
+    public CancelTaskRequest(@JsonProperty("lastAssumedExecutionId") Optional<ExecutionId> lastAssumedExecutionId) {
+        this.lastAssumedExecutionId = lastAssumedExecutionId != null ? lastAssumedExecutionId : Optional.empty();
+    }
+}
@@ -0,0 +1,21 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class CompleteExecutionsRequest extends DataObject {
+
+    public final List<ExecutionOutcome> executions;
+
+    @JsonCreator
+    public CompleteExecutionsRequest(@JsonProperty("executions") List<ExecutionOutcome> executions) {
+        checkArgument(executions != null, "executions can't be null");
+
+        this.executions = executions;
+    }
+}
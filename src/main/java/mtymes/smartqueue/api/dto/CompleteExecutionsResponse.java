@@ -0,0 +1,17 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+import java.util.List;
+
+public class CompleteExecutionsResponse extends DataObject {
+
+    public final List<Boolean> applied; // in the same order as the requested executions
+
+    @JsonCreator
+    public CompleteExecutionsResponse(@JsonProperty("applied") List<Boolean> applied) {
+        this.applied = applied;
+    }
+}
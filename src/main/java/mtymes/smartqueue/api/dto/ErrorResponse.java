@@ -0,0 +1,15 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+public class ErrorResponse extends DataObject {
+
+    public final String error;
+
+    @JsonCreator
+    public ErrorResponse(@JsonProperty("error") String error) {
+        this.error = error;
+    }
+}
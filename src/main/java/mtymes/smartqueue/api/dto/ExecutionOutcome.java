@@ -0,0 +1,30 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+import mtymes.smartqueue.domain.ExecutionId;
+import mtymes.smartqueue.domain.ExecutionState;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class ExecutionOutcome extends DataObject {
+
+    public final ExecutionId executionId;
+    public final ExecutionState state;
+
+    @JsonCreator
+    public ExecutionOutcome(
+            @JsonProperty("executionId") ExecutionId executionId,
+            @JsonProperty("state") ExecutionState state
+    ) {
+        checkArgument(executionId != null, "executionId can't be null");
+        checkArgument(
+                state == ExecutionState.SUCCEEDED || state == ExecutionState.FAILED || state == ExecutionState.RELEASED,
+                "state must be either SUCCEEDED, FAILED or RELEASED"
+        );
+
+        this.executionId = executionId;
+        this.state = state;
+    }
+}
@@ -0,0 +1,27 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+import mtymes.smartqueue.domain.TaskBody;
+import mtymes.smartqueue.domain.TaskConfig;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class SubmitTaskRequest extends DataObject {
+
+    public final TaskConfig config;
+    public final TaskBody body;
+
+    @JsonCreator
+    public SubmitTaskRequest(
+            @JsonProperty("config") TaskConfig config,
+            @JsonProperty("body") TaskBody body
+    ) {
+        checkArgument(config != null, "config can't be null");
+        checkArgument(body != null, "body can't be null");
+
+        this.config = config;
+        this.body = body;
+    }
+}
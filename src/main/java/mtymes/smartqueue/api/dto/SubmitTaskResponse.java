@@ -0,0 +1,16 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+import mtymes.smartqueue.domain.TaskId;
+
+public class SubmitTaskResponse extends DataObject {
+
+    public final TaskId taskId;
+
+    @JsonCreator
+    public SubmitTaskResponse(@JsonProperty("taskId") TaskId taskId) {
+        this.taskId = taskId;
+    }
+}
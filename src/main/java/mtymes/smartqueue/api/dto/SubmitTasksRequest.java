@@ -0,0 +1,21 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class SubmitTasksRequest extends DataObject {
+
+    public final List<SubmitTaskRequest> tasks;
+
+    @JsonCreator
+    public SubmitTasksRequest(@JsonProperty("tasks") List<SubmitTaskRequest> tasks) {
+        checkArgument(tasks != null, "tasks can't be null");
+
+        this.tasks = tasks;
+    }
+}
@@ -0,0 +1,18 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+import mtymes.smartqueue.domain.TaskId;
+
+import java.util.List;
+
+public class SubmitTasksResponse extends DataObject {
+
+    public final List<TaskId> taskIds; // in the same order as the submitted tasks
+
+    @JsonCreator
+    public SubmitTasksResponse(@JsonProperty("taskIds") List<TaskId> taskIds) {
+        this.taskIds = taskIds;
+    }
+}
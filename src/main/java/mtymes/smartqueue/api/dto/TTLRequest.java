@@ -0,0 +1,22 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+import java.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class TTLRequest extends DataObject {
+
+    public final Duration ttl;
+
+    @JsonCreator
+    public TTLRequest(@JsonProperty("ttl") Duration ttl) {
+        checkArgument(ttl != null, "ttl can't be null");
+        checkArgument(ttl.toMillis() >= 0, "ttl can't have negative value");
+
+        this.ttl = ttl;
+    }
+}
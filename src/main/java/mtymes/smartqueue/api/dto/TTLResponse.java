@@ -0,0 +1,18 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+import java.time.Duration;
+import java.util.Optional;
+
+public class TTLResponse extends DataObject {
+
+    public final Optional<Duration> ttl; // not present if task is kept forever
+
+    @JsonCreator
+    public TTLResponse(@JsonProperty("ttl") Optional<Duration> ttl) {
+        this.ttl = ttl != null ? ttl : Optional.empty();
+    }
+}
@@ -0,0 +1,24 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.smartqueue.domain.TaskState;
+
+import java.util.Optional;
+
+public class TaskStatus extends DataObject {
+
+    public final TaskId taskId;
+    public final Optional<TaskState> state; // not present if task doesn't exist
+
+    @JsonCreator
+    public TaskStatus(
+            @JsonProperty("taskId") TaskId taskId,
+            @JsonProperty("state") Optional<TaskState> state
+    ) {
+        this.taskId = taskId;
+        this.state = state != null ? state : Optional.empty();
+    }
+}
@@ -0,0 +1,22 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+import mtymes.smartqueue.domain.TaskId;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class TaskStatusesRequest extends DataObject {
+
+    public final List<TaskId> taskIds;
+
+    @JsonCreator
+    public TaskStatusesRequest(@JsonProperty("taskIds") List<TaskId> taskIds) {
+        checkArgument(taskIds != null, "taskIds can't be null");
+
+        this.taskIds = taskIds;
+    }
+}
@@ -0,0 +1,17 @@
+package mtymes.smartqueue.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+import java.util.List;
+
+public class TaskStatusesResponse extends DataObject {
+
+    public final List<TaskStatus> statuses; // in the same order as the requested task ids
+
+    @JsonCreator
+    public TaskStatusesResponse(@JsonProperty("statuses") List<TaskStatus> statuses) {
+        this.statuses = statuses;
+    }
+}
@@ -0,0 +1,18 @@
+package mtymes.smartqueue.dao;
+
+import mtymes.smartqueue.domain.TaskId;
+
+/**
+ * Thrown when the body of a task is loaded as text although it was submitted as a binary stream.
+ */
+public class BinaryTaskBodyException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final TaskId taskId;
+
+    public BinaryTaskBodyException(TaskId taskId) {
+        super(String.format("Task '%s' has a binary body, use loadTaskBodyStream(...) to load it", taskId));
+        this.taskId = taskId;
+    }
+}
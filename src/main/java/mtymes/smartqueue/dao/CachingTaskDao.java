@@ -0,0 +1,334 @@
+package mtymes.smartqueue.dao;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import mtymes.common.mongo.ChangeStreamWatcher;
+import mtymes.common.time.Clock;
+import mtymes.smartqueue.domain.*;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.smartqueue.domain.TaskId.taskId;
+
+/**
+ * Serves loadTask(...) and getTTL(...) from an in-process cache. Entries are at most maxStaleness old, and are
+ * invalidated sooner by writes done through this dao or (if enabled) by changes observed on the tasks collection.
+ * Concurrent misses for the same task are coalesced into a single query.
+ */
+public class CachingTaskDao implements TaskDao {
+
+    private final TaskDao taskDao;
+    private final Clock clock;
+
+    private final Cache<TaskId, Optional<Task>> tasks;
+    private final Cache<TaskId, Optional<ZonedDateTime>> deleteAfterTimes;
+    private final Cache<ExecutionId, TaskId> executionOwners;
+
+    private static final int INVALIDATION_STRIPES = 1024;
+
+    // striped per task so invalidations of other tasks don't affect loads in progress
+    private final AtomicLongArray invalidationCounts = new AtomicLongArray(INVALIDATION_STRIPES);
+
+    public CachingTaskDao(TaskDao taskDao, Duration maxStaleness, long maxCachedTasks, Clock clock) {
+        checkArgument(maxStaleness.toMillis() > 0, "maxStaleness must be greater than 0");
+        checkArgument(maxCachedTasks > 0, "maxCachedTasks must be greater than 0");
+
+        this.taskDao = taskDao;
+        this.clock = clock;
+
+        Ticker ticker = clockTicker(clock);
+        this.tasks = CacheBuilder.newBuilder()
+                .maximumSize(maxCachedTasks)
+                .expireAfterWrite(maxStaleness.toMillis(), TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+        this.deleteAfterTimes = CacheBuilder.newBuilder()
+                .maximumSize(maxCachedTasks)
+                .expireAfterWrite(maxStaleness.toMillis(), TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+        this.executionOwners = CacheBuilder.newBuilder()
+                .maximumSize(maxCachedTasks)
+                .build();
+    }
+
+    @Override
+    public TaskId submitTask(TaskConfig config, TaskBody body) {
+        return taskDao.submitTask(config, body);
+    }
+
+    @Override
+    public TaskId submitTask(TaskConfig config, InputStream body) {
+        return taskDao.submitTask(config, body);
+    }
+
+    @Override
+    public List<TaskId> submitTasks(List<TaskSubmission> submissions) {
+        return taskDao.submitTasks(submissions);
+    }
+
+    @Override
+    public Optional<Task> loadTask(TaskId taskId) {
+        return getOrLoad(tasks, taskId, () -> taskDao.loadTask(taskId));
+    }
+
+    @Override
+    public Map<TaskId, Task> loadTasks(Collection<TaskId> taskIds) {
+        Map<TaskId, Task> loadedTasks = new HashMap<>();
+        Map<TaskId, Long> invalidationCountsBeforeLoad = new HashMap<>();
+        for (TaskId taskId : taskIds) {
+            Optional<Task> cachedTask = tasks.getIfPresent(taskId);
+            if (cachedTask != null) {
+                cachedTask.ifPresent(task -> loadedTasks.put(taskId, task));
+            } else {
+                invalidationCountsBeforeLoad.put(taskId, invalidationCounts.get(stripeOf(taskId)));
+            }
+        }
+        if (invalidationCountsBeforeLoad.isEmpty()) {
+            return loadedTasks;
+        }
+
+        // the misses are loaded together, without coalescing them with concurrent misses of loadTask(...)
+        Map<TaskId, Task> missedTasks = taskDao.loadTasks(invalidationCountsBeforeLoad.keySet());
+        invalidationCountsBeforeLoad.forEach((taskId, invalidationCountBeforeLoad) -> {
+            Optional<Task> task = Optional.ofNullable(missedTasks.get(taskId));
+            task.ifPresent(value -> loadedTasks.put(taskId, value));
+            tasks.put(taskId, task);
+            if (invalidationCounts.get(stripeOf(taskId)) != invalidationCountBeforeLoad) {
+                // the loaded task might have been stale even before it got cached
+                tasks.invalidate(taskId);
+            }
+        });
+        return loadedTasks;
+    }
+
+    @Override
+    public Optional<TaskBody> loadTaskBody(TaskId taskId) {
+        return taskDao.loadTaskBody(taskId);
+    }
+
+    @Override
+    public Optional<InputStream> loadTaskBodyStream(TaskId taskId) {
+        return taskDao.loadTaskBodyStream(taskId);
+    }
+
+    @Override
+    public Optional<TaskResult> loadTaskResult(TaskId taskId) {
+        return taskDao.loadTaskResult(taskId);
+    }
+
+    @Override
+    public boolean cancelTask(TaskId taskId, Optional<ExecutionId> lastAssumedExecutionId) {
+        try {
+            return taskDao.cancelTask(taskId, lastAssumedExecutionId);
+        } finally {
+            invalidate(taskId);
+        }
+    }
+
+    @Override
+    public Optional<Execution> createNextExecution() {
+        Optional<Execution> execution = taskDao.createNextExecution();
+        execution.ifPresent(this::registerExecution);
+        return execution;
+    }
+
+    @Override
+    public Optional<ExecutionWithBody> createNextExecutionWithBody() {
+        Optional<ExecutionWithBody> executionWithBody = taskDao.createNextExecutionWithBody();
+        executionWithBody.ifPresent(value -> registerExecution(value.execution));
+        return executionWithBody;
+    }
+
+    @Override
+    public boolean markAsSucceeded(ExecutionId executionId) {
+        try {
+            return taskDao.markAsSucceeded(executionId);
+        } finally {
+            invalidateOwnerOf(executionId);
+        }
+    }
+
+    @Override
+    public boolean markAsSucceeded(ExecutionId executionId, TaskResult result) {
+        try {
+            return taskDao.markAsSucceeded(executionId, result);
+        } finally {
+            invalidateOwnerOf(executionId);
+        }
+    }
+
+    @Override
+    public boolean markAsFailed(ExecutionId executionId) {
+        try {
+            return taskDao.markAsFailed(executionId);
+        } finally {
+            invalidateOwnerOf(executionId);
+        }
+    }
+
+    @Override
+    public boolean markAsFailed(ExecutionId executionId, TaskResult errorDetails) {
+        try {
+            return taskDao.markAsFailed(executionId, errorDetails);
+        } finally {
+            invalidateOwnerOf(executionId);
+        }
+    }
+
+    @Override
+    public Map<ExecutionId, Boolean> markAsSucceeded(Collection<ExecutionId> executionIds) {
+        try {
+            return taskDao.markAsSucceeded(executionIds);
+        } finally {
+            executionIds.forEach(this::invalidateOwnerOf);
+        }
+    }
+
+    @Override
+    public Map<ExecutionId, Boolean> markAsFailed(Collection<ExecutionId> executionIds) {
+        try {
+            return taskDao.markAsFailed(executionIds);
+        } finally {
+            executionIds.forEach(this::invalidateOwnerOf);
+        }
+    }
+
+    @Override
+    public boolean releaseExecution(ExecutionId executionId) {
+        try {
+            return taskDao.releaseExecution(executionId);
+        } finally {
+            invalidateOwnerOf(executionId);
+        }
+    }
+
+    @Override
+    public boolean setTTL(TaskId taskId, Duration duration) {
+        try {
+            return taskDao.setTTL(taskId, duration);
+        } finally {
+            invalidate(taskId);
+        }
+    }
+
+    @Override
+    public boolean keepForever(TaskId taskId) {
+        try {
+            return taskDao.keepForever(taskId);
+        } finally {
+            invalidate(taskId);
+        }
+    }
+
+    @Override
+    public Optional<Duration> getTTL(TaskId taskId) {
+        Optional<ZonedDateTime> deleteAfter = getOrLoad(deleteAfterTimes, taskId, () -> {
+            ZonedDateTime now = clock.now();
+            return taskDao.getTTL(taskId).map(now::plus);
+        });
+
+        ZonedDateTime now = clock.now();
+        return deleteAfter.map(time -> Duration.between(now, time));
+    }
+
+    public void invalidate(TaskId taskId) {
+        invalidationCounts.incrementAndGet(stripeOf(taskId));
+        tasks.invalidate(taskId);
+        deleteAfterTimes.invalidate(taskId);
+    }
+
+    public void invalidateAll() {
+        for (int stripe = 0; stripe < INVALIDATION_STRIPES; stripe++) {
+            invalidationCounts.incrementAndGet(stripe);
+        }
+        tasks.invalidateAll();
+        deleteAfterTimes.invalidateAll();
+    }
+
+    /**
+     * Keeps the cache fresh by following all changes (including TTL deletions) done to the tasks collection
+     */
+    public ChangeStreamWatcher invalidateOnChangesOf(MongoCollection<Document> tasksCollection) {
+        return new ChangeStreamWatcher(
+                "taskCache-" + tasksCollection.getNamespace().getCollectionName(),
+                tasksCollection,
+                singletonList(doc("$match", doc("operationType", doc("$in", asList("delete", "update", "replace"))))),
+                this::onChange,
+                this::invalidateAll
+        ).start();
+    }
+
+    private void onChange(ChangeStreamDocument<Document> change) {
+        BsonValue id = change.getDocumentKey() != null ? change.getDocumentKey().get("_id") : null;
+        if (id != null && id.isString()) {
+            invalidate(taskId(id.asString().getValue()));
+        }
+    }
+
+    private <T> T getOrLoad(Cache<TaskId, T> cache, TaskId taskId, Callable<T> loader) {
+        int stripe = stripeOf(taskId);
+        long invalidationCountBeforeLoad = invalidationCounts.get(stripe);
+        try {
+            // concurrent calls for the same key wait for the first one to load the value
+            T value = cache.get(taskId, loader);
+            if (invalidationCounts.get(stripe) != invalidationCountBeforeLoad) {
+                // the loaded value might have been stale even before it got cached
+                cache.invalidate(taskId);
+            }
+            return value;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void registerExecution(Execution execution) {
+        executionOwners.put(execution.executionId, execution.taskId);
+        invalidate(execution.taskId);
+    }
+
+    private void invalidateOwnerOf(ExecutionId executionId) {
+        TaskId taskId = executionOwners.getIfPresent(executionId);
+        if (taskId != null) {
+            invalidate(taskId);
+        }
+    }
+
+    private static int stripeOf(TaskId taskId) {
+        return (taskId.hashCode() & Integer.MAX_VALUE) % INVALIDATION_STRIPES;
+    }
+
+    private static Ticker clockTicker(Clock clock) {
+        return new Ticker() {
+            @Override
+            public long read() {
+                ZonedDateTime now = clock.now();
+                return TimeUnit.SECONDS.toNanos(now.toEpochSecond()) + now.getNano();
+            }
+        };
+    }
+}
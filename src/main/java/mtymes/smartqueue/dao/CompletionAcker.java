@@ -0,0 +1,79 @@
+package mtymes.smartqueue.dao;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import mtymes.common.batch.Batcher;
+import mtymes.smartqueue.domain.ExecutionId;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Collects execution completions and applies them in bulk once {@code maxBatchSize} of them are pending or
+ * {@code maxDelay} elapses, whichever comes first. Bulk writes run on a background thread, so acking never blocks.
+ */
+public class CompletionAcker implements AutoCloseable {
+
+    private final ScheduledExecutorService executor;
+    private final Duration maxDelay;
+    private final Batcher<ExecutionId, Boolean> succeededBatcher;
+    private final Batcher<ExecutionId, Boolean> failedBatcher;
+
+    public CompletionAcker(TaskDao taskDao, int maxBatchSize, Duration maxDelay) {
+        checkArgument(taskDao != null, "taskDao can't be null");
+
+        this.maxDelay = maxDelay;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("smart-queue-completion-acker").setDaemon(true).build()
+        );
+        this.succeededBatcher = new Batcher<>(maxBatchSize, maxDelay, executor, bulk(taskDao::markAsSucceeded));
+        this.failedBatcher = new Batcher<>(maxBatchSize, maxDelay, executor, bulk(taskDao::markAsFailed));
+    }
+
+    public CompletableFuture<Boolean> ackSucceeded(ExecutionId executionId) {
+        return succeededBatcher.add(executionId);
+    }
+
+    public CompletableFuture<Boolean> ackFailed(ExecutionId executionId) {
+        return failedBatcher.add(executionId);
+    }
+
+    public void flush() {
+        succeededBatcher.flush();
+        failedBatcher.flush();
+    }
+
+    @Override
+    public void close() {
+        succeededBatcher.close();
+        failedBatcher.close();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(maxDelay.toMillis() + 10_000, MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Function<List<ExecutionId>, CompletableFuture<List<Boolean>>> bulk(
+            Function<Collection<ExecutionId>, Map<ExecutionId, Boolean>> complete
+    ) {
+        return executionIds -> CompletableFuture.supplyAsync(() -> {
+            Map<ExecutionId, Boolean> results = complete.apply(executionIds);
+            List<Boolean> orderedResults = new ArrayList<>(executionIds.size());
+            for (ExecutionId executionId : executionIds) {
+                orderedResults.add(results.get(executionId));
+            }
+            return orderedResults;
+        }, executor);
+    }
+}
@@ -2,25 +2,53 @@ package mtymes.smartqueue.dao;
 
 import mtymes.smartqueue.domain.*;
 
+import java.io.InputStream;
 import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface TaskDao {
 
     TaskId submitTask(TaskConfig config, TaskBody body);
 
+    TaskId submitTask(TaskConfig config, InputStream body);
+
+    // either all tasks are submitted or none of them
+    List<TaskId> submitTasks(List<TaskSubmission> submissions);
+
     Optional<Task> loadTask(TaskId taskId);
 
+    // unknown tasks are left out
+    Map<TaskId, Task> loadTasks(Collection<TaskId> taskIds);
+
     Optional<TaskBody> loadTaskBody(TaskId taskId);
 
+    Optional<InputStream> loadTaskBodyStream(TaskId taskId);
+
+    Optional<TaskResult> loadTaskResult(TaskId taskId);
+
     boolean cancelTask(TaskId taskId, Optional<ExecutionId> lastAssumedExecutionId);
 
     Optional<Execution> createNextExecution();
 
+    Optional<ExecutionWithBody> createNextExecutionWithBody();
+
     boolean markAsSucceeded(ExecutionId executionId);
 
+    boolean markAsSucceeded(ExecutionId executionId, TaskResult result);
+
+    Map<ExecutionId, Boolean> markAsSucceeded(Collection<ExecutionId> executionIds);
+
     boolean markAsFailed(ExecutionId executionId);
 
+    boolean markAsFailed(ExecutionId executionId, TaskResult errorDetails);
+
+    Map<ExecutionId, Boolean> markAsFailed(Collection<ExecutionId> executionIds);
+
+    boolean releaseExecution(ExecutionId executionId);
+
     boolean setTTL(TaskId taskId, Duration duration);
 
     boolean keepForever(TaskId taskId);
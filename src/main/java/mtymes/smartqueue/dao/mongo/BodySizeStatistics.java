@@ -0,0 +1,24 @@
+package mtymes.smartqueue.dao.mongo;
+
+/**
+ * Exponentially weighted moving average of observed body sizes.
+ */
+class BodySizeStatistics {
+
+    private static final double WEIGHT_OF_NEW_VALUE = 0.1;
+
+    private double averageSize = -1;
+
+    synchronized void record(long sizeInBytes) {
+        if (averageSize < 0) {
+            averageSize = sizeInBytes;
+        } else {
+            averageSize += WEIGHT_OF_NEW_VALUE * (sizeInBytes - averageSize);
+        }
+    }
+
+    synchronized boolean isAverageAtMost(long sizeInBytes) {
+        // until something is observed assume the bodies are small
+        return averageSize <= sizeInBytes;
+    }
+}
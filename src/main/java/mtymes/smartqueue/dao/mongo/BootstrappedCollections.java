@@ -0,0 +1,81 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Collections resolved by {@link MongoCollectionsBootstrap}, so any number of daos can be constructed from them
+ * without further metadata round trips.
+ */
+public class BootstrappedCollections {
+
+    private final Map<String, MongoCollection<Document>> collections;
+    private final Set<String> createdCollectionNames;
+    private final List<IndexDrift> drift;
+    private final CompletableFuture<Void> indexBuilds;
+
+    BootstrappedCollections(
+            Map<String, MongoCollection<Document>> collections,
+            Set<String> createdCollectionNames,
+            List<IndexDrift> drift,
+            CompletableFuture<Void> indexBuilds
+    ) {
+        this.collections = collections;
+        this.createdCollectionNames = unmodifiableSet(createdCollectionNames);
+        this.drift = unmodifiableList(drift);
+        this.indexBuilds = indexBuilds;
+    }
+
+    public MongoCollection<Document> collection(String collectionName) {
+        MongoCollection<Document> collection = collections.get(collectionName);
+        checkArgument(collection != null, "collection '%s' has not been bootstrapped", collectionName);
+        return collection;
+    }
+
+    public Set<String> createdCollectionNames() {
+        return createdCollectionNames;
+    }
+
+    public List<IndexDrift> drift() {
+        return drift;
+    }
+
+    public boolean hasDrifted() {
+        return !drift.isEmpty();
+    }
+
+    /**
+     * completes once all missing indexes have been built (completes exceptionally if any of them failed)
+     */
+    public CompletableFuture<Void> indexBuilds() {
+        return indexBuilds;
+    }
+
+    /**
+     * @return true if all missing indexes have been built within the timeout
+     */
+    public boolean awaitIndexBuilds(Duration timeout) throws InterruptedException {
+        try {
+            indexBuilds.get(timeout.toMillis(), MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
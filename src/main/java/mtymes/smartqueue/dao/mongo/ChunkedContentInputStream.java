@@ -0,0 +1,91 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+import mtymes.common.mongo.DocWrapper;
+import org.bson.Document;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static mtymes.common.mongo.DocWrapper.wrap;
+
+/**
+ * Streams chunked content without loading more than a few chunks into memory at a time.
+ */
+class ChunkedContentInputStream extends InputStream {
+
+    private static final byte[] NO_DATA = new byte[0];
+
+    private final FindIterable<Document> chunks;
+    private final int chunkCount;
+
+    private MongoCursor<Document> cursor;
+    private int nextChunkIndex = 0;
+    private byte[] currentChunk = NO_DATA;
+    private int position = 0;
+
+    ChunkedContentInputStream(FindIterable<Document> chunks, int chunkCount) {
+        this.chunks = chunks;
+        this.chunkCount = chunkCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!hasData()) {
+            return -1;
+        }
+        return currentChunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!hasData()) {
+            return -1;
+        }
+        int count = Math.min(length, currentChunk.length - position);
+        System.arraycopy(currentChunk, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return currentChunk.length - position;
+    }
+
+    @Override
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    private boolean hasData() throws IOException {
+        while (position >= currentChunk.length) {
+            if (nextChunkIndex >= chunkCount) {
+                return false;
+            }
+            if (cursor == null) {
+                cursor = chunks.iterator();
+            }
+            if (!cursor.hasNext()) {
+                throw new IOException(String.format("Missing chunk %d of %d", nextChunkIndex, chunkCount));
+            }
+
+            DocWrapper dbChunk = wrap(cursor.next());
+            int chunkIndex = dbChunk.getInteger(MongoTaskDao.CHUNK_INDEX);
+            if (chunkIndex != nextChunkIndex) {
+                throw new IOException(String.format("Expected chunk %d but got chunk %d", nextChunkIndex, chunkIndex));
+            }
+
+            currentChunk = dbChunk.getBytes(MongoTaskDao.CONTENT);
+            position = 0;
+            nextChunkIndex++;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,12 @@
+package mtymes.smartqueue.dao.mongo;
+
+public enum ClaimBodyMode {
+
+    // body is never returned with the claimed execution
+    EXCLUDE,
+    // body is always returned with the claimed execution
+    INCLUDE,
+    // body is returned only while the observed bodies are small on average
+    ADAPTIVE
+
+}
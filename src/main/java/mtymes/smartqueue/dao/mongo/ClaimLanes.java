@@ -0,0 +1,75 @@
+package mtymes.smartqueue.dao.mongo;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Weighted deficit round robin over the non-empty lanes (tenant lanes or limit lanes) of one dao. Each turn of a lane
+ * allows as many claims as its weight, a lane found to be empty leaves the rotation until the lanes are refreshed.
+ * <p>
+ * The rotation is local to the node, so fairness across nodes holds on average and not claim by claim.
+ */
+class ClaimLanes<L> {
+
+    private final ToIntFunction<L> weightOf;
+
+    private final List<L> lanes = new ArrayList<>();
+    private int currentLane = -1;
+    private int remainingClaims = 0;
+
+    ClaimLanes(ToIntFunction<L> weightOf) {
+        this.weightOf = weightOf;
+    }
+
+    synchronized Optional<L> nextLane() {
+        if (lanes.isEmpty()) {
+            return Optional.empty();
+        }
+        if (remainingClaims <= 0) {
+            currentLane = (currentLane + 1) % lanes.size();
+            remainingClaims = weightOf.applyAsInt(lanes.get(currentLane));
+        }
+        remainingClaims--;
+        return Optional.of(lanes.get(currentLane));
+    }
+
+    synchronized List<L> lanes() {
+        return new ArrayList<>(lanes);
+    }
+
+    synchronized void removeLane(L lane) {
+        int index = lanes.indexOf(lane);
+        if (index < 0) {
+            return;
+        }
+        lanes.remove(index);
+        if (index <= currentLane) {
+            if (index == currentLane) {
+                // the turn goes to the lane that took its place
+                remainingClaims = 0;
+            }
+            currentLane--;
+        }
+    }
+
+    /**
+     * Keeps the position and the remaining turn of lanes that are still non-empty, new lanes join at the end of the rotation.
+     */
+    synchronized void refresh(Collection<L> nonEmptyLanes) {
+        L current = currentLane >= 0 ? lanes.get(currentLane) : null;
+
+        Set<L> retainedLanes = new HashSet<>(nonEmptyLanes);
+        lanes.removeIf(lane -> !retainedLanes.contains(lane));
+        Set<L> knownLanes = new HashSet<>(lanes);
+        for (L lane : nonEmptyLanes) {
+            if (knownLanes.add(lane)) {
+                lanes.add(lane);
+            }
+        }
+
+        currentLane = current != null ? lanes.indexOf(current) : -1;
+        if (currentLane < 0) {
+            remainingClaims = 0;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package mtymes.smartqueue.dao.mongo;
+
+public enum ClusterClaimStrategy {
+
+    // each claim starts at the next cluster
+    ROUND_ROBIN,
+    // claims start at the cluster with the fewest executions this dao has claimed and not completed yet
+    LEAST_LOADED
+}
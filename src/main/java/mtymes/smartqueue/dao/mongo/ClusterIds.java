@@ -0,0 +1,33 @@
+package mtymes.smartqueue.dao.mongo;
+
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Stores the id of the owning cluster in one byte of task and execution ids (above the bits used by
+ * {@link ShardPartitions}), so id based operations go straight to the cluster that stores the task.
+ */
+class ClusterIds {
+
+    static final int MAX_CLUSTER_ID = 255;
+
+    private static final int CLUSTER_SHIFT = 40;
+    private static final long CLUSTER_MASK = ((long) MAX_CLUSTER_ID) << CLUSTER_SHIFT;
+
+    static UUID withCluster(UUID id, int clusterId) {
+        checkArgument(clusterId >= 0 && clusterId <= MAX_CLUSTER_ID, "clusterId must be between 0 and %s", MAX_CLUSTER_ID);
+        return new UUID(
+                id.getMostSignificantBits(),
+                (id.getLeastSignificantBits() & ~CLUSTER_MASK) | (((long) clusterId) << CLUSTER_SHIFT)
+        );
+    }
+
+    static int clusterOf(UUID id) {
+        return (int) ((id.getLeastSignificantBits() & CLUSTER_MASK) >>> CLUSTER_SHIFT);
+    }
+
+    static UUID withoutCluster(UUID id) {
+        return new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits() & ~CLUSTER_MASK);
+    }
+}
@@ -0,0 +1,48 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Consistent hashing of task ids onto clusters. Each cluster owns many points on the ring, so adding or removing
+ * a cluster only moves the share of new tasks that belongs to that cluster.
+ */
+class ClusterRing {
+
+    private static final int POINTS_PER_CLUSTER = 128;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final NavigableMap<Long, Integer> ring = new TreeMap<>();
+
+    ClusterRing(Collection<Integer> clusterIds) {
+        checkArgument(!clusterIds.isEmpty(), "at least one cluster is required");
+
+        for (Integer clusterId : clusterIds) {
+            for (int point = 0; point < POINTS_PER_CLUSTER; point++) {
+                ring.put(
+                        HASH_FUNCTION.newHasher().putInt(clusterId).putInt(point).hash().asLong(),
+                        clusterId
+                );
+            }
+        }
+    }
+
+    int clusterFor(UUID id) {
+        // the cluster bits are ignored, so the id maps onto the same cluster before and after the cluster is stored in it
+        UUID routedId = ClusterIds.withoutCluster(id);
+        long hash = HASH_FUNCTION.newHasher()
+                .putLong(routedId.getMostSignificantBits())
+                .putLong(routedId.getLeastSignificantBits())
+                .hash().asLong();
+        Map.Entry<Long, Integer> owner = ring.ceilingEntry(hash);
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+}
@@ -0,0 +1,29 @@
+package mtymes.smartqueue.dao.mongo;
+
+import mtymes.smartqueue.domain.ExecutionId;
+import mtymes.smartqueue.domain.TaskId;
+
+import java.time.ZonedDateTime;
+
+import static java.util.UUID.randomUUID;
+
+public interface IdGenerator {
+
+    TaskId newTaskId(ZonedDateTime now);
+
+    ExecutionId newExecutionId(ZonedDateTime now);
+
+    static IdGenerator randomIds() {
+        return new IdGenerator() {
+            @Override
+            public TaskId newTaskId(ZonedDateTime now) {
+                return TaskId.taskId(randomUUID());
+            }
+
+            @Override
+            public ExecutionId newExecutionId(ZonedDateTime now) {
+                return ExecutionId.executionId(randomUUID());
+            }
+        };
+    }
+}
@@ -0,0 +1,37 @@
+package mtymes.smartqueue.dao.mongo;
+
+import javafixes.object.DataObject;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Difference between the indexes a queue collection is expected to have and the ones it actually has.
+ */
+public class IndexDrift extends DataObject {
+
+    public enum DriftType {
+        // expected index didn't exist, it is being built in the background
+        MISSING,
+        // index with the expected keys exists but with different options (e.g. partial filter or ttl), it is left as it is
+        DIFFERENT_OPTIONS,
+        // index that is not expected on the collection, it is left as it is
+        UNEXPECTED
+    }
+
+    public final String collectionName;
+    public final String indexName;
+    public final DriftType type;
+    public final String details;
+
+    public IndexDrift(String collectionName, String indexName, DriftType type, String details) {
+        checkArgument(collectionName != null, "collectionName can't be null");
+        checkArgument(indexName != null, "indexName can't be null");
+        checkArgument(type != null, "type can't be null");
+        checkArgument(details != null, "details can't be null");
+
+        this.collectionName = collectionName;
+        this.indexName = indexName;
+        this.type = type;
+        this.details = details;
+    }
+}
@@ -1,75 +1,302 @@
 package mtymes.smartqueue.dao.mongo;
 
+import com.mongodb.MongoNamespace;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
 import com.mongodb.client.model.IndexOptions;
+import mtymes.smartqueue.domain.TaskState;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Indexes.ascending;
-import static javafixes.collection.CollectionUtil.newSet;
+import static javafixes.collection.CollectionUtil.newList;
 import static mtymes.common.mongo.DocBuilder.doc;
 import static mtymes.common.mongo.DocBuilder.docBuilder;
 
+/**
+ * Creates the queue collections (with their indexes) if they don't exist yet.
+ * <p>
+ * Indexes are only created together with a new collection, use {@link MongoCollectionsBootstrap} to bring
+ * indexes of already existing collections up to date.
+ */
 public class MongoCollections {
 
     public static MongoCollection<Document> tasksCollection(MongoDatabase database, String collectionName) {
-        return getOrCreateCollection(
-                database,
-                collectionName,
-                tasks -> {
-                    tasks.createIndex(
-                            ascending(
-                                    MongoTaskDao.LAST_EXECUTION_ID
-                            ),
-                            new IndexOptions().unique(false)
-                    );
-                    tasks.createIndex(
-                            ascending(
-                                    MongoTaskDao.DELETE_AFTER
-                            ),
-                            new IndexOptions().expireAfter(0L, TimeUnit.SECONDS)
-                    );
-                    tasks.createIndex(
-                            ascending(
-                                    // todo: make dynamic based on sorting in next createNextExecution(...)
-                                    MongoTaskDao.AVAILABLE_SINCE
-                            ),
-                            new IndexOptions()
-                                    .partialFilterExpression(
-                                            docBuilder()
-                                                    .put(MongoTaskDao.IS_AVAILABLE_FOR_EXECUTION, true)
-                                                    .put(MongoTaskDao.EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
-                                                    .build()
-                                    ).unique(false)
-                    );
-                }
-        );
+        return getOrCreateCollection(database, collectionName, tasksIndexes(false, false, false, false));
+    }
+
+    /**
+     * Tasks collection for daos with claim buckets, each bucket has its own ordered range of the claim index.
+     */
+    public static MongoCollection<Document> claimBucketTasksCollection(MongoDatabase database, String collectionName) {
+        return getOrCreateCollection(database, collectionName, tasksIndexes(true, false, false, false));
+    }
+
+    /**
+     * Tasks collection for daos with shard partitions, it still has to be sharded by {@link #tasksShardKey()}
+     * (e.g. using {@link #shardTasksCollection(MongoDatabase, MongoCollection)}) before it is used.
+     */
+    public static MongoCollection<Document> shardedTasksCollection(MongoDatabase database, String collectionName) {
+        return getOrCreateCollection(database, collectionName, tasksIndexes(false, true, false, false));
+    }
+
+    /**
+     * Tasks collection for daos with fair share claims, each tenant lane has its own ordered range of the claim index.
+     */
+    public static MongoCollection<Document> fairShareTasksCollection(MongoDatabase database, String collectionName) {
+        return getOrCreateCollection(database, collectionName, tasksIndexes(false, false, true, false));
+    }
+
+    /**
+     * Tasks collection for daos with concurrency groups or rate limited topics, each limit lane (combination of
+     * a concurrency group and a topic) has its own ordered range of the claim index.
+     */
+    public static MongoCollection<Document> limitedTasksCollection(MongoDatabase database, String collectionName) {
+        return getOrCreateCollection(database, collectionName, tasksIndexes(false, false, false, true));
+    }
+
+    // ranged, so each partition lives in its own chunk(s) and claims from one partition hit a single shard
+    public static Document tasksShardKey() {
+        return docBuilder()
+                .put(MongoTaskDao.SHARD_PARTITION, 1)
+                .put(MongoTaskDao._ID, 1)
+                .build();
+    }
+
+    /**
+     * @param adminDatabase admin database of a mongos router
+     */
+    public static void shardTasksCollection(MongoDatabase adminDatabase, MongoCollection<Document> tasks) {
+        MongoNamespace namespace = tasks.getNamespace();
+        adminDatabase.runCommand(doc("enableSharding", namespace.getDatabaseName()));
+        adminDatabase.runCommand(docBuilder()
+                .put("shardCollection", namespace.getFullName())
+                .put("key", tasksShardKey())
+                .build());
     }
 
     public static MongoCollection<Document> bodiesCollection(MongoDatabase database, String collectionName) {
-        return getOrCreateCollection(
-                database,
-                collectionName,
-                bodies -> {
-                    bodies.createIndex(
-                            ascending(
-                                    MongoTaskDao.DELETE_AFTER
-                            ),
-                            new IndexOptions().expireAfter(0L, TimeUnit.SECONDS)
-                    );
-                }
+        return getOrCreateCollection(database, collectionName, bodiesIndexes());
+    }
+
+    public static MongoCollection<Document> bodyChunksCollection(MongoDatabase database, String collectionName) {
+        return getOrCreateCollection(database, collectionName, bodyChunksIndexes());
+    }
+
+    public static MongoCollection<Document> resultsCollection(MongoDatabase database, String collectionName) {
+        return getOrCreateCollection(database, collectionName, resultsIndexes());
+    }
+
+    public static MongoCollection<Document> deadLettersCollection(MongoDatabase database, String collectionName) {
+        return getOrCreateCollection(database, collectionName, deadLettersIndexes());
+    }
+
+    public static MongoCollection<Document> archiveCollection(MongoDatabase database, String collectionName) {
+        return getOrCreateCollection(database, collectionName, archiveIndexes());
+    }
+
+    public static MongoCollection<Document> concurrencyGroupsCollection(MongoDatabase database, String collectionName) {
+        return getOrCreateCollection(database, collectionName, concurrencyGroupsIndexes());
+    }
+
+    public static MongoCollection<Document> rateLimitBucketsCollection(MongoDatabase database, String collectionName) {
+        return getOrCreateCollection(database, collectionName, rateLimitBucketsIndexes());
+    }
+
+    static List<IndexModel> tasksIndexes(boolean withClaimBuckets, boolean withShardPartitions, boolean withTenantLanes, boolean withLimitLanes) {
+        List<IndexModel> indexes = newList(
+                new IndexModel(
+                        ascending(
+                                MongoTaskDao.LAST_EXECUTION_ID
+                        ),
+                        new IndexOptions().unique(false)
+                ),
+                expireAfterIndex(),
+                archivableIndex(TaskState.SUCCEEDED, ascending(
+                        MongoTaskDao.UPDATED_AT_TIME
+                )),
+                // mongo allows only one index per key pattern, so this one needs an extra field
+                archivableIndex(TaskState.CANCELLED, ascending(
+                        MongoTaskDao.UPDATED_AT_TIME,
+                        MongoTaskDao.STATE
+                )),
+                new IndexModel(
+                        ascending(
+                                // used to find exhausted tasks to move into dead letters, only they are indexed
+                                MongoTaskDao.STATE
+                        ),
+                        new IndexOptions()
+                                .partialFilterExpression(
+                                        docBuilder()
+                                                .put(MongoTaskDao.STATE, TaskState.FAILED)
+                                                .put(MongoTaskDao.EXECUTION_ATTEMPTS_LEFT, doc("$lte", 0))
+                                                .build()
+                                ).unique(false)
+                )
+        );
+        if (withShardPartitions) {
+            // needed to shard the collection
+            indexes.add(new IndexModel(
+                    tasksShardKey(),
+                    new IndexOptions().unique(false)
+            ));
+            indexes.add(claimIndex(MongoTaskDao.SHARD_PARTITION));
+        } else {
+            indexes.add(new IndexModel(
+                    ascending(
+                            // todo: make dynamic based on sorting in next createNextExecution(...)
+                            MongoTaskDao.AVAILABLE_SINCE
+                    ),
+                    new IndexOptions()
+                            .partialFilterExpression(
+                                    docBuilder()
+                                            .put(MongoTaskDao.IS_AVAILABLE_FOR_EXECUTION, true)
+                                            .put(MongoTaskDao.EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                                            .build()
+                            ).unique(false)
+            ));
+        }
+        if (withClaimBuckets) {
+            indexes.add(claimIndex(MongoTaskDao.CLAIM_BUCKET));
+        }
+        if (withTenantLanes) {
+            // also lists the non-empty lanes with a distinct scan
+            indexes.add(claimIndex(MongoTaskDao.TENANT));
+        }
+        if (withLimitLanes) {
+            indexes.add(new IndexModel(
+                    ascending(
+                            // used to recount the running tasks of concurrency groups, only they are indexed
+                            MongoTaskDao.CONCURRENCY_GROUP
+                    ),
+                    new IndexOptions()
+                            .partialFilterExpression(
+                                    docBuilder()
+                                            .put(MongoTaskDao.STATE, TaskState.RUNNING)
+                                            .put(MongoTaskDao.CONCURRENCY_GROUP, doc("$exists", true))
+                                            .build()
+                            ).unique(false)
+            ));
+            indexes.add(new IndexModel(
+                    ascending(
+                            // also lists the non-empty lanes with a distinct scan
+                            MongoTaskDao.LIMIT_LANE,
+                            MongoTaskDao.AVAILABLE_SINCE
+                    ),
+                    new IndexOptions()
+                            .partialFilterExpression(
+                                    // tasks without a lane are indexed too, so the oldest of them is found without a scan
+                                    docBuilder()
+                                            .put(MongoTaskDao.IS_AVAILABLE_FOR_EXECUTION, true)
+                                            .put(MongoTaskDao.EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                                            .build()
+                            ).unique(false)
+            ));
+        }
+        return indexes;
+    }
+
+    // used to find tasks to archive, only tasks of the archived state are indexed
+    private static IndexModel archivableIndex(TaskState state, Bson keys) {
+        return new IndexModel(
+                keys,
+                new IndexOptions()
+                        .partialFilterExpression(doc(MongoTaskDao.STATE, state))
+                        .unique(false)
+        );
+    }
+
+    // oldest available task within a claim bucket, shard partition or tenant lane
+    private static IndexModel claimIndex(String partitionField) {
+        return new IndexModel(
+                ascending(
+                        partitionField,
+                        MongoTaskDao.AVAILABLE_SINCE
+                ),
+                new IndexOptions()
+                        .partialFilterExpression(
+                                docBuilder()
+                                        .put(MongoTaskDao.IS_AVAILABLE_FOR_EXECUTION, true)
+                                        .put(MongoTaskDao.EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                                        .put(partitionField, doc("$exists", true))
+                                        .build()
+                        ).unique(false)
+        );
+    }
+
+    static List<IndexModel> bodiesIndexes() {
+        return newList(
+                expireAfterIndex()
+        );
+    }
+
+    static List<IndexModel> bodyChunksIndexes() {
+        return newList(
+                new IndexModel(
+                        ascending(
+                                MongoTaskDao.TASK_ID,
+                                MongoTaskDao.CHUNK_INDEX
+                        ),
+                        new IndexOptions().unique(true)
+                ),
+                expireAfterIndex()
+        );
+    }
+
+    static List<IndexModel> resultsIndexes() {
+        return newList(
+                expireAfterIndex()
+        );
+    }
+
+    static List<IndexModel> deadLettersIndexes() {
+        return newList(
+                new IndexModel(
+                        ascending(
+                                MongoTaskDao.DEAD_LETTERED_AT
+                        ),
+                        new IndexOptions().unique(false)
+                ),
+                expireAfterIndex()
+        );
+    }
+
+    static List<IndexModel> archiveIndexes() {
+        return newList(
+                expireAfterIndex()
+        );
+    }
+
+    static List<IndexModel> concurrencyGroupsIndexes() {
+        // running counts are only ever accessed by the group name (_id)
+        return newList();
+    }
+
+    static List<IndexModel> rateLimitBucketsIndexes() {
+        // token buckets are only ever accessed by the topic (_id)
+        return newList();
+    }
+
+    private static IndexModel expireAfterIndex() {
+        return new IndexModel(
+                ascending(
+                        MongoTaskDao.DELETE_AFTER
+                ),
+                new IndexOptions().expireAfter(0L, TimeUnit.SECONDS)
         );
     }
 
-    private static MongoCollection<Document> getOrCreateCollection(MongoDatabase database, String collectionName, Consumer<MongoCollection<Document>> afterCreation) {
-        if (!newSet(database.listCollectionNames()).contains(collectionName)) {
+    private static MongoCollection<Document> getOrCreateCollection(MongoDatabase database, String collectionName, List<IndexModel> indexes) {
+        // filtered by name so the response doesn't grow with the number of collections in the database
+        if (database.listCollections().filter(doc("name", collectionName)).first() == null) {
             database.createCollection(collectionName);
 
             MongoCollection<Document> collection = database.getCollection(collectionName);
-            afterCreation.accept(collection);
+            collection.createIndexes(indexes);
             return collection;
         } else {
             return database.getCollection(collectionName);
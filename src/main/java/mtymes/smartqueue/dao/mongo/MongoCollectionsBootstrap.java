@@ -0,0 +1,277 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import mtymes.smartqueue.dao.mongo.IndexDrift.DriftType;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.stream.Collectors.joining;
+import static javafixes.collection.CollectionUtil.newList;
+import static javafixes.collection.CollectionUtil.newSet;
+
+/**
+ * Resolves all queue collections with a single listCollections round trip and reconciles their indexes.
+ * <p>
+ * New collections are created together with their indexes. For existing collections the indexes are compared
+ * (by their keys) with the expected ones: missing indexes are built in the background, indexes with different options
+ * and unexpected indexes are only reported (as dropping or rebuilding them on a live queue should be a conscious decision).
+ */
+public class MongoCollectionsBootstrap {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoCollectionsBootstrap.class);
+
+    private static final String ID_INDEX_NAME = "_id_";
+    // returned when another node created the collection in between our listCollections and createCollection
+    private static final int NAMESPACE_EXISTS_CODE = 48;
+
+    private final MongoDatabase database;
+    private final Map<String, List<IndexModel>> expectedIndexes = new LinkedHashMap<>();
+
+    private MongoCollectionsBootstrap(MongoDatabase database) {
+        checkArgument(database != null, "database can't be null");
+
+        this.database = database;
+    }
+
+    public static MongoCollectionsBootstrap collectionsBootstrap(MongoDatabase database) {
+        return new MongoCollectionsBootstrap(database);
+    }
+
+    public MongoCollectionsBootstrap tasksCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.tasksIndexes(false, false, false, false));
+    }
+
+    public MongoCollectionsBootstrap claimBucketTasksCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.tasksIndexes(true, false, false, false));
+    }
+
+    public MongoCollectionsBootstrap shardedTasksCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.tasksIndexes(false, true, false, false));
+    }
+
+    public MongoCollectionsBootstrap fairShareTasksCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.tasksIndexes(false, false, true, false));
+    }
+
+    public MongoCollectionsBootstrap limitedTasksCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.tasksIndexes(false, false, false, true));
+    }
+
+    public MongoCollectionsBootstrap bodiesCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.bodiesIndexes());
+    }
+
+    public MongoCollectionsBootstrap bodyChunksCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.bodyChunksIndexes());
+    }
+
+    public MongoCollectionsBootstrap resultsCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.resultsIndexes());
+    }
+
+    public MongoCollectionsBootstrap deadLettersCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.deadLettersIndexes());
+    }
+
+    public MongoCollectionsBootstrap archiveCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.archiveIndexes());
+    }
+
+    public MongoCollectionsBootstrap concurrencyGroupsCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.concurrencyGroupsIndexes());
+    }
+
+    public MongoCollectionsBootstrap rateLimitBucketsCollection(String collectionName) {
+        return collection(collectionName, MongoCollections.rateLimitBucketsIndexes());
+    }
+
+    public BootstrappedCollections bootstrap() {
+        checkState(!expectedIndexes.isEmpty(), "no collection to bootstrap has been defined");
+
+        Set<String> existingCollectionNames = newSet(database.listCollectionNames());
+
+        Map<String, MongoCollection<Document>> collections = new LinkedHashMap<>();
+        Set<String> createdCollectionNames = new LinkedHashSet<>();
+        List<IndexDrift> drift = newList();
+        Map<MongoCollection<Document>, List<IndexModel>> missingIndexes = new LinkedHashMap<>();
+
+        for (Map.Entry<String, List<IndexModel>> entry : expectedIndexes.entrySet()) {
+            String collectionName = entry.getKey();
+            List<IndexModel> indexes = entry.getValue();
+
+            MongoCollection<Document> collection = database.getCollection(collectionName);
+            collections.put(collectionName, collection);
+
+            if (!existingCollectionNames.contains(collectionName) && createCollection(collectionName)) {
+                // the collection is empty, so there is no reason to build its indexes in the background
+                collection.createIndexes(indexes);
+                createdCollectionNames.add(collectionName);
+            } else {
+                List<IndexModel> missing = reconcileIndexes(collection, indexes, drift);
+                if (!missing.isEmpty()) {
+                    missingIndexes.put(collection, missing);
+                }
+            }
+        }
+
+        for (IndexDrift indexDrift : drift) {
+            if (indexDrift.type == DriftType.MISSING) {
+                logger.info("Building missing index '{}' on collection '{}' in the background", indexDrift.indexName, indexDrift.collectionName);
+            } else {
+                logger.warn("Index '{}' on collection '{}' drifted ({}): {}", indexDrift.indexName, indexDrift.collectionName, indexDrift.type, indexDrift.details);
+            }
+        }
+
+        return new BootstrappedCollections(
+                collections,
+                createdCollectionNames,
+                drift,
+                buildInBackground(missingIndexes)
+        );
+    }
+
+    private MongoCollectionsBootstrap collection(String collectionName, List<IndexModel> indexes) {
+        checkArgument(collectionName != null && !collectionName.isEmpty(), "collectionName can't be null or empty");
+        checkArgument(!expectedIndexes.containsKey(collectionName), "collection '%s' has already been defined", collectionName);
+
+        expectedIndexes.put(collectionName, indexes);
+        return this;
+    }
+
+    /**
+     * @return false if the collection has been created by somebody else in the meantime
+     */
+    private boolean createCollection(String collectionName) {
+        try {
+            database.createCollection(collectionName);
+            return true;
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() == NAMESPACE_EXISTS_CODE) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static List<IndexModel> reconcileIndexes(MongoCollection<Document> collection, List<IndexModel> expectedIndexes, List<IndexDrift> drift) {
+        String collectionName = collection.getNamespace().getCollectionName();
+
+        Map<List<String>, Document> existingIndexes = new LinkedHashMap<>();
+        for (Document existingIndex : collection.listIndexes()) {
+            existingIndexes.put(normalizedKeys(existingIndex.get("key", Document.class)), existingIndex);
+        }
+
+        List<IndexModel> missing = newList();
+        for (IndexModel expectedIndex : expectedIndexes) {
+            List<String> keys = normalizedKeys(expectedIndex.getKeys());
+            Document existingIndex = existingIndexes.remove(keys);
+            if (existingIndex == null) {
+                missing.add(new IndexModel(expectedIndex.getKeys(), expectedIndex.getOptions().background(true)));
+                drift.add(new IndexDrift(collectionName, indexName(keys), DriftType.MISSING, "keys " + keys));
+            } else {
+                Optional<String> differences = optionDifferences(expectedIndex.getOptions(), existingIndex);
+                if (differences.isPresent()) {
+                    drift.add(new IndexDrift(collectionName, existingIndex.getString("name"), DriftType.DIFFERENT_OPTIONS, differences.get()));
+                }
+            }
+        }
+        for (Document unexpectedIndex : existingIndexes.values()) {
+            String indexName = unexpectedIndex.getString("name");
+            if (!ID_INDEX_NAME.equals(indexName)) {
+                drift.add(new IndexDrift(collectionName, indexName, DriftType.UNEXPECTED, "keys " + unexpectedIndex.get("key")));
+            }
+        }
+        return missing;
+    }
+
+    private static CompletableFuture<Void> buildInBackground(Map<MongoCollection<Document>, List<IndexModel>> missingIndexes) {
+        if (missingIndexes.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("smart-queue-index-builder").setDaemon(true).build()
+        );
+        try {
+            return CompletableFuture.runAsync(() -> {
+                for (Map.Entry<MongoCollection<Document>, List<IndexModel>> entry : missingIndexes.entrySet()) {
+                    String collectionName = entry.getKey().getNamespace().getCollectionName();
+                    try {
+                        entry.getKey().createIndexes(entry.getValue());
+                        logger.info("Built {} missing index(es) on collection '{}'", entry.getValue().size(), collectionName);
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to build missing indexes on collection '{}'", collectionName, e);
+                        throw e;
+                    }
+                }
+            }, executor);
+        } finally {
+            // already submitted build still finishes
+            executor.shutdown();
+        }
+    }
+
+    private static Optional<String> optionDifferences(IndexOptions expected, Document existing) {
+        List<String> differences = newList();
+
+        boolean existingUnique = existing.getBoolean("unique", false);
+        if (expected.isUnique() != existingUnique) {
+            differences.add("unique: expected " + expected.isUnique() + " but was " + existingUnique);
+        }
+
+        Long expectedExpireAfter = expected.getExpireAfter(TimeUnit.SECONDS);
+        Number existingExpireAfterNumber = existing.get("expireAfterSeconds", Number.class);
+        Long existingExpireAfter = existingExpireAfterNumber != null ? existingExpireAfterNumber.longValue() : null;
+        if (!Objects.equals(expectedExpireAfter, existingExpireAfter)) {
+            differences.add("expireAfterSeconds: expected " + expectedExpireAfter + " but was " + existingExpireAfter);
+        }
+
+        BsonDocument expectedFilter = toBsonDocument(expected.getPartialFilterExpression());
+        BsonDocument existingFilter = toBsonDocument(existing.get("partialFilterExpression", Document.class));
+        if (!Objects.equals(expectedFilter, existingFilter)) {
+            differences.add("partialFilterExpression: expected " + expectedFilter + " but was " + existingFilter);
+        }
+
+        return differences.isEmpty() ? Optional.empty() : Optional.of(String.join(", ", differences));
+    }
+
+    // makes {a: 1} and {a: 1.0} (as created from the mongo shell) equal
+    private static List<String> normalizedKeys(Bson keys) {
+        List<String> normalizedKeys = newList();
+        for (Map.Entry<String, BsonValue> key : toBsonDocument(keys).entrySet()) {
+            BsonValue direction = key.getValue();
+            String normalizedDirection = direction.isNumber()
+                    ? Integer.toString((int) Math.signum(direction.asNumber().doubleValue()))
+                    : direction.isString() ? direction.asString().getValue() : direction.toString();
+            normalizedKeys.add(key.getKey() + "_" + normalizedDirection);
+        }
+        return normalizedKeys;
+    }
+
+    // same as the default name generated by mongo
+    private static String indexName(List<String> normalizedKeys) {
+        return normalizedKeys.stream().collect(joining("_"));
+    }
+
+    private static BsonDocument toBsonDocument(Bson bson) {
+        return bson != null ? bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry()) : null;
+    }
+}
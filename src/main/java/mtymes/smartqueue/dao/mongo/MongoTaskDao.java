@@ -1,107 +1,295 @@
 package mtymes.smartqueue.dao.mongo;
 
+import com.google.common.io.ByteStreams;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import mtymes.common.compression.Codec;
+import mtymes.common.mongo.DocBuilder;
 import mtymes.common.mongo.DocWrapper;
 import mtymes.common.time.Clock;
+import mtymes.smartqueue.dao.BinaryTaskBodyException;
 import mtymes.smartqueue.dao.TaskDao;
 import mtymes.smartqueue.domain.*;
 import org.bson.Document;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.time.Duration;
 import java.time.ZonedDateTime;
-import java.util.Iterator;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static com.mongodb.client.model.ReturnDocument.AFTER;
-import static java.util.UUID.randomUUID;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javafixes.collection.CollectionUtil.newList;
 import static mtymes.common.mongo.DocBuilder.doc;
 import static mtymes.common.mongo.DocBuilder.docBuilder;
+import static mtymes.common.mongo.DocBuilder.emptyDoc;
 import static mtymes.common.mongo.DocWrapper.wrap;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.defaultMongoTaskDaoConfig;
+import static mtymes.smartqueue.dao.mongo.ShardPartitions.moveIntoPartition;
+import static mtymes.smartqueue.dao.mongo.ShardPartitions.partitionOf;
+import static mtymes.smartqueue.domain.ExecutionId.executionId;
 
 public class MongoTaskDao implements TaskDao {
 
-    private static final String _ID = "_id";
+    static final String _ID = "_id";
     private static final String CREATED_AT_TIME = "createdAt";
-    private static final String UPDATED_AT_TIME = "updatedAt";
-    private static final String STATE = "state";
+    static final String UPDATED_AT_TIME = "updatedAt";
+    static final String STATE = "state";
 
     static final String IS_AVAILABLE_FOR_EXECUTION = "isAvailable";
     static final String AVAILABLE_SINCE = "availableSince";
     static final String EXECUTION_ATTEMPTS_LEFT = "attemptsLeft";
+    static final String CLAIM_BUCKET = "claimBucket";
+    static final String SHARD_PARTITION = "shardPartition";
+    static final String CONCURRENCY_GROUP = "concurrencyGroup";
+    static final String TENANT = "tenant";
+    static final String TOPIC = "topic";
+    // concurrency group and topic of the task, each combination of them is claimed from its own lane
+    static final String LIMIT_LANE = "limitLane";
+    // tenants can't be empty, so tasks without a tenant can't end up in the lane of a tenant
+    private static final String SHARED_LANE = "";
+    private static final Duration LANE_REFRESH_INTERVAL = Duration.ofSeconds(1);
 
     private static final String EXECUTIONS = "executions";
     private static final String EXECUTION_ID = "executionId";
     static final String LAST_EXECUTION_ID = "lastExecutionId";
+    // set by bulk completions, so they can tell which of their updates were applied
+    private static final String COMPLETION_TOKEN = "completionToken";
 
-    private static final String CONTENT = "content";
+    static final String CONTENT = "content";
+    private static final String CONTENT_CODEC = "contentCodec";
+    private static final String CONTENT_TYPE = "contentType";
+    private static final String CONTENT_LENGTH = "contentLength";
+    private static final String CHUNK_COUNT = "chunkCount";
+
+    private static final String BINARY_CONTENT = "binary";
+    private static final String CHUNKED_CONTENT = "chunked";
+
+    static final String TASK_ID = "taskId";
+    static final String CHUNK_INDEX = "chunkIndex";
+
+    // same as the GridFS default so chunks fit comfortably into a single network round trip
+    private static final int CHUNK_SIZE = 255 * 1024;
+    private static final int CHUNK_BATCH_SIZE = 4;
 
     static final String DELETE_AFTER = "deleteAfter";
 
+    private static final String RESULT = "result";
+
+    static final String DEAD_LETTERED_AT = "deadLetteredAt";
+    private static final String ARCHIVED_AT = "archivedAt";
+
+    private static final String RUNNING_COUNT = "running";
+
     private final MongoCollection<Document> tasks;
     private final Optional<MongoCollection<Document>> bodies;
 
+    private final MongoTaskDaoConfig daoConfig;
     private final Clock clock;
 
+    private final Map<OperationType, MongoCollection<Document>> tasksByOperation;
+    private final BodySizeStatistics bodySizeStatistics = new BodySizeStatistics();
+
+    // each claiming thread starts at its own bucket, so concurrent claims don't race for the same task
+    private final AtomicInteger nextHomeBucket = new AtomicInteger();
+    private final ThreadLocal<Integer> homeBucket = ThreadLocal.withInitial(this::assignHomeBucket);
+    // each claim starts at the next shard partition, so the claims rotate over all shards
+    private final AtomicInteger nextShardPartition = new AtomicInteger();
+
+    private final ClaimLanes<String> tenantLanes;
+    private final ClaimLanes<Document> limitLanes = new ClaimLanes<>(lane -> 1);
+    private final Optional<TopicRateLimiter> topicRateLimiter;
+    // fair share and limits are never used together, so they can share it
+    private volatile ZonedDateTime nextLaneRefresh;
+
     public MongoTaskDao(
             MongoCollection<Document> tasks,
             Optional<MongoCollection<Document>> bodies,
+            MongoTaskDaoConfig daoConfig,
             Clock clock
     ) {
         this.tasks = tasks;
         this.bodies = bodies;
+        this.daoConfig = daoConfig;
         this.clock = clock;
+        this.tenantLanes = new ClaimLanes<>(daoConfig::weightOf);
+        this.topicRateLimiter = daoConfig.rateLimitBuckets.map(buckets -> new TopicRateLimiter(
+                policyFor(OperationType.CLAIM).applyTo(buckets),
+                daoConfig.topicRateLimits,
+                daoConfig.rateLimitLeaseSize,
+                clock
+        ));
+
+        this.tasksByOperation = new EnumMap<>(OperationType.class);
+        for (OperationType operationType : OperationType.values()) {
+            tasksByOperation.put(operationType, policyFor(operationType).applyTo(tasks));
+        }
+    }
+
+    public MongoTaskDao(
+            MongoCollection<Document> tasks,
+            Optional<MongoCollection<Document>> bodies,
+            Clock clock
+    ) {
+        this(tasks, bodies, defaultMongoTaskDaoConfig(), clock);
     }
 
     @Override
     public TaskId submitTask(TaskConfig config, TaskBody body) {
-        TaskId taskId = TaskId.taskId(randomUUID());
+        return submitTask(daoConfig.idGenerator.newTaskId(clock.now()), config, body);
+    }
+
+    @Override
+    public TaskId submitTask(TaskConfig config, InputStream body) {
+        return submitTask(daoConfig.idGenerator.newTaskId(clock.now()), config, body);
+    }
+
+    @Override
+    public List<TaskId> submitTasks(List<TaskSubmission> submissions) {
+        ZonedDateTime now = clock.now();
+        List<TaskId> taskIds = new ArrayList<>(submissions.size());
+        for (int i = 0; i < submissions.size(); i++) {
+            taskIds.add(daoConfig.idGenerator.newTaskId(now));
+        }
+        return submitTasks(taskIds, submissions);
+    }
 
+    // used by daos that have to pick the task id before they know which dao stores the task
+    TaskId submitTask(TaskId taskId, TaskConfig config, TaskBody body) {
         ZonedDateTime now = clock.now();
         Optional<ZonedDateTime> deleteAfterIfDefined = config.ttl.map(now::plus);
 
-        // todo: if supported put into transaction
-        if (bodies.isPresent()) {
-            bodies.get().insertOne(docBuilder()
-                    .put(_ID, taskId)
-                    .put(CONTENT, body.content)
-                    .put(CREATED_AT_TIME, now)
-                    .put(UPDATED_AT_TIME, now)
-                    .put(DELETE_AFTER, deleteAfterIfDefined)
-                    .build());
-        }
-        tasks.insertOne(docBuilder()
-                .put(_ID, taskId)
-                .put(CONTENT, bodies.isPresent() ? Optional.empty() : body.content)
-                .put(CREATED_AT_TIME, now)
-                .put(UPDATED_AT_TIME, now)
-                .put(STATE, TaskState.SUBMITTED)
-                .put(IS_AVAILABLE_FOR_EXECUTION, true)
-                .put(AVAILABLE_SINCE, now)
-                .put(EXECUTION_ATTEMPTS_LEFT, config.attemptCount)
-                .put(DELETE_AFTER, deleteAfterIfDefined)
-                .build());
+        storeTask(taskId, config, encodeContent(body.content), now, deleteAfterIfDefined);
+
+        return taskId;
+    }
+
+    TaskId submitTask(TaskId taskId, TaskConfig config, InputStream body) {
+        ZonedDateTime now = clock.now();
+        Optional<ZonedDateTime> deleteAfterIfDefined = config.ttl.map(now::plus);
+
+        int inlineLimit = daoConfig.inlineBinaryBodyLimit;
+        byte[] head = readUpTo(body, inlineLimit + 1);
+        if (head.length <= inlineLimit) {
+            storeTask(taskId, config, encodeBinaryContent(head), now, deleteAfterIfDefined);
+        } else {
+            EncodedContent content = storeChunks(taskId, head, body, now, deleteAfterIfDefined);
+            try {
+                storeTask(taskId, config, content, now, deleteAfterIfDefined);
+            } catch (RuntimeException e) {
+                bodyChunks(OperationType.SUBMIT).get().deleteMany(doc(TASK_ID, taskId));
+                throw e;
+            }
+        }
 
         return taskId;
     }
 
+    List<TaskId> submitTasks(List<TaskId> taskIds, List<TaskSubmission> submissions) {
+        if (submissions.isEmpty()) {
+            return taskIds;
+        }
+        ZonedDateTime now = clock.now();
+
+        List<Document> dbBodies = new ArrayList<>(submissions.size());
+        List<Document> dbTasks = new ArrayList<>(submissions.size());
+        for (int i = 0; i < submissions.size(); i++) {
+            TaskId taskId = taskIds.get(i);
+            TaskSubmission submission = submissions.get(i);
+            Optional<ZonedDateTime> deleteAfterIfDefined = submission.config.ttl.map(now::plus);
+            EncodedContent content = encodeContent(submission.body.content);
+            if (bodies.isPresent()) {
+                dbBodies.add(bodyDocument(taskId, content, now, deleteAfterIfDefined));
+            }
+            dbTasks.add(taskDocument(taskId, submission.config, content, now, deleteAfterIfDefined));
+        }
+
+        // todo: if supported put into transaction
+        try {
+            if (bodies.isPresent()) {
+                bodies(OperationType.SUBMIT).get().insertMany(dbBodies);
+            }
+            tasks(OperationType.SUBMIT).insertMany(dbTasks);
+        } catch (RuntimeException e) {
+            // nothing of a failed batch is kept, so it can be submitted again without creating duplicates
+            deleteTasks(taskIds);
+            throw e;
+        }
+
+        return taskIds;
+    }
+
+    // undoes submits that could be only partially stored
+    void deleteTasks(Collection<TaskId> taskIds) {
+        Document filter = doc(_ID, doc("$in", taskIds));
+        tasks(OperationType.SUBMIT).deleteMany(filter);
+        bodies(OperationType.SUBMIT).ifPresent(collection -> collection.deleteMany(filter));
+    }
+
     @Override
     public Optional<Task> loadTask(TaskId taskId) {
-        return one(tasks.find(doc(_ID, taskId))).map(this::toTask);
+        return findTask(taskId).map(this::toTask);
+    }
+
+    @Override
+    public Map<TaskId, Task> loadTasks(Collection<TaskId> taskIds) {
+        Map<TaskId, Task> loadedTasks = new HashMap<>();
+        Set<TaskId> missingIds = new HashSet<>(taskIds);
+        findTasks(tasks(OperationType.READ), missingIds, loadedTasks);
+        if (daoConfig.deadLetters.isPresent()) {
+            findTasks(deadLetters(OperationType.READ).get(), missingIds, loadedTasks);
+        }
+        if (daoConfig.archive.isPresent()) {
+            findTasks(archive(OperationType.READ).get(), missingIds, loadedTasks);
+        }
+        return loadedTasks;
     }
 
     @Override
     public Optional<TaskBody> loadTaskBody(TaskId taskId) {
-        return one(bodies.orElse(tasks).find(doc(_ID, taskId))).map(this::toTaskBody);
+        Optional<TaskBody> cachedBody = daoConfig.bodyCache.flatMap(cache -> cache.get(taskId));
+        if (cachedBody.isPresent()) {
+            return cachedBody;
+        }
+        return findBody(taskId, emptyDoc()).map(this::toTaskBody);
+    }
+
+    @Override
+    public Optional<InputStream> loadTaskBodyStream(TaskId taskId) {
+        return findBody(taskId, emptyDoc()).map(this::toTaskBodyStream);
+    }
+
+    @Override
+    public Optional<TaskResult> loadTaskResult(TaskId taskId) {
+        Document projection = doc(RESULT, 1);
+        Optional<Document> dbDoc = daoConfig.results.isPresent()
+                ? one(results(OperationType.READ).get().find(doc(_ID, taskId)).projection(projection))
+                : findBody(taskId, projection);
+        return dbDoc
+                .flatMap(doc -> wrap(doc).getOptionalDoc(RESULT))
+                .map(dbResult -> new TaskResult(new String(decodeContent(dbResult), UTF_8)));
     }
 
     @Override
     public boolean cancelTask(TaskId taskId, Optional<ExecutionId> lastAssumedExecutionId) {
         ZonedDateTime now = clock.now();
 
-        long modifiedCount = tasks.updateOne(
-                docBuilder()
-                        .put(_ID, taskId)
+        long modifiedCount = tasks(OperationType.COMPLETE).updateOne(
+                taskById(taskId)
                         .put(LAST_EXECUTION_ID, lastAssumedExecutionId.orElse(null))
                         .put(IS_AVAILABLE_FOR_EXECUTION, true)
                         .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
@@ -119,94 +307,304 @@ public class MongoTaskDao implements TaskDao {
 
     @Override
     public Optional<Execution> createNextExecution() {
-        ZonedDateTime now = clock.now();
+        return claimNextTask(false).map(dbTask -> toLastExecution(wrap(dbTask)));
+    }
 
-        ExecutionId executionId = ExecutionId.executionId(randomUUID());
-        Document document = tasks.findOneAndUpdate(
-                docBuilder()
-                        .put(IS_AVAILABLE_FOR_EXECUTION, true)
-                        .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
-                        .build(),
-                docBuilder()
-                        .put("$addToSet", doc(EXECUTIONS, docBuilder()
-                                .put(EXECUTION_ID, executionId)
-                                .put(CREATED_AT_TIME, now)
-                                .put(UPDATED_AT_TIME, now)
-                                .put(STATE, ExecutionState.CREATED)
-                                .build()))
-                        .put("$inc", doc(EXECUTION_ATTEMPTS_LEFT, -1))
-                        .put("$set", docBuilder()
-                                .put(IS_AVAILABLE_FOR_EXECUTION, false)
-                                .put(AVAILABLE_SINCE, null)
-                                .put(STATE, TaskState.RUNNING)
-                                .put(LAST_EXECUTION_ID, executionId)
-                                .put(UPDATED_AT_TIME, now)
-                                .build())
-                        .build(),
-                // todo: test this
-                sortBy(doc(AVAILABLE_SINCE, 1))
-        );
+    @Override
+    public Optional<ExecutionWithBody> createNextExecutionWithBody() {
+        boolean includeBody = shouldIncludeBodyInClaim();
 
-        return Optional.ofNullable(document).map(doc -> {
+        return claimNextTask(includeBody && !bodies.isPresent()).map(doc -> {
             DocWrapper dbTask = wrap(doc);
-            TaskId taskId = dbTask.getTaskId(_ID);
+            Execution execution = toLastExecution(dbTask);
 
-            DocWrapper dbExecution = dbTask.getList(EXECUTIONS).lastDoc();
-            return toExecution(
-                    taskId,
-                    dbExecution
-            );
+            Optional<Long> contentLength = dbTask.getOptionalLong(CONTENT_LENGTH);
+            contentLength.ifPresent(bodySizeStatistics::record);
+
+            Optional<TaskBody> body = Optional.empty();
+            if (includeBody) {
+                body = daoConfig.bodyCache.flatMap(cache -> cache.get(execution.taskId));
+                if (!body.isPresent()) {
+                    Optional<Document> dbBody = bodies.isPresent()
+                            ? one(bodies(OperationType.CLAIM).get().find(doc(_ID, execution.taskId)))
+                            : Optional.of(doc);
+                    body = dbBody
+                            .filter(dbContent -> !dbContent.containsKey(CONTENT_TYPE))
+                            .map(this::toTaskBody);
+                }
+            }
+
+            return new ExecutionWithBody(execution, body);
         });
     }
 
     @Override
     public boolean markAsSucceeded(ExecutionId executionId) {
-        ZonedDateTime now = clock.now();
+        return completeExecution(executionId, ExecutionState.SUCCEEDED, Optional.empty());
+    }
 
-        long modifiedCount = tasks.updateOne(
-                docBuilder()
-                        .put(LAST_EXECUTION_ID, executionId)
-                        .put(STATE, TaskState.RUNNING)
-                        .put(EXECUTIONS, doc("$elemMatch", docBuilder()
-                                .put(EXECUTION_ID, executionId)
-                                .put(STATE, ExecutionState.CREATED)
-                                .build()))
-                        .build(),
-                doc("$set", docBuilder()
-                        .put(STATE, TaskState.SUCCEEDED)
-                        .put(UPDATED_AT_TIME, now)
-                        .put(EXECUTIONS + ".$." + STATE, ExecutionState.SUCCEEDED)
-                        .put(EXECUTIONS + ".$." + UPDATED_AT_TIME, now)
-                        .build())
-        ).getModifiedCount();
+    @Override
+    public boolean markAsSucceeded(ExecutionId executionId, TaskResult result) {
+        return completeExecution(executionId, ExecutionState.SUCCEEDED, Optional.of(result));
+    }
 
-        return modifiedCount == 1;
+    @Override
+    public Map<ExecutionId, Boolean> markAsSucceeded(Collection<ExecutionId> executionIds) {
+        return completeExecutions(executionIds, ExecutionState.SUCCEEDED);
     }
 
     @Override
     public boolean markAsFailed(ExecutionId executionId) {
+        boolean failed = completeExecution(executionId, ExecutionState.FAILED, Optional.empty());
+        if (failed) {
+            moveToDeadLetters(docBuilder().put(LAST_EXECUTION_ID, executionId), 1);
+        }
+        return failed;
+    }
+
+    @Override
+    public boolean markAsFailed(ExecutionId executionId, TaskResult errorDetails) {
+        boolean failed = completeExecution(executionId, ExecutionState.FAILED, Optional.of(errorDetails));
+        if (failed) {
+            moveToDeadLetters(docBuilder().put(LAST_EXECUTION_ID, executionId), 1);
+        }
+        return failed;
+    }
+
+    @Override
+    public Map<ExecutionId, Boolean> markAsFailed(Collection<ExecutionId> executionIds) {
+        Map<ExecutionId, Boolean> results = completeExecutions(executionIds, ExecutionState.FAILED);
+        List<ExecutionId> failedIds = new ArrayList<>();
+        results.forEach((executionId, failed) -> {
+            if (failed) {
+                failedIds.add(executionId);
+            }
+        });
+        if (!failedIds.isEmpty()) {
+            moveToDeadLetters(docBuilder().put(LAST_EXECUTION_ID, doc("$in", failedIds)), failedIds.size());
+        }
+        return results;
+    }
+
+    /**
+     * Moves up to {@code batchSize} tasks that have no execution attempts left into the dead letters. Exhausted tasks are
+     * moved by markAsFailed(...) already, this catches up on tasks that failed before dead letters were configured or
+     * whose move got interrupted.
+     *
+     * @return number of moved tasks
+     */
+    public int moveExhaustedTasksToDeadLetters(int batchSize) {
+        checkState(daoConfig.deadLetters.isPresent(), "no dead letters collection is configured");
+        checkArgument(batchSize > 0, "batchSize must be greater than 0");
+        return moveToDeadLetters(docBuilder(), batchSize);
+    }
+
+    /**
+     * Submits dead lettered tasks again (keeping their ids and execution history) with a fresh set of execution attempts.
+     * Tasks go back to the end of the queue.
+     */
+    public Map<TaskId, Boolean> redriveDeadLetters(Collection<TaskId> taskIds, int attemptCount) {
+        checkState(daoConfig.deadLetters.isPresent(), "no dead letters collection is configured");
+        checkArgument(attemptCount > 0, "attemptCount must be greater than 0");
+
+        ZonedDateTime now = clock.now();
+
+        Set<TaskId> uniqueIds = new LinkedHashSet<>(taskIds);
+        List<TaskId> redrivenIds = new ArrayList<>();
+        if (!uniqueIds.isEmpty()) {
+            List<ReplaceOneModel<Document>> redrivenTasks = new ArrayList<>();
+            for (Document deadLetter : deadLetters(OperationType.SUBMIT).get().find(doc(_ID, doc("$in", uniqueIds)))) {
+                TaskId taskId = wrap(deadLetter).getTaskId(_ID);
+                redrivenIds.add(taskId);
+                redrivenTasks.add(new ReplaceOneModel<>(
+                        taskById(taskId).build(),
+                        docBuilder(deadLetter)
+                                .remove(DEAD_LETTERED_AT)
+                                .put(SHARD_PARTITION, shardPartitionOf(taskId.getValue()))
+                                .put(STATE, TaskState.SUBMITTED)
+                                .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                                .put(AVAILABLE_SINCE, now)
+                                .put(EXECUTION_ATTEMPTS_LEFT, attemptCount)
+                                .put(UPDATED_AT_TIME, now)
+                                .build(),
+                        new ReplaceOptions().upsert(true)
+                ));
+            }
+
+            if (!redrivenIds.isEmpty()) {
+                Document redrivenFilter = doc(_ID, doc("$in", redrivenIds));
+                // copies are upserted before the dead letters are removed, so an interrupted redrive can be safely repeated
+                // todo: if supported put into transaction
+                if (daoConfig.deadLetterBodies.isPresent()) {
+                    List<ReplaceOneModel<Document>> redrivenBodies = new ArrayList<>();
+                    for (Document deadLetterBody : deadLetterBodies(OperationType.SUBMIT).get().find(redrivenFilter)) {
+                        redrivenBodies.add(new ReplaceOneModel<>(
+                                doc(_ID, deadLetterBody.get(_ID)),
+                                deadLetterBody,
+                                new ReplaceOptions().upsert(true)
+                        ));
+                    }
+                    if (!redrivenBodies.isEmpty()) {
+                        bodies(OperationType.SUBMIT).get().bulkWrite(redrivenBodies, new BulkWriteOptions().ordered(false));
+                    }
+                }
+                tasks(OperationType.SUBMIT).bulkWrite(redrivenTasks, new BulkWriteOptions().ordered(false));
+
+                deadLetters(OperationType.SUBMIT).get().deleteMany(redrivenFilter);
+                deadLetterBodies(OperationType.SUBMIT).ifPresent(collection -> collection.deleteMany(redrivenFilter));
+            }
+        }
+
+        Map<TaskId, Boolean> results = new LinkedHashMap<>();
+        for (TaskId taskId : taskIds) {
+            results.put(taskId, redrivenIds.contains(taskId));
+        }
+        return results;
+    }
+
+    /**
+     * Moves up to {@code batchSize} SUCCEEDED and CANCELLED tasks (and their bodies) not updated for at least
+     * {@code olderThan} into the archive. Archived tasks can still be loaded, but no longer updated.
+     *
+     * @return number of archived tasks
+     */
+    public int archiveTerminalTasks(Duration olderThan, int batchSize) {
+        checkState(daoConfig.archive.isPresent(), "no archive collection is configured");
+        checkArgument(olderThan != null && !olderThan.isNegative(), "olderThan can't be null or negative");
+        checkArgument(batchSize > 0, "batchSize must be greater than 0");
+
         ZonedDateTime now = clock.now();
+        List<TaskState> archivableStates = Arrays.asList(TaskState.SUCCEEDED, TaskState.CANCELLED);
+        ZonedDateTime updatedBefore = now.minus(olderThan);
+
+        List<TaskId> taskIds = new ArrayList<>();
+        List<ReplaceOneModel<Document>> archivedTasks = new ArrayList<>();
+        for (TaskState state : archivableStates) {
+            if (taskIds.size() >= batchSize) {
+                break;
+            }
+            // each state has its own partial index, a query for both of them couldn't use either
+            for (Document dbTask : tasks(OperationType.ARCHIVE).find(docBuilder()
+                    .put(STATE, state)
+                    .put(UPDATED_AT_TIME, doc("$lt", updatedBefore))
+                    .build()
+            ).limit(batchSize - taskIds.size())) {
+                TaskId taskId = wrap(dbTask).getTaskId(_ID);
+                taskIds.add(taskId);
+                archivedTasks.add(new ReplaceOneModel<>(
+                        doc(_ID, taskId),
+                        docBuilder(dbTask).put(ARCHIVED_AT, now).build(),
+                        new ReplaceOptions().upsert(true)
+                ));
+            }
+        }
+        if (taskIds.isEmpty()) {
+            return 0;
+        }
+
+        // copies are upserted before the originals are deleted, so an interrupted archiving never loses a task
+        // todo: if supported put into transaction
+        Document archivedFilter = doc(_ID, doc("$in", taskIds));
+        archive(OperationType.ARCHIVE).get().bulkWrite(archivedTasks, new BulkWriteOptions().ordered(false));
+        boolean archiveBodies = daoConfig.archiveBodies.isPresent() && bodies.isPresent();
+        if (archiveBodies) {
+            List<ReplaceOneModel<Document>> archivedBodies = new ArrayList<>();
+            for (Document dbBody : bodies(OperationType.ARCHIVE).get().find(archivedFilter)) {
+                archivedBodies.add(new ReplaceOneModel<>(
+                        doc(_ID, dbBody.get(_ID)),
+                        dbBody,
+                        new ReplaceOptions().upsert(true)
+                ));
+            }
+            if (!archivedBodies.isEmpty()) {
+                archiveBodies(OperationType.ARCHIVE).get().bulkWrite(archivedBodies, new BulkWriteOptions().ordered(false));
+            }
+        }
 
-        long modifiedCount = tasks.updateOne(
+        long deletedCount = tasks(OperationType.ARCHIVE).deleteMany(
+                // tasks touched in the meantime (e.g. by setTTL) are not archived yet
                 docBuilder()
-                        .put(LAST_EXECUTION_ID, executionId)
+                        .put(_ID, doc("$in", taskIds))
+                        .put(STATE, doc("$in", archivableStates))
+                        .put(UPDATED_AT_TIME, doc("$lt", updatedBefore))
+                        .build()
+        ).getDeletedCount();
+
+        List<TaskId> archivedIds = taskIds;
+        if (deletedCount < taskIds.size()) {
+            Set<TaskId> remainingIds = new HashSet<>();
+            for (Document dbTask : tasks(OperationType.ARCHIVE).find(archivedFilter).projection(doc(_ID, 1))) {
+                remainingIds.add(wrap(dbTask).getTaskId(_ID));
+            }
+            Document remainingFilter = doc(_ID, doc("$in", remainingIds));
+            archive(OperationType.ARCHIVE).get().deleteMany(remainingFilter);
+            if (archiveBodies) {
+                archiveBodies(OperationType.ARCHIVE).get().deleteMany(remainingFilter);
+            }
+            archivedIds = new ArrayList<>(taskIds);
+            archivedIds.removeAll(remainingIds);
+        }
+        if (archiveBodies && !archivedIds.isEmpty()) {
+            bodies(OperationType.ARCHIVE).get().deleteMany(doc(_ID, doc("$in", archivedIds)));
+        }
+
+        return archivedIds.size();
+    }
+
+    public List<TaskId> loadDeadLetteredTaskIds(int limit) {
+        checkState(daoConfig.deadLetters.isPresent(), "no dead letters collection is configured");
+        checkArgument(limit > 0, "limit must be greater than 0");
+
+        List<TaskId> taskIds = new ArrayList<>();
+        for (Document deadLetter : deadLetters(OperationType.READ).get()
+                .find()
+                .sort(doc(DEAD_LETTERED_AT, 1))
+                .projection(doc(_ID, 1))
+                .limit(limit)) {
+            taskIds.add(wrap(deadLetter).getTaskId(_ID));
+        }
+        return taskIds;
+    }
+
+    /**
+     * Resets the running counts of all concurrency groups to the number of their RUNNING tasks. The counts drift only
+     * if a node dies between reserving a running slot and claiming the task, or between completing an execution and
+     * giving back its slot. Claims that happen during the recount can make their group exceed its limit by one.
+     */
+    public void recountConcurrencyGroups() {
+        checkState(daoConfig.concurrencyGroups.isPresent(), "no concurrency groups collection is configured");
+
+        Map<String, Integer> runningCounts = new HashMap<>();
+        for (Document dbCount : tasks(OperationType.COMPLETE).aggregate(Arrays.asList(
+                doc("$match", docBuilder()
                         .put(STATE, TaskState.RUNNING)
-                        .put(EXECUTIONS, doc("$elemMatch", docBuilder()
-                                .put(EXECUTION_ID, executionId)
-                                .put(STATE, ExecutionState.CREATED)
-                                .build()))
-                        .build(),
-                doc("$set", docBuilder()
-                        .put(STATE, TaskState.FAILED)
-                        .put(UPDATED_AT_TIME, now)
-                        .put(EXECUTIONS + ".$." + STATE, ExecutionState.FAILED)
-                        .put(EXECUTIONS + ".$." + UPDATED_AT_TIME, now)
-                        .put(IS_AVAILABLE_FOR_EXECUTION, true)
-                        .put(AVAILABLE_SINCE, now)
+                        .put(CONCURRENCY_GROUP, doc("$exists", true))
+                        .build()),
+                doc("$group", docBuilder()
+                        .put(_ID, "$" + CONCURRENCY_GROUP)
+                        .put(RUNNING_COUNT, doc("$sum", 1))
                         .build())
-        ).getModifiedCount();
+        ))) {
+            runningCounts.put(wrap(dbCount).getString(_ID), wrap(dbCount).getInteger(RUNNING_COUNT));
+        }
 
-        return modifiedCount == 1;
+        MongoCollection<Document> concurrencyGroups = concurrencyGroups(OperationType.COMPLETE).get();
+        concurrencyGroups.updateMany(
+                doc(_ID, doc("$nin", runningCounts.keySet())),
+                doc("$set", doc(RUNNING_COUNT, 0))
+        );
+        runningCounts.forEach((concurrencyGroup, runningCount) -> concurrencyGroups.updateOne(
+                doc(_ID, concurrencyGroup),
+                doc("$set", doc(RUNNING_COUNT, runningCount)),
+                new UpdateOptions().upsert(true)
+        ));
+    }
+
+    @Override
+    public boolean releaseExecution(ExecutionId executionId) {
+        // the task goes back to the state it had before the claim: FAILED if any previous execution failed, SUBMITTED otherwise
+        return releaseExecution(executionId, true, TaskState.FAILED)
+                || releaseExecution(executionId, false, TaskState.SUBMITTED);
     }
 
     // todo: test
@@ -215,11 +613,13 @@ public class MongoTaskDao implements TaskDao {
         ZonedDateTime now = clock.now();
         ZonedDateTime deleteAfter = now.plus(duration);
 
+        daoConfig.bodyCache.ifPresent(cache -> cache.invalidate(taskId));
+
         boolean success = true;
 
         // todo: if supported put into transaction
         if (bodies.isPresent()) {
-            long bodiesModifiedCount = bodies.get().updateOne(
+            long bodiesModifiedCount = bodies(OperationType.TTL).get().updateOne(
                     doc(_ID, taskId),
                     doc("$set", docBuilder()
                             .put(DELETE_AFTER, deleteAfter)
@@ -229,8 +629,21 @@ public class MongoTaskDao implements TaskDao {
 
             success = success && bodiesModifiedCount == 1;
         }
-        long tasksModifiedCount = tasks.updateOne(
-                doc(_ID, taskId),
+        if (daoConfig.bodyChunks.isPresent()) {
+            bodyChunks(OperationType.TTL).get().updateMany(
+                    doc(TASK_ID, taskId),
+                    doc("$set", doc(DELETE_AFTER, deleteAfter))
+            );
+        }
+        if (daoConfig.results.isPresent()) {
+            // the result might not exist yet, it will then pick up the ttl of the task once stored
+            results(OperationType.TTL).get().updateOne(
+                    doc(_ID, taskId),
+                    doc("$set", doc(DELETE_AFTER, deleteAfter))
+            );
+        }
+        long tasksModifiedCount = tasks(OperationType.TTL).updateOne(
+                taskById(taskId).build(),
                 doc("$set", docBuilder()
                         .put(DELETE_AFTER, deleteAfter)
                         .put(UPDATED_AT_TIME, now)
@@ -247,11 +660,13 @@ public class MongoTaskDao implements TaskDao {
     public boolean keepForever(TaskId taskId) {
         ZonedDateTime now = clock.now();
 
+        daoConfig.bodyCache.ifPresent(cache -> cache.invalidate(taskId));
+
         boolean success = true;
 
         // todo: if supported put into transaction
         if (bodies.isPresent()) {
-            long bodiesModifiedCount = bodies.get().updateOne(
+            long bodiesModifiedCount = bodies(OperationType.TTL).get().updateOne(
                     doc(_ID, taskId),
                     docBuilder()
                             .put("$unset", doc(DELETE_AFTER, 1))
@@ -261,8 +676,20 @@ public class MongoTaskDao implements TaskDao {
 
             success = success && bodiesModifiedCount == 1;
         }
-        long tasksModifiedCount = tasks.updateOne(
-                doc(_ID, taskId),
+        if (daoConfig.bodyChunks.isPresent()) {
+            bodyChunks(OperationType.TTL).get().updateMany(
+                    doc(TASK_ID, taskId),
+                    doc("$unset", doc(DELETE_AFTER, 1))
+            );
+        }
+        if (daoConfig.results.isPresent()) {
+            results(OperationType.TTL).get().updateOne(
+                    doc(_ID, taskId),
+                    doc("$unset", doc(DELETE_AFTER, 1))
+            );
+        }
+        long tasksModifiedCount = tasks(OperationType.TTL).updateOne(
+                taskById(taskId).build(),
                 docBuilder()
                         .put("$unset", doc(DELETE_AFTER, 1))
                         .put("$set", doc(UPDATED_AT_TIME, now))
@@ -278,7 +705,7 @@ public class MongoTaskDao implements TaskDao {
     @Override
     public Optional<Duration> getTTL(TaskId taskId) {
         if (!bodies.isPresent()) {
-            Optional<ZonedDateTime> deleteTaskAfter = one(tasks.find(doc(_ID, taskId)))
+            Optional<ZonedDateTime> deleteTaskAfter = one(tasks(OperationType.TTL).find(taskById(taskId).build()))
                     .map(doc -> wrap(doc).getZonedDateTime(DELETE_AFTER));
 
             ZonedDateTime now = clock.now();
@@ -287,9 +714,9 @@ public class MongoTaskDao implements TaskDao {
 
             return taskTtl;
         } else {
-            Optional<ZonedDateTime> deleteTaskAfter = one(tasks.find(doc(_ID, taskId)))
+            Optional<ZonedDateTime> deleteTaskAfter = one(tasks(OperationType.TTL).find(taskById(taskId).build()))
                     .map(doc -> wrap(doc).getZonedDateTime(DELETE_AFTER));
-            Optional<ZonedDateTime> deleteBodyAfter = one(bodies.get().find(doc(_ID, taskId)))
+            Optional<ZonedDateTime> deleteBodyAfter = one(bodies(OperationType.TTL).get().find(doc(_ID, taskId)))
                     .map(doc -> wrap(doc).getZonedDateTime(DELETE_AFTER));
 
             ZonedDateTime now = clock.now();
@@ -306,55 +733,1088 @@ public class MongoTaskDao implements TaskDao {
         }
     }
 
-    private Task toTask(Document doc) {
-        DocWrapper dbTask = wrap(doc);
+    private MongoCollection<Document> tasks(OperationType operationType) {
+        return tasksByOperation.get(operationType);
+    }
 
-        TaskId taskId = dbTask.getTaskId(_ID);
+    private Optional<MongoCollection<Document>> bodies(OperationType operationType) {
+        return bodies.map(collection -> policyFor(operationType).applyTo(collection));
+    }
 
-        return new Task(
-                taskId,
-                dbTask.getZonedDateTime(CREATED_AT_TIME),
-                dbTask.getZonedDateTime(UPDATED_AT_TIME),
-                dbTask.getTaskState(STATE),
-                dbTask.getOptionalExecutionId(LAST_EXECUTION_ID),
-                dbTask.getOptionalList(EXECUTIONS).mapDoc(dbExecution -> toExecution(taskId, dbExecution))
-        );
+    private MongoCollection<Document> bodiesOrTasks(OperationType operationType) {
+        return bodies(operationType).orElseGet(() -> tasks(operationType));
     }
 
-    private TaskBody toTaskBody(Document doc) {
-        DocWrapper dbTaskBody = wrap(doc);
+    private Optional<MongoCollection<Document>> bodyChunks(OperationType operationType) {
+        return daoConfig.bodyChunks.map(collection -> policyFor(operationType).applyTo(collection));
+    }
 
-        return new TaskBody(
-                dbTaskBody.getString(CONTENT)
-        );
+    private Optional<MongoCollection<Document>> results(OperationType operationType) {
+        return daoConfig.results.map(collection -> policyFor(operationType).applyTo(collection));
     }
 
-    private Execution toExecution(TaskId taskId, DocWrapper dbExecution) {
-        return new Execution(
-                taskId,
-                dbExecution.getExecutionId(EXECUTION_ID),
-                dbExecution.getZonedDateTime(CREATED_AT_TIME),
-                dbExecution.getZonedDateTime(UPDATED_AT_TIME),
-                dbExecution.getExecutionState(STATE)
-        );
+    private Optional<MongoCollection<Document>> deadLetters(OperationType operationType) {
+        return daoConfig.deadLetters.map(collection -> policyFor(operationType).applyTo(collection));
     }
 
-    private FindOneAndUpdateOptions sortBy(Document sortBy) {
-        return new FindOneAndUpdateOptions()
-                .sort(sortBy)
-                .returnDocument(AFTER);
+    private Optional<MongoCollection<Document>> deadLetterBodies(OperationType operationType) {
+        return daoConfig.deadLetterBodies.map(collection -> policyFor(operationType).applyTo(collection));
     }
 
-    private <T> Optional<T> one(Iterable<T> items) {
-        Iterator<T> iterator = items.iterator();
-        if (iterator.hasNext()) {
-            T value = iterator.next();
-            if (iterator.hasNext()) {
-                throw new IllegalStateException("unexpected second item");
-            }
-            return Optional.ofNullable(value);
-        } else {
-            return Optional.empty();
+    private MongoCollection<Document> deadLetterBodiesOrDeadLetters(OperationType operationType) {
+        return deadLetterBodies(operationType).orElseGet(() -> deadLetters(operationType).get());
+    }
+
+    private Optional<MongoCollection<Document>> archive(OperationType operationType) {
+        return daoConfig.archive.map(collection -> policyFor(operationType).applyTo(collection));
+    }
+
+    private Optional<MongoCollection<Document>> archiveBodies(OperationType operationType) {
+        return daoConfig.archiveBodies.map(collection -> policyFor(operationType).applyTo(collection));
+    }
+
+    private MongoCollection<Document> archiveBodiesOrArchive(OperationType operationType) {
+        return archiveBodies(operationType).orElseGet(() -> archive(operationType).get());
+    }
+
+    private Optional<MongoCollection<Document>> concurrencyGroups(OperationType operationType) {
+        return daoConfig.concurrencyGroups.map(collection -> policyFor(operationType).applyTo(collection));
+    }
+
+    private Optional<Document> findTask(TaskId taskId) {
+        Optional<Document> dbTask = one(tasks(OperationType.READ).find(taskById(taskId).build()));
+        if (!dbTask.isPresent() && daoConfig.deadLetters.isPresent()) {
+            dbTask = one(deadLetters(OperationType.READ).get().find(doc(_ID, taskId)));
+        }
+        if (!dbTask.isPresent() && daoConfig.archive.isPresent()) {
+            dbTask = one(archive(OperationType.READ).get().find(doc(_ID, taskId)));
+        }
+        return dbTask;
+    }
+
+    private void findTasks(MongoCollection<Document> collection, Set<TaskId> missingIds, Map<TaskId, Task> loadedTasks) {
+        if (missingIds.isEmpty()) {
+            return;
+        }
+        for (Document dbTask : collection.find(doc(_ID, doc("$in", missingIds)))) {
+            Task task = toTask(dbTask);
+            loadedTasks.put(task.taskId, task);
+            missingIds.remove(task.taskId);
+        }
+    }
+
+    private Optional<Document> findBody(TaskId taskId, Document projection) {
+        Optional<Document> dbBody = one(bodiesOrTasks(OperationType.READ)
+                .find(bodies.isPresent() ? doc(_ID, taskId) : taskById(taskId).build())
+                .projection(projection));
+        if (!dbBody.isPresent() && daoConfig.deadLetters.isPresent()) {
+            dbBody = one(deadLetterBodiesOrDeadLetters(OperationType.READ).find(doc(_ID, taskId)).projection(projection));
+        }
+        if (!dbBody.isPresent() && daoConfig.archive.isPresent()) {
+            dbBody = one(archiveBodiesOrArchive(OperationType.READ).find(doc(_ID, taskId)).projection(projection));
+        }
+        return dbBody;
+    }
+
+    // single task operations on the tasks collection have to carry the shard key to be targeted to one shard
+    private DocBuilder taskById(TaskId taskId) {
+        return docBuilder()
+                .put(_ID, taskId)
+                .put(SHARD_PARTITION, shardPartitionOf(taskId.getValue()));
+    }
+
+    private Optional<Integer> shardPartitionOf(UUID id) {
+        return daoConfig.shardPartitionCount > 0
+                ? Optional.of(partitionOf(id, daoConfig.shardPartitionCount))
+                : Optional.empty();
+    }
+
+    private OperationPolicy policyFor(OperationType operationType) {
+        return daoConfig.operationPolicies.getOrDefault(operationType, OperationPolicy.collectionDefaults());
+    }
+
+    // a completion without a result drops the result of any previous execution (e.g. error details of a failed attempt)
+    private boolean completeExecution(ExecutionId executionId, ExecutionState executionState, Optional<TaskResult> result) {
+        ZonedDateTime now = clock.now();
+        Optional<Document> dbResult = result.map(taskResult -> encodeContent(taskResult.content).putInto(docBuilder())
+                .put(EXECUTION_ID, executionId)
+                .put(CREATED_AT_TIME, now)
+                .build());
+
+        Optional<DocBuilder> runningExecution = targetedRunningExecution(executionId);
+        if (!runningExecution.isPresent()) {
+            return false;
+        }
+        if (!daoConfig.results.isPresent() && !bodies.isPresent()) {
+            // the result lives in the task document, so it is stored by the completion itself
+            return finishExecution(
+                    runningExecution.get().build(),
+                    completion(executionState, now, dbResult, Optional.empty()),
+                    Optional.empty()
+            );
+        }
+
+        // the result is only stored once the completion was applied, so a stale execution can't overwrite it
+        Document dbTask = tasks(OperationType.COMPLETE).findOneAndUpdate(
+                runningExecution.get().build(),
+                completion(executionState, now, Optional.empty(), Optional.empty()),
+                new FindOneAndUpdateOptions().projection(docBuilder()
+                        .put(DELETE_AFTER, 1)
+                        .put(CONCURRENCY_GROUP, 1)
+                        .build())
+        );
+        if (dbTask == null) {
+            return false;
+        }
+        TaskId taskId = wrap(dbTask).getTaskId(_ID);
+        wrap(dbTask).getOptionalString(CONCURRENCY_GROUP).ifPresent(group -> releaseRunningSlots(group, 1));
+
+        // todo: if supported put into transaction
+        if (!dbResult.isPresent()) {
+            clearStoredResults(Collections.singleton(taskId));
+        } else if (daoConfig.results.isPresent()) {
+            results(OperationType.COMPLETE).get().replaceOne(
+                    doc(_ID, taskId),
+                    docBuilder()
+                            .put(_ID, taskId)
+                            .put(RESULT, dbResult.get())
+                            .put(CREATED_AT_TIME, now)
+                            .put(DELETE_AFTER, wrap(dbTask).getOptionalZonedDateTime(DELETE_AFTER))
+                            .build(),
+                    new ReplaceOptions().upsert(true)
+            );
+        } else {
+            // the body shares the ttl of the task, so the result expires together with it
+            bodies(OperationType.COMPLETE).get().updateOne(
+                    doc(_ID, taskId),
+                    doc("$set", docBuilder()
+                            .put(RESULT, dbResult.get())
+                            .put(UPDATED_AT_TIME, now)
+                            .build())
+            );
+        }
+
+        return true;
+    }
+
+    // results stored inline are unset by the completion itself
+    private void clearStoredResults(Collection<TaskId> taskIds) {
+        if (taskIds.isEmpty()) {
+            return;
+        }
+        if (daoConfig.results.isPresent()) {
+            results(OperationType.COMPLETE).get().deleteMany(doc(_ID, doc("$in", taskIds)));
+        } else if (bodies.isPresent()) {
+            bodies(OperationType.COMPLETE).get().updateMany(
+                    docBuilder()
+                            .put(_ID, doc("$in", taskIds))
+                            .put(RESULT, doc("$exists", true))
+                            .build(),
+                    doc("$unset", doc(RESULT, ""))
+            );
+        }
+    }
+
+    private Map<ExecutionId, Boolean> completeExecutions(Collection<ExecutionId> executionIds, ExecutionState executionState) {
+        ZonedDateTime now = clock.now();
+
+        Set<ExecutionId> uniqueIds = new LinkedHashSet<>(executionIds);
+        Set<ExecutionId> completedIds = new HashSet<>();
+        if (!uniqueIds.isEmpty()) {
+            // bulk write results don't say which updates were applied, knowing the tasks up front lets us check it
+            // by their ids (executions.executionId is not indexed)
+            Map<ExecutionId, TaskId> runningTaskIds = new LinkedHashMap<>();
+            Map<ExecutionId, String> concurrencyGroups = new HashMap<>();
+            findRunningTasks(uniqueIds, runningTaskIds, concurrencyGroups);
+
+            if (!runningTaskIds.isEmpty()) {
+                List<UpdateOneModel<Document>> updates = new ArrayList<>(runningTaskIds.size());
+                // unique per call, so completions applied by concurrent calls (even within the same millisecond) don't count
+                String completionToken = UUID.randomUUID().toString();
+                Document completion = completion(executionState, now, Optional.empty(), Optional.of(completionToken));
+                runningTaskIds.forEach((executionId, taskId) -> updates.add(new UpdateOneModel<>(
+                        runningExecution(executionId).put(_ID, taskId).build(),
+                        completion
+                )));
+
+                int modifiedCount = tasks(OperationType.COMPLETE)
+                        .bulkWrite(updates, new BulkWriteOptions().ordered(false))
+                        .getModifiedCount();
+
+                if (modifiedCount == runningTaskIds.size()) {
+                    completedIds = runningTaskIds.keySet();
+                } else if (modifiedCount > 0) {
+                    // some executions were completed concurrently by somebody else
+                    completedIds = findExecutionsCompletedBy(runningTaskIds, completionToken);
+                }
+            }
+
+            Map<String, Integer> finishedCounts = new HashMap<>();
+            for (ExecutionId completedId : completedIds) {
+                String concurrencyGroup = concurrencyGroups.get(completedId);
+                if (concurrencyGroup != null) {
+                    finishedCounts.merge(concurrencyGroup, 1, Integer::sum);
+                }
+            }
+            finishedCounts.forEach(this::releaseRunningSlots);
+
+            List<TaskId> completedTaskIds = new ArrayList<>();
+            for (ExecutionId completedId : completedIds) {
+                completedTaskIds.add(runningTaskIds.get(completedId));
+            }
+            clearStoredResults(completedTaskIds);
+        }
+
+        Map<ExecutionId, Boolean> results = new LinkedHashMap<>();
+        for (ExecutionId executionId : executionIds) {
+            results.put(executionId, completedIds.contains(executionId));
+        }
+        return results;
+    }
+
+    private void findRunningTasks(Set<ExecutionId> executionIds, Map<ExecutionId, TaskId> runningTaskIds, Map<ExecutionId, String> concurrencyGroups) {
+        for (Document doc : tasks(OperationType.COMPLETE)
+                .find(docBuilder()
+                        .put(LAST_EXECUTION_ID, doc("$in", executionIds))
+                        .put(STATE, TaskState.RUNNING)
+                        .build())
+                .projection(docBuilder()
+                        .put(_ID, 1)
+                        .put(LAST_EXECUTION_ID, 1)
+                        .put(CONCURRENCY_GROUP, 1)
+                        .build())) {
+            DocWrapper dbTask = wrap(doc);
+            ExecutionId executionId = dbTask.getExecutionId(LAST_EXECUTION_ID);
+            runningTaskIds.put(executionId, dbTask.getTaskId(_ID));
+            dbTask.getOptionalString(CONCURRENCY_GROUP).ifPresent(group -> concurrencyGroups.put(executionId, group));
+        }
+    }
+
+    private Set<ExecutionId> findExecutionsCompletedBy(Map<ExecutionId, TaskId> runningTaskIds, String completionToken) {
+        Set<ExecutionId> completedIds = new HashSet<>();
+        Document completedExecution = docBuilder()
+                .put(EXECUTION_ID, doc("$in", runningTaskIds.keySet()))
+                .put(COMPLETION_TOKEN, completionToken)
+                .build();
+        for (Document doc : tasks(OperationType.COMPLETE)
+                .find(docBuilder()
+                        .put(_ID, doc("$in", new HashSet<>(runningTaskIds.values())))
+                        .put(EXECUTIONS, doc("$elemMatch", completedExecution))
+                        .build())
+                .projection(doc(EXECUTIONS, doc("$elemMatch", completedExecution)))) {
+            TaskId taskId = wrap(doc).getTaskId(_ID);
+            for (Execution execution : wrap(doc).getList(EXECUTIONS).mapDoc(dbExecution -> toExecution(taskId, dbExecution))) {
+                completedIds.add(execution.executionId);
+            }
+        }
+        return completedIds;
+    }
+
+    private DocBuilder runningExecution(ExecutionId executionId) {
+        return docBuilder()
+                // execution ids are issued within the shard partition of their task
+                .put(SHARD_PARTITION, shardPartitionOf(executionId.getValue()))
+                .put(LAST_EXECUTION_ID, executionId)
+                .put(STATE, TaskState.RUNNING)
+                .put(EXECUTIONS, doc("$elemMatch", docBuilder()
+                        .put(EXECUTION_ID, executionId)
+                        .put(STATE, ExecutionState.CREATED)
+                        .build()));
+    }
+
+    // single document updates of a sharded collection need the _id (or the whole shard key), which isn't known from
+    // the execution id alone, so it is looked up first (Optional.empty() = no such running execution)
+    private Optional<DocBuilder> targetedRunningExecution(ExecutionId executionId) {
+        if (daoConfig.shardPartitionCount == 0) {
+            return Optional.of(runningExecution(executionId));
+        }
+        return one(tasks(OperationType.COMPLETE)
+                .find(runningExecution(executionId).build())
+                .projection(doc(_ID, 1)))
+                .map(dbTask -> runningExecution(executionId).put(_ID, dbTask.get(_ID)));
+    }
+
+    private Document completion(ExecutionState executionState, ZonedDateTime now, Optional<Document> result, Optional<String> completionToken) {
+        DocBuilder update = docBuilder()
+                .put(UPDATED_AT_TIME, now)
+                .put(RESULT, result)
+                .put(EXECUTIONS + ".$." + STATE, executionState)
+                .put(EXECUTIONS + ".$." + UPDATED_AT_TIME, now)
+                .put(EXECUTIONS + ".$." + COMPLETION_TOKEN, completionToken);
+        if (executionState == ExecutionState.SUCCEEDED) {
+            update.put(STATE, TaskState.SUCCEEDED);
+        } else if (executionState == ExecutionState.FAILED) {
+            update.put(STATE, TaskState.FAILED)
+                    .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                    .put(AVAILABLE_SINCE, now);
+        } else {
+            throw new IllegalArgumentException("Unsupported completion state " + executionState);
+        }
+        return docBuilder()
+                .put("$set", update.build())
+                // an inline result of a previous execution doesn't belong to this one
+                .put("$unset", result.isPresent() ? Optional.empty() : Optional.of(doc(RESULT, "")))
+                .build();
+    }
+
+    private boolean releaseExecution(ExecutionId executionId, boolean hasFailedExecution, TaskState restoredState) {
+        ZonedDateTime now = clock.now();
+
+        Optional<DocBuilder> runningExecution = targetedRunningExecution(executionId);
+        if (!runningExecution.isPresent()) {
+            return false;
+        }
+        return finishExecution(
+                runningExecution.get()
+                        .put(EXECUTIONS + "." + STATE, hasFailedExecution
+                                ? ExecutionState.FAILED
+                                : doc("$ne", ExecutionState.FAILED))
+                        .build(),
+                docBuilder()
+                        .put("$set", docBuilder()
+                                .put(STATE, restoredState)
+                                .put(UPDATED_AT_TIME, now)
+                                .put(EXECUTIONS + ".$[released]." + STATE, ExecutionState.RELEASED)
+                                .put(EXECUTIONS + ".$[released]." + UPDATED_AT_TIME, now)
+                                // original AVAILABLE_SINCE is kept by the claim, so the task keeps its place in the queue
+                                .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                                .build())
+                        .put("$inc", doc(EXECUTION_ATTEMPTS_LEFT, 1))
+                        .build(),
+                Optional.of(Arrays.asList(
+                        doc("released." + EXECUTION_ID, executionId)
+                ))
+        );
+    }
+
+    private boolean finishExecution(Document runningExecution, Document update, Optional<List<Document>> arrayFilters) {
+        if (!daoConfig.concurrencyGroups.isPresent()) {
+            return tasks(OperationType.COMPLETE).updateOne(
+                    runningExecution,
+                    update,
+                    new UpdateOptions().arrayFilters(arrayFilters.orElse(null))
+            ).getModifiedCount() == 1;
+        }
+
+        // only the task knows its concurrency group, so the update returns it to give back the running slot
+        Document dbTask = tasks(OperationType.COMPLETE).findOneAndUpdate(
+                runningExecution,
+                update,
+                new FindOneAndUpdateOptions()
+                        .arrayFilters(arrayFilters.orElse(null))
+                        .projection(doc(CONCURRENCY_GROUP, 1))
+        );
+        if (dbTask == null) {
+            return false;
+        }
+        wrap(dbTask).getOptionalString(CONCURRENCY_GROUP).ifPresent(group -> releaseRunningSlots(group, 1));
+        return true;
+    }
+
+    private int moveToDeadLetters(DocBuilder tasksFilter, int batchSize) {
+        if (!daoConfig.deadLetters.isPresent()) {
+            return 0;
+        }
+
+        ZonedDateTime now = clock.now();
+
+        List<TaskId> taskIds = new ArrayList<>();
+        List<ReplaceOneModel<Document>> deadLetteredTasks = new ArrayList<>();
+        for (Document exhaustedTask : tasks(OperationType.COMPLETE).find(tasksFilter
+                .put(STATE, TaskState.FAILED)
+                .put(EXECUTION_ATTEMPTS_LEFT, doc("$lte", 0))
+                .build()
+        ).limit(batchSize)) {
+            TaskId taskId = wrap(exhaustedTask).getTaskId(_ID);
+            taskIds.add(taskId);
+            deadLetteredTasks.add(new ReplaceOneModel<>(
+                    doc(_ID, taskId),
+                    docBuilder(exhaustedTask).put(DEAD_LETTERED_AT, now).build(),
+                    new ReplaceOptions().upsert(true)
+            ));
+        }
+        if (taskIds.isEmpty()) {
+            return 0;
+        }
+
+        // copies are upserted before the originals are deleted, so an interrupted move never loses a task
+        // todo: if supported put into transaction
+        Document movedFilter = doc(_ID, doc("$in", taskIds));
+        deadLetters(OperationType.COMPLETE).get().bulkWrite(deadLetteredTasks, new BulkWriteOptions().ordered(false));
+        boolean moveBodies = daoConfig.deadLetterBodies.isPresent() && bodies.isPresent();
+        if (moveBodies) {
+            List<ReplaceOneModel<Document>> deadLetteredBodies = new ArrayList<>();
+            for (Document dbBody : bodies(OperationType.COMPLETE).get().find(movedFilter)) {
+                deadLetteredBodies.add(new ReplaceOneModel<>(
+                        doc(_ID, dbBody.get(_ID)),
+                        dbBody,
+                        new ReplaceOptions().upsert(true)
+                ));
+            }
+            if (!deadLetteredBodies.isEmpty()) {
+                deadLetterBodies(OperationType.COMPLETE).get().bulkWrite(deadLetteredBodies, new BulkWriteOptions().ordered(false));
+            }
+        }
+
+        long deletedCount = tasks(OperationType.COMPLETE).deleteMany(docBuilder()
+                .put(_ID, doc("$in", taskIds))
+                .put(STATE, TaskState.FAILED)
+                .put(EXECUTION_ATTEMPTS_LEFT, doc("$lte", 0))
+                .build()
+        ).getDeletedCount();
+
+        // tasks deleted by a concurrent move count as moved, our copies are their dead letters
+        List<TaskId> movedIds = taskIds;
+        if (deletedCount < taskIds.size()) {
+            Set<TaskId> remainingIds = new HashSet<>();
+            for (Document dbTask : tasks(OperationType.COMPLETE).find(movedFilter).projection(doc(_ID, 1))) {
+                remainingIds.add(wrap(dbTask).getTaskId(_ID));
+            }
+            // the tasks changed in the meantime (e.g. were redriven), so they stay where they are
+            Document remainingFilter = doc(_ID, doc("$in", remainingIds));
+            deadLetters(OperationType.COMPLETE).get().deleteMany(remainingFilter);
+            if (moveBodies) {
+                deadLetterBodies(OperationType.COMPLETE).get().deleteMany(remainingFilter);
+            }
+            movedIds = new ArrayList<>(taskIds);
+            movedIds.removeAll(remainingIds);
+        }
+        if (moveBodies && !movedIds.isEmpty()) {
+            bodies(OperationType.COMPLETE).get().deleteMany(doc(_ID, doc("$in", movedIds)));
+        }
+
+        return movedIds.size();
+    }
+
+    private Optional<Document> claimNextTask(boolean includeBody) {
+        if (hasLimits()) {
+            return claimNextTaskWithinLimits(includeBody);
+        }
+        if (daoConfig.fairShare) {
+            return claimNextTaskFairly(includeBody);
+        }
+        if (daoConfig.shardPartitionCount > 0) {
+            // a findOneAndUpdate on a sharded collection has to target a single shard, so partitions are tried one by one
+            int firstPartition = nextShardPartition.getAndIncrement();
+            for (int i = 0; i < daoConfig.shardPartitionCount; i++) {
+                int shardPartition = Math.floorMod(firstPartition + i, daoConfig.shardPartitionCount);
+                Optional<Document> document = claimFromShardPartition(includeBody, shardPartition);
+                if (document.isPresent()) {
+                    return document;
+                }
+            }
+            return Optional.empty();
+        }
+        if (daoConfig.claimBucketCount > 0) {
+            Optional<Document> document = claimNextTask(includeBody, Optional.of(homeBucket.get()));
+            if (document.isPresent()) {
+                return document;
+            }
+            // steals the oldest task of any bucket (including tasks submitted before buckets were enabled)
+        }
+        return claimNextTask(includeBody, Optional.empty());
+    }
+
+    private int assignHomeBucket() {
+        return Math.floorMod(nextHomeBucket.getAndIncrement(), daoConfig.claimBucketCount);
+    }
+
+    private Optional<Document> claimNextTask(boolean includeBody, Optional<Integer> claimBucket) {
+        return claimTask(
+                includeBody,
+                docBuilder()
+                        .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                        .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                        .put(CLAIM_BUCKET, claimBucket)
+                        .build(),
+                Optional.empty()
+        );
+    }
+
+    // a findAndModify on a sharded collection needs an equality on the whole shard key, so the oldest task of the
+    // partition is looked up first and then claimed by its id
+    private Optional<Document> claimFromShardPartition(boolean includeBody, int shardPartition) {
+        while (true) {
+            Optional<Document> candidate = one(tasks(OperationType.CLAIM)
+                    .find(docBuilder()
+                            .put(SHARD_PARTITION, shardPartition)
+                            .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                            .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                            .build())
+                    .sort(doc(AVAILABLE_SINCE, 1))
+                    .projection(doc(_ID, 1))
+                    .limit(1));
+            if (!candidate.isPresent()) {
+                return Optional.empty();
+            }
+            Optional<Document> document = claimTask(
+                    includeBody,
+                    docBuilder()
+                            .put(SHARD_PARTITION, shardPartition)
+                            .put(_ID, candidate.get().get(_ID))
+                            .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                            .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                            .build(),
+                    Optional.of(shardPartition)
+            );
+            if (document.isPresent()) {
+                return document;
+            }
+            // somebody else claimed the task in the meantime
+        }
+    }
+
+    private Optional<Document> claimNextTaskFairly(boolean includeBody) {
+        ZonedDateTime now = clock.now();
+        boolean lanesRefreshed = false;
+        if (nextLaneRefresh == null || !now.isBefore(nextLaneRefresh)) {
+            // lanes of new tenants have to join the rotation
+            refreshTenantLanes(now);
+            lanesRefreshed = true;
+        }
+
+        while (true) {
+            Optional<String> lane = tenantLanes.nextLane();
+            if (!lane.isPresent()) {
+                if (lanesRefreshed) {
+                    break;
+                }
+                refreshTenantLanes(now);
+                lanesRefreshed = true;
+                continue;
+            }
+            Optional<Document> document = claimTask(
+                    includeBody,
+                    docBuilder()
+                            .put(TENANT, lane.get())
+                            .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                            .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                            .build(),
+                    Optional.empty()
+            );
+            if (document.isPresent()) {
+                return document;
+            }
+            tenantLanes.removeLane(lane.get());
+        }
+
+        // tasks submitted before fair share was enabled don't belong to any lane
+        return claimNextTask(includeBody, Optional.empty());
+    }
+
+    private void refreshTenantLanes(ZonedDateTime now) {
+        List<String> nonEmptyLanes = newList(tasks(OperationType.CLAIM).distinct(
+                TENANT,
+                docBuilder()
+                        .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                        .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                        .put(TENANT, doc("$exists", true))
+                        .build(),
+                String.class
+        ));
+        tenantLanes.refresh(nonEmptyLanes);
+        nextLaneRefresh = now.plus(LANE_REFRESH_INTERVAL);
+    }
+
+    private boolean hasLimits() {
+        return daoConfig.concurrencyGroups.isPresent() || daoConfig.rateLimitBuckets.isPresent();
+    }
+
+    private Optional<Document> claimNextTaskWithinLimits(boolean includeBody) {
+        ZonedDateTime now = clock.now();
+        boolean lanesRefreshed = false;
+        if (nextLaneRefresh == null || !now.isBefore(nextLaneRefresh)) {
+            // new lanes have to join the rotation
+            refreshLimitLanes(now);
+            lanesRefreshed = true;
+        }
+
+        // each lane is tried at most once per claim, lanes of an already saturated group or throttled topic cost no round trip
+        Set<Document> triedLanes = new HashSet<>();
+        Set<String> saturatedGroups = new HashSet<>();
+        Set<String> throttledTopics = new HashSet<>();
+        while (true) {
+            Optional<Document> lane = limitLanes.nextLane();
+            if (!lane.isPresent()) {
+                if (lanesRefreshed) {
+                    break;
+                }
+                refreshLimitLanes(now);
+                lanesRefreshed = true;
+                continue;
+            }
+            if (!triedLanes.add(lane.get())) {
+                if (triedLanes.containsAll(limitLanes.lanes())) {
+                    // all remaining lanes are blocked by their limits
+                    break;
+                }
+                // the rotation was moved on by concurrent claims
+                continue;
+            }
+
+            DocWrapper dbLane = wrap(lane.get());
+            Optional<String> limitedGroup = limitedGroupOf(dbLane);
+            Optional<String> limitedTopic = limitedTopicOf(dbLane);
+            if (!acquireLimits(limitedGroup, limitedTopic, saturatedGroups, throttledTopics)) {
+                continue;
+            }
+            Optional<Document> document = claimTask(
+                    includeBody,
+                    docBuilder()
+                            .put(LIMIT_LANE, lane.get())
+                            .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                            .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                            .build(),
+                    Optional.empty()
+            );
+            if (document.isPresent()) {
+                return document;
+            }
+            releaseLimits(limitedGroup, limitedTopic);
+            limitLanes.removeLane(lane.get());
+        }
+
+        return claimOldestTaskWithoutLane(includeBody, saturatedGroups, throttledTopics);
+    }
+
+    private void refreshLimitLanes(ZonedDateTime now) {
+        List<Document> nonEmptyLanes = newList(tasks(OperationType.CLAIM).distinct(
+                LIMIT_LANE,
+                docBuilder()
+                        .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                        .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                        .put(LIMIT_LANE, doc("$type", "object"))
+                        .build(),
+                Document.class
+        ));
+        limitLanes.refresh(nonEmptyLanes);
+        nextLaneRefresh = now.plus(LANE_REFRESH_INTERVAL);
+    }
+
+    private Optional<Document> claimOldestTaskWithoutLane(boolean includeBody, Set<String> saturatedGroups, Set<String> throttledTopics) {
+        // tasks submitted before the limits were enabled don't belong to any lane, they wait while the oldest of them is blocked
+        Optional<Document> candidate = one(tasks(OperationType.CLAIM)
+                .find(docBuilder()
+                        .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                        .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                        .put(LIMIT_LANE, doc("$exists", false))
+                        .build())
+                .sort(doc(AVAILABLE_SINCE, 1))
+                .projection(docBuilder()
+                        .put(CONCURRENCY_GROUP, 1)
+                        .put(TOPIC, 1)
+                        .build())
+                .limit(1));
+        if (!candidate.isPresent()) {
+            return Optional.empty();
+        }
+
+        DocWrapper dbCandidate = wrap(candidate.get());
+        Optional<String> limitedGroup = limitedGroupOf(dbCandidate);
+        Optional<String> limitedTopic = limitedTopicOf(dbCandidate);
+        if (!acquireLimits(limitedGroup, limitedTopic, saturatedGroups, throttledTopics)) {
+            return Optional.empty();
+        }
+        Optional<Document> document = claimTask(
+                includeBody,
+                taskById(dbCandidate.getTaskId(_ID))
+                        .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                        .put(EXECUTION_ATTEMPTS_LEFT, doc("$gt", 0))
+                        .build(),
+                Optional.empty()
+        );
+        if (!document.isPresent()) {
+            // somebody else claimed the task in the meantime
+            releaseLimits(limitedGroup, limitedTopic);
+        }
+        return document;
+    }
+
+    private Optional<String> limitedGroupOf(DocWrapper dbDocument) {
+        return dbDocument.getOptionalString(CONCURRENCY_GROUP)
+                .filter(group -> daoConfig.concurrencyLimitOf(group) > 0);
+    }
+
+    private Optional<String> limitedTopicOf(DocWrapper dbDocument) {
+        return dbDocument.getOptionalString(TOPIC)
+                .filter(topic -> topicRateLimiter.map(limiter -> limiter.isLimited(topic)).orElse(false));
+    }
+
+    // tokens and slots are taken before the claim, so no claim can exceed a limit
+    private boolean acquireLimits(Optional<String> limitedGroup, Optional<String> limitedTopic, Set<String> saturatedGroups, Set<String> throttledTopics) {
+        if ((limitedGroup.isPresent() && saturatedGroups.contains(limitedGroup.get()))
+                || (limitedTopic.isPresent() && throttledTopics.contains(limitedTopic.get()))) {
+            return false;
+        }
+        if (limitedTopic.isPresent() && !topicRateLimiter.get().tryAcquire(limitedTopic.get())) {
+            throttledTopics.add(limitedTopic.get());
+            return false;
+        }
+        // the slot is reserved before the claim, so the running count never drops below the number of RUNNING tasks
+        if (limitedGroup.isPresent() && !reserveRunningSlot(limitedGroup.get())) {
+            saturatedGroups.add(limitedGroup.get());
+            limitedTopic.ifPresent(topic -> topicRateLimiter.get().giveBack(topic));
+            return false;
+        }
+        return true;
+    }
+
+    // for limits acquired for a claim that didn't happen
+    private void releaseLimits(Optional<String> limitedGroup, Optional<String> limitedTopic) {
+        limitedGroup.ifPresent(group -> releaseRunningSlots(group, 1));
+        limitedTopic.ifPresent(topic -> topicRateLimiter.get().giveBack(topic));
+    }
+
+    private boolean reserveRunningSlot(String concurrencyGroup) {
+        try {
+            // upserts the first count of a group, a group at its limit doesn't match and its upsert fails on the _id
+            concurrencyGroups(OperationType.CLAIM).get().updateOne(
+                    docBuilder()
+                            .put(_ID, concurrencyGroup)
+                            .put(RUNNING_COUNT, doc("$lt", daoConfig.concurrencyLimitOf(concurrencyGroup)))
+                            .build(),
+                    doc("$inc", doc(RUNNING_COUNT, 1)),
+                    new UpdateOptions().upsert(true)
+            );
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private void releaseRunningSlots(String concurrencyGroup, int count) {
+        if (daoConfig.concurrencyLimitOf(concurrencyGroup) == 0) {
+            // running counts are kept only for limited groups
+            return;
+        }
+        long modifiedCount = concurrencyGroups(OperationType.COMPLETE).get().updateOne(
+                docBuilder()
+                        .put(_ID, concurrencyGroup)
+                        .put(RUNNING_COUNT, doc("$gte", count))
+                        .build(),
+                doc("$inc", doc(RUNNING_COUNT, -count))
+        ).getModifiedCount();
+        if (modifiedCount == 0) {
+            // the count has drifted below the RUNNING tasks (e.g. the group was not limited when the task was claimed)
+            concurrencyGroups(OperationType.COMPLETE).get().updateOne(
+                    docBuilder()
+                            .put(_ID, concurrencyGroup)
+                            .put(RUNNING_COUNT, doc("$lt", count))
+                            .build(),
+                    doc("$set", doc(RUNNING_COUNT, 0))
+            );
+        }
+    }
+
+    private Optional<Document> claimTask(boolean includeBody, Document candidates, Optional<Integer> shardPartition) {
+        ZonedDateTime now = clock.now();
+
+        ExecutionId executionId = daoConfig.idGenerator.newExecutionId(now);
+        if (shardPartition.isPresent()) {
+            executionId = executionId(moveIntoPartition(executionId.getValue(), shardPartition.get(), daoConfig.shardPartitionCount));
+        }
+        Document document = tasks(OperationType.CLAIM).findOneAndUpdate(
+                candidates,
+                docBuilder()
+                        .put("$addToSet", doc(EXECUTIONS, docBuilder()
+                                .put(EXECUTION_ID, executionId)
+                                .put(CREATED_AT_TIME, now)
+                                .put(UPDATED_AT_TIME, now)
+                                .put(STATE, ExecutionState.CREATED)
+                                .build()))
+                        .put("$inc", doc(EXECUTION_ATTEMPTS_LEFT, -1))
+                        .put("$set", docBuilder()
+                                .put(IS_AVAILABLE_FOR_EXECUTION, false)
+                                .put(STATE, TaskState.RUNNING)
+                                .put(LAST_EXECUTION_ID, executionId)
+                                .put(UPDATED_AT_TIME, now)
+                                .build())
+                        .build(),
+                // todo: test this
+                sortBy(doc(AVAILABLE_SINCE, 1))
+                        .projection(claimProjection(includeBody))
+        );
+
+        return Optional.ofNullable(document);
+    }
+
+    private Document claimProjection(boolean includeBody) {
+        // only the newly created execution is needed
+        DocBuilder projection = docBuilder()
+                .put(EXECUTIONS, doc("$slice", -1));
+        if (!includeBody) {
+            projection.put(CONTENT, 0);
+        }
+        // results of previous executions are never needed by the next one
+        projection.put(RESULT, 0);
+        return projection.build();
+    }
+
+    private boolean shouldIncludeBodyInClaim() {
+        switch (daoConfig.claimBodyMode) {
+            case INCLUDE:
+                return true;
+            case ADAPTIVE:
+                return bodySizeStatistics.isAverageAtMost(daoConfig.claimBodySizeLimit);
+            default:
+                return false;
+        }
+    }
+
+    private Execution toLastExecution(DocWrapper dbTask) {
+        TaskId taskId = dbTask.getTaskId(_ID);
+
+        DocWrapper dbExecution = dbTask.getList(EXECUTIONS).lastDoc();
+        return toExecution(
+                taskId,
+                dbExecution
+        );
+    }
+
+    private Task toTask(Document doc) {
+        DocWrapper dbTask = wrap(doc);
+
+        TaskId taskId = dbTask.getTaskId(_ID);
+
+        return new Task(
+                taskId,
+                dbTask.getZonedDateTime(CREATED_AT_TIME),
+                dbTask.getZonedDateTime(UPDATED_AT_TIME),
+                dbTask.getTaskState(STATE),
+                dbTask.getOptionalExecutionId(LAST_EXECUTION_ID),
+                dbTask.getOptionalList(EXECUTIONS).mapDoc(dbExecution -> toExecution(taskId, dbExecution))
+        );
+    }
+
+    private void storeTask(TaskId taskId, TaskConfig config, EncodedContent content, ZonedDateTime now, Optional<ZonedDateTime> deleteAfterIfDefined) {
+        // todo: if supported put into transaction
+        if (bodies.isPresent()) {
+            bodies(OperationType.SUBMIT).get().insertOne(bodyDocument(taskId, content, now, deleteAfterIfDefined));
+        }
+        tasks(OperationType.SUBMIT).insertOne(taskDocument(taskId, config, content, now, deleteAfterIfDefined));
+    }
+
+    private Document bodyDocument(TaskId taskId, EncodedContent content, ZonedDateTime now, Optional<ZonedDateTime> deleteAfterIfDefined) {
+        return content.putInto(docBuilder().put(_ID, taskId))
+                .put(CREATED_AT_TIME, now)
+                .put(UPDATED_AT_TIME, now)
+                .put(DELETE_AFTER, deleteAfterIfDefined)
+                .build();
+    }
+
+    private Document taskDocument(TaskId taskId, TaskConfig config, EncodedContent content, ZonedDateTime now, Optional<ZonedDateTime> deleteAfterIfDefined) {
+        DocBuilder task = docBuilder()
+                .put(_ID, taskId);
+        if (bodies.isPresent()) {
+            // used to decide whether bodies should be returned with claimed executions
+            task.put(CONTENT_LENGTH, content.contentLength);
+        } else {
+            content.putInto(task);
+        }
+        return task
+                .put(CREATED_AT_TIME, now)
+                .put(UPDATED_AT_TIME, now)
+                .put(STATE, TaskState.SUBMITTED)
+                .put(IS_AVAILABLE_FOR_EXECUTION, true)
+                .put(AVAILABLE_SINCE, now)
+                .put(EXECUTION_ATTEMPTS_LEFT, config.attemptCount)
+                .put(CLAIM_BUCKET, daoConfig.claimBucketCount > 0
+                        ? Optional.of(ThreadLocalRandom.current().nextInt(daoConfig.claimBucketCount))
+                        : Optional.empty())
+                .put(SHARD_PARTITION, shardPartitionOf(taskId.getValue()))
+                .put(CONCURRENCY_GROUP, config.concurrencyGroup)
+                .put(TOPIC, config.topic)
+                .put(TENANT, daoConfig.fairShare
+                        ? Optional.of(config.tenant.orElse(SHARED_LANE))
+                        : config.tenant)
+                .put(LIMIT_LANE, hasLimits()
+                        ? Optional.of(docBuilder()
+                                .put(CONCURRENCY_GROUP, config.concurrencyGroup)
+                                .put(TOPIC, config.topic)
+                                .build())
+                        : Optional.empty())
+                .put(DELETE_AFTER, deleteAfterIfDefined)
+                .build();
+    }
+
+    private EncodedContent storeChunks(TaskId taskId, byte[] head, InputStream remainingBody, ZonedDateTime now, Optional<ZonedDateTime> deleteAfterIfDefined) {
+        if (!daoConfig.bodyChunks.isPresent()) {
+            throw new IllegalStateException(String.format(
+                    "Body of task '%s' is bigger than %d bytes but no body chunks collection is configured",
+                    taskId, daoConfig.inlineBinaryBodyLimit
+            ));
+        }
+        MongoCollection<Document> bodyChunks = bodyChunks(OperationType.SUBMIT).get();
+
+        int chunkCount = 0;
+        long contentLength = 0;
+        try {
+            InputStream body = new SequenceInputStream(new ByteArrayInputStream(head), remainingBody);
+            byte[] chunk;
+            while ((chunk = readUpTo(body, CHUNK_SIZE)).length > 0) {
+                bodyChunks.insertOne(docBuilder()
+                        .put(TASK_ID, taskId)
+                        .put(CHUNK_INDEX, chunkCount)
+                        .put(CONTENT, chunk)
+                        .put(CREATED_AT_TIME, now)
+                        .put(DELETE_AFTER, deleteAfterIfDefined)
+                        .build());
+                chunkCount++;
+                contentLength += chunk.length;
+            }
+        } catch (RuntimeException e) {
+            bodyChunks.deleteMany(doc(TASK_ID, taskId));
+            throw e;
+        }
+
+        return EncodedContent.chunked(chunkCount, contentLength);
+    }
+
+    private TaskBody toTaskBody(Document doc) {
+        DocWrapper dbTaskBody = wrap(doc);
+
+        if (dbTaskBody.getOptionalString(CONTENT_TYPE).isPresent()) {
+            throw new BinaryTaskBodyException(dbTaskBody.getTaskId(_ID));
+        }
+
+        TaskBody body = new TaskBody(
+                new String(decodeContent(dbTaskBody), UTF_8)
+        );
+        if (daoConfig.bodyCache.isPresent()) {
+            daoConfig.bodyCache.get().put(
+                    dbTaskBody.getTaskId(_ID),
+                    body,
+                    dbTaskBody.getOptionalZonedDateTime(DELETE_AFTER)
+            );
+        }
+        return body;
+    }
+
+    private InputStream toTaskBodyStream(Document doc) {
+        DocWrapper dbTaskBody = wrap(doc);
+
+        if (dbTaskBody.getOptionalString(CONTENT_TYPE).equals(Optional.of(CHUNKED_CONTENT))) {
+            return new ChunkedContentInputStream(
+                    bodyChunks(OperationType.READ).get()
+                            .find(doc(TASK_ID, dbTaskBody.getTaskId(_ID)))
+                            .sort(doc(CHUNK_INDEX, 1))
+                            .batchSize(CHUNK_BATCH_SIZE),
+                    dbTaskBody.getInteger(CHUNK_COUNT)
+            );
+        }
+
+        return new ByteArrayInputStream(decodeContent(dbTaskBody));
+    }
+
+    private byte[] decodeContent(DocWrapper dbTaskBody) {
+        Optional<String> codecName = dbTaskBody.getOptionalString(CONTENT_CODEC);
+        if (codecName.isPresent()) {
+            Codec codec = daoConfig.bodyCompression.codecFor(codecName.get());
+            return codec.decode(dbTaskBody.getBytes(CONTENT));
+        }
+
+        if (dbTaskBody.getOptionalString(CONTENT_TYPE).isPresent()) {
+            return dbTaskBody.getBytes(CONTENT);
+        } else {
+            return dbTaskBody.getString(CONTENT).getBytes(UTF_8);
+        }
+    }
+
+    private EncodedContent encodeContent(String content) {
+        byte[] bytes = content.getBytes(UTF_8);
+        return compress(bytes, Optional.empty())
+                .orElseGet(() -> EncodedContent.inline(content, bytes.length, Optional.empty(), Optional.empty()));
+    }
+
+    private EncodedContent encodeBinaryContent(byte[] content) {
+        return compress(content, Optional.of(BINARY_CONTENT))
+                .orElseGet(() -> EncodedContent.inline(content, content.length, Optional.of(BINARY_CONTENT), Optional.empty()));
+    }
+
+    private Optional<EncodedContent> compress(byte[] bytes, Optional<String> contentType) {
+        Optional<Codec> codec = daoConfig.bodyCompression.codecFor(bytes.length);
+        if (codec.isPresent()) {
+            byte[] encodedBytes = codec.get().encode(bytes);
+            // don't store content that didn't benefit from the compression
+            if (encodedBytes.length < bytes.length) {
+                return Optional.of(EncodedContent.inline(encodedBytes, bytes.length, contentType, Optional.of(codec.get().name())));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Execution toExecution(TaskId taskId, DocWrapper dbExecution) {
+        return new Execution(
+                taskId,
+                dbExecution.getExecutionId(EXECUTION_ID),
+                dbExecution.getZonedDateTime(CREATED_AT_TIME),
+                dbExecution.getZonedDateTime(UPDATED_AT_TIME),
+                dbExecution.getExecutionState(STATE)
+        );
+    }
+
+    private FindOneAndUpdateOptions sortBy(Document sortBy) {
+        return new FindOneAndUpdateOptions()
+                .sort(sortBy)
+                .returnDocument(AFTER);
+    }
+
+    private <T> Optional<T> one(Iterable<T> items) {
+        Iterator<T> iterator = items.iterator();
+        if (iterator.hasNext()) {
+            T value = iterator.next();
+            if (iterator.hasNext()) {
+                throw new IllegalStateException("unexpected second item");
+            }
+            return Optional.ofNullable(value);
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    private static byte[] readUpTo(InputStream stream, int maxLength) {
+        try {
+            byte[] buffer = new byte[maxLength];
+            int length = ByteStreams.read(stream, buffer, 0, maxLength);
+            return length == maxLength ? buffer : Arrays.copyOf(buffer, length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class EncodedContent {
+        final Optional<Object> value;
+        final Optional<String> contentType;
+        final Optional<String> codecName;
+        final Optional<Integer> chunkCount;
+        final Optional<Long> contentLength;
+
+        private EncodedContent(Optional<Object> value, Optional<String> contentType, Optional<String> codecName, Optional<Integer> chunkCount, Optional<Long> contentLength) {
+            this.value = value;
+            this.contentType = contentType;
+            this.codecName = codecName;
+            this.chunkCount = chunkCount;
+            this.contentLength = contentLength;
+        }
+
+        static EncodedContent inline(Object value, long contentLength, Optional<String> contentType, Optional<String> codecName) {
+            return new EncodedContent(Optional.of(value), contentType, codecName, Optional.empty(), Optional.of(contentLength));
+        }
+
+        static EncodedContent chunked(int chunkCount, long contentLength) {
+            return new EncodedContent(Optional.empty(), Optional.of(CHUNKED_CONTENT), Optional.empty(), Optional.of(chunkCount), Optional.of(contentLength));
+        }
+
+        DocBuilder putInto(DocBuilder builder) {
+            return builder
+                    .put(CONTENT, value)
+                    .put(CONTENT_TYPE, contentType)
+                    .put(CONTENT_CODEC, codecName)
+                    .put(CHUNK_COUNT, chunkCount)
+                    .put(CONTENT_LENGTH, contentLength);
         }
     }
 }
@@ -0,0 +1,207 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import javafixes.object.DataObject;
+import mtymes.common.compression.CompressionPolicy;
+import org.bson.Document;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class MongoTaskDaoConfig extends DataObject {
+
+    // keeps inlined bodies well below the 16MB document limit
+    public static final int MAX_INLINE_BINARY_BODY_LIMIT = 8 * 1024 * 1024;
+
+    public final CompressionPolicy bodyCompression;
+    public final int inlineBinaryBodyLimit;
+    public final Optional<MongoCollection<Document>> bodyChunks;
+    public final Optional<MongoCollection<Document>> results;
+    public final Optional<MongoCollection<Document>> deadLetters;
+    public final Optional<MongoCollection<Document>> deadLetterBodies;
+    public final Optional<MongoCollection<Document>> archive;
+    public final Optional<MongoCollection<Document>> archiveBodies;
+    public final ClaimBodyMode claimBodyMode;
+    public final int claimBodySizeLimit;
+    // 0 = tasks are not assigned to claim buckets
+    public final int claimBucketCount;
+    // 0 = tasks collection is not sharded
+    public final int shardPartitionCount;
+    // running counts of concurrency groups, claims ignore concurrency groups if not defined
+    public final Optional<MongoCollection<Document>> concurrencyGroups;
+    public final Map<String, Integer> concurrencyLimits;
+    // 0 = groups without an explicit limit are not limited
+    public final int defaultConcurrencyLimit;
+    // claims are spread over tenant lanes by weighted deficit round robin
+    public final boolean fairShare;
+    public final Map<String, Integer> tenantWeights;
+    public final int defaultTenantWeight;
+    // token buckets of rate limited topics, claims ignore topics if not defined
+    public final Optional<MongoCollection<Document>> rateLimitBuckets;
+    public final Map<String, RateLimit> topicRateLimits;
+    public final int rateLimitLeaseSize;
+    public final Optional<TaskBodyCache> bodyCache;
+    public final Map<OperationType, OperationPolicy> operationPolicies;
+    public final IdGenerator idGenerator;
+
+    public MongoTaskDaoConfig(
+            CompressionPolicy bodyCompression,
+            int inlineBinaryBodyLimit,
+            Optional<MongoCollection<Document>> bodyChunks,
+            Optional<MongoCollection<Document>> results,
+            Optional<MongoCollection<Document>> deadLetters,
+            Optional<MongoCollection<Document>> deadLetterBodies,
+            Optional<MongoCollection<Document>> archive,
+            Optional<MongoCollection<Document>> archiveBodies,
+            ClaimBodyMode claimBodyMode,
+            int claimBodySizeLimit,
+            int claimBucketCount,
+            int shardPartitionCount,
+            Optional<MongoCollection<Document>> concurrencyGroups,
+            Map<String, Integer> concurrencyLimits,
+            int defaultConcurrencyLimit,
+            boolean fairShare,
+            Map<String, Integer> tenantWeights,
+            int defaultTenantWeight,
+            Optional<MongoCollection<Document>> rateLimitBuckets,
+            Map<String, RateLimit> topicRateLimits,
+            int rateLimitLeaseSize,
+            Optional<TaskBodyCache> bodyCache,
+            Map<OperationType, OperationPolicy> operationPolicies,
+            IdGenerator idGenerator
+    ) {
+        checkArgument(bodyCompression != null, "bodyCompression can't be null");
+        checkArgument(inlineBinaryBodyLimit >= 0, "inlineBinaryBodyLimit can't be negative");
+        checkArgument(inlineBinaryBodyLimit <= MAX_INLINE_BINARY_BODY_LIMIT, "inlineBinaryBodyLimit can't be greater than " + MAX_INLINE_BINARY_BODY_LIMIT);
+        checkArgument(bodyChunks != null, "bodyChunks can't be null");
+        checkArgument(results != null, "results can't be null");
+        checkArgument(deadLetters != null, "deadLetters can't be null");
+        checkArgument(deadLetterBodies != null, "deadLetterBodies can't be null");
+        checkArgument(deadLetters.isPresent() || !deadLetterBodies.isPresent(), "deadLetterBodies can only be used together with deadLetters");
+        checkArgument(archive != null, "archive can't be null");
+        checkArgument(archiveBodies != null, "archiveBodies can't be null");
+        checkArgument(archive.isPresent() || !archiveBodies.isPresent(), "archiveBodies can only be used together with archive");
+        checkArgument(claimBodyMode != null, "claimBodyMode can't be null");
+        checkArgument(claimBodySizeLimit >= 0, "claimBodySizeLimit can't be negative");
+        checkArgument(claimBucketCount >= 0, "claimBucketCount can't be negative");
+        checkArgument(shardPartitionCount >= 0, "shardPartitionCount can't be negative");
+        // shard partitions spread the claims already
+        checkArgument(claimBucketCount == 0 || shardPartitionCount == 0, "claimBucketCount and shardPartitionCount can't be used together");
+        checkArgument(concurrencyGroups != null, "concurrencyGroups can't be null");
+        checkArgument(concurrencyLimits != null, "concurrencyLimits can't be null");
+        concurrencyLimits.forEach((group, limit) -> checkArgument(limit != null && limit > 0, "concurrency limit of '%s' must be greater than 0", group));
+        checkArgument(defaultConcurrencyLimit >= 0, "defaultConcurrencyLimit can't be negative");
+        checkArgument(
+                concurrencyGroups.isPresent() || (concurrencyLimits.isEmpty() && defaultConcurrencyLimit == 0),
+                "concurrency limits can only be used together with concurrencyGroups"
+        );
+        // claims within concurrency limits pick the task up front, so they don't go through buckets or partitions
+        checkArgument(
+                !concurrencyGroups.isPresent() || (claimBucketCount == 0 && shardPartitionCount == 0),
+                "concurrencyGroups can't be used together with claimBucketCount or shardPartitionCount"
+        );
+        checkArgument(tenantWeights != null, "tenantWeights can't be null");
+        tenantWeights.forEach((tenant, weight) -> checkArgument(weight != null && weight > 0, "weight of tenant '%s' must be greater than 0", tenant));
+        checkArgument(defaultTenantWeight > 0, "defaultTenantWeight must be greater than 0");
+        checkArgument(
+                !fairShare || (claimBucketCount == 0 && shardPartitionCount == 0 && !concurrencyGroups.isPresent()),
+                "fairShare can't be used together with claimBucketCount, shardPartitionCount or concurrencyGroups"
+        );
+        checkArgument(rateLimitBuckets != null, "rateLimitBuckets can't be null");
+        checkArgument(topicRateLimits != null, "topicRateLimits can't be null");
+        topicRateLimits.forEach((topic, rateLimit) -> checkArgument(rateLimit != null, "rate limit of '%s' can't be null", topic));
+        checkArgument(rateLimitBuckets.isPresent() || topicRateLimits.isEmpty(), "topicRateLimits can only be used together with rateLimitBuckets");
+        checkArgument(rateLimitLeaseSize > 0, "rateLimitLeaseSize must be greater than 0");
+        // same as concurrency groups, rate limited claims pick the task up front
+        checkArgument(
+                !rateLimitBuckets.isPresent() || (claimBucketCount == 0 && shardPartitionCount == 0 && !fairShare),
+                "rateLimitBuckets can't be used together with claimBucketCount, shardPartitionCount or fairShare"
+        );
+        checkArgument(bodyCache != null, "bodyCache can't be null");
+        checkArgument(operationPolicies != null, "operationPolicies can't be null");
+        checkArgument(idGenerator != null, "idGenerator can't be null");
+        // claims, and completions and archiving that act upon what they have just read (e.g. recounts of concurrency
+        // groups, moves of tasks into dead letters or the archive), have to stay strongly consistent
+        for (OperationType operationType : EnumSet.of(OperationType.CLAIM, OperationType.COMPLETE, OperationType.ARCHIVE)) {
+            OperationPolicy policy = operationPolicies.get(operationType);
+            checkArgument(
+                    policy == null || policy.readPreference.map(readPreference -> readPreference.equals(ReadPreference.primary())).orElse(true),
+                    "%s operations must read from the primary", operationType
+            );
+        }
+        OperationPolicy claimPolicy = operationPolicies.get(OperationType.CLAIM);
+        if (claimPolicy != null) {
+            checkArgument(
+                    claimPolicy.writeConcern.map(writeConcern -> writeConcern.isAcknowledged()).orElse(true),
+                    "claim operations must use an acknowledged write concern"
+            );
+        }
+
+        this.bodyCompression = bodyCompression;
+        this.inlineBinaryBodyLimit = inlineBinaryBodyLimit;
+        this.bodyChunks = bodyChunks;
+        this.results = results;
+        this.deadLetters = deadLetters;
+        this.deadLetterBodies = deadLetterBodies;
+        this.archive = archive;
+        this.archiveBodies = archiveBodies;
+        this.claimBodyMode = claimBodyMode;
+        this.claimBodySizeLimit = claimBodySizeLimit;
+        this.claimBucketCount = claimBucketCount;
+        this.shardPartitionCount = shardPartitionCount;
+        this.concurrencyGroups = concurrencyGroups;
+        this.concurrencyLimits = concurrencyLimits;
+        this.defaultConcurrencyLimit = defaultConcurrencyLimit;
+        this.fairShare = fairShare;
+        this.tenantWeights = tenantWeights;
+        this.defaultTenantWeight = defaultTenantWeight;
+        this.rateLimitBuckets = rateLimitBuckets;
+        this.topicRateLimits = topicRateLimits;
+        this.rateLimitLeaseSize = rateLimitLeaseSize;
+        this.bodyCache = bodyCache;
+        this.operationPolicies = operationPolicies;
+        this.idGenerator = idGenerator;
+    }
+
+    public int weightOf(String tenant) {
+        return tenantWeights.getOrDefault(tenant, defaultTenantWeight);
+    }
+
+    // 0 = not limited
+    public int concurrencyLimitOf(String concurrencyGroup) {
+        return concurrencyLimits.getOrDefault(concurrencyGroup, defaultConcurrencyLimit);
+    }
+
+    public MongoTaskDaoConfig withIdGenerator(IdGenerator idGenerator) {
+        return new MongoTaskDaoConfig(
+                bodyCompression,
+                inlineBinaryBodyLimit,
+                bodyChunks,
+                results,
+                deadLetters,
+                deadLetterBodies,
+                archive,
+                archiveBodies,
+                claimBodyMode,
+                claimBodySizeLimit,
+                claimBucketCount,
+                shardPartitionCount,
+                concurrencyGroups,
+                concurrencyLimits,
+                defaultConcurrencyLimit,
+                fairShare,
+                tenantWeights,
+                defaultTenantWeight,
+                rateLimitBuckets,
+                topicRateLimits,
+                rateLimitLeaseSize,
+                bodyCache,
+                operationPolicies,
+                idGenerator
+        );
+    }
+}
@@ -0,0 +1,236 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import mtymes.common.compression.CompressionPolicy;
+import org.bson.Document;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static mtymes.common.compression.CompressionPolicy.noCompression;
+
+public class MongoTaskDaoConfigBuilder {
+
+    private CompressionPolicy bodyCompression = noCompression();
+    private int inlineBinaryBodyLimit = 1024 * 1024;
+    private Optional<MongoCollection<Document>> bodyChunks = Optional.empty();
+    private Optional<MongoCollection<Document>> results = Optional.empty();
+    private Optional<MongoCollection<Document>> deadLetters = Optional.empty();
+    private Optional<MongoCollection<Document>> deadLetterBodies = Optional.empty();
+    private Optional<MongoCollection<Document>> archive = Optional.empty();
+    private Optional<MongoCollection<Document>> archiveBodies = Optional.empty();
+    private ClaimBodyMode claimBodyMode = ClaimBodyMode.ADAPTIVE;
+    private int claimBodySizeLimit = 16 * 1024;
+    private int claimBucketCount = 0;
+    private int shardPartitionCount = 0;
+    private Optional<MongoCollection<Document>> concurrencyGroups = Optional.empty();
+    private final Map<String, Integer> concurrencyLimits = new LinkedHashMap<>();
+    private int defaultConcurrencyLimit = 0;
+    private boolean fairShare = false;
+    private final Map<String, Integer> tenantWeights = new LinkedHashMap<>();
+    private int defaultTenantWeight = 1;
+    private Optional<MongoCollection<Document>> rateLimitBuckets = Optional.empty();
+    private final Map<String, RateLimit> topicRateLimits = new LinkedHashMap<>();
+    private int rateLimitLeaseSize = 10;
+    private Optional<TaskBodyCache> bodyCache = Optional.empty();
+    private final EnumMap<OperationType, OperationPolicy> operationPolicies = new EnumMap<>(OperationType.class);
+    private IdGenerator idGenerator = IdGenerator.randomIds();
+
+    public static MongoTaskDaoConfigBuilder mongoTaskDaoConfigBuilder() {
+        return new MongoTaskDaoConfigBuilder();
+    }
+
+    public static MongoTaskDaoConfig defaultMongoTaskDaoConfig() {
+        return mongoTaskDaoConfigBuilder().build();
+    }
+
+    public MongoTaskDaoConfig build() {
+        return new MongoTaskDaoConfig(
+                bodyCompression,
+                inlineBinaryBodyLimit,
+                bodyChunks,
+                results,
+                deadLetters,
+                deadLetterBodies,
+                archive,
+                archiveBodies,
+                claimBodyMode,
+                claimBodySizeLimit,
+                claimBucketCount,
+                shardPartitionCount,
+                concurrencyGroups,
+                new LinkedHashMap<>(concurrencyLimits),
+                defaultConcurrencyLimit,
+                fairShare,
+                new LinkedHashMap<>(tenantWeights),
+                defaultTenantWeight,
+                rateLimitBuckets,
+                new LinkedHashMap<>(topicRateLimits),
+                rateLimitLeaseSize,
+                bodyCache,
+                new EnumMap<>(operationPolicies),
+                idGenerator
+        );
+    }
+
+    public MongoTaskDaoConfigBuilder bodyCompression(CompressionPolicy bodyCompression) {
+        this.bodyCompression = bodyCompression;
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder inlineBinaryBodyLimit(int inlineBinaryBodyLimit) {
+        this.inlineBinaryBodyLimit = inlineBinaryBodyLimit;
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder bodyChunks(MongoCollection<Document> bodyChunks) {
+        this.bodyChunks = Optional.of(bodyChunks);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder results(MongoCollection<Document> results) {
+        this.results = Optional.of(results);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder deadLetters(MongoCollection<Document> deadLetters) {
+        this.deadLetters = Optional.of(deadLetters);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder deadLetterBodies(MongoCollection<Document> deadLetterBodies) {
+        this.deadLetterBodies = Optional.of(deadLetterBodies);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder archive(MongoCollection<Document> archive) {
+        this.archive = Optional.of(archive);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder archiveBodies(MongoCollection<Document> archiveBodies) {
+        this.archiveBodies = Optional.of(archiveBodies);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder claimBodyMode(ClaimBodyMode claimBodyMode) {
+        this.claimBodyMode = claimBodyMode;
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder claimBodySizeLimit(int claimBodySizeLimit) {
+        this.claimBodySizeLimit = claimBodySizeLimit;
+        return this;
+    }
+
+    /**
+     * Spreads tasks randomly over {@code claimBucketCount} buckets, so concurrent claims don't all compete for the oldest
+     * available task. Requires a tasks collection created by
+     * {@link MongoCollections#claimBucketTasksCollection}.
+     */
+    public MongoTaskDaoConfigBuilder claimBucketCount(int claimBucketCount) {
+        this.claimBucketCount = claimBucketCount;
+        return this;
+    }
+
+    /**
+     * Assigns each task to one of {@code shardPartitionCount} partitions (derived from its id) so the tasks collection
+     * can be sharded by {@link MongoCollections#tasksShardKey()}. Claims then target one partition at a time and all
+     * single task operations target the shard owning the task. Requires a new tasks collection created by
+     * {@link MongoCollections#shardedTasksCollection}.
+     * <p>
+     * A mongos only accepts single document updates carrying the whole shard key (or the {@code _id}), so a claim first
+     * finds the oldest task of the partition and then claims it by its id, and a completion first looks up the id of
+     * the task running the execution. Both cost one more round trip than on an unsharded collection.
+     */
+    public MongoTaskDaoConfigBuilder shardPartitionCount(int shardPartitionCount) {
+        this.shardPartitionCount = shardPartitionCount;
+        return this;
+    }
+
+    /**
+     * Enables concurrency limits: claims skip tasks whose {@code TaskConfig.concurrencyGroup} already has as many
+     * RUNNING tasks as its limit. The running count of each group is kept in the {@code concurrencyGroups} collection
+     * and updated atomically by claims and completions, so the limits hold across all workers.
+     * <p>
+     * Each combination of a concurrency group and a topic is claimed from its own lane (oldest task first) and the lanes
+     * take turns, so a saturated group is never scanned. Requires a tasks collection created by
+     * {@link MongoCollections#limitedTasksCollection}.
+     */
+    public MongoTaskDaoConfigBuilder concurrencyGroups(MongoCollection<Document> concurrencyGroups) {
+        this.concurrencyGroups = Optional.of(concurrencyGroups);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder concurrencyLimit(String concurrencyGroup, int limit) {
+        this.concurrencyLimits.put(concurrencyGroup, limit);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder defaultConcurrencyLimit(int defaultConcurrencyLimit) {
+        this.defaultConcurrencyLimit = defaultConcurrencyLimit;
+        return this;
+    }
+
+    /**
+     * Gives each {@code TaskConfig.tenant} its own lane (tasks without a tenant share one lane) and spreads the claims
+     * over the non-empty lanes by weighted deficit round robin, so a tenant with a large backlog can't starve the others.
+     * Each lane is claimed from its own range of the claim index, so requires a tasks collection created by
+     * {@link MongoCollections#fairShareTasksCollection}.
+     */
+    public MongoTaskDaoConfigBuilder fairShare(boolean fairShare) {
+        this.fairShare = fairShare;
+        return this;
+    }
+
+    // a tenant with weight 3 gets 3 claims for each claim of a tenant with weight 1
+    public MongoTaskDaoConfigBuilder tenantWeight(String tenant, int weight) {
+        this.tenantWeights.put(tenant, weight);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder defaultTenantWeight(int defaultTenantWeight) {
+        this.defaultTenantWeight = defaultTenantWeight;
+        return this;
+    }
+
+    /**
+     * Enables rate limits: claims skip tasks whose {@code TaskConfig.topic} has no token left in its token bucket.
+     * The buckets are kept in the {@code rateLimitBuckets} collection and refilled on access, each node leases up to
+     * {@code rateLimitLeaseSize} tokens at a time so the claims don't all update the same bucket. Tasks are claimed from
+     * the same lanes as with concurrency groups, so requires a tasks collection created by
+     * {@link MongoCollections#limitedTasksCollection}.
+     */
+    public MongoTaskDaoConfigBuilder rateLimitBuckets(MongoCollection<Document> rateLimitBuckets) {
+        this.rateLimitBuckets = Optional.of(rateLimitBuckets);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder topicRateLimit(String topic, RateLimit rateLimit) {
+        this.topicRateLimits.put(topic, rateLimit);
+        return this;
+    }
+
+    // smaller leases keep the limit more precise, larger ones make fewer bucket updates (about rate / node count is a good start)
+    public MongoTaskDaoConfigBuilder rateLimitLeaseSize(int rateLimitLeaseSize) {
+        this.rateLimitLeaseSize = rateLimitLeaseSize;
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder bodyCache(TaskBodyCache bodyCache) {
+        this.bodyCache = Optional.of(bodyCache);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder operationPolicy(OperationType operationType, OperationPolicy operationPolicy) {
+        this.operationPolicies.put(operationType, operationPolicy);
+        return this;
+    }
+
+    public MongoTaskDaoConfigBuilder idGenerator(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+        return this;
+    }
+}
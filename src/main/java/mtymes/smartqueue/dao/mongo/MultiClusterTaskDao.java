@@ -0,0 +1,321 @@
+package mtymes.smartqueue.dao.mongo;
+
+import mtymes.common.time.Clock;
+import mtymes.smartqueue.dao.TaskDao;
+import mtymes.smartqueue.domain.*;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Comparator.comparingInt;
+import static mtymes.smartqueue.dao.mongo.ClusterIds.clusterOf;
+import static mtymes.smartqueue.dao.mongo.ClusterIds.withCluster;
+
+/**
+ * Spreads tasks over several independent clusters (or databases) without sharding them.
+ * <p>
+ * New tasks are assigned to a cluster by consistent hashing of their id and the cluster is stored in the id, so every
+ * id based operation goes straight to the owning cluster (also after clusters have been added). Claims go through
+ * all clusters in the order given by the {@link ClusterClaimStrategy}.
+ */
+public class MultiClusterTaskDao implements TaskDao {
+
+    private final Map<Integer, ClusterDao> clusters = new LinkedHashMap<>();
+    private final List<ClusterDao> clusterList;
+    private final ClusterRing ring;
+    private final ClusterClaimStrategy claimStrategy;
+    private final IdGenerator idGenerator;
+    private final Clock clock;
+
+    private final AtomicInteger nextClaimCluster = new AtomicInteger();
+
+    public MultiClusterTaskDao(List<TaskCluster> clusters, ClusterClaimStrategy claimStrategy, IdGenerator idGenerator, Clock clock) {
+        checkArgument(clusters != null && !clusters.isEmpty(), "clusters can't be null or empty");
+        checkArgument(claimStrategy != null, "claimStrategy can't be null");
+        checkArgument(idGenerator != null, "idGenerator can't be null");
+        checkArgument(clock != null, "clock can't be null");
+
+        for (TaskCluster cluster : clusters) {
+            checkArgument(!this.clusters.containsKey(cluster.clusterId), "clusterId %s is used more than once", cluster.clusterId);
+            this.clusters.put(cluster.clusterId, new ClusterDao(new MongoTaskDao(
+                    cluster.tasks,
+                    cluster.bodies,
+                    cluster.daoConfig.withIdGenerator(new ClusterIdGenerator(cluster.clusterId, cluster.daoConfig.idGenerator)),
+                    clock
+            )));
+        }
+        this.clusterList = new ArrayList<>(this.clusters.values());
+        this.ring = new ClusterRing(this.clusters.keySet());
+        this.claimStrategy = claimStrategy;
+        this.idGenerator = idGenerator;
+        this.clock = clock;
+    }
+
+    public MultiClusterTaskDao(List<TaskCluster> clusters, ClusterClaimStrategy claimStrategy, Clock clock) {
+        this(clusters, claimStrategy, IdGenerator.randomIds(), clock);
+    }
+
+    @Override
+    public TaskId submitTask(TaskConfig config, TaskBody body) {
+        TaskId taskId = newTaskId();
+        return clusterOfTask(taskId).get().dao.submitTask(taskId, config, body);
+    }
+
+    @Override
+    public TaskId submitTask(TaskConfig config, InputStream body) {
+        TaskId taskId = newTaskId();
+        return clusterOfTask(taskId).get().dao.submitTask(taskId, config, body);
+    }
+
+    @Override
+    public List<TaskId> submitTasks(List<TaskSubmission> submissions) {
+        List<TaskId> taskIds = new ArrayList<>(submissions.size());
+        Map<ClusterDao, List<Integer>> indexesByCluster = new LinkedHashMap<>();
+        for (int i = 0; i < submissions.size(); i++) {
+            TaskId taskId = newTaskId();
+            taskIds.add(taskId);
+            indexesByCluster.computeIfAbsent(clusterOfTask(taskId).get(), c -> new ArrayList<>()).add(i);
+        }
+
+        List<ClusterDao> submittedClusters = new ArrayList<>();
+        Map<ClusterDao, List<TaskId>> idsByCluster = new HashMap<>();
+        try {
+            for (Map.Entry<ClusterDao, List<Integer>> entry : indexesByCluster.entrySet()) {
+                List<TaskId> clusterIds = new ArrayList<>();
+                List<TaskSubmission> clusterSubmissions = new ArrayList<>();
+                for (int index : entry.getValue()) {
+                    clusterIds.add(taskIds.get(index));
+                    clusterSubmissions.add(submissions.get(index));
+                }
+                idsByCluster.put(entry.getKey(), clusterIds);
+                entry.getKey().dao.submitTasks(clusterIds, clusterSubmissions);
+                submittedClusters.add(entry.getKey());
+            }
+        } catch (RuntimeException e) {
+            // the failed cluster has cleaned up after itself already, the others have to follow
+            for (ClusterDao cluster : submittedClusters) {
+                cluster.dao.deleteTasks(idsByCluster.get(cluster));
+            }
+            throw e;
+        }
+        return taskIds;
+    }
+
+    @Override
+    public Optional<Task> loadTask(TaskId taskId) {
+        return clusterOfTask(taskId).flatMap(cluster -> cluster.dao.loadTask(taskId));
+    }
+
+    @Override
+    public Map<TaskId, Task> loadTasks(Collection<TaskId> taskIds) {
+        Map<ClusterDao, List<TaskId>> idsByCluster = new LinkedHashMap<>();
+        for (TaskId taskId : taskIds) {
+            clusterOfTask(taskId).ifPresent(cluster ->
+                    idsByCluster.computeIfAbsent(cluster, c -> new ArrayList<>()).add(taskId)
+            );
+        }
+
+        Map<TaskId, Task> loadedTasks = new HashMap<>();
+        idsByCluster.forEach((cluster, ids) -> loadedTasks.putAll(cluster.dao.loadTasks(ids)));
+        return loadedTasks;
+    }
+
+    @Override
+    public Optional<TaskBody> loadTaskBody(TaskId taskId) {
+        return clusterOfTask(taskId).flatMap(cluster -> cluster.dao.loadTaskBody(taskId));
+    }
+
+    @Override
+    public Optional<InputStream> loadTaskBodyStream(TaskId taskId) {
+        return clusterOfTask(taskId).flatMap(cluster -> cluster.dao.loadTaskBodyStream(taskId));
+    }
+
+    @Override
+    public Optional<TaskResult> loadTaskResult(TaskId taskId) {
+        return clusterOfTask(taskId).flatMap(cluster -> cluster.dao.loadTaskResult(taskId));
+    }
+
+    @Override
+    public boolean cancelTask(TaskId taskId, Optional<ExecutionId> lastAssumedExecutionId) {
+        return clusterOfTask(taskId).map(cluster -> cluster.dao.cancelTask(taskId, lastAssumedExecutionId)).orElse(false);
+    }
+
+    @Override
+    public Optional<Execution> createNextExecution() {
+        return claimFromClusters(MongoTaskDao::createNextExecution);
+    }
+
+    @Override
+    public Optional<ExecutionWithBody> createNextExecutionWithBody() {
+        return claimFromClusters(MongoTaskDao::createNextExecutionWithBody);
+    }
+
+    @Override
+    public boolean markAsSucceeded(ExecutionId executionId) {
+        return completeInCluster(executionId, dao -> dao.markAsSucceeded(executionId));
+    }
+
+    @Override
+    public boolean markAsSucceeded(ExecutionId executionId, TaskResult result) {
+        return completeInCluster(executionId, dao -> dao.markAsSucceeded(executionId, result));
+    }
+
+    @Override
+    public Map<ExecutionId, Boolean> markAsSucceeded(Collection<ExecutionId> executionIds) {
+        return completeInClusters(executionIds, MongoTaskDao::markAsSucceeded);
+    }
+
+    @Override
+    public boolean markAsFailed(ExecutionId executionId) {
+        return completeInCluster(executionId, dao -> dao.markAsFailed(executionId));
+    }
+
+    @Override
+    public boolean markAsFailed(ExecutionId executionId, TaskResult errorDetails) {
+        return completeInCluster(executionId, dao -> dao.markAsFailed(executionId, errorDetails));
+    }
+
+    @Override
+    public Map<ExecutionId, Boolean> markAsFailed(Collection<ExecutionId> executionIds) {
+        return completeInClusters(executionIds, MongoTaskDao::markAsFailed);
+    }
+
+    @Override
+    public boolean releaseExecution(ExecutionId executionId) {
+        return completeInCluster(executionId, dao -> dao.releaseExecution(executionId));
+    }
+
+    @Override
+    public boolean setTTL(TaskId taskId, Duration duration) {
+        return clusterOfTask(taskId).map(cluster -> cluster.dao.setTTL(taskId, duration)).orElse(false);
+    }
+
+    @Override
+    public boolean keepForever(TaskId taskId) {
+        return clusterOfTask(taskId).map(cluster -> cluster.dao.keepForever(taskId)).orElse(false);
+    }
+
+    @Override
+    public Optional<Duration> getTTL(TaskId taskId) {
+        return clusterOfTask(taskId).flatMap(cluster -> cluster.dao.getTTL(taskId));
+    }
+
+    int inFlightCount(int clusterId) {
+        return clusters.get(clusterId).inFlightCount.get();
+    }
+
+    private TaskId newTaskId() {
+        UUID id = idGenerator.newTaskId(clock.now()).getValue();
+        return TaskId.taskId(withCluster(id, ring.clusterFor(id)));
+    }
+
+    private Optional<ClusterDao> clusterOfTask(TaskId taskId) {
+        // ids not issued by this dao point to a cluster that either doesn't exist or doesn't know the task
+        return Optional.ofNullable(clusters.get(clusterOf(taskId.getValue())));
+    }
+
+    private Optional<ClusterDao> clusterOfExecution(ExecutionId executionId) {
+        return Optional.ofNullable(clusters.get(clusterOf(executionId.getValue())));
+    }
+
+    private <T> Optional<T> claimFromClusters(Function<MongoTaskDao, Optional<T>> claim) {
+        for (ClusterDao cluster : claimOrder()) {
+            Optional<T> claimed = claim.apply(cluster.dao);
+            if (claimed.isPresent()) {
+                cluster.inFlightCount.incrementAndGet();
+                return claimed;
+            }
+        }
+        return Optional.empty();
+    }
+
+    private List<ClusterDao> claimOrder() {
+        int firstCluster = Math.floorMod(nextClaimCluster.getAndIncrement(), clusterList.size());
+        List<ClusterDao> claimOrder = new ArrayList<>(clusterList.size());
+        for (int i = 0; i < clusterList.size(); i++) {
+            claimOrder.add(clusterList.get((firstCluster + i) % clusterList.size()));
+        }
+        if (claimStrategy == ClusterClaimStrategy.LEAST_LOADED) {
+            // stable sort, so equally loaded clusters are still taken in round robin order
+            claimOrder.sort(comparingInt(cluster -> cluster.inFlightCount.get()));
+        }
+        return claimOrder;
+    }
+
+    private boolean completeInCluster(ExecutionId executionId, Function<MongoTaskDao, Boolean> completion) {
+        Optional<ClusterDao> cluster = clusterOfExecution(executionId);
+        boolean completed = cluster.map(c -> completion.apply(c.dao)).orElse(false);
+        if (completed) {
+            cluster.get().executionFinished(1);
+        }
+        return completed;
+    }
+
+    private Map<ExecutionId, Boolean> completeInClusters(Collection<ExecutionId> executionIds, BulkCompletion completion) {
+        Map<ClusterDao, List<ExecutionId>> idsByCluster = new LinkedHashMap<>();
+        for (ExecutionId executionId : executionIds) {
+            clusterOfExecution(executionId).ifPresent(cluster ->
+                    idsByCluster.computeIfAbsent(cluster, c -> new ArrayList<>()).add(executionId)
+            );
+        }
+
+        Map<ExecutionId, Boolean> completed = new HashMap<>();
+        idsByCluster.forEach((cluster, ids) -> {
+            Map<ExecutionId, Boolean> clusterResults = completion.complete(cluster.dao, ids);
+            cluster.executionFinished((int) clusterResults.values().stream().filter(Boolean::booleanValue).count());
+            completed.putAll(clusterResults);
+        });
+
+        Map<ExecutionId, Boolean> results = new LinkedHashMap<>();
+        for (ExecutionId executionId : executionIds) {
+            results.put(executionId, completed.getOrDefault(executionId, false));
+        }
+        return results;
+    }
+
+    private interface BulkCompletion {
+        Map<ExecutionId, Boolean> complete(MongoTaskDao dao, Collection<ExecutionId> executionIds);
+    }
+
+    private static class ClusterDao {
+
+        final MongoTaskDao dao;
+        // executions claimed through this dao that were not completed or released through it yet
+        final AtomicInteger inFlightCount = new AtomicInteger();
+
+        ClusterDao(MongoTaskDao dao) {
+            this.dao = dao;
+        }
+
+        void executionFinished(int count) {
+            // executions claimed before a restart (or by other nodes) are completed here as well
+            inFlightCount.updateAndGet(value -> Math.max(0, value - count));
+        }
+    }
+
+    private static class ClusterIdGenerator implements IdGenerator {
+
+        private final int clusterId;
+        private final IdGenerator idGenerator;
+
+        ClusterIdGenerator(int clusterId, IdGenerator idGenerator) {
+            this.clusterId = clusterId;
+            this.idGenerator = idGenerator;
+        }
+
+        @Override
+        public TaskId newTaskId(ZonedDateTime now) {
+            return TaskId.taskId(withCluster(idGenerator.newTaskId(now).getValue(), clusterId));
+        }
+
+        @Override
+        public ExecutionId newExecutionId(ZonedDateTime now) {
+            return ExecutionId.executionId(withCluster(idGenerator.newExecutionId(now).getValue(), clusterId));
+        }
+    }
+}
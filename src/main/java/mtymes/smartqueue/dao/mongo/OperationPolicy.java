@@ -0,0 +1,70 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import javafixes.object.DataObject;
+import org.bson.Document;
+
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Overrides the defaults of the MongoCollection for one type of operations. Anything not defined is left as is.
+ */
+public class OperationPolicy extends DataObject {
+
+    public final Optional<ReadPreference> readPreference;
+    public final Optional<ReadConcern> readConcern;
+    public final Optional<WriteConcern> writeConcern;
+
+    public OperationPolicy(Optional<ReadPreference> readPreference, Optional<ReadConcern> readConcern, Optional<WriteConcern> writeConcern) {
+        checkArgument(readPreference != null, "readPreference can't be null");
+        checkArgument(readConcern != null, "readConcern can't be null");
+        checkArgument(writeConcern != null, "writeConcern can't be null");
+
+        this.readPreference = readPreference;
+        this.readConcern = readConcern;
+        this.writeConcern = writeConcern;
+    }
+
+    public static OperationPolicy collectionDefaults() {
+        return new OperationPolicy(Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    public static OperationPolicy readPolicy(ReadPreference readPreference) {
+        return new OperationPolicy(Optional.of(readPreference), Optional.empty(), Optional.empty());
+    }
+
+    public static OperationPolicy writePolicy(WriteConcern writeConcern) {
+        return new OperationPolicy(Optional.empty(), Optional.empty(), Optional.of(writeConcern));
+    }
+
+    public OperationPolicy withReadPreference(ReadPreference readPreference) {
+        return new OperationPolicy(Optional.of(readPreference), readConcern, writeConcern);
+    }
+
+    public OperationPolicy withReadConcern(ReadConcern readConcern) {
+        return new OperationPolicy(readPreference, Optional.of(readConcern), writeConcern);
+    }
+
+    public OperationPolicy withWriteConcern(WriteConcern writeConcern) {
+        return new OperationPolicy(readPreference, readConcern, Optional.of(writeConcern));
+    }
+
+    MongoCollection<Document> applyTo(MongoCollection<Document> collection) {
+        MongoCollection<Document> result = collection;
+        if (readPreference.isPresent()) {
+            result = result.withReadPreference(readPreference.get());
+        }
+        if (readConcern.isPresent()) {
+            result = result.withReadConcern(readConcern.get());
+        }
+        if (writeConcern.isPresent()) {
+            result = result.withWriteConcern(writeConcern.get());
+        }
+        return result;
+    }
+}
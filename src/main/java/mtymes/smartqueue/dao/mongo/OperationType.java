@@ -0,0 +1,18 @@
+package mtymes.smartqueue.dao.mongo;
+
+public enum OperationType {
+
+    // submitTask, redriveDeadLetters
+    SUBMIT,
+    // loadTask, loadTaskBody, loadTaskBodyStream, loadTaskResult, loadDeadLetteredTaskIds
+    READ,
+    // createNextExecution, createNextExecutionWithBody
+    CLAIM,
+    // markAsSucceeded, markAsFailed (including moves to dead letters), cancelTask
+    COMPLETE,
+    // setTTL, keepForever, getTTL
+    TTL,
+    // archiveTerminalTasks
+    ARCHIVE
+
+}
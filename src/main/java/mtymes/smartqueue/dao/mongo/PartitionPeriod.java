@@ -0,0 +1,47 @@
+package mtymes.smartqueue.dao.mongo;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.OptionalLong;
+
+import static mtymes.common.time.DateUtil.UTC_ZONE_ID;
+
+public enum PartitionPeriod {
+
+    // one collection per hour, named <prefix>_yyyy_MM_dd_HH
+    HOUR(Duration.ofHours(1), "uuuu_MM_dd_HH"),
+    // one collection per day, named <prefix>_yyyy_MM_dd
+    DAY(Duration.ofDays(1), "uuuu_MM_dd");
+
+    public final Duration length;
+    private final DateTimeFormatter formatter;
+
+    PartitionPeriod(Duration length, String pattern) {
+        this.length = length;
+        this.formatter = DateTimeFormatter.ofPattern(pattern).withZone(UTC_ZONE_ID);
+    }
+
+    long partitionOf(long epochMillis) {
+        return Math.floorDiv(epochMillis, length.toMillis());
+    }
+
+    long startMillisOf(long partition) {
+        return partition * length.toMillis();
+    }
+
+    String nameOf(long partition) {
+        return formatter.format(Instant.ofEpochMilli(startMillisOf(partition)));
+    }
+
+    OptionalLong partitionOf(String name) {
+        try {
+            ZonedDateTime start = this == DAY
+                    ? LocalDate.parse(name, formatter).atStartOfDay(UTC_ZONE_ID)
+                    : LocalDateTime.parse(name, formatter).atZone(UTC_ZONE_ID);
+            return OptionalLong.of(partitionOf(start.toInstant().toEpochMilli()));
+        } catch (DateTimeParseException e) {
+            return OptionalLong.empty();
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoDatabase;
+import mtymes.common.time.Clock;
+import mtymes.smartqueue.dao.TaskDao;
+import mtymes.smartqueue.domain.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static mtymes.common.uuid.TimeOrderedUUID.epochMillisOf;
+import static mtymes.common.uuid.TimeOrderedUUID.isTimeOrdered;
+import static mtymes.common.uuid.TimeOrderedUUID.timeOrderedUUID;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.claimBucketTasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.fairShareTasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.limitedTasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+
+/**
+ * Stores tasks in one collection per {@link PartitionPeriod} (resolved from the submit time) so expired tasks can be
+ * removed by dropping whole collections instead of relying on the one-document-at-a-time TTL monitor.
+ * <p>
+ * Task and execution ids are time ordered and carry the time of their partition, so every id based operation goes
+ * straight to a single partition. Claims go through the active partitions from the oldest one, older partitions found
+ * empty are skipped until the partitions are refreshed.
+ * <p>
+ * A task can't outlive its partition, so TTLs reaching past the drop of the partition are rejected and tasks can't be
+ * kept forever.
+ */
+public class PartitionedTaskDao implements TaskDao {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedTaskDao.class);
+
+    // partitions created by other nodes are noticed by claims within this interval
+    private static final Duration PARTITION_REFRESH_INTERVAL = Duration.ofSeconds(10);
+
+    private final MongoDatabase database;
+    private final String tasksCollectionPrefix;
+    private final Optional<String> bodiesCollectionPrefix;
+    private final PartitionPeriod period;
+    private final Duration retention;
+    private final MongoTaskDaoConfig daoConfig;
+    private final Clock clock;
+
+    private final ConcurrentMap<Long, MongoTaskDao> partitionDaos = new ConcurrentHashMap<>();
+    private final Set<Long> existingPartitions = new ConcurrentSkipListSet<>();
+    private final Set<Long> emptyPartitions = ConcurrentHashMap.newKeySet();
+    private volatile long lastPartitionRefreshAt = Long.MIN_VALUE;
+
+    public PartitionedTaskDao(
+            MongoDatabase database,
+            String tasksCollectionPrefix,
+            Optional<String> bodiesCollectionPrefix,
+            PartitionPeriod period,
+            Duration retention,
+            MongoTaskDaoConfig daoConfig,
+            Clock clock
+    ) {
+        checkArgument(database != null, "database can't be null");
+        checkArgument(tasksCollectionPrefix != null && !tasksCollectionPrefix.isEmpty(), "tasksCollectionPrefix can't be null or empty");
+        checkArgument(bodiesCollectionPrefix != null, "bodiesCollectionPrefix can't be null");
+        checkArgument(!bodiesCollectionPrefix.equals(Optional.of(tasksCollectionPrefix)), "bodiesCollectionPrefix must differ from tasksCollectionPrefix");
+        checkArgument(period != null, "period can't be null");
+        checkArgument(retention != null && !retention.isNegative(), "retention can't be null or negative");
+        checkArgument(daoConfig != null, "daoConfig can't be null");
+        // these collections are shared by all partitions, so they would outlive the dropped ones
+        checkArgument(!daoConfig.bodyChunks.isPresent(), "bodyChunks are not supported with partitioned collections");
+        checkArgument(!daoConfig.results.isPresent(), "results are not supported with partitioned collections");
+        checkArgument(!daoConfig.deadLetters.isPresent(), "deadLetters are not supported with partitioned collections");
+        checkArgument(!daoConfig.archive.isPresent(), "archive is not supported with partitioned collections");
+        // collections created on the fly by this dao are not sharded
+        checkArgument(daoConfig.shardPartitionCount == 0, "shard partitions are not supported with partitioned collections");
+
+        this.database = database;
+        this.tasksCollectionPrefix = tasksCollectionPrefix;
+        this.bodiesCollectionPrefix = bodiesCollectionPrefix;
+        this.period = period;
+        this.retention = retention;
+        this.daoConfig = daoConfig;
+        this.clock = clock;
+    }
+
+    @Override
+    public TaskId submitTask(TaskConfig config, TaskBody body) {
+        return currentPartition().submitTask(config, body);
+    }
+
+    @Override
+    public TaskId submitTask(TaskConfig config, InputStream body) {
+        return currentPartition().submitTask(config, body);
+    }
+
+    @Override
+    public List<TaskId> submitTasks(List<TaskSubmission> submissions) {
+        return currentPartition().submitTasks(submissions);
+    }
+
+    @Override
+    public Optional<Task> loadTask(TaskId taskId) {
+        return partitionOf(taskId.getValue()).flatMap(dao -> dao.loadTask(taskId));
+    }
+
+    @Override
+    public Map<TaskId, Task> loadTasks(Collection<TaskId> taskIds) {
+        Map<MongoTaskDao, List<TaskId>> idsByPartition = new LinkedHashMap<>();
+        for (TaskId taskId : taskIds) {
+            partitionOf(taskId.getValue()).ifPresent(dao ->
+                    idsByPartition.computeIfAbsent(dao, d -> new ArrayList<>()).add(taskId)
+            );
+        }
+
+        Map<TaskId, Task> loadedTasks = new HashMap<>();
+        idsByPartition.forEach((dao, ids) -> loadedTasks.putAll(dao.loadTasks(ids)));
+        return loadedTasks;
+    }
+
+    @Override
+    public Optional<TaskBody> loadTaskBody(TaskId taskId) {
+        return partitionOf(taskId.getValue()).flatMap(dao -> dao.loadTaskBody(taskId));
+    }
+
+    @Override
+    public Optional<InputStream> loadTaskBodyStream(TaskId taskId) {
+        return partitionOf(taskId.getValue()).flatMap(dao -> dao.loadTaskBodyStream(taskId));
+    }
+
+    @Override
+    public Optional<TaskResult> loadTaskResult(TaskId taskId) {
+        return partitionOf(taskId.getValue()).flatMap(dao -> dao.loadTaskResult(taskId));
+    }
+
+    @Override
+    public boolean cancelTask(TaskId taskId, Optional<ExecutionId> lastAssumedExecutionId) {
+        return partitionOf(taskId.getValue()).map(dao -> dao.cancelTask(taskId, lastAssumedExecutionId)).orElse(false);
+    }
+
+    @Override
+    public Optional<Execution> createNextExecution() {
+        return claimFromActivePartitions(MongoTaskDao::createNextExecution);
+    }
+
+    @Override
+    public Optional<ExecutionWithBody> createNextExecutionWithBody() {
+        return claimFromActivePartitions(MongoTaskDao::createNextExecutionWithBody);
+    }
+
+    @Override
+    public boolean markAsSucceeded(ExecutionId executionId) {
+        return partitionOf(executionId.getValue()).map(dao -> dao.markAsSucceeded(executionId)).orElse(false);
+    }
+
+    @Override
+    public boolean markAsSucceeded(ExecutionId executionId, TaskResult result) {
+        return partitionOf(executionId.getValue()).map(dao -> dao.markAsSucceeded(executionId, result)).orElse(false);
+    }
+
+    @Override
+    public Map<ExecutionId, Boolean> markAsSucceeded(Collection<ExecutionId> executionIds) {
+        return completeInPartitions(executionIds, MongoTaskDao::markAsSucceeded);
+    }
+
+    @Override
+    public boolean markAsFailed(ExecutionId executionId) {
+        boolean failed = partitionOf(executionId.getValue()).map(dao -> dao.markAsFailed(executionId)).orElse(false);
+        if (failed) {
+            // the task could be available for a retry
+            emptyPartitions.remove(partitionOfId(executionId.getValue()));
+        }
+        return failed;
+    }
+
+    @Override
+    public boolean markAsFailed(ExecutionId executionId, TaskResult errorDetails) {
+        boolean failed = partitionOf(executionId.getValue()).map(dao -> dao.markAsFailed(executionId, errorDetails)).orElse(false);
+        if (failed) {
+            emptyPartitions.remove(partitionOfId(executionId.getValue()));
+        }
+        return failed;
+    }
+
+    @Override
+    public Map<ExecutionId, Boolean> markAsFailed(Collection<ExecutionId> executionIds) {
+        Map<ExecutionId, Boolean> failed = completeInPartitions(executionIds, MongoTaskDao::markAsFailed);
+        failed.forEach((executionId, hasFailed) -> {
+            if (hasFailed) {
+                emptyPartitions.remove(partitionOfId(executionId.getValue()));
+            }
+        });
+        return failed;
+    }
+
+    @Override
+    public boolean releaseExecution(ExecutionId executionId) {
+        boolean released = partitionOf(executionId.getValue()).map(dao -> dao.releaseExecution(executionId)).orElse(false);
+        if (released) {
+            emptyPartitions.remove(partitionOfId(executionId.getValue()));
+        }
+        return released;
+    }
+
+    @Override
+    public boolean setTTL(TaskId taskId, Duration duration) {
+        Optional<MongoTaskDao> partitionDao = partitionOf(taskId.getValue());
+        if (!partitionDao.isPresent()) {
+            return false;
+        }
+        long dropMillis = period.startMillisOf(partitionOfId(taskId.getValue()) + 1) + retention.toMillis();
+        checkArgument(
+                !clock.now().plus(duration).toInstant().isAfter(Instant.ofEpochMilli(dropMillis)),
+                "TTL %s outlives the partition of task %s, which is dropped at %s",
+                duration, taskId, Instant.ofEpochMilli(dropMillis)
+        );
+        return partitionDao.get().setTTL(taskId, duration);
+    }
+
+    @Override
+    public boolean keepForever(TaskId taskId) {
+        if (!partitionOf(taskId.getValue()).isPresent()) {
+            return false;
+        }
+        throw new IllegalArgumentException("Task " + taskId + " can't be kept forever, its partition is dropped after the retention of " + retention);
+    }
+
+    @Override
+    public Optional<Duration> getTTL(TaskId taskId) {
+        return partitionOf(taskId.getValue()).flatMap(dao -> dao.getTTL(taskId));
+    }
+
+    /**
+     * Drops the collections of partitions that ended more than {@code retention} ago.
+     *
+     * @return number of dropped partitions
+     */
+    public int dropExpiredPartitions() {
+        long firstActivePartition = firstActivePartition();
+
+        Set<Long> expiredPartitions = new TreeSet<>();
+        for (String collectionName : database.listCollectionNames()) {
+            OptionalLong partition = partitionOfCollection(collectionName, tasksCollectionPrefix);
+            if (!partition.isPresent() && bodiesCollectionPrefix.isPresent()) {
+                partition = partitionOfCollection(collectionName, bodiesCollectionPrefix.get());
+            }
+            if (partition.isPresent() && partition.getAsLong() < firstActivePartition) {
+                expiredPartitions.add(partition.getAsLong());
+                database.getCollection(collectionName).drop();
+            }
+        }
+        for (Long partition : expiredPartitions) {
+            existingPartitions.remove(partition);
+            emptyPartitions.remove(partition);
+            partitionDaos.remove(partition);
+            logger.info("Dropped expired partition '{}'", period.nameOf(partition));
+        }
+        return expiredPartitions.size();
+    }
+
+    List<Long> activePartitions() {
+        refreshExistingPartitionsIfNeeded();
+        long firstActivePartition = firstActivePartition();
+        long currentPartition = period.partitionOf(clock.now().toInstant().toEpochMilli());
+
+        List<Long> activePartitions = new ArrayList<>();
+        for (Long partition : existingPartitions) {
+            if (partition >= firstActivePartition && partition <= currentPartition + 1) {
+                activePartitions.add(partition);
+            }
+        }
+        return activePartitions;
+    }
+
+    private MongoTaskDao currentPartition() {
+        long partition = period.partitionOf(clock.now().toInstant().toEpochMilli());
+        if (!existingPartitions.contains(partition)) {
+            // makes sure the collections exist with all their indexes before anything is stored into them
+            if (daoConfig.claimBucketCount > 0) {
+                claimBucketTasksCollection(database, tasksCollectionName(partition));
+            } else if (daoConfig.fairShare) {
+                fairShareTasksCollection(database, tasksCollectionName(partition));
+            } else if (daoConfig.concurrencyGroups.isPresent() || daoConfig.rateLimitBuckets.isPresent()) {
+                limitedTasksCollection(database, tasksCollectionName(partition));
+            } else {
+                tasksCollection(database, tasksCollectionName(partition));
+            }
+            bodiesCollectionPrefix.ifPresent(prefix -> bodiesCollection(database, collectionName(prefix, partition)));
+            existingPartitions.add(partition);
+        }
+        return partitionDao(partition);
+    }
+
+    private Optional<MongoTaskDao> partitionOf(UUID id) {
+        if (!isTimeOrdered(id)) {
+            // ids not issued by this dao can't be stored in any partition
+            return Optional.empty();
+        }
+        long partition = partitionOfId(id);
+        long currentPartition = period.partitionOf(clock.now().toInstant().toEpochMilli());
+        // the next partition is allowed to tolerate small clock differences between nodes
+        if (partition < firstActivePartition() || partition > currentPartition + 1) {
+            return Optional.empty();
+        }
+        return Optional.of(partitionDao(partition));
+    }
+
+    private long partitionOfId(UUID id) {
+        return period.partitionOf(epochMillisOf(id));
+    }
+
+    private MongoTaskDao partitionDao(long partition) {
+        return partitionDaos.computeIfAbsent(partition, p -> new MongoTaskDao(
+                database.getCollection(tasksCollectionName(p)),
+                bodiesCollectionPrefix.map(prefix -> database.getCollection(collectionName(prefix, p))),
+                daoConfig.withIdGenerator(new PartitionIdGenerator(p)),
+                clock
+        ));
+    }
+
+    private <T> Optional<T> claimFromActivePartitions(Function<MongoTaskDao, Optional<T>> claim) {
+        long currentPartition = period.partitionOf(clock.now().toInstant().toEpochMilli());
+        // older partitions first, so tasks are claimed in roughly the order they were submitted
+        for (Long partition : activePartitions()) {
+            // new tasks are submitted only into the current partition (or the next one), so only older partitions
+            // can be skipped without delaying their claims
+            boolean olderPartition = partition < currentPartition;
+            if (olderPartition && emptyPartitions.contains(partition)) {
+                continue;
+            }
+            Optional<T> claimed = claim.apply(partitionDao(partition));
+            if (claimed.isPresent()) {
+                return claimed;
+            }
+            if (olderPartition) {
+                emptyPartitions.add(partition);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Map<ExecutionId, Boolean> completeInPartitions(
+            Collection<ExecutionId> executionIds,
+            BulkCompletion completion
+    ) {
+        Map<MongoTaskDao, List<ExecutionId>> idsByPartition = new LinkedHashMap<>();
+        for (ExecutionId executionId : executionIds) {
+            partitionOf(executionId.getValue()).ifPresent(dao ->
+                    idsByPartition.computeIfAbsent(dao, d -> new ArrayList<>()).add(executionId)
+            );
+        }
+
+        Map<ExecutionId, Boolean> completed = new HashMap<>();
+        idsByPartition.forEach((dao, ids) -> completed.putAll(completion.complete(dao, ids)));
+
+        Map<ExecutionId, Boolean> results = new LinkedHashMap<>();
+        for (ExecutionId executionId : executionIds) {
+            results.put(executionId, completed.getOrDefault(executionId, false));
+        }
+        return results;
+    }
+
+    private void refreshExistingPartitionsIfNeeded() {
+        long now = System.nanoTime();
+        if (lastPartitionRefreshAt != Long.MIN_VALUE && now - lastPartitionRefreshAt < PARTITION_REFRESH_INTERVAL.toNanos()) {
+            return;
+        }
+        lastPartitionRefreshAt = now;
+        // delayed and retried tasks of other nodes become available in older partitions too
+        emptyPartitions.clear();
+
+        Set<Long> partitions = new HashSet<>();
+        for (String collectionName : database.listCollectionNames()) {
+            partitionOfCollection(collectionName, tasksCollectionPrefix).ifPresent(partitions::add);
+        }
+        existingPartitions.addAll(partitions);
+        existingPartitions.retainAll(partitions);
+    }
+
+    private long firstActivePartition() {
+        return period.partitionOf(clock.now().minus(retention).toInstant().toEpochMilli());
+    }
+
+    private OptionalLong partitionOfCollection(String collectionName, String prefix) {
+        if (!collectionName.startsWith(prefix + "_")) {
+            return OptionalLong.empty();
+        }
+        return period.partitionOf(collectionName.substring(prefix.length() + 1));
+    }
+
+    private String tasksCollectionName(long partition) {
+        return collectionName(tasksCollectionPrefix, partition);
+    }
+
+    private String collectionName(String prefix, long partition) {
+        return prefix + "_" + period.nameOf(partition);
+    }
+
+    private interface BulkCompletion {
+        Map<ExecutionId, Boolean> complete(MongoTaskDao dao, Collection<ExecutionId> executionIds);
+    }
+
+    private class PartitionIdGenerator implements IdGenerator {
+
+        private final long startMillis;
+        private final long endMillis;
+
+        PartitionIdGenerator(long partition) {
+            this.startMillis = period.startMillisOf(partition);
+            this.endMillis = period.startMillisOf(partition + 1);
+        }
+
+        @Override
+        public TaskId newTaskId(ZonedDateTime now) {
+            // the submit could have crossed the partition boundary after the partition had been chosen
+            long millis = Math.min(Math.max(now.toInstant().toEpochMilli(), startMillis), endMillis - 1);
+            return TaskId.taskId(timeOrderedUUID(millis));
+        }
+
+        @Override
+        public ExecutionId newExecutionId(ZonedDateTime now) {
+            // executions are stored with their task, so they carry the time of the task's partition
+            return ExecutionId.executionId(timeOrderedUUID(startMillis));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package mtymes.smartqueue.dao.mongo;
+
+import javafixes.object.DataObject;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Token bucket limit: refills {@code permitsPerSecond} tokens a second up to {@code burst} tokens, each claim takes one.
+ */
+public class RateLimit extends DataObject {
+
+    public final double permitsPerSecond;
+    public final int burst;
+
+    public RateLimit(double permitsPerSecond, int burst) {
+        checkArgument(permitsPerSecond > 0, "permitsPerSecond must be greater than 0");
+        checkArgument(burst > 0, "burst must be greater than 0");
+
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+    }
+
+    public static RateLimit rateLimit(double permitsPerSecond, int burst) {
+        return new RateLimit(permitsPerSecond, burst);
+    }
+
+    public static RateLimit perSecond(double permitsPerSecond) {
+        return new RateLimit(permitsPerSecond, (int) Math.max(1, Math.ceil(permitsPerSecond)));
+    }
+}
@@ -0,0 +1,36 @@
+package mtymes.smartqueue.dao.mongo;
+
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Maps task and execution ids onto shard partitions. The partition is derived from the (random) low bits of the id,
+ * so it never has to be looked up and every id based operation can target the shard owning the task.
+ */
+class ShardPartitions {
+
+    private static final long PARTITION_BITS_MASK = 0x7FFF_FFFFL;
+
+    static int partitionOf(UUID id, int partitionCount) {
+        checkArgument(partitionCount > 0, "partitionCount must be greater than 0");
+        return (int) ((id.getLeastSignificantBits() & PARTITION_BITS_MASK) % partitionCount);
+    }
+
+    /**
+     * @return id that differs from the given one only in its lowest bits and maps onto {@code partition}
+     */
+    static UUID moveIntoPartition(UUID id, int partition, int partitionCount) {
+        checkArgument(partition >= 0 && partition < partitionCount, "partition must be between 0 and %s", partitionCount - 1);
+
+        long lowBits = id.getLeastSignificantBits() & PARTITION_BITS_MASK;
+        long movedLowBits = lowBits - (lowBits % partitionCount) + partition;
+        if (movedLowBits > PARTITION_BITS_MASK) {
+            movedLowBits -= partitionCount;
+        }
+        return new UUID(
+                id.getMostSignificantBits(),
+                (id.getLeastSignificantBits() & ~PARTITION_BITS_MASK) | movedLowBits
+        );
+    }
+}
@@ -0,0 +1,77 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Periodically moves SUCCEEDED and CANCELLED tasks older than {@code olderThan} into the archive, so the tasks
+ * collection only grows with the backlog and not with history. Each run archives batches until no archivable task is left.
+ */
+public class TaskArchiver implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskArchiver.class);
+
+    private final MongoTaskDao taskDao;
+    private final Duration olderThan;
+    private final int batchSize;
+    private final Duration interval;
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean closed = false;
+
+    public TaskArchiver(MongoTaskDao taskDao, Duration olderThan, int batchSize, Duration interval) {
+        checkArgument(taskDao != null, "taskDao can't be null");
+        checkArgument(olderThan != null && !olderThan.isNegative(), "olderThan can't be null or negative");
+        checkArgument(batchSize > 0, "batchSize must be greater than 0");
+        checkArgument(interval != null && interval.toMillis() > 0, "interval must be greater than 0");
+
+        this.taskDao = taskDao;
+        this.olderThan = olderThan;
+        this.batchSize = batchSize;
+        this.interval = interval;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("smart-queue-task-archiver").setDaemon(true).build()
+        );
+    }
+
+    public TaskArchiver start() {
+        scheduler.scheduleWithFixedDelay(this::archiveAll, 0, interval.toMillis(), MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * @return number of archived tasks
+     */
+    public long archiveAll() {
+        long archivedCount = 0;
+        try {
+            int batchCount;
+            do {
+                batchCount = taskDao.archiveTerminalTasks(olderThan, batchSize);
+                archivedCount += batchCount;
+            } while (batchCount == batchSize && !closed);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to archive terminal tasks", e);
+        }
+        if (archivedCount > 0) {
+            logger.info("Archived {} terminal tasks", archivedCount);
+        }
+        return archivedCount;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdown();
+    }
+}
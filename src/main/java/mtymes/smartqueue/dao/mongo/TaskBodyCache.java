@@ -0,0 +1,117 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import mtymes.common.mongo.ChangeStreamWatcher;
+import mtymes.common.time.Clock;
+import mtymes.smartqueue.domain.TaskBody;
+import mtymes.smartqueue.domain.TaskId;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.smartqueue.domain.TaskId.taskId;
+
+/**
+ * In-process cache of task bodies bounded by their total size. As bodies never change after submission only their
+ * expiration has to be tracked. Entries expire once their task becomes eligible for the TTL deletion.
+ */
+public class TaskBodyCache {
+
+    // rough per entry overhead of the key, entry and string objects
+    private static final int ENTRY_OVERHEAD_IN_BYTES = 128;
+
+    private final Cache<TaskId, CachedBody> cache;
+    private final Clock clock;
+
+    public TaskBodyCache(long maxSizeInBytes, Clock clock) {
+        checkArgument(maxSizeInBytes > 0, "maxSizeInBytes must be greater than 0");
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSizeInBytes)
+                .weigher((TaskId taskId, CachedBody cachedBody) -> cachedBody.sizeInBytes())
+                .recordStats()
+                .build();
+        this.clock = clock;
+    }
+
+    public Optional<TaskBody> get(TaskId taskId) {
+        CachedBody cachedBody = cache.getIfPresent(taskId);
+        if (cachedBody == null) {
+            return Optional.empty();
+        }
+        if (cachedBody.deleteAfter.isPresent() && !clock.now().isBefore(cachedBody.deleteAfter.get())) {
+            cache.invalidate(taskId);
+            return Optional.empty();
+        }
+        return Optional.of(cachedBody.body);
+    }
+
+    public void put(TaskId taskId, TaskBody body, Optional<ZonedDateTime> deleteAfter) {
+        cache.put(taskId, new CachedBody(body, deleteAfter));
+    }
+
+    public void invalidate(TaskId taskId) {
+        cache.invalidate(taskId);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public double hitRate() {
+        return cache.stats().hitRate();
+    }
+
+    /**
+     * Watches the collection the bodies are loaded from so bodies deleted or re-timed by other processes
+     * (including the deletions done by the TTL monitor) don't linger in the cache
+     */
+    public ChangeStreamWatcher invalidateOnChangesOf(MongoCollection<Document> bodiesOrTasks) {
+        return new ChangeStreamWatcher(
+                "taskBodyCache-" + bodiesOrTasks.getNamespace().getCollectionName(),
+                bodiesOrTasks,
+                singletonList(doc("$match", doc("$or", asList(
+                        doc("operationType", doc("$in", asList("delete", "replace"))),
+                        // bodies don't change once stored, other updates (e.g. completions of tasks) keep them cached
+                        doc("updateDescription.updatedFields." + MongoTaskDao.DELETE_AFTER, doc("$exists", true)),
+                        doc("updateDescription.removedFields", MongoTaskDao.DELETE_AFTER)
+                )))),
+                this::onChange,
+                this::invalidateAll
+        ).start();
+    }
+
+    private void onChange(ChangeStreamDocument<Document> change) {
+        BsonValue id = change.getDocumentKey() != null ? change.getDocumentKey().get("_id") : null;
+        if (id != null && id.isString()) {
+            invalidate(taskId(id.asString().getValue()));
+        }
+    }
+
+    private static class CachedBody {
+        final TaskBody body;
+        final Optional<ZonedDateTime> deleteAfter;
+
+        CachedBody(TaskBody body, Optional<ZonedDateTime> deleteAfter) {
+            this.body = body;
+            this.deleteAfter = deleteAfter;
+        }
+
+        int sizeInBytes() {
+            return ENTRY_OVERHEAD_IN_BYTES + body.content.length() * 2;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import javafixes.object.DataObject;
+import org.bson.Document;
+
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Collections of one cluster (or database) used by {@link MultiClusterTaskDao}.
+ * The clusterId is stored in the ids of the tasks, so it must never change or be reused for another cluster.
+ */
+public class TaskCluster extends DataObject {
+
+    public final int clusterId;
+    public final MongoCollection<Document> tasks;
+    public final Optional<MongoCollection<Document>> bodies;
+    public final MongoTaskDaoConfig daoConfig;
+
+    public TaskCluster(int clusterId, MongoCollection<Document> tasks, Optional<MongoCollection<Document>> bodies, MongoTaskDaoConfig daoConfig) {
+        checkArgument(clusterId >= 0 && clusterId <= ClusterIds.MAX_CLUSTER_ID, "clusterId must be between 0 and %s", ClusterIds.MAX_CLUSTER_ID);
+        checkArgument(tasks != null, "tasks can't be null");
+        checkArgument(bodies != null, "bodies can't be null");
+        checkArgument(daoConfig != null, "daoConfig can't be null");
+
+        this.clusterId = clusterId;
+        this.tasks = tasks;
+        this.bodies = bodies;
+        this.daoConfig = daoConfig;
+    }
+
+    public static TaskCluster taskCluster(int clusterId, MongoCollection<Document> tasks, Optional<MongoCollection<Document>> bodies, MongoTaskDaoConfig daoConfig) {
+        return new TaskCluster(clusterId, tasks, bodies, daoConfig);
+    }
+}
@@ -0,0 +1,233 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import mtymes.common.mongo.ChangeStreamWatcher;
+import mtymes.common.mongo.DocWrapper;
+import mtymes.smartqueue.dao.TaskDao;
+import mtymes.smartqueue.domain.Task;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.smartqueue.domain.TaskState;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.common.mongo.DocBuilder.docBuilder;
+import static mtymes.common.mongo.DocWrapper.wrap;
+import static mtymes.smartqueue.domain.TaskId.taskId;
+
+/**
+ * Lets callers wait for tasks to reach a terminal state (SUCCEEDED, CANCELLED or FAILED without attempts left)
+ * without polling loadTask(...) themselves.
+ * <p>
+ * All waiters share a single change stream on the tasks collection and the task state is only read when a task
+ * somebody waits for changes. On a standalone server (no change streams) all waited for tasks are checked
+ * with a single query every {@code pollInterval}.
+ */
+public class TaskCompletionWatcher implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskCompletionWatcher.class);
+
+    private static final String _ID = "_id";
+    private static final String STATE = "state";
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
+    private final TaskDao taskDao;
+    private final MongoCollection<Document> tasks;
+    private final Duration pollInterval;
+
+    private final ConcurrentMap<TaskId, Set<CompletableFuture<Optional<Task>>>> waiters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final ChangeStreamWatcher changeStreamWatcher;
+
+    private volatile boolean closed = false;
+
+    public TaskCompletionWatcher(TaskDao taskDao, MongoCollection<Document> tasks, Duration pollInterval) {
+        checkArgument(taskDao != null, "taskDao can't be null");
+        checkArgument(tasks != null, "tasks can't be null");
+        checkArgument(pollInterval != null && pollInterval.toMillis() > 0, "pollInterval must be greater than 0");
+
+        this.taskDao = taskDao;
+        this.tasks = tasks;
+        this.pollInterval = pollInterval;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("smart-queue-completion-watcher").setDaemon(true).build()
+        );
+        this.changeStreamWatcher = new ChangeStreamWatcher(
+                "taskCompletion-" + tasks.getNamespace().getCollectionName(),
+                tasks,
+                singletonList(doc("$match", doc("$or", asList(
+                        docBuilder()
+                                .put("operationType", "update")
+                                .put("updateDescription.updatedFields." + STATE, doc("$in", asList(
+                                        TaskState.SUCCEEDED, TaskState.CANCELLED, TaskState.FAILED
+                                )))
+                                .build(),
+                        doc("operationType", doc("$in", asList("replace", "delete")))
+                )))),
+                this::onChange,
+                this::checkAllWaitedForTasks
+        );
+    }
+
+    public TaskCompletionWatcher start() {
+        changeStreamWatcher.start();
+        scheduler.scheduleWithFixedDelay(this::pollIfChangeStreamIsNotAvailable, pollInterval.toMillis(), pollInterval.toMillis(), MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * @return the task once it reached a terminal state, or empty if it didn't reach one within the timeout or doesn't exist
+     */
+    public Optional<Task> awaitCompletion(TaskId taskId, Duration timeout) throws InterruptedException {
+        try {
+            return awaitCompletionAsync(taskId, timeout).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public CompletableFuture<Optional<Task>> awaitCompletionAsync(TaskId taskId, Duration timeout) {
+        checkState(!closed, "watcher has already been closed");
+        checkArgument(timeout != null && !timeout.isNegative(), "timeout can't be null or negative");
+
+        CompletableFuture<Optional<Task>> completion = new CompletableFuture<>();
+        // added within compute(...) so it can't end up in a set that is just being notified and removed
+        waiters.compute(taskId, (id, taskWaiters) -> {
+            Set<CompletableFuture<Optional<Task>>> updatedWaiters = taskWaiters != null ? taskWaiters : ConcurrentHashMap.newKeySet();
+            updatedWaiters.add(completion);
+            return updatedWaiters;
+        });
+        completion.whenComplete((task, failure) -> removeWaiter(taskId, completion));
+
+        ScheduledFuture<?> timeoutCheck = scheduler.schedule(
+                () -> completion.complete(Optional.empty()),
+                timeout.toMillis(),
+                MILLISECONDS
+        );
+        completion.whenComplete((task, failure) -> timeoutCheck.cancel(false));
+
+        // the task could have completed before we started waiting for it
+        try {
+            checkTasks(singletonList(taskId));
+        } catch (RuntimeException e) {
+            completion.completeExceptionally(e);
+        }
+
+        return completion;
+    }
+
+    int waitedForTaskCount() {
+        return waiters.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        changeStreamWatcher.stop();
+        scheduler.shutdownNow();
+        for (Set<CompletableFuture<Optional<Task>>> taskWaiters : waiters.values()) {
+            for (CompletableFuture<Optional<Task>> waiter : taskWaiters) {
+                waiter.complete(Optional.empty());
+            }
+        }
+        waiters.clear();
+    }
+
+    private void onChange(ChangeStreamDocument<Document> change) {
+        BsonValue id = change.getDocumentKey() != null ? change.getDocumentKey().get(_ID) : null;
+        if (id != null && id.isString()) {
+            TaskId taskId = taskId(id.asString().getValue());
+            // most completions are of tasks nobody waits for, those don't need to be read
+            if (waiters.containsKey(taskId)) {
+                checkTasks(singletonList(taskId));
+            }
+        }
+    }
+
+    private void pollIfChangeStreamIsNotAvailable() {
+        if (!changeStreamWatcher.isRunning()) {
+            checkAllWaitedForTasks();
+        }
+    }
+
+    private void checkAllWaitedForTasks() {
+        try {
+            for (List<TaskId> taskIds : Iterables.partition(new ArrayList<>(waiters.keySet()), MAX_IDS_PER_QUERY)) {
+                checkTasks(taskIds);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to check state of waited for tasks", e);
+        }
+    }
+
+    private void checkTasks(List<TaskId> taskIds) {
+        if (taskIds.isEmpty()) {
+            return;
+        }
+        Set<TaskId> missingTaskIds = new HashSet<>(taskIds);
+        for (Document doc : tasks
+                .find(doc(_ID, doc("$in", taskIds)))
+                .projection(docBuilder()
+                        .put(STATE, 1)
+                        .put(MongoTaskDao.EXECUTION_ATTEMPTS_LEFT, 1)
+                        .build())) {
+            DocWrapper dbTask = wrap(doc);
+            TaskId taskId = dbTask.getTaskId(_ID);
+            missingTaskIds.remove(taskId);
+            if (isTerminal(dbTask)) {
+                notifyWaiters(taskId, taskDao.loadTask(taskId));
+            }
+        }
+        for (TaskId taskId : missingTaskIds) {
+            // either moved out of the tasks collection (dead letters), deleted or never existed, so it won't change anymore
+            notifyWaiters(taskId, taskDao.loadTask(taskId));
+        }
+    }
+
+    private void notifyWaiters(TaskId taskId, Optional<Task> task) {
+        Set<CompletableFuture<Optional<Task>>> taskWaiters = waiters.remove(taskId);
+        if (taskWaiters != null) {
+            for (CompletableFuture<Optional<Task>> waiter : taskWaiters) {
+                waiter.complete(task);
+            }
+        }
+    }
+
+    private void removeWaiter(TaskId taskId, CompletableFuture<Optional<Task>> completion) {
+        waiters.computeIfPresent(taskId, (id, taskWaiters) -> {
+            taskWaiters.remove(completion);
+            return taskWaiters.isEmpty() ? null : taskWaiters;
+        });
+    }
+
+    private static boolean isTerminal(DocWrapper dbTask) {
+        TaskState state = dbTask.getTaskState(STATE);
+        switch (state) {
+            case SUCCEEDED:
+            case CANCELLED:
+                return true;
+            case FAILED:
+                return dbTask.getInteger(MongoTaskDao.EXECUTION_ATTEMPTS_LEFT) <= 0;
+            default:
+                return false;
+        }
+    }
+}
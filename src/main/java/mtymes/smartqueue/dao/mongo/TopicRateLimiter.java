@@ -0,0 +1,166 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import mtymes.common.mongo.DocWrapper;
+import mtymes.common.time.Clock;
+import org.bson.Document;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.common.mongo.DocBuilder.docBuilder;
+import static mtymes.common.mongo.DocWrapper.wrap;
+
+/**
+ * Token buckets of rate limited topics. The buckets live in a shared collection so the limits hold across all nodes,
+ * but each node leases up to {@code leaseSize} tokens at a time and hands them out locally, so claims don't all
+ * update the same bucket document.
+ * <p>
+ * Leased tokens are only valid for {@link #LEASE_VALIDITY}, so tokens hoarded by a node can't be spent in one burst later.
+ * Tokens left unused when a lease expires are returned to the bucket (on the next acquire of the topic), so they can
+ * still be spent by any node.
+ */
+class TopicRateLimiter {
+
+    static final Duration LEASE_VALIDITY = Duration.ofSeconds(1);
+
+    private static final String _ID = "_id";
+    private static final String TOKENS = "tokens";
+    private static final String REFILLED_AT = "refilledAt";
+    // after this many lost races for the bucket the topic counts as throttled for the current claim
+    private static final int MAX_LEASE_ATTEMPTS = 5;
+
+    private final MongoCollection<Document> buckets;
+    private final Map<String, RateLimit> rateLimits;
+    private final int leaseSize;
+    private final Clock clock;
+
+    private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<>();
+
+    TopicRateLimiter(MongoCollection<Document> buckets, Map<String, RateLimit> rateLimits, int leaseSize, Clock clock) {
+        this.buckets = buckets;
+        this.rateLimits = rateLimits;
+        this.leaseSize = leaseSize;
+        this.clock = clock;
+    }
+
+    boolean isLimited(String topic) {
+        return rateLimits.containsKey(topic);
+    }
+
+    boolean tryAcquire(String topic) {
+        Lease lease = leases.computeIfAbsent(topic, t -> new Lease());
+        // one lease request per topic at a time, the other claimers wait for its tokens
+        synchronized (lease) {
+            ZonedDateTime now = clock.now();
+            if (lease.tokens > 0 && lease.validUntil.isPresent() && now.isBefore(lease.validUntil.get())) {
+                lease.tokens--;
+                return true;
+            }
+            if (lease.tokens > 0) {
+                returnTokens(topic, lease.tokens);
+                lease.tokens = 0;
+            }
+            if (lease.noTokensUntil.isPresent() && now.isBefore(lease.noTokensUntil.get())) {
+                return false;
+            }
+
+            RateLimit rateLimit = rateLimits.get(topic);
+            int leasedTokens = leaseTokens(topic, rateLimit, now);
+            if (leasedTokens == 0) {
+                // asks the bucket again once a whole token could have been refilled
+                lease.noTokensUntil = Optional.of(now.plusNanos((long) (1_000_000_000L / rateLimit.permitsPerSecond)));
+                return false;
+            }
+            lease.tokens = leasedTokens - 1;
+            lease.validUntil = Optional.of(now.plus(LEASE_VALIDITY));
+            return true;
+        }
+    }
+
+    // for tokens acquired for a claim that didn't happen
+    void giveBack(String topic) {
+        Lease lease = leases.get(topic);
+        if (lease != null) {
+            synchronized (lease) {
+                lease.tokens++;
+            }
+        }
+    }
+
+    private int leaseTokens(String topic, RateLimit rateLimit, ZonedDateTime now) {
+        for (int attempt = 0; attempt < MAX_LEASE_ATTEMPTS; attempt++) {
+            Document bucket = buckets.find(doc(_ID, topic)).first();
+            if (bucket == null) {
+                createFullBucket(topic, rateLimit, now);
+                continue;
+            }
+
+            DocWrapper dbBucket = wrap(bucket);
+            ZonedDateTime refilledAt = dbBucket.getZonedDateTime(REFILLED_AT);
+            // clocks of the nodes can differ, the refill time never goes back
+            ZonedDateTime refillTime = now.isAfter(refilledAt) ? now : refilledAt;
+            double elapsedSeconds = Duration.between(refilledAt, refillTime).toNanos() / 1_000_000_000.0;
+            double tokens = Math.min(rateLimit.burst, dbBucket.getDouble(TOKENS) + elapsedSeconds * rateLimit.permitsPerSecond);
+
+            int leasedTokens = (int) Math.min(leaseSize, Math.floor(tokens));
+            if (leasedTokens == 0) {
+                return 0;
+            }
+
+            // compare and set, so concurrent leases can't take the same tokens
+            long modifiedCount = buckets.updateOne(
+                    docBuilder()
+                            .put(_ID, topic)
+                            .put(TOKENS, bucket.get(TOKENS))
+                            .put(REFILLED_AT, bucket.get(REFILLED_AT))
+                            .build(),
+                    doc("$set", docBuilder()
+                            .put(TOKENS, tokens - leasedTokens)
+                            .put(REFILLED_AT, refillTime)
+                            .build())
+            ).getModifiedCount();
+            if (modifiedCount == 1) {
+                return leasedTokens;
+            }
+        }
+        return 0;
+    }
+
+    private void returnTokens(String topic, int tokens) {
+        // tokens over the burst are capped by the next refill
+        buckets.updateOne(
+                doc(_ID, topic),
+                doc("$inc", doc(TOKENS, (double) tokens))
+        );
+    }
+
+    private void createFullBucket(String topic, RateLimit rateLimit, ZonedDateTime now) {
+        try {
+            buckets.insertOne(docBuilder()
+                    .put(_ID, topic)
+                    .put(TOKENS, (double) rateLimit.burst)
+                    .put(REFILLED_AT, now)
+                    .build());
+        } catch (MongoWriteException e) {
+            // created by another node in the meantime
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+        }
+    }
+
+    private static class Lease {
+
+        int tokens = 0;
+        Optional<ZonedDateTime> validUntil = Optional.empty();
+        Optional<ZonedDateTime> noTokensUntil = Optional.empty();
+    }
+}
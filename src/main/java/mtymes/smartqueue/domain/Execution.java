@@ -1,5 +1,7 @@
 package mtymes.smartqueue.domain;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import javafixes.object.DataObject;
 
 import java.time.ZonedDateTime;
@@ -12,7 +14,14 @@ public class Execution extends DataObject {
     public final ZonedDateTime updatedAt;
     public final ExecutionState state;
 
-    public Execution(TaskId taskId, ExecutionId executionId, ZonedDateTime createdAt, ZonedDateTime updatedAt, ExecutionState state) {
+    @JsonCreator
+    public Execution(
+            @JsonProperty("taskId") TaskId taskId,
+            @JsonProperty("executionId") ExecutionId executionId,
+            @JsonProperty("createdAt") ZonedDateTime createdAt,
+            @JsonProperty("updatedAt") ZonedDateTime updatedAt,
+            @JsonProperty("state") ExecutionState state
+    ) {
         this.taskId = taskId;
         this.executionId = executionId;
         this.createdAt = createdAt;
@@ -4,6 +4,7 @@ public enum ExecutionState {
 
     CREATED,
     SUCCEEDED,
-    FAILED
+    FAILED,
+    RELEASED // handed back to the queue without using up an attempt
 
 }
@@ -0,0 +1,22 @@
+package mtymes.smartqueue.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+import java.util.Optional;
+
+public class ExecutionWithBody extends DataObject {
+
+    public final Execution execution;
+    public final Optional<TaskBody> body; // if not present it has to be loaded separately
+
+    @JsonCreator
+    public ExecutionWithBody(
+            @JsonProperty("execution") Execution execution,
+            @JsonProperty("body") Optional<TaskBody> body
+    ) {
+        this.execution = execution;
+        this.body = body;
+    }
+}
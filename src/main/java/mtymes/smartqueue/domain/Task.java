@@ -1,5 +1,7 @@
 package mtymes.smartqueue.domain;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import javafixes.object.DataObject;
 
 import java.time.ZonedDateTime;
@@ -15,13 +17,14 @@ public class Task extends DataObject {
     public final Optional<ExecutionId> lastExecutionId;
     public final List<Execution> executions; // todo: make this an optional feature
 
+    @JsonCreator
     public Task(
-            TaskId taskId,
-            ZonedDateTime submittedAt,
-            ZonedDateTime updatedAt,
-            TaskState state,
-            Optional<ExecutionId> lastExecutionId,
-            List<Execution> executions
+            @JsonProperty("taskId") TaskId taskId,
+            @JsonProperty("submittedAt") ZonedDateTime submittedAt,
+            @JsonProperty("updatedAt") ZonedDateTime updatedAt,
+            @JsonProperty("state") TaskState state,
+            @JsonProperty("lastExecutionId") Optional<ExecutionId> lastExecutionId,
+            @JsonProperty("executions") List<Execution> executions
     ) {
         this.taskId = taskId;
         this.submittedAt = submittedAt;
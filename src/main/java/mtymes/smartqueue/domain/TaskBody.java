@@ -1,12 +1,15 @@
 package mtymes.smartqueue.domain;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import javafixes.object.DataObject;
 
 public class TaskBody extends DataObject {
 
     public final String content;
 
-    public TaskBody(String content) {
+    @JsonCreator
+    public TaskBody(@JsonProperty("content") String content) {
         this.content = content;
     }
 }
@@ -1,5 +1,7 @@
 package mtymes.smartqueue.domain;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import javafixes.object.DataObject;
 
 import java.time.Duration;
@@ -11,15 +13,47 @@ public class TaskConfig extends DataObject {
 
     public final int attemptCount;
     public final Optional<Duration> ttl;
+    // tasks sharing a concurrency group are limited in how many of them can run at the same time
+    public final Optional<String> concurrencyGroup;
+    // with fair share claims each tenant gets its own lane, so one tenant's backlog can't starve the others
+    public final Optional<String> tenant;
+    // kind of the task, claims of tasks of a rate limited topic are throttled
+    public final Optional<String> topic;
 
     public TaskConfig(int attemptCount, Optional<Duration> ttl) {
+        this(attemptCount, ttl, Optional.empty(), Optional.empty(), Optional.empty());
+    }
+
+    @JsonCreator
+    public TaskConfig(
+            @JsonProperty("attemptCount") int attemptCount,
+            @JsonProperty("ttl") Optional<Duration> ttl,
+            @JsonProperty("concurrencyGroup") Optional<String> concurrencyGroup,
+            @JsonProperty("tenant") Optional<String> tenant,
+            @JsonProperty("topic") Optional<String> topic
+    ) {
         checkArgument(attemptCount > 0, "attemptCount must be greater than 0");
         checkArgument(ttl != null, "ttl can't be null");
         if (ttl.isPresent()) {
             checkArgument(ttl.get().toMillis() >= 0, "ttl can't have negative value");
         }
+        checkArgument(concurrencyGroup != null, "concurrencyGroup can't be null");
+        if (concurrencyGroup.isPresent()) {
+            checkArgument(!concurrencyGroup.get().isEmpty(), "concurrencyGroup can't be empty");
+        }
+        checkArgument(tenant != null, "tenant can't be null");
+        if (tenant.isPresent()) {
+            checkArgument(!tenant.get().isEmpty(), "tenant can't be empty");
+        }
+        checkArgument(topic != null, "topic can't be null");
+        if (topic.isPresent()) {
+            checkArgument(!topic.get().isEmpty(), "topic can't be empty");
+        }
 
         this.attemptCount = attemptCount;
         this.ttl = ttl;
+        this.concurrencyGroup = concurrencyGroup;
+        this.tenant = tenant;
+        this.topic = topic;
     }
 }
@@ -0,0 +1,15 @@
+package mtymes.smartqueue.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+public class TaskResult extends DataObject {
+
+    public final String content;
+
+    @JsonCreator
+    public TaskResult(@JsonProperty("content") String content) {
+        this.content = content;
+    }
+}
@@ -0,0 +1,25 @@
+package mtymes.smartqueue.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javafixes.object.DataObject;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class TaskSubmission extends DataObject {
+
+    public final TaskConfig config;
+    public final TaskBody body;
+
+    @JsonCreator
+    public TaskSubmission(
+            @JsonProperty("config") TaskConfig config,
+            @JsonProperty("body") TaskBody body
+    ) {
+        checkArgument(config != null, "config can't be null");
+        checkArgument(body != null, "body can't be null");
+
+        this.config = config;
+        this.body = body;
+    }
+}
@@ -0,0 +1,129 @@
+package mtymes.smartqueue.server;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import mtymes.smartqueue.dao.TaskDao;
+import mtymes.smartqueue.domain.ExecutionId;
+import mtymes.smartqueue.domain.ExecutionWithBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Writes claimed executions as newline delimited json.
+ * <p>
+ * Executions are claimed only once the previous one has been handed over to the output stream, so the amount of
+ * claimed but undelivered executions is bounded by the output buffer and a slow client slows down the claiming
+ * (a blocked write blocks the next claim). Executions that fail to be written or flushed are released back to the queue.
+ */
+class ExecutionStreamer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionStreamer.class);
+
+    private static final byte NEW_LINE = '\n';
+
+    private static final int FLUSH_EVERY = 64;
+    private static final long MAX_FLUSH_DELAY_NANOS = MILLISECONDS.toNanos(50);
+    private static final long MIN_POLL_DELAY_MILLIS = 5;
+    private static final long MAX_POLL_DELAY_MILLIS = 500;
+
+    private final TaskDao taskDao;
+    private final ObjectWriter writer;
+
+    ExecutionStreamer(TaskDao taskDao, ObjectWriter writer) {
+        this.taskDao = taskDao;
+        this.writer = writer;
+    }
+
+    int stream(OutputStream out, boolean withBody, int limit, Duration idleTimeout) throws IOException, InterruptedException {
+        long idleTimeoutNanos = idleTimeout.toNanos();
+
+        int sentCount = 0;
+        // written into the buffer of the stream, but not flushed to the client yet
+        List<ExecutionId> unflushedIds = new ArrayList<>();
+        long lastFlushAt = System.nanoTime();
+        long idleSince = lastFlushAt;
+        long pollDelayMillis = MIN_POLL_DELAY_MILLIS;
+
+        while (sentCount < limit) {
+            Optional<ExecutionWithBody> execution = claim(withBody);
+            long now = System.nanoTime();
+
+            if (execution.isPresent()) {
+                unflushedIds.add(execution.get().execution.executionId);
+                write(out, execution.get(), unflushedIds);
+                sentCount++;
+                idleSince = now;
+                pollDelayMillis = MIN_POLL_DELAY_MILLIS;
+
+                if (unflushedIds.size() >= FLUSH_EVERY || now - lastFlushAt >= MAX_FLUSH_DELAY_NANOS) {
+                    flush(out, unflushedIds);
+                    lastFlushAt = now;
+                }
+            } else {
+                if (!unflushedIds.isEmpty()) {
+                    flush(out, unflushedIds);
+                    lastFlushAt = now;
+                }
+
+                long idleRemainingNanos = idleTimeoutNanos - (now - idleSince);
+                if (idleRemainingNanos <= 0) {
+                    break;
+                }
+                Thread.sleep(min(pollDelayMillis, NANOSECONDS.toMillis(idleRemainingNanos) + 1));
+                pollDelayMillis = min(pollDelayMillis * 2, MAX_POLL_DELAY_MILLIS);
+            }
+        }
+
+        flush(out, unflushedIds);
+        return sentCount;
+    }
+
+    Optional<ExecutionWithBody> claim(boolean withBody) {
+        return withBody
+                ? taskDao.createNextExecutionWithBody()
+                : taskDao.createNextExecution().map(execution -> new ExecutionWithBody(execution, Optional.empty()));
+    }
+
+    private void write(OutputStream out, ExecutionWithBody execution, List<ExecutionId> unflushedIds) throws IOException {
+        try {
+            out.write(writer.writeValueAsBytes(execution));
+            out.write(NEW_LINE);
+        } catch (IOException e) {
+            // a write that fails because the buffer couldn't be sent loses the buffered executions as well
+            releaseUndelivered(unflushedIds, e);
+            throw e;
+        }
+    }
+
+    private void flush(OutputStream out, List<ExecutionId> unflushedIds) throws IOException {
+        try {
+            out.flush();
+            unflushedIds.clear();
+        } catch (IOException e) {
+            releaseUndelivered(unflushedIds, e);
+            throw e;
+        }
+    }
+
+    private void releaseUndelivered(List<ExecutionId> executionIds, IOException cause) {
+        logger.warn("Claimed executions {} couldn't be delivered to the client, releasing them", executionIds, cause);
+        for (ExecutionId executionId : executionIds) {
+            try {
+                taskDao.releaseExecution(executionId);
+            } catch (RuntimeException releaseException) {
+                logger.error("Failed to release execution '{}'", executionId, releaseException);
+            }
+        }
+        executionIds.clear();
+    }
+}
@@ -0,0 +1,370 @@
+package mtymes.smartqueue.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import com.mongodb.client.MongoDatabase;
+import mtymes.common.time.Clock;
+import mtymes.smartqueue.api.dto.*;
+import mtymes.smartqueue.dao.BinaryTaskBodyException;
+import mtymes.smartqueue.dao.TaskDao;
+import mtymes.smartqueue.dao.mongo.BootstrappedCollections;
+import mtymes.smartqueue.dao.mongo.MongoTaskDao;
+import mtymes.smartqueue.domain.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+import spark.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Collections.emptyMap;
+import static mtymes.common.json.JsonMapper.objectMapper;
+import static mtymes.smartqueue.dao.mongo.MongoCollectionsBootstrap.collectionsBootstrap;
+import static mtymes.smartqueue.domain.ExecutionId.executionId;
+import static mtymes.smartqueue.domain.TaskId.taskId;
+
+public class SmartQueueServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SmartQueueServer.class);
+
+    static final String JSON_CONTENT_TYPE = "application/json";
+    static final String BINARY_CONTENT_TYPE = "application/octet-stream";
+    static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    static final int MAX_BATCH_SIZE = 1_000;
+    static final int MAX_CONCURRENT_STREAMS = 32;
+    static final Duration DEFAULT_STREAM_IDLE_TIMEOUT = Duration.ofSeconds(30);
+    static final Duration MAX_STREAM_IDLE_TIMEOUT = Duration.ofMinutes(5);
+
+    private static final String NO_BODY = "";
+
+    private final TaskDao taskDao;
+    private final int port;
+    private final ObjectMapper mapper;
+    private final ExecutionStreamer streamer;
+    private final Semaphore streamPermits = new Semaphore(MAX_CONCURRENT_STREAMS);
+
+    private Service http;
+
+    public SmartQueueServer(TaskDao taskDao, int port) {
+        checkArgument(taskDao != null, "taskDao can't be null");
+        checkArgument(port >= 0, "port can't be negative");
+
+        this.taskDao = taskDao;
+        this.port = port;
+        this.mapper = objectMapper();
+        this.streamer = new ExecutionStreamer(taskDao, mapper.writer());
+    }
+
+    public synchronized SmartQueueServer start() {
+        checkState(http == null, "server has already been started");
+
+        http = Service.ignite().port(port);
+        registerRoutes(http);
+        http.awaitInitialization();
+
+        logger.info("SmartQueue server started on port {}", port);
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (http != null) {
+            http.stop();
+            http = null;
+            logger.info("SmartQueue server stopped");
+        }
+    }
+
+    public int port() {
+        return port;
+    }
+
+    // usage: SmartQueueServer <mongoUri> <dbName> <port>
+    public static void main(String[] args) {
+        checkArgument(args.length == 3, "expected arguments: <mongoUri> <dbName> <port>");
+
+        MongoClient mongoClient = new MongoClient(new MongoClientURI(args[0]));
+        MongoDatabase database = mongoClient.getDatabase(args[1]);
+        BootstrappedCollections collections = collectionsBootstrap(database)
+                .tasksCollection("tasks")
+                .bodiesCollection("bodies")
+                .bootstrap();
+        TaskDao taskDao = new MongoTaskDao(
+                collections.collection("tasks"),
+                Optional.of(collections.collection("bodies")),
+                new Clock()
+        );
+
+        SmartQueueServer server = new SmartQueueServer(taskDao, Integer.parseInt(args[2])).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            mongoClient.close();
+        }));
+    }
+
+    private void registerRoutes(Service http) {
+
+        http.post("/tasks", json((request, response) -> {
+            SubmitTaskRequest submit = read(request, SubmitTaskRequest.class);
+            TaskId taskId = taskDao.submitTask(submit.config, submit.body);
+            response.status(201);
+            return new SubmitTaskResponse(taskId);
+        }));
+
+        http.post("/tasks/batch", json((request, response) -> {
+            SubmitTasksRequest submit = read(request, SubmitTasksRequest.class);
+            checkBatchSize(submit.tasks.size());
+            List<TaskSubmission> submissions = new ArrayList<>(submit.tasks.size());
+            for (SubmitTaskRequest task : submit.tasks) {
+                submissions.add(new TaskSubmission(task.config, task.body));
+            }
+            // stored all at once, so a failed batch can be retried without duplicating its tasks
+            List<TaskId> taskIds = taskDao.submitTasks(submissions);
+            response.status(201);
+            return new SubmitTasksResponse(taskIds);
+        }));
+
+        http.post("/tasks/statuses", json((request, response) -> {
+            TaskStatusesRequest statusesRequest = read(request, TaskStatusesRequest.class);
+            checkBatchSize(statusesRequest.taskIds.size());
+            Map<TaskId, Task> tasks = taskDao.loadTasks(statusesRequest.taskIds);
+            List<TaskStatus> statuses = new ArrayList<>(statusesRequest.taskIds.size());
+            for (TaskId taskId : statusesRequest.taskIds) {
+                statuses.add(new TaskStatus(taskId, Optional.ofNullable(tasks.get(taskId)).map(task -> task.state)));
+            }
+            return new TaskStatusesResponse(statuses);
+        }));
+
+        http.get("/tasks/:taskId", json((request, response) ->
+                orNotFound(taskDao.loadTask(taskIdParam(request)), response)
+        ));
+
+        http.get("/tasks/:taskId/body", json((request, response) ->
+                orNotFound(taskDao.loadTaskBody(taskIdParam(request)), response)
+        ));
+
+        http.get("/tasks/:taskId/result", json((request, response) ->
+                orNotFound(taskDao.loadTaskResult(taskIdParam(request)), response)
+        ));
+
+        http.get("/tasks/:taskId/body/stream", (request, response) -> {
+            Optional<InputStream> body = taskDao.loadTaskBodyStream(taskIdParam(request));
+            if (!body.isPresent()) {
+                response.status(404);
+                response.type(JSON_CONTENT_TYPE);
+                return toJson(new ErrorResponse("task body not found"));
+            }
+            response.type(BINARY_CONTENT_TYPE);
+            try (InputStream in = body.get(); OutputStream out = response.raw().getOutputStream()) {
+                ByteStreams.copy(in, out);
+            }
+            return NO_BODY;
+        });
+
+        http.post("/tasks/:taskId/cancel", json((request, response) -> {
+            CancelTaskRequest cancel = request.body().isEmpty()
+                    ? new CancelTaskRequest(Optional.empty())
+                    : read(request, CancelTaskRequest.class);
+            return new AppliedResponse(taskDao.cancelTask(taskIdParam(request), cancel.lastAssumedExecutionId));
+        }));
+
+        http.put("/tasks/:taskId/ttl", json((request, response) -> {
+            TTLRequest ttl = read(request, TTLRequest.class);
+            return new AppliedResponse(taskDao.setTTL(taskIdParam(request), ttl.ttl));
+        }));
+
+        http.delete("/tasks/:taskId/ttl", json((request, response) ->
+                new AppliedResponse(taskDao.keepForever(taskIdParam(request)))
+        ));
+
+        http.get("/tasks/:taskId/ttl", json((request, response) -> {
+            TaskId taskId = taskIdParam(request);
+            Optional<Duration> ttl = taskDao.getTTL(taskId);
+            // getTTL can't distinguish "kept forever" from "unknown task", so we check existence separately
+            if (!ttl.isPresent() && !taskDao.loadTask(taskId).isPresent()) {
+                return notFound(response);
+            }
+            return new TTLResponse(ttl);
+        }));
+
+        http.post("/executions", json((request, response) -> {
+            Optional<ExecutionWithBody> execution = streamer.claim(withBodyParam(request));
+            if (!execution.isPresent()) {
+                response.status(204);
+                return NO_BODY;
+            }
+            return execution.get();
+        }));
+
+        http.post("/executions/stream", (request, response) -> {
+            int limit = intParam(request, "limit", Integer.MAX_VALUE);
+            checkArgument(limit > 0, "limit must be greater than 0");
+            Duration idleTimeout = Duration.ofMillis(intParam(request, "idleTimeoutMs", (int) DEFAULT_STREAM_IDLE_TIMEOUT.toMillis()));
+            checkArgument(!idleTimeout.isNegative(), "idleTimeoutMs can't be negative");
+            checkArgument(idleTimeout.compareTo(MAX_STREAM_IDLE_TIMEOUT) <= 0, "idleTimeoutMs can't be greater than " + MAX_STREAM_IDLE_TIMEOUT.toMillis());
+            boolean withBody = withBodyParam(request);
+
+            if (!streamPermits.tryAcquire()) {
+                response.status(429);
+                response.type(JSON_CONTENT_TYPE);
+                return toJson(new ErrorResponse("too many concurrent streams"));
+            }
+            try {
+                response.type(NDJSON_CONTENT_TYPE);
+                try (OutputStream out = response.raw().getOutputStream()) {
+                    streamer.stream(out, withBody, limit, idleTimeout);
+                }
+                return NO_BODY;
+            } finally {
+                streamPermits.release();
+            }
+        });
+
+        http.post("/executions/batch/complete", json((request, response) -> {
+            CompleteExecutionsRequest complete = read(request, CompleteExecutionsRequest.class);
+            checkBatchSize(complete.executions.size());
+            return new CompleteExecutionsResponse(complete(complete.executions));
+        }));
+
+        http.post("/executions/:executionId/succeeded", json((request, response) -> {
+            ExecutionId executionId = executionIdParam(request);
+            return new AppliedResponse(request.body().isEmpty()
+                    ? taskDao.markAsSucceeded(executionId)
+                    : taskDao.markAsSucceeded(executionId, read(request, TaskResult.class)));
+        }));
+
+        http.post("/executions/:executionId/failed", json((request, response) -> {
+            ExecutionId executionId = executionIdParam(request);
+            return new AppliedResponse(request.body().isEmpty()
+                    ? taskDao.markAsFailed(executionId)
+                    : taskDao.markAsFailed(executionId, read(request, TaskResult.class)));
+        }));
+
+        http.post("/executions/:executionId/released", json((request, response) ->
+                new AppliedResponse(taskDao.releaseExecution(executionIdParam(request)))
+        ));
+
+        http.exception(BinaryTaskBodyException.class, (e, request, response) ->
+                error(response, 409, "task has a binary body, load it from /tasks/" + e.taskId.getValue() + "/body/stream")
+        );
+        http.exception(IllegalArgumentException.class, (e, request, response) ->
+                error(response, 400, e.getMessage())
+        );
+        http.exception(JsonProcessingException.class, (e, request, response) ->
+                error(response, 400, "invalid json: " + e.getOriginalMessage())
+        );
+        http.exception(Exception.class, (e, request, response) -> {
+            logger.error("Failed to handle {} {}", request.requestMethod(), request.pathInfo(), e);
+            error(response, 500, "internal server error");
+        });
+        http.notFound((request, response) -> {
+            response.type(JSON_CONTENT_TYPE);
+            return toJson(new ErrorResponse("unknown resource"));
+        });
+    }
+
+    private List<Boolean> complete(List<ExecutionOutcome> outcomes) {
+        List<ExecutionId> succeededIds = new ArrayList<>();
+        List<ExecutionId> failedIds = new ArrayList<>();
+        for (ExecutionOutcome outcome : outcomes) {
+            if (outcome.state == ExecutionState.SUCCEEDED) {
+                succeededIds.add(outcome.executionId);
+            } else if (outcome.state == ExecutionState.FAILED) {
+                failedIds.add(outcome.executionId);
+            }
+        }
+        Map<ExecutionId, Boolean> succeeded = succeededIds.isEmpty() ? emptyMap() : taskDao.markAsSucceeded(succeededIds);
+        Map<ExecutionId, Boolean> failed = failedIds.isEmpty() ? emptyMap() : taskDao.markAsFailed(failedIds);
+
+        List<Boolean> applied = new ArrayList<>(outcomes.size());
+        for (ExecutionOutcome outcome : outcomes) {
+            switch (outcome.state) {
+                case SUCCEEDED:
+                    applied.add(succeeded.get(outcome.executionId));
+                    break;
+                case FAILED:
+                    applied.add(failed.get(outcome.executionId));
+                    break;
+                case RELEASED:
+                    applied.add(taskDao.releaseExecution(outcome.executionId));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported execution outcome " + outcome.state);
+            }
+        }
+        return applied;
+    }
+
+    private Route json(Route route) {
+        return (request, response) -> {
+            Object result = route.handle(request, response);
+            response.type(JSON_CONTENT_TYPE);
+            return result == NO_BODY ? NO_BODY : toJson(result);
+        };
+    }
+
+    private Object orNotFound(Optional<?> value, Response response) {
+        return value.isPresent() ? value.get() : notFound(response);
+    }
+
+    private Object notFound(Response response) {
+        response.status(404);
+        return new ErrorResponse("task not found");
+    }
+
+    private void error(Response response, int status, String message) {
+        response.status(status);
+        response.type(JSON_CONTENT_TYPE);
+        try {
+            response.body(toJson(new ErrorResponse(message)));
+        } catch (IOException e) {
+            response.body(NO_BODY);
+        }
+    }
+
+    private <T> T read(Request request, Class<T> type) throws IOException {
+        String body = request.body();
+        checkArgument(body != null && !body.isEmpty(), "request body is missing");
+        return mapper.readValue(body, type);
+    }
+
+    private String toJson(Object value) throws IOException {
+        return mapper.writeValueAsString(value);
+    }
+
+    private static void checkBatchSize(int size) {
+        checkArgument(size <= MAX_BATCH_SIZE, "batch size can't be greater than " + MAX_BATCH_SIZE);
+    }
+
+    private static boolean withBodyParam(Request request) {
+        return !"false".equalsIgnoreCase(request.queryParams("withBody"));
+    }
+
+    private static int intParam(Request request, String name, int defaultValue) {
+        String value = request.queryParams(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static TaskId taskIdParam(Request request) {
+        return taskId(request.params("taskId"));
+    }
+
+    private static ExecutionId executionIdParam(Request request) {
+        return executionId(request.params("executionId"));
+    }
+}
@@ -7,6 +7,9 @@ public class TaskConfigBuilder {
 
     private int attemptCount = 1;
     private Optional<Duration> ttl = Optional.empty();
+    private Optional<String> concurrencyGroup = Optional.empty();
+    private Optional<String> tenant = Optional.empty();
+    private Optional<String> topic = Optional.empty();
 
     public static TaskConfigBuilder taskConfigBuilder() {
         return new TaskConfigBuilder();
@@ -17,7 +20,7 @@ public class TaskConfigBuilder {
     }
 
     public TaskConfig build() {
-        return new TaskConfig(attemptCount, ttl);
+        return new TaskConfig(attemptCount, ttl, concurrencyGroup, tenant, topic);
     }
 
     public TaskConfigBuilder attemptCount(int attemptCount) {
@@ -34,4 +37,19 @@ public class TaskConfigBuilder {
         this.ttl = Optional.empty();
         return this;
     }
+
+    public TaskConfigBuilder concurrencyGroup(String concurrencyGroup) {
+        this.concurrencyGroup = Optional.of(concurrencyGroup);
+        return this;
+    }
+
+    public TaskConfigBuilder tenant(String tenant) {
+        this.tenant = Optional.of(tenant);
+        return this;
+    }
+
+    public TaskConfigBuilder topic(String topic) {
+        this.topic = Optional.of(topic);
+        return this;
+    }
 }
@@ -3,6 +3,7 @@ package mtymes.test;
 import mtymes.smartqueue.domain.ExecutionId;
 import mtymes.smartqueue.domain.TaskBody;
 import mtymes.smartqueue.domain.TaskId;
+import mtymes.smartqueue.domain.TaskResult;
 
 import java.time.Duration;
 import java.util.UUID;
@@ -53,6 +54,10 @@ public class Random {
         return new TaskBody(randomUUID().toString());
     }
 
+    public static TaskResult randomTaskResult() {
+        return new TaskResult(randomUUID().toString());
+    }
+
     @SafeVarargs
     private static <T> T generateValidValue(Supplier<T> generator, Condition<T>... validityConditions) {
         T value;
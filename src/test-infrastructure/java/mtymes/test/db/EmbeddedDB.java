@@ -103,7 +103,10 @@ public class EmbeddedDB {
 
     public void removeAllData() {
         for (String collectionName : database.listCollectionNames()) {
-            database.getCollection(collectionName).deleteMany(emptyDoc());
+            // e.g. system.profile can't be deleted from
+            if (!collectionName.startsWith("system.")) {
+                database.getCollection(collectionName).deleteMany(emptyDoc());
+            }
         }
     }
 
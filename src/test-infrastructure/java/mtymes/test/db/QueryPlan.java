@@ -0,0 +1,87 @@
+package mtymes.test.db;
+
+import org.bson.Document;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Execution stats of a single explained query shape.
+ */
+public class QueryPlan {
+
+    private static final List<String> WRITE_STAGES = asList("UPDATE", "DELETE");
+
+    public final String collectionName;
+    public final String shape;
+    public final Document explainedCommand;
+    public final Document explanation;
+
+    public QueryPlan(String collectionName, String shape, Document explainedCommand, Document explanation) {
+        this.collectionName = collectionName;
+        this.shape = shape;
+        this.explainedCommand = explainedCommand;
+        this.explanation = explanation;
+    }
+
+    public boolean usesCollectionScan() {
+        Document queryPlanner = explanation.get("queryPlanner", Document.class);
+        return containsStage(queryPlanner.get("winningPlan", Document.class), "COLLSCAN");
+    }
+
+    public long keysExamined() {
+        return executionStats().get("totalKeysExamined", Number.class).longValue();
+    }
+
+    public long docsExamined() {
+        return executionStats().get("totalDocsExamined", Number.class).longValue();
+    }
+
+    /**
+     * number of documents matched by the query, for updates and deletes these are the documents that would be modified
+     */
+    public long returned() {
+        Document stage = executionStats().get("executionStages", Document.class);
+        while (WRITE_STAGES.contains(stage.getString("stage")) && stage.containsKey("inputStage")) {
+            stage = stage.get("inputStage", Document.class);
+        }
+        return stage.get("nReturned", Number.class).longValue();
+    }
+
+    public String winningPlan() {
+        return explanation.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+    }
+
+    @Override
+    public String toString() {
+        return collectionName + " " + shape
+                + " [keysExamined=" + keysExamined() + ", docsExamined=" + docsExamined() + ", returned=" + returned() + "]"
+                + " winningPlan: " + winningPlan();
+    }
+
+    private Document executionStats() {
+        return explanation.get("executionStats", Document.class);
+    }
+
+    private static boolean containsStage(Document plan, String stageName) {
+        if (plan == null) {
+            return false;
+        }
+        if (stageName.equals(plan.getString("stage"))) {
+            return true;
+        }
+        if (containsStage(plan.get("inputStage", Document.class), stageName)) {
+            return true;
+        }
+        List<?> inputStages = plan.get("inputStages", List.class);
+        if (inputStages != null) {
+            for (Object inputStage : inputStages) {
+                if (containsStage((Document) inputStage, stageName)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+package mtymes.test.db;
+
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.common.mongo.DocBuilder.docBuilder;
+
+/**
+ * Records every query issued against the database (using the database profiler) so each distinct query shape can
+ * be explained afterwards. Profiling is switched on by {@link #startRecording(MongoDatabase)} and off by {@link #close()}.
+ */
+public class QueryPlanRecorder implements AutoCloseable {
+
+    private static final String PROFILE_COLLECTION = "system.profile";
+
+    // fields added by the driver that the explain command doesn't accept
+    private static final List<String> NON_EXPLAINABLE_FIELDS = asList(
+            "$db", "lsid", "$clusterTime", "$readPreference", "txnNumber", "writeConcern", "readConcern"
+    );
+    private static final List<String> EXPLAINABLE_COMMANDS = asList(
+            "find", "findAndModify", "findandmodify", "count", "distinct", "aggregate", "update", "delete"
+    );
+
+    private final MongoDatabase database;
+
+    private QueryPlanRecorder(MongoDatabase database) {
+        this.database = database;
+    }
+
+    public static QueryPlanRecorder startRecording(MongoDatabase database) {
+        QueryPlanRecorder recorder = new QueryPlanRecorder(database);
+        recorder.setProfilingLevel(0);
+        database.getCollection(PROFILE_COLLECTION).drop();
+        recorder.setProfilingLevel(2);
+        return recorder;
+    }
+
+    /**
+     * Stops the recording.
+     *
+     * @return explained plan of each distinct query shape recorded on collections starting with {@code collectionPrefix}
+     * (inserts are not queries, so they are skipped)
+     */
+    public List<QueryPlan> explainRecordedQueries(String collectionPrefix) {
+        // otherwise the explains would be recorded as well
+        setProfilingLevel(0);
+
+        Map<String, QueryPlan> plans = new LinkedHashMap<>();
+        for (Document profiledOperation : database.getCollection(PROFILE_COLLECTION)
+                .find(doc("ns", doc("$regex", "^" + database.getName() + "\\." + collectionPrefix)))
+                .sort(doc("ts", 1))) {
+            String collectionName = profiledOperation.getString("ns").substring(database.getName().length() + 1);
+            Optional<Document> command = toExplainableCommand(collectionName, profiledOperation);
+            if (!command.isPresent()) {
+                continue;
+            }
+
+            String shape = shapeOf(command.get());
+            if (!plans.containsKey(collectionName + shape)) {
+                Document explanation = database.runCommand(docBuilder()
+                        .put("explain", command.get())
+                        .put("verbosity", "executionStats")
+                        .build());
+                plans.put(collectionName + shape, new QueryPlan(collectionName, shape, command.get(), explanation));
+            }
+        }
+        return new ArrayList<>(plans.values());
+    }
+
+    @Override
+    public void close() {
+        setProfilingLevel(0);
+        database.getCollection(PROFILE_COLLECTION).drop();
+    }
+
+    private void setProfilingLevel(int level) {
+        database.runCommand(doc("profile", level));
+    }
+
+    private static Optional<Document> toExplainableCommand(String collectionName, Document profiledOperation) {
+        Document command = profiledOperation.get("command", Document.class);
+        if (command == null || command.containsKey("$truncated")) {
+            return Optional.empty();
+        }
+
+        String commandName = command.keySet().iterator().next();
+        if (EXPLAINABLE_COMMANDS.contains(commandName)) {
+            Document explainableCommand = new Document(command);
+            for (String field : NON_EXPLAINABLE_FIELDS) {
+                explainableCommand.remove(field);
+            }
+            return Optional.of(explainableCommand);
+        }
+
+        // single statements of update and delete commands are profiled on their own
+        String operation = profiledOperation.getString("op");
+        if ("update".equals(operation)) {
+            return Optional.of(docBuilder()
+                    .put("update", collectionName)
+                    .put("updates", singletonList(command))
+                    .build());
+        } else if ("remove".equals(operation)) {
+            return Optional.of(docBuilder()
+                    .put("delete", collectionName)
+                    .put("deletes", singletonList(command))
+                    .build());
+        }
+        return Optional.empty();
+    }
+
+    // the command with all values (but field names and operators) replaced by '?'
+    private static String shapeOf(Document command) {
+        Document shape = new Document();
+        for (Map.Entry<String, Object> entry : command.entrySet()) {
+            String field = entry.getKey();
+            if (asList("filter", "query", "q", "sort", "updates", "deletes").contains(field)) {
+                shape.put(field, shapeOfValue(entry.getValue()));
+            } else if (EXPLAINABLE_COMMANDS.contains(field) && entry.getValue() instanceof String) {
+                // collection name
+                shape.put(field, entry.getValue());
+            }
+        }
+        return shape.toJson();
+    }
+
+    private static Object shapeOfValue(Object value) {
+        if (value instanceof Document) {
+            Document shape = new Document();
+            for (Map.Entry<String, Object> entry : ((Document) value).entrySet()) {
+                // updates only differ by their filter, not by what they set
+                if (!"u".equals(entry.getKey())) {
+                    shape.put(entry.getKey(), shapeOfValue(entry.getValue()));
+                }
+            }
+            return shape;
+        } else if (value instanceof List) {
+            List<?> values = (List<?>) value;
+            return values.isEmpty() ? "[]" : singletonList(shapeOfValue(values.get(0)));
+        } else if (value instanceof Number && !(value instanceof Double)) {
+            // sort directions and slices are part of the shape
+            return value;
+        }
+        return "?";
+    }
+}
@@ -0,0 +1,153 @@
+package mtymes.smartqueue.dao;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.dao.mongo.MongoTaskDao;
+import mtymes.smartqueue.domain.Task;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.smartqueue.domain.TaskState;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+import static javafixes.collection.CollectionUtil.newList;
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.common.time.DateUtil.UTC_ZONE_ID;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfigBuilder;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+public class CachingTaskDaoIntegrationTest {
+
+    private static final Duration MAX_STALENESS = Duration.ofSeconds(5);
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> tasks;
+
+    private MongoTaskDao mongoTaskDao;
+    private CachingTaskDao cachingTaskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = tasksCollection(database, "tasks");
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+
+        clock.setNow(ZonedDateTime.now(UTC_ZONE_ID));
+
+        mongoTaskDao = spy(new MongoTaskDao(tasks, Optional.empty(), clock));
+        cachingTaskDao = new CachingTaskDao(mongoTaskDao, MAX_STALENESS, 1_000, clock);
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldServeTaskFromCacheUntilItGetsTooStale() {
+        TaskId taskId = cachingTaskDao.submitTask(taskConfig(1), randomTaskBody());
+        Optional<Task> task = cachingTaskDao.loadTask(taskId);
+
+        // When
+        tasks.deleteOne(doc("_id", taskId));
+
+        // Then
+        assertThat(cachingTaskDao.loadTask(taskId), is(task));
+
+        // When
+        clock.increaseBy(MAX_STALENESS.plusMillis(1));
+
+        // Then
+        assertThat(cachingTaskDao.loadTask(taskId), isNotPresent());
+    }
+
+    @Test
+    public void shouldReloadTaskAfterItWasChangedThroughTheCache() {
+        TaskId taskId = cachingTaskDao.submitTask(taskConfig(1), randomTaskBody());
+        cachingTaskDao.loadTask(taskId);
+
+        // When
+        cachingTaskDao.createNextExecution();
+
+        // Then
+        assertThat(cachingTaskDao.loadTask(taskId).get().state, is(TaskState.RUNNING));
+
+        // When
+        cachingTaskDao.markAsSucceeded(cachingTaskDao.loadTask(taskId).get().lastExecutionId.get());
+
+        // Then
+        assertThat(cachingTaskDao.loadTask(taskId).get().state, is(TaskState.SUCCEEDED));
+    }
+
+    @Test
+    public void shouldCountDownCachedTTL() {
+        TaskId taskId = cachingTaskDao.submitTask(taskConfigBuilder().ttl(Duration.ofMinutes(10)).build(), randomTaskBody());
+        cachingTaskDao.getTTL(taskId);
+
+        // When
+        clock.increaseBySeconds(3);
+
+        // Then
+        assertThat(cachingTaskDao.getTTL(taskId), isPresentAndEqualTo(Duration.ofMinutes(10).minusSeconds(3)));
+        verify(mongoTaskDao, times(1)).getTTL(taskId);
+    }
+
+    @Test
+    public void shouldCoalesceConcurrentMisses() throws Exception {
+        TaskId taskId = cachingTaskDao.submitTask(taskConfig(1), randomTaskBody());
+        doAnswer(invocation -> {
+            Thread.sleep(200);
+            return invocation.callRealMethod();
+        }).when(mongoTaskDao).loadTask(taskId);
+
+        int threadCount = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<Optional<Task>>> results = newList();
+            for (int i = 0; i < threadCount; i++) {
+                results.add(executor.submit(() -> {
+                    startLatch.await();
+                    return cachingTaskDao.loadTask(taskId);
+                }));
+            }
+
+            // When
+            startLatch.countDown();
+
+            // Then
+            for (Future<Optional<Task>> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS).get().taskId, is(taskId));
+            }
+            verify(mongoTaskDao, times(1)).loadTask(taskId);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package mtymes.smartqueue.dao;
+
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.dao.mongo.MongoTaskDao;
+import mtymes.smartqueue.domain.Execution;
+import mtymes.smartqueue.domain.TaskState;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.Random.randomExecutionId;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+public class CompletionAckerIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoDatabase database;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+        database = db.getDatabase();
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldFlushOnceBatchIsFull() throws Exception {
+        TaskDao taskDao = spy(taskDao());
+        Execution execution1 = submitAndClaim(taskDao);
+        Execution execution2 = submitAndClaim(taskDao);
+
+        try (CompletionAcker acker = new CompletionAcker(taskDao, 2, Duration.ofHours(1))) {
+            // When
+            CompletableFuture<Boolean> ack1 = acker.ackSucceeded(execution1.executionId);
+            CompletableFuture<Boolean> ack2 = acker.ackSucceeded(execution2.executionId);
+
+            // Then
+            assertThat(ack1.get(), is(true));
+            assertThat(ack2.get(), is(true));
+            verify(taskDao, times(1)).markAsSucceeded(anyCollection());
+            assertThat(taskDao.loadTask(execution1.taskId).get().state, is(TaskState.SUCCEEDED));
+            assertThat(taskDao.loadTask(execution2.taskId).get().state, is(TaskState.SUCCEEDED));
+        }
+    }
+
+    @Test
+    public void shouldFlushOnceMaxDelayElapses() throws Exception {
+        TaskDao taskDao = taskDao();
+        Execution execution = submitAndClaim(taskDao);
+
+        try (CompletionAcker acker = new CompletionAcker(taskDao, 100, Duration.ofMillis(50))) {
+            // When
+            CompletableFuture<Boolean> ack = acker.ackFailed(execution.executionId);
+            CompletableFuture<Boolean> unknownAck = acker.ackFailed(randomExecutionId());
+
+            // Then
+            assertThat(ack.get(), is(true));
+            assertThat(unknownAck.get(), is(false));
+            assertThat(taskDao.loadTask(execution.taskId).get().state, is(TaskState.FAILED));
+        }
+    }
+
+    @Test
+    public void shouldFlushPendingAcksOnClose() throws Exception {
+        TaskDao taskDao = taskDao();
+        Execution execution = submitAndClaim(taskDao);
+        CompletableFuture<Boolean> ack;
+
+        // When
+        try (CompletionAcker acker = new CompletionAcker(taskDao, 100, Duration.ofHours(1))) {
+            ack = acker.ackSucceeded(execution.executionId);
+        }
+
+        // Then
+        assertThat(ack.isDone(), is(true));
+        assertThat(ack.get(), is(true));
+    }
+
+    private TaskDao taskDao() {
+        return new MongoTaskDao(
+                tasksCollection(database, "tasks"),
+                Optional.of(bodiesCollection(database, "bodies")),
+                clock
+        );
+    }
+
+    private Execution submitAndClaim(TaskDao taskDao) {
+        taskDao.submitTask(taskConfig(1), randomTaskBody());
+        return taskDao.createNextExecution().get();
+    }
+}
@@ -0,0 +1,177 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import mtymes.smartqueue.dao.mongo.IndexDrift.DriftType;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Indexes.ascending;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static javafixes.collection.CollectionUtil.newList;
+import static javafixes.collection.CollectionUtil.newSet;
+import static mtymes.smartqueue.dao.mongo.MongoCollectionsBootstrap.collectionsBootstrap;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MongoCollectionsBootstrapIntegrationTest {
+
+    private static EmbeddedDB db;
+    private static MongoDatabase database;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+        database = db.getDatabase();
+    }
+
+    @Before
+    public void setUp() {
+        for (String collectionName : newList(database.listCollectionNames())) {
+            if (collectionName.startsWith("bootstrapped")) {
+                database.getCollection(collectionName).drop();
+            }
+        }
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldCreateMissingCollectionsWithAllIndexes() throws Exception {
+        // When
+        BootstrappedCollections collections = collectionsBootstrap(database)
+                .claimBucketTasksCollection("bootstrappedTasks")
+                .bodiesCollection("bootstrappedBodies")
+                .bootstrap();
+
+        // Then
+        assertThat(collections.createdCollectionNames(), equalTo(newSet("bootstrappedTasks", "bootstrappedBodies")));
+        assertThat(collections.hasDrifted(), is(false));
+        assertThat(collections.awaitIndexBuilds(Duration.ofSeconds(10)), is(true));
+        assertThat(indexNames(collections.collection("bootstrappedTasks")), equalTo(newSet(
+                "_id_",
+                "lastExecutionId_1",
+                "deleteAfter_1",
+                "updatedAt_1",
+                "updatedAt_1_state_1",
+                "state_1",
+                "availableSince_1",
+                "claimBucket_1_availableSince_1"
+        )));
+        assertThat(indexNames(collections.collection("bootstrappedBodies")), equalTo(newSet("_id_", "deleteAfter_1")));
+    }
+
+    @Test
+    public void shouldNotReportDriftForUpToDateCollections() throws Exception {
+        MongoCollections.tasksCollection(database, "bootstrappedTasks");
+
+        // When
+        BootstrappedCollections collections = collectionsBootstrap(database)
+                .tasksCollection("bootstrappedTasks")
+                .bootstrap();
+
+        // Then
+        assertThat(collections.createdCollectionNames(), is(empty()));
+        assertThat(collections.drift(), is(empty()));
+        assertThat(collections.awaitIndexBuilds(Duration.ofSeconds(10)), is(true));
+    }
+
+    @Test
+    public void shouldBuildMissingIndexesOfExistingCollectionInTheBackground() throws Exception {
+        MongoCollections.tasksCollection(database, "bootstrappedTasks");
+
+        // When
+        BootstrappedCollections collections = collectionsBootstrap(database)
+                .claimBucketTasksCollection("bootstrappedTasks")
+                .bootstrap();
+
+        // Then
+        assertThat(driftOf(collections, DriftType.MISSING), equalTo(newList("claimBucket_1_availableSince_1")));
+        assertThat(collections.awaitIndexBuilds(Duration.ofSeconds(10)), is(true));
+        assertThat(indexNames(collections.collection("bootstrappedTasks")), hasItem("claimBucket_1_availableSince_1"));
+    }
+
+    @Test
+    public void shouldReportIndexesWithDifferentOptionsAndUnexpectedIndexes() throws Exception {
+        database.createCollection("bootstrappedTasks");
+        MongoCollection<Document> tasks = database.getCollection("bootstrappedTasks");
+        // created without the partial filter
+        tasks.createIndex(ascending(MongoTaskDao.AVAILABLE_SINCE));
+        tasks.createIndex(ascending("someField"));
+
+        // When
+        BootstrappedCollections collections = collectionsBootstrap(database)
+                .tasksCollection("bootstrappedTasks")
+                .bootstrap();
+
+        // Then
+        assertThat(driftOf(collections, DriftType.DIFFERENT_OPTIONS), equalTo(newList("availableSince_1")));
+        assertThat(driftOf(collections, DriftType.UNEXPECTED), equalTo(newList("someField_1")));
+        assertThat(driftOf(collections, DriftType.MISSING), containsInAnyOrder(
+                "lastExecutionId_1",
+                "deleteAfter_1",
+                "updatedAt_1",
+                "updatedAt_1_state_1",
+                "state_1"
+        ));
+        assertThat(collections.awaitIndexBuilds(Duration.ofSeconds(10)), is(true));
+
+        // drifted index is left as it is
+        Document availableSinceIndex = indexNamed(tasks, "availableSince_1");
+        assertThat(availableSinceIndex.get("partialFilterExpression"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldReportDifferentTtlOfExistingIndex() throws Exception {
+        database.createCollection("bootstrappedBodies");
+        database.getCollection("bootstrappedBodies").createIndex(
+                ascending(MongoTaskDao.DELETE_AFTER),
+                new IndexOptions().expireAfter(60L, TimeUnit.SECONDS)
+        );
+
+        // When
+        BootstrappedCollections collections = collectionsBootstrap(database)
+                .bodiesCollection("bootstrappedBodies")
+                .bootstrap();
+
+        // Then
+        assertThat(collections.drift().size(), is(1));
+        assertThat(collections.drift().get(0).type, is(DriftType.DIFFERENT_OPTIONS));
+        assertThat(collections.drift().get(0).details, containsString("expireAfterSeconds"));
+    }
+
+    private static List<String> driftOf(BootstrappedCollections collections, DriftType type) {
+        return collections.drift().stream()
+                .filter(drift -> drift.type == type)
+                .map(drift -> drift.indexName)
+                .collect(toList());
+    }
+
+    private static Set<String> indexNames(MongoCollection<Document> collection) {
+        return newList(collection.listIndexes()).stream()
+                .map(index -> index.getString("name"))
+                .collect(toSet());
+    }
+
+    private static Document indexNamed(MongoCollection<Document> collection, String indexName) {
+        return newList(collection.listIndexes()).stream()
+                .filter(index -> indexName.equals(index.getString("name")))
+                .findFirst()
+                .get();
+    }
+}
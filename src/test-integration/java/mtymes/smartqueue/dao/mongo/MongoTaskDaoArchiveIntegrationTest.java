@@ -0,0 +1,123 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.*;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.archiveCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomTaskBody;
+import static mtymes.test.Random.randomTaskResult;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoArchiveIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> tasks;
+    private static MongoCollection<Document> bodies;
+    private static MongoCollection<Document> archive;
+    private static MongoCollection<Document> archiveBodies;
+    private static MongoTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = tasksCollection(database, "tasks");
+        bodies = bodiesCollection(database, "bodies");
+        archive = archiveCollection(database, "archive");
+        archiveBodies = bodiesCollection(database, "archiveBodies");
+        taskDao = new MongoTaskDao(
+                tasks,
+                Optional.of(bodies),
+                mongoTaskDaoConfigBuilder()
+                        .archive(archive)
+                        .archiveBodies(archiveBodies)
+                        .build(),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldArchiveOnlyOldTerminalTasks() {
+        TaskBody succeededBody = randomTaskBody();
+        TaskId succeededTaskId = taskDao.submitTask(taskConfig(1), succeededBody);
+        TaskResult result = randomTaskResult();
+        taskDao.markAsSucceeded(taskDao.createNextExecution().get().executionId, result);
+        TaskId cancelledTaskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        taskDao.cancelTask(cancelledTaskId, Optional.empty());
+        TaskId failedTaskId = taskDao.submitTask(taskConfig(2), randomTaskBody());
+        taskDao.markAsFailed(taskDao.createNextExecution().get().executionId);
+        TaskId submittedTaskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        clock.increaseByHours(2);
+        TaskId recentTaskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        taskDao.cancelTask(recentTaskId, Optional.empty());
+
+        // When
+        int archivedCount = taskDao.archiveTerminalTasks(Duration.ofHours(1), 100);
+
+        // Then
+        assertThat(archivedCount, is(2));
+        assertThat(tasks.countDocuments(), is(3L));
+        assertThat(tasks.countDocuments(doc("_id", failedTaskId)), is(1L));
+        assertThat(tasks.countDocuments(doc("_id", submittedTaskId)), is(1L));
+        assertThat(tasks.countDocuments(doc("_id", recentTaskId)), is(1L));
+        assertThat(bodies.countDocuments(), is(3L));
+        assertThat(archive.countDocuments(), is(2L));
+        assertThat(archiveBodies.countDocuments(), is(2L));
+
+        assertThat(taskDao.loadTask(succeededTaskId).get().state, is(TaskState.SUCCEEDED));
+        assertThat(taskDao.loadTask(cancelledTaskId).get().state, is(TaskState.CANCELLED));
+        assertThat(taskDao.loadTaskBody(succeededTaskId), isPresentAndEqualTo(succeededBody));
+        assertThat(taskDao.loadTaskResult(succeededTaskId), isPresentAndEqualTo(result));
+    }
+
+    @Test
+    public void shouldArchiveInBatches() {
+        for (int i = 0; i < 5; i++) {
+            taskDao.cancelTask(taskDao.submitTask(taskConfig(1), randomTaskBody()), Optional.empty());
+        }
+        clock.increaseByHours(2);
+
+        // When
+        TaskArchiver archiver = new TaskArchiver(taskDao, Duration.ofHours(1), 2, Duration.ofMinutes(1));
+        long archivedCount = archiver.archiveAll();
+        archiver.close();
+
+        // Then
+        assertThat(archivedCount, is(5L));
+        assertThat(tasks.countDocuments(), is(0L));
+        assertThat(archive.countDocuments(), is(5L));
+        assertThat(taskDao.archiveTerminalTasks(Duration.ofHours(1), 2), is(0));
+    }
+}
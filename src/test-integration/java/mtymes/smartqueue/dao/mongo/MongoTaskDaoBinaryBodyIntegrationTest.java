@@ -0,0 +1,145 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.google.common.io.ByteStreams;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.TaskBody;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodyChunksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.Random.randomTaskId;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoBinaryBodyIntegrationTest {
+
+    private static final int INLINE_LIMIT = 64 * 1024;
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> bodyChunks;
+    private static MongoTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        bodyChunks = bodyChunksCollection(database, "bodyChunks");
+        taskDao = new MongoTaskDao(
+                tasksCollection(database, "tasks"),
+                Optional.of(bodiesCollection(database, "bodies")),
+                mongoTaskDaoConfigBuilder()
+                        .inlineBinaryBodyLimit(INLINE_LIMIT)
+                        .bodyChunks(bodyChunks)
+                        .build(),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldStoreSmallBinaryBodyInline() throws IOException {
+        byte[] body = randomBytes(INLINE_LIMIT);
+
+        // When
+        TaskId taskId = taskDao.submitTask(taskConfig(1), new ByteArrayInputStream(body));
+
+        // Then
+        assertThat(bodyChunks.countDocuments(), is(0L));
+        assertThat(readFully(taskDao.loadTaskBodyStream(taskId).get()), equalTo(body));
+    }
+
+    @Test
+    public void shouldStoreLargeBinaryBodyInChunks() throws IOException {
+        byte[] body = randomBytes(INLINE_LIMIT * 20 + 17);
+
+        // When
+        TaskId taskId = taskDao.submitTask(taskConfig(1), new ByteArrayInputStream(body));
+
+        // Then
+        assertThat(bodyChunks.countDocuments(doc("taskId", taskId)), greaterThan(1L));
+        assertThat(readFully(taskDao.loadTaskBodyStream(taskId).get()), equalTo(body));
+    }
+
+    @Test
+    public void shouldStreamTextBody() throws IOException {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), new TaskBody("some text"));
+
+        // When
+        Optional<InputStream> body = taskDao.loadTaskBodyStream(taskId);
+
+        // Then
+        assertThat(new String(readFully(body.get()), "UTF-8"), equalTo("some text"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotLoadBinaryBodyAsText() {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), new ByteArrayInputStream(randomBytes(100)));
+
+        // When
+        taskDao.loadTaskBody(taskId);
+    }
+
+    @Test
+    public void shouldNotLoadBodyOfNonExistingTask() {
+        assertThat(taskDao.loadTaskBodyStream(randomTaskId()), isNotPresent());
+    }
+
+    @Test
+    public void shouldApplyTTLToBodyChunks() {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), new ByteArrayInputStream(randomBytes(INLINE_LIMIT * 3)));
+
+        // When
+        taskDao.setTTL(taskId, Duration.ofMinutes(5));
+
+        // Then
+        assertThat(bodyChunks.countDocuments(doc("taskId", taskId)), greaterThan(0L));
+        assertThat(bodyChunks.countDocuments(doc("deleteAfter", doc("$exists", false))), is(0L));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        try (InputStream input = stream) {
+            return ByteStreams.toByteArray(input);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.TaskBody;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.common.time.DateUtil.UTC_ZONE_ID;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfigBuilder;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomTaskBody;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoBodyCacheIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> bodies;
+    private static MongoCollection<Document> tasks;
+
+    private MongoTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = tasksCollection(database, "tasks");
+        bodies = bodiesCollection(database, "bodies");
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+
+        clock.setNow(ZonedDateTime.now(UTC_ZONE_ID));
+
+        taskDao = new MongoTaskDao(
+                tasks,
+                Optional.of(bodies),
+                mongoTaskDaoConfigBuilder()
+                        .bodyCache(new TaskBodyCache(1024 * 1024, clock))
+                        .build(),
+                clock
+        );
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldServeLoadedBodyFromCache() {
+        TaskBody body = randomTaskBody();
+        TaskId taskId = taskDao.submitTask(taskConfig(1), body);
+        taskDao.loadTaskBody(taskId);
+
+        // When
+        deleteStoredBody(taskId);
+
+        // Then
+        assertThat(taskDao.loadTaskBody(taskId), isPresentAndEqualTo(body));
+    }
+
+    @Test
+    public void shouldNotServeBodyOfExpiredTask() {
+        TaskId taskId = taskDao.submitTask(taskConfigBuilder().ttl(Duration.ofMinutes(1)).build(), randomTaskBody());
+        taskDao.loadTaskBody(taskId);
+
+        // When
+        clock.increaseByMinutes(2);
+        deleteStoredBody(taskId);
+
+        // Then
+        assertThat(taskDao.loadTaskBody(taskId), isNotPresent());
+    }
+
+    @Test
+    public void shouldReloadBodyAfterTTLChange() {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        taskDao.loadTaskBody(taskId);
+
+        // When
+        taskDao.setTTL(taskId, Duration.ofMinutes(1));
+        deleteStoredBody(taskId);
+
+        // Then
+        assertThat(taskDao.loadTaskBody(taskId), isNotPresent());
+    }
+
+    private void deleteStoredBody(TaskId taskId) {
+        bodies.deleteOne(doc("_id", taskId));
+    }
+}
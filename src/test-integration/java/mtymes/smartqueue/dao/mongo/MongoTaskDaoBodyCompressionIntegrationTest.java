@@ -0,0 +1,135 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.TaskBody;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static com.google.common.base.Strings.repeat;
+import static mtymes.common.compression.CompressionPolicy.noCompression;
+import static mtymes.common.compression.DeflateCodec.fastestDeflate;
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoBodyCompressionIntegrationTest {
+
+    private static final int COMPRESSION_THRESHOLD = 1024;
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> tasks;
+    private static MongoCollection<Document> bodies;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = tasksCollection(database, "tasks");
+        bodies = bodiesCollection(database, "bodies");
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldCompressLargeBody() {
+        MongoTaskDao taskDao = compressingDao(Optional.of(bodies));
+        TaskBody body = new TaskBody(repeat("{\"key\":\"value\"},", 500));
+
+        // When
+        TaskId taskId = taskDao.submitTask(taskConfig(1), body);
+
+        // Then
+        Document storedBody = bodies.find(doc("_id", taskId.getValue().toString())).first();
+        assertThat(storedBody.get("content"), instanceOf(Binary.class));
+        assertThat(((Binary) storedBody.get("content")).length(), lessThan(body.content.length()));
+        assertThat(storedBody.getString("contentCodec"), equalTo("deflate"));
+        assertThat(taskDao.loadTaskBody(taskId), isPresentAndEqualTo(body));
+    }
+
+    @Test
+    public void shouldCompressLargeBodyStoredWithinTask() {
+        MongoTaskDao taskDao = compressingDao(Optional.empty());
+        TaskBody body = new TaskBody(repeat("{\"key\":\"value\"},", 500));
+
+        // When
+        TaskId taskId = taskDao.submitTask(taskConfig(1), body);
+
+        // Then
+        Document storedTask = tasks.find(doc("_id", taskId.getValue().toString())).first();
+        assertThat(storedTask.get("content"), instanceOf(Binary.class));
+        assertThat(taskDao.loadTaskBody(taskId), isPresentAndEqualTo(body));
+    }
+
+    @Test
+    public void shouldNotCompressSmallBody() {
+        MongoTaskDao taskDao = compressingDao(Optional.of(bodies));
+        TaskBody body = randomTaskBody();
+
+        // When
+        TaskId taskId = taskDao.submitTask(taskConfig(1), body);
+
+        // Then
+        Document storedBody = bodies.find(doc("_id", taskId.getValue().toString())).first();
+        assertThat(storedBody.get("content"), equalTo(body.content));
+        assertThat(storedBody.containsKey("contentCodec"), is(false));
+        assertThat(taskDao.loadTaskBody(taskId), isPresentAndEqualTo(body));
+    }
+
+    @Test
+    public void shouldReadCompressedBodyEvenIfCompressionIsNoLongerEnabled() {
+        TaskBody body = new TaskBody(repeat("{\"key\":\"value\"},", 500));
+        TaskId taskId = compressingDao(Optional.of(bodies)).submitTask(taskConfig(1), body);
+
+        MongoTaskDao nonCompressingDao = new MongoTaskDao(
+                tasks,
+                Optional.of(bodies),
+                mongoTaskDaoConfigBuilder().bodyCompression(noCompression()).build(),
+                clock
+        );
+
+        // When
+        Optional<TaskBody> loadedBody = nonCompressingDao.loadTaskBody(taskId);
+
+        // Then
+        assertThat(loadedBody, isPresentAndEqualTo(body));
+    }
+
+    private MongoTaskDao compressingDao(Optional<MongoCollection<Document>> bodies) {
+        return new MongoTaskDao(
+                tasks,
+                bodies,
+                mongoTaskDaoConfigBuilder()
+                        .bodyCompression(noCompression().compressFrom(COMPRESSION_THRESHOLD, fastestDeflate()))
+                        .build(),
+                clock
+        );
+    }
+}
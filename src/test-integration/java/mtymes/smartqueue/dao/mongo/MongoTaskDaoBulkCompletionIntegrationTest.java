@@ -0,0 +1,106 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.Execution;
+import mtymes.smartqueue.domain.ExecutionId;
+import mtymes.smartqueue.domain.TaskState;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static javafixes.collection.CollectionUtil.newList;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.Random.randomExecutionId;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoBulkCompletionIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        taskDao = new MongoTaskDao(
+                tasksCollection(database, "tasks"),
+                Optional.of(bodiesCollection(database, "bodies")),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldMarkAllExecutionsAsSucceeded() {
+        Execution execution1 = submitAndClaim();
+        Execution execution2 = submitAndClaim();
+
+        // When
+        Map<ExecutionId, Boolean> results = taskDao.markAsSucceeded(newList(execution1.executionId, execution2.executionId));
+
+        // Then
+        assertThat(results.get(execution1.executionId), is(true));
+        assertThat(results.get(execution2.executionId), is(true));
+        assertThat(taskDao.loadTask(execution1.taskId).get().state, is(TaskState.SUCCEEDED));
+        assertThat(taskDao.loadTask(execution2.taskId).get().state, is(TaskState.SUCCEEDED));
+    }
+
+    @Test
+    public void shouldReportWhichExecutionsFailedToBeMarkedAsFailed() {
+        Execution running = submitAndClaim();
+        Execution succeeded = submitAndClaim();
+        taskDao.markAsSucceeded(succeeded.executionId);
+        ExecutionId unknownId = randomExecutionId();
+
+        // When
+        Map<ExecutionId, Boolean> results = taskDao.markAsFailed(newList(running.executionId, succeeded.executionId, unknownId));
+
+        // Then
+        assertThat(results.size(), is(3));
+        assertThat(results.get(running.executionId), is(true));
+        assertThat(results.get(succeeded.executionId), is(false));
+        assertThat(results.get(unknownId), is(false));
+        assertThat(taskDao.loadTask(running.taskId).get().state, is(TaskState.FAILED));
+        assertThat(taskDao.loadTask(succeeded.taskId).get().state, is(TaskState.SUCCEEDED));
+    }
+
+    @Test
+    public void shouldNotApplyExecutionThatWasCompletedInPreviousBulk() {
+        Execution execution = submitAndClaim();
+        taskDao.markAsSucceeded(newList(execution.executionId));
+
+        // When
+        Map<ExecutionId, Boolean> results = taskDao.markAsSucceeded(newList(execution.executionId));
+
+        // Then
+        assertThat(results.get(execution.executionId), is(false));
+    }
+
+    private Execution submitAndClaim() {
+        taskDao.submitTask(taskConfig(1), randomTaskBody());
+        return taskDao.createNextExecution().get();
+    }
+}
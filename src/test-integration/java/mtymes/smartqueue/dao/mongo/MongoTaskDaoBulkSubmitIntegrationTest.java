@@ -0,0 +1,89 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.*;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static javafixes.collection.CollectionUtil.newList;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomTaskBody;
+import static mtymes.test.Random.randomTaskId;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoBulkSubmitIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        taskDao = new MongoTaskDao(
+                tasksCollection(database, "tasks"),
+                Optional.of(bodiesCollection(database, "bodies")),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldSubmitAllTasksOfBatch() {
+        List<TaskSubmission> submissions = newList(
+                new TaskSubmission(taskConfig(1), randomTaskBody()),
+                new TaskSubmission(taskConfig(2), randomTaskBody())
+        );
+
+        // When
+        List<TaskId> taskIds = taskDao.submitTasks(submissions);
+
+        // Then
+        assertThat(taskIds.size(), is(2));
+        for (int i = 0; i < taskIds.size(); i++) {
+            assertThat(taskDao.loadTask(taskIds.get(i)).get().state, is(TaskState.SUBMITTED));
+            assertThat(taskDao.loadTaskBody(taskIds.get(i)), isPresentAndEqualTo(submissions.get(i).body));
+        }
+    }
+
+    @Test
+    public void shouldLoadOnlyKnownTasks() {
+        List<TaskId> taskIds = taskDao.submitTasks(newList(
+                new TaskSubmission(taskConfig(1), randomTaskBody()),
+                new TaskSubmission(taskConfig(1), randomTaskBody())
+        ));
+        TaskId unknownTaskId = randomTaskId();
+
+        // When
+        Map<TaskId, Task> loadedTasks = taskDao.loadTasks(newList(taskIds.get(0), taskIds.get(1), unknownTaskId));
+
+        // Then
+        assertThat(loadedTasks.keySet(), containsInAnyOrder(taskIds.get(0), taskIds.get(1)));
+        assertThat(loadedTasks.get(taskIds.get(0)), equalTo(taskDao.loadTask(taskIds.get(0)).get()));
+    }
+}
@@ -0,0 +1,123 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.ExecutionWithBody;
+import mtymes.smartqueue.domain.TaskBody;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static com.google.common.base.Strings.repeat;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoClaimBodyIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> tasks;
+    private static MongoCollection<Document> bodies;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = tasksCollection(database, "tasks");
+        bodies = bodiesCollection(database, "bodies");
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldReturnBodyWithClaimedExecution() {
+        MongoTaskDao taskDao = taskDao(Optional.empty(), ClaimBodyMode.INCLUDE);
+        TaskBody body = randomTaskBody();
+        TaskId taskId = taskDao.submitTask(taskConfig(1), body);
+
+        // When
+        Optional<ExecutionWithBody> claimed = taskDao.createNextExecutionWithBody();
+
+        // Then
+        assertThat(claimed.get().execution.taskId, is(taskId));
+        assertThat(claimed.get().body, isPresentAndEqualTo(body));
+    }
+
+    @Test
+    public void shouldReturnBodyStoredInBodiesCollectionWithClaimedExecution() {
+        MongoTaskDao taskDao = taskDao(Optional.of(bodies), ClaimBodyMode.INCLUDE);
+        TaskBody body = randomTaskBody();
+        taskDao.submitTask(taskConfig(1), body);
+
+        // When
+        Optional<ExecutionWithBody> claimed = taskDao.createNextExecutionWithBody();
+
+        // Then
+        assertThat(claimed.get().body, isPresentAndEqualTo(body));
+    }
+
+    @Test
+    public void shouldNotReturnExcludedBodyWithClaimedExecution() {
+        MongoTaskDao taskDao = taskDao(Optional.empty(), ClaimBodyMode.EXCLUDE);
+        TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+
+        // When
+        Optional<ExecutionWithBody> claimed = taskDao.createNextExecutionWithBody();
+
+        // Then
+        assertThat(claimed.get().execution.taskId, is(taskId));
+        assertThat(claimed.get().body, isNotPresent());
+    }
+
+    @Test
+    public void shouldStopReturningBodiesOnceTheyGetTooBig() {
+        MongoTaskDao taskDao = taskDao(Optional.empty(), ClaimBodyMode.ADAPTIVE);
+        for (int i = 0; i < 2; i++) {
+            taskDao.submitTask(taskConfig(1), new TaskBody(repeat("x", 1024 * 1024)));
+        }
+
+        // When
+        Optional<ExecutionWithBody> firstClaim = taskDao.createNextExecutionWithBody();
+        Optional<ExecutionWithBody> secondClaim = taskDao.createNextExecutionWithBody();
+
+        // Then
+        assertThat(firstClaim.get().body.isPresent(), is(true));
+        assertThat(secondClaim.get().body, isNotPresent());
+    }
+
+    private MongoTaskDao taskDao(Optional<MongoCollection<Document>> bodies, ClaimBodyMode claimBodyMode) {
+        return new MongoTaskDao(
+                tasks,
+                bodies,
+                mongoTaskDaoConfigBuilder()
+                        .claimBodyMode(claimBodyMode)
+                        .build(),
+                clock
+        );
+    }
+}
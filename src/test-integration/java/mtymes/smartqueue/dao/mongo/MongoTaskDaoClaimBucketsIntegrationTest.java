@@ -0,0 +1,134 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.Execution;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.claimBucketTasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoClaimBucketsIntegrationTest {
+
+    private static final int BUCKET_COUNT = 4;
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> tasks;
+    private static MongoTaskDao taskDao;
+    private static MongoTaskDao unbucketedTaskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = claimBucketTasksCollection(database, "bucketedTasks");
+        MongoCollection<Document> bodies = bodiesCollection(database, "bucketedBodies");
+        taskDao = new MongoTaskDao(
+                tasks,
+                Optional.of(bodies),
+                mongoTaskDaoConfigBuilder()
+                        .claimBucketCount(BUCKET_COUNT)
+                        .build(),
+                clock
+        );
+        unbucketedTaskDao = new MongoTaskDao(tasks, Optional.of(bodies), clock);
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldAssignTasksToBuckets() {
+        for (int i = 0; i < 20; i++) {
+            taskDao.submitTask(taskConfig(1), randomTaskBody());
+        }
+
+        for (Document task : tasks.find()) {
+            assertThat(task.getInteger(MongoTaskDao.CLAIM_BUCKET), is(both(greaterThanOrEqualTo(0)).and(lessThan(BUCKET_COUNT))));
+        }
+    }
+
+    @Test
+    public void shouldStealFromOtherBucketsAndClaimUnbucketedTasks() {
+        Set<TaskId> submittedIds = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            submittedIds.add(taskDao.submitTask(taskConfig(1), randomTaskBody()));
+        }
+        TaskId unbucketedTaskId = unbucketedTaskDao.submitTask(taskConfig(1), randomTaskBody());
+        submittedIds.add(unbucketedTaskId);
+        assertThat(tasks.countDocuments(doc(MongoTaskDao.CLAIM_BUCKET, doc("$exists", false))), is(1L));
+
+        // When
+        Set<TaskId> claimedIds = new HashSet<>();
+        Optional<Execution> execution;
+        while ((execution = taskDao.createNextExecution()).isPresent()) {
+            claimedIds.add(execution.get().taskId);
+        }
+
+        // Then
+        assertThat(claimedIds, equalTo(submittedIds));
+        assertThat(taskDao.createNextExecution(), isNotPresent());
+    }
+
+    @Test
+    public void shouldClaimEachTaskOnlyOnceWithConcurrentWorkers() throws Exception {
+        int taskCount = 200;
+        Set<TaskId> submittedIds = new HashSet<>();
+        for (int i = 0; i < taskCount; i++) {
+            submittedIds.add(taskDao.submitTask(taskConfig(1), randomTaskBody()));
+        }
+
+        // When
+        ExecutorService executor = Executors.newFixedThreadPool(BUCKET_COUNT * 2);
+        List<Future<List<TaskId>>> workers = new ArrayList<>();
+        for (int i = 0; i < BUCKET_COUNT * 2; i++) {
+            workers.add(executor.submit(() -> {
+                List<TaskId> claimedIds = new ArrayList<>();
+                Optional<Execution> execution;
+                while ((execution = taskDao.createNextExecution()).isPresent()) {
+                    claimedIds.add(execution.get().taskId);
+                }
+                return claimedIds;
+            }));
+        }
+        List<TaskId> claimedIds = new ArrayList<>();
+        for (Future<List<TaskId>> worker : workers) {
+            claimedIds.addAll(worker.get());
+        }
+        executor.shutdown();
+
+        // Then
+        assertThat(claimedIds.size(), is(taskCount));
+        assertThat(new HashSet<>(claimedIds), equalTo(submittedIds));
+    }
+}
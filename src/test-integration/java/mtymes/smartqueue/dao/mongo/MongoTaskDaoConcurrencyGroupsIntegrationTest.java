@@ -0,0 +1,235 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.Execution;
+import mtymes.smartqueue.domain.ExecutionId;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.concurrencyGroupsCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.limitedTasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfigBuilder;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoConcurrencyGroupsIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> tasks;
+    private static MongoCollection<Document> bodies;
+    private static MongoCollection<Document> concurrencyGroups;
+    private static MongoTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = limitedTasksCollection(database, "limitedTasks");
+        bodies = bodiesCollection(database, "limitedBodies");
+        concurrencyGroups = concurrencyGroupsCollection(database, "limitedConcurrencyGroups");
+        taskDao = new MongoTaskDao(
+                tasks,
+                Optional.of(bodies),
+                mongoTaskDaoConfigBuilder()
+                        .concurrencyGroups(concurrencyGroups)
+                        .concurrencyLimit("customerA", 2)
+                        .concurrencyLimit("customerB", 1)
+                        .build(),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldSkipTasksOfGroupsAtTheirLimit() {
+        TaskId taskA1 = submitTask("customerA");
+        TaskId taskA2 = submitTask("customerA");
+        TaskId taskA3 = submitTask("customerA");
+        TaskId taskB1 = submitTask("customerB");
+        TaskId taskB2 = submitTask("customerB");
+        TaskId ungroupedTask = submitTask(null);
+
+        // When
+        List<TaskId> claimedIds = new ArrayList<>();
+        Optional<Execution> execution;
+        while ((execution = taskDao.createNextExecution()).isPresent()) {
+            claimedIds.add(execution.get().taskId);
+        }
+
+        // Then
+        assertThat(claimedIds, containsInAnyOrder(taskA1, taskA2, taskB1, ungroupedTask));
+        assertThat(runningCount("customerA"), is(2));
+        assertThat(runningCount("customerB"), is(1));
+    }
+
+    @Test
+    public void shouldNotLimitGroupsWithoutLimit() {
+        for (int i = 0; i < 5; i++) {
+            submitTask("customerC");
+        }
+
+        // When
+        int claimedCount = 0;
+        while (taskDao.createNextExecution().isPresent()) {
+            claimedCount++;
+        }
+
+        // Then
+        assertThat(claimedCount, is(5));
+        assertThat(runningCount("customerC"), is(0));
+    }
+
+    @Test
+    public void shouldLimitTasksSubmittedBeforeLimitsWereEnabled() {
+        MongoTaskDao unlimitedTaskDao = new MongoTaskDao(tasks, Optional.of(bodies), clock);
+        clock.increaseBySeconds(1);
+        TaskId taskB1 = unlimitedTaskDao.submitTask(taskConfigBuilder().concurrencyGroup("customerB").build(), randomTaskBody());
+        clock.increaseBySeconds(1);
+        TaskId ungroupedTask = unlimitedTaskDao.submitTask(taskConfig(1), randomTaskBody());
+        clock.increaseBySeconds(1);
+        unlimitedTaskDao.submitTask(taskConfigBuilder().concurrencyGroup("customerB").build(), randomTaskBody());
+
+        // When
+        List<TaskId> claimedIds = new ArrayList<>();
+        Optional<Execution> execution;
+        while ((execution = taskDao.createNextExecution()).isPresent()) {
+            claimedIds.add(execution.get().taskId);
+        }
+
+        // Then
+        assertThat(claimedIds, contains(taskB1, ungroupedTask));
+        assertThat(runningCount("customerB"), is(1));
+    }
+
+    @Test
+    public void shouldFreeRunningSlotOnceExecutionFinishes() {
+        submitTask("customerB");
+        submitTask("customerB");
+        submitTask("customerB");
+        submitTask("customerB");
+        ExecutionId executionId = taskDao.createNextExecution().get().executionId;
+        assertThat(taskDao.createNextExecution(), isNotPresent());
+
+        // When & Then
+        assertThat(taskDao.markAsSucceeded(executionId), is(true));
+        assertThat(runningCount("customerB"), is(0));
+
+        executionId = taskDao.createNextExecution().get().executionId;
+        assertThat(taskDao.releaseExecution(executionId), is(true));
+        assertThat(runningCount("customerB"), is(0));
+
+        executionId = taskDao.createNextExecution().get().executionId;
+        assertThat(taskDao.markAsFailed(executionId), is(true));
+        assertThat(runningCount("customerB"), is(0));
+
+        executionId = taskDao.createNextExecution().get().executionId;
+        assertThat(taskDao.markAsSucceeded(Collections.singletonList(executionId)).get(executionId), is(true));
+        assertThat(runningCount("customerB"), is(0));
+
+        // a finished execution can't free the slot twice
+        assertThat(taskDao.markAsSucceeded(executionId), is(false));
+        taskDao.createNextExecution().get();
+        assertThat(runningCount("customerB"), is(1));
+        assertThat(taskDao.createNextExecution(), isNotPresent());
+    }
+
+    @Test
+    public void shouldRecountRunningTasks() {
+        submitTask("customerA");
+        submitTask("customerA");
+        submitTask("customerB");
+        taskDao.createNextExecution();
+        taskDao.createNextExecution();
+        concurrencyGroups.updateOne(doc("_id", "customerA"), doc("$set", doc("running", 0)));
+        concurrencyGroups.insertOne(doc("_id", "customerD").append("running", 3));
+
+        // When
+        taskDao.recountConcurrencyGroups();
+
+        // Then
+        assertThat(runningCount("customerA"), is(1));
+        assertThat(runningCount("customerB"), is(1));
+        assertThat(runningCount("customerD"), is(0));
+    }
+
+    @Test
+    public void shouldNotExceedLimitsWithConcurrentWorkers() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            submitTask("customerA");
+            submitTask("customerB");
+            submitTask(null);
+        }
+
+        // When
+        int workerCount = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        List<Future<List<TaskId>>> workers = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(executor.submit(() -> {
+                List<TaskId> claimedIds = new ArrayList<>();
+                Optional<Execution> execution;
+                while ((execution = taskDao.createNextExecution()).isPresent()) {
+                    claimedIds.add(execution.get().taskId);
+                }
+                return claimedIds;
+            }));
+        }
+        List<TaskId> claimedIds = new ArrayList<>();
+        for (Future<List<TaskId>> worker : workers) {
+            claimedIds.addAll(worker.get());
+        }
+        executor.shutdown();
+
+        // Then
+        assertThat(claimedIds.size(), is(50 + 2 + 1));
+        assertThat(new HashSet<>(claimedIds).size(), is(claimedIds.size()));
+        assertThat(runningCount("customerA"), is(2));
+        assertThat(runningCount("customerB"), is(1));
+    }
+
+    private TaskId submitTask(String concurrencyGroup) {
+        clock.increaseBySeconds(1);
+        return taskDao.submitTask(
+                concurrencyGroup != null
+                        ? taskConfigBuilder().concurrencyGroup(concurrencyGroup).build()
+                        : taskConfig(1),
+                randomTaskBody()
+        );
+    }
+
+    private int runningCount(String concurrencyGroup) {
+        Document counter = concurrencyGroups.find(doc("_id", concurrencyGroup)).first();
+        return counter != null ? counter.getInteger("running") : 0;
+    }
+}
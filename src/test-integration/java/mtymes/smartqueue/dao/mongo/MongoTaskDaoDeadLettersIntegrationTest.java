@@ -0,0 +1,178 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.*;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static javafixes.collection.CollectionUtil.newList;
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.deadLettersCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomTaskBody;
+import static mtymes.test.Random.randomTaskId;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoDeadLettersIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> tasks;
+    private static MongoCollection<Document> bodies;
+    private static MongoCollection<Document> deadLetters;
+    private static MongoCollection<Document> deadLetterBodies;
+    private static MongoTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = tasksCollection(database, "tasks");
+        bodies = bodiesCollection(database, "bodies");
+        deadLetters = deadLettersCollection(database, "deadLetters");
+        deadLetterBodies = bodiesCollection(database, "deadLetterBodies");
+        taskDao = new MongoTaskDao(
+                tasks,
+                Optional.of(bodies),
+                mongoTaskDaoConfigBuilder()
+                        .deadLetters(deadLetters)
+                        .deadLetterBodies(deadLetterBodies)
+                        .build(),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldMoveTaskAndBodyToDeadLettersOnceLastAttemptFails() {
+        TaskBody body = randomTaskBody();
+        TaskId taskId = taskDao.submitTask(taskConfig(2), body);
+
+        // When
+        taskDao.markAsFailed(taskDao.createNextExecution().get().executionId);
+
+        // Then
+        assertThat(tasks.countDocuments(doc("_id", taskId)), is(1L));
+        assertThat(deadLetters.countDocuments(), is(0L));
+
+        // When
+        taskDao.markAsFailed(taskDao.createNextExecution().get().executionId);
+
+        // Then
+        assertThat(tasks.countDocuments(doc("_id", taskId)), is(0L));
+        assertThat(bodies.countDocuments(doc("_id", taskId)), is(0L));
+        assertThat(deadLetters.countDocuments(doc("_id", taskId)), is(1L));
+        assertThat(deadLetterBodies.countDocuments(doc("_id", taskId)), is(1L));
+        assertThat(taskDao.loadTask(taskId).get().state, is(TaskState.FAILED));
+        assertThat(taskDao.loadTask(taskId).get().executions.size(), is(2));
+        assertThat(taskDao.loadTaskBody(taskId), isPresentAndEqualTo(body));
+        assertThat(taskDao.createNextExecution(), isNotPresent());
+    }
+
+    @Test
+    public void shouldMoveExhaustedTasksFailedInBulk() {
+        TaskId exhaustedTaskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        TaskId retriedTaskId = taskDao.submitTask(taskConfig(2), randomTaskBody());
+        Execution execution1 = taskDao.createNextExecution().get();
+        Execution execution2 = taskDao.createNextExecution().get();
+
+        // When
+        taskDao.markAsFailed(newList(execution1.executionId, execution2.executionId));
+
+        // Then
+        assertThat(deadLetters.countDocuments(doc("_id", exhaustedTaskId)), is(1L));
+        assertThat(tasks.countDocuments(doc("_id", exhaustedTaskId)), is(0L));
+        assertThat(deadLetters.countDocuments(doc("_id", retriedTaskId)), is(0L));
+        assertThat(tasks.countDocuments(doc("_id", retriedTaskId)), is(1L));
+        assertThat(taskDao.loadDeadLetteredTaskIds(10), equalTo(newList(exhaustedTaskId)));
+    }
+
+    @Test
+    public void shouldRedriveDeadLetters() {
+        TaskBody body = randomTaskBody();
+        TaskId taskId = taskDao.submitTask(taskConfig(1), body);
+        taskDao.markAsFailed(taskDao.createNextExecution().get().executionId);
+        TaskId unknownTaskId = randomTaskId();
+
+        // When
+        Map<TaskId, Boolean> redriven = taskDao.redriveDeadLetters(newList(taskId, unknownTaskId), 2);
+
+        // Then
+        assertThat(redriven.get(taskId), is(true));
+        assertThat(redriven.get(unknownTaskId), is(false));
+        assertThat(deadLetters.countDocuments(), is(0L));
+        assertThat(deadLetterBodies.countDocuments(), is(0L));
+        assertThat(taskDao.loadTask(taskId).get().state, is(TaskState.SUBMITTED));
+
+        ExecutionWithBody execution = taskDao.createNextExecutionWithBody().get();
+        assertThat(execution.execution.taskId, is(taskId));
+        assertThat(execution.body, isPresentAndEqualTo(body));
+        assertThat(taskDao.markAsFailed(execution.execution.executionId), is(true));
+        assertThat(tasks.countDocuments(doc("_id", taskId)), is(1L));
+    }
+
+    @Test
+    public void shouldMoveTasksExhaustedBeforeDeadLettersWereConfigured() {
+        MongoTaskDao taskDaoWithoutDeadLetters = new MongoTaskDao(tasks, Optional.of(bodies), clock);
+        TaskId taskId = taskDaoWithoutDeadLetters.submitTask(taskConfig(1), randomTaskBody());
+        taskDaoWithoutDeadLetters.markAsFailed(taskDaoWithoutDeadLetters.createNextExecution().get().executionId);
+        taskDao.submitTask(taskConfig(1), randomTaskBody());
+
+        // When
+        int movedCount = taskDao.moveExhaustedTasksToDeadLetters(100);
+
+        // Then
+        assertThat(movedCount, is(1));
+        assertThat(deadLetters.countDocuments(doc("_id", taskId)), is(1L));
+        assertThat(tasks.countDocuments(), is(1L));
+    }
+
+    @Test
+    public void shouldMoveExhaustedTasksInBatches() {
+        MongoTaskDao taskDaoWithoutDeadLetters = new MongoTaskDao(tasks, Optional.of(bodies), clock);
+        for (int i = 0; i < 3; i++) {
+            taskDaoWithoutDeadLetters.submitTask(taskConfig(1), randomTaskBody());
+            taskDaoWithoutDeadLetters.markAsFailed(taskDaoWithoutDeadLetters.createNextExecution().get().executionId);
+        }
+
+        // When
+        int firstMovedCount = taskDao.moveExhaustedTasksToDeadLetters(2);
+        int secondMovedCount = taskDao.moveExhaustedTasksToDeadLetters(2);
+
+        // Then
+        assertThat(firstMovedCount, is(2));
+        assertThat(secondMovedCount, is(1));
+        assertThat(deadLetters.countDocuments(), is(3L));
+        assertThat(deadLetterBodies.countDocuments(), is(3L));
+        assertThat(tasks.countDocuments(), is(0L));
+        assertThat(bodies.countDocuments(), is(0L));
+    }
+}
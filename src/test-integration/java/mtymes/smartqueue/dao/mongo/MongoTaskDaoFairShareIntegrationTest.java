@@ -0,0 +1,179 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.Execution;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.fairShareTasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfigBuilder;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoFairShareIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> tasks;
+    private static MongoCollection<Document> bodies;
+
+    private MongoTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = fairShareTasksCollection(database, "fairShareTasks");
+        bodies = bodiesCollection(database, "fairShareBodies");
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+        taskDao = new MongoTaskDao(
+                tasks,
+                Optional.of(bodies),
+                mongoTaskDaoConfigBuilder()
+                        .fairShare(true)
+                        .tenantWeight("heavyTenant", 3)
+                        .build(),
+                clock
+        );
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldNotLetBacklogOfOneTenantStarveOtherTenants() {
+        for (int i = 0; i < 100; i++) {
+            submitTask("tenantA");
+        }
+        Set<TaskId> tenantBIds = new HashSet<>();
+        Set<TaskId> tenantCIds = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            tenantBIds.add(submitTask("tenantB"));
+            tenantCIds.add(submitTask("tenantC"));
+        }
+
+        // When
+        List<TaskId> claimedIds = claim(9);
+
+        // Then
+        assertThat(claimedIds.stream().filter(tenantBIds::contains).count(), is(3L));
+        assertThat(claimedIds.stream().filter(tenantCIds::contains).count(), is(3L));
+    }
+
+    @Test
+    public void shouldClaimInProportionToTenantWeights() {
+        Set<TaskId> heavyTenantIds = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            heavyTenantIds.add(submitTask("heavyTenant"));
+            submitTask("lightTenant");
+        }
+
+        // When
+        List<TaskId> claimedIds = claim(40);
+
+        // Then
+        assertThat(claimedIds.stream().filter(heavyTenantIds::contains).count(), is(30L));
+    }
+
+    @Test
+    public void shouldClaimTasksOfOneTenantInSubmissionOrder() {
+        List<TaskId> submittedIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            submittedIds.add(submitTask("tenantA"));
+        }
+
+        // When
+        List<TaskId> claimedIds = claim(5);
+
+        // Then
+        assertThat(claimedIds, equalTo(submittedIds));
+        assertThat(taskDao.createNextExecution(), isNotPresent());
+    }
+
+    @Test
+    public void shouldLetTasksWithoutTenantShareOneLane() {
+        for (int i = 0; i < 10; i++) {
+            submitTask("tenantA");
+        }
+        Set<TaskId> sharedLaneIds = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            sharedLaneIds.add(submitTask(null));
+        }
+
+        // When
+        List<TaskId> claimedIds = claim(10);
+
+        // Then
+        assertThat(claimedIds.stream().filter(sharedLaneIds::contains).count(), is(5L));
+    }
+
+    @Test
+    public void shouldLetNewTenantJoinOnceLanesAreRefreshed() {
+        for (int i = 0; i < 10; i++) {
+            submitTask("tenantA");
+        }
+        claim(1);
+        TaskId newTenantId = submitTask("tenantB");
+
+        // When
+        clock.increaseBySeconds(1);
+        List<TaskId> claimedIds = claim(2);
+
+        // Then
+        assertThat(claimedIds, hasItem(newTenantId));
+    }
+
+    @Test
+    public void shouldClaimTasksSubmittedBeforeFairShareWasEnabled() {
+        MongoTaskDao unfairTaskDao = new MongoTaskDao(tasks, Optional.of(bodies), clock);
+        TaskId taskId = unfairTaskDao.submitTask(taskConfig(1), randomTaskBody());
+
+        // When
+        Optional<Execution> execution = taskDao.createNextExecution();
+
+        // Then
+        assertThat(execution.get().taskId, equalTo(taskId));
+    }
+
+    private TaskId submitTask(String tenant) {
+        clock.increaseBy(Duration.ofMillis(1));
+        return taskDao.submitTask(
+                tenant != null
+                        ? taskConfigBuilder().tenant(tenant).build()
+                        : taskConfig(1),
+                randomTaskBody()
+        );
+    }
+
+    private List<TaskId> claim(int count) {
+        List<TaskId> claimedIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            claimedIds.add(taskDao.createNextExecution().get().taskId);
+        }
+        return claimedIds;
+    }
+}
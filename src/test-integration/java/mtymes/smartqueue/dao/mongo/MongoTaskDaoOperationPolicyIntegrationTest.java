@@ -0,0 +1,109 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.Execution;
+import mtymes.smartqueue.domain.TaskBody;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.smartqueue.domain.TaskState;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.dao.mongo.OperationPolicy.readPolicy;
+import static mtymes.smartqueue.dao.mongo.OperationPolicy.writePolicy;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoOperationPolicyIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoDatabase database;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+        database = db.getDatabase();
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldHandleTaskUsingCustomOperationPolicies() {
+        MongoTaskDao taskDao = new MongoTaskDao(
+                tasksCollection(database, "tasks"),
+                Optional.of(bodiesCollection(database, "bodies")),
+                mongoTaskDaoConfigBuilder()
+                        .operationPolicy(OperationType.SUBMIT, writePolicy(WriteConcern.W1))
+                        .operationPolicy(OperationType.READ, readPolicy(ReadPreference.secondaryPreferred(90, TimeUnit.SECONDS)))
+                        .operationPolicy(OperationType.CLAIM, writePolicy(WriteConcern.MAJORITY))
+                        .operationPolicy(OperationType.COMPLETE, writePolicy(WriteConcern.W1))
+                        .operationPolicy(OperationType.TTL, readPolicy(ReadPreference.secondaryPreferred()).withWriteConcern(WriteConcern.W1))
+                        .build(),
+                clock
+        );
+        TaskBody body = randomTaskBody();
+
+        // When
+        TaskId taskId = taskDao.submitTask(taskConfig(1), body);
+        Execution execution = taskDao.createNextExecution().get();
+        boolean wasApplied = taskDao.markAsSucceeded(execution.executionId);
+
+        // Then
+        assertThat(wasApplied, is(true));
+        assertThat(taskDao.loadTask(taskId).get().state, is(TaskState.SUCCEEDED));
+        assertThat(taskDao.loadTaskBody(taskId), isPresentAndEqualTo(body));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowUnacknowledgedClaims() {
+        mongoTaskDaoConfigBuilder()
+                .operationPolicy(OperationType.CLAIM, writePolicy(WriteConcern.UNACKNOWLEDGED))
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowClaimsFromSecondaries() {
+        mongoTaskDaoConfigBuilder()
+                .operationPolicy(OperationType.CLAIM, readPolicy(ReadPreference.secondaryPreferred()))
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowCompletionsFromSecondaries() {
+        mongoTaskDaoConfigBuilder()
+                .operationPolicy(OperationType.COMPLETE, readPolicy(ReadPreference.secondaryPreferred()))
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowArchivingFromSecondaries() {
+        mongoTaskDaoConfigBuilder()
+                .operationPolicy(OperationType.ARCHIVE, readPolicy(ReadPreference.secondaryPreferred()))
+                .build();
+    }
+}
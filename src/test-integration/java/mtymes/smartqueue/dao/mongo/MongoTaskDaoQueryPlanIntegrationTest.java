@@ -0,0 +1,263 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.Execution;
+import mtymes.smartqueue.domain.ExecutionId;
+import mtymes.smartqueue.domain.TaskConfigBuilder;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.db.QueryPlan;
+import mtymes.test.db.QueryPlanRecorder;
+import mtymes.test.time.FixedClock;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static java.lang.Math.max;
+import static java.util.stream.Collectors.toList;
+import static javafixes.collection.CollectionUtil.newList;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.*;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.dao.mongo.RateLimit.rateLimit;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfigBuilder;
+import static mtymes.test.Random.randomExecutionId;
+import static mtymes.test.Random.randomTaskBody;
+import static mtymes.test.Random.randomTaskId;
+import static mtymes.test.Random.randomTaskResult;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Explains every query shape the dao issues against a realistically populated database, so an index that silently
+ * stops being used (e.g. because a partial filter no longer matches the query) fails the build.
+ */
+public class MongoTaskDaoQueryPlanIntegrationTest {
+
+    private static final String COLLECTION_PREFIX = "queryPlan";
+    // anything above this is considered a query examining far more than it needs
+    private static final int MAX_EXAMINED_PER_RETURNED = 10;
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoDatabase database;
+    private static MongoTaskDao taskDao;
+    private static MongoTaskDao bucketedTaskDao;
+    private static MongoTaskDao limitedTaskDao;
+    private static MongoTaskDao fairShareTaskDao;
+
+    private QueryPlanRecorder recorder;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+        database = db.getDatabase();
+
+        taskDao = new MongoTaskDao(
+                tasksCollection(database, COLLECTION_PREFIX + "Tasks"),
+                Optional.of(bodiesCollection(database, COLLECTION_PREFIX + "Bodies")),
+                mongoTaskDaoConfigBuilder()
+                        .results(resultsCollection(database, COLLECTION_PREFIX + "Results"))
+                        .deadLetters(deadLettersCollection(database, COLLECTION_PREFIX + "DeadLetters"))
+                        .deadLetterBodies(bodiesCollection(database, COLLECTION_PREFIX + "DeadLetterBodies"))
+                        .archive(archiveCollection(database, COLLECTION_PREFIX + "Archive"))
+                        .archiveBodies(bodiesCollection(database, COLLECTION_PREFIX + "ArchiveBodies"))
+                        .build(),
+                clock
+        );
+        bucketedTaskDao = new MongoTaskDao(
+                claimBucketTasksCollection(database, COLLECTION_PREFIX + "BucketedTasks"),
+                Optional.empty(),
+                mongoTaskDaoConfigBuilder()
+                        .claimBucketCount(4)
+                        .build(),
+                clock
+        );
+        limitedTaskDao = new MongoTaskDao(
+                limitedTasksCollection(database, COLLECTION_PREFIX + "LimitedTasks"),
+                Optional.empty(),
+                mongoTaskDaoConfigBuilder()
+                        .concurrencyGroups(concurrencyGroupsCollection(database, COLLECTION_PREFIX + "ConcurrencyGroups"))
+                        .concurrencyLimit("customer0", 3)
+                        .defaultConcurrencyLimit(10)
+                        .rateLimitBuckets(rateLimitBucketsCollection(database, COLLECTION_PREFIX + "RateLimitBuckets"))
+                        .topicRateLimit("emails", rateLimit(1, 5))
+                        .build(),
+                clock
+        );
+        // fair share can't be combined with limits
+        fairShareTaskDao = new MongoTaskDao(
+                fairShareTasksCollection(database, COLLECTION_PREFIX + "FairShareTasks"),
+                Optional.empty(),
+                mongoTaskDaoConfigBuilder()
+                        .fairShare(true)
+                        .tenantWeight("tenant0", 3)
+                        .build(),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+        populateRealisticDataset();
+        recorder = QueryPlanRecorder.startRecording(database);
+    }
+
+    @After
+    public void tearDown() {
+        recorder.close();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldUseIndexesForAllQueries() {
+        exerciseAllOperations();
+
+        // When
+        List<QueryPlan> plans = recorder.explainRecordedQueries(COLLECTION_PREFIX);
+
+        // Then
+        assertThat(plans.stream().map(plan -> plan.collectionName).distinct().collect(toList()), hasItems(
+                COLLECTION_PREFIX + "Tasks",
+                COLLECTION_PREFIX + "Bodies",
+                COLLECTION_PREFIX + "Results",
+                COLLECTION_PREFIX + "DeadLetters",
+                COLLECTION_PREFIX + "Archive",
+                COLLECTION_PREFIX + "BucketedTasks",
+                COLLECTION_PREFIX + "LimitedTasks",
+                COLLECTION_PREFIX + "ConcurrencyGroups",
+                COLLECTION_PREFIX + "RateLimitBuckets",
+                COLLECTION_PREFIX + "FairShareTasks"
+        ));
+
+        List<String> collectionScans = plans.stream()
+                .filter(QueryPlan::usesCollectionScan)
+                .map(QueryPlan::toString)
+                .collect(toList());
+        assertThat(collectionScans, is(empty()));
+
+        List<String> inefficientPlans = plans.stream()
+                .filter(plan -> plan.keysExamined() > max(plan.returned(), 1) * MAX_EXAMINED_PER_RETURNED
+                        || plan.docsExamined() > max(plan.returned(), 1) * MAX_EXAMINED_PER_RETURNED)
+                .map(QueryPlan::toString)
+                .collect(toList());
+        assertThat(inefficientPlans, is(empty()));
+    }
+
+    private static void populateRealisticDataset() {
+        for (int i = 0; i < 400; i++) {
+            // every other task failed below has no attempts left, so it ends up in dead letters
+            taskDao.submitTask(taskConfig(i % 10 == 2 ? 1 : 3), randomTaskBody());
+            bucketedTaskDao.submitTask(taskConfig(3), randomTaskBody());
+            TaskConfigBuilder limitedConfig = taskConfigBuilder().attemptCount(3);
+            if (i % 5 != 0) {
+                limitedConfig
+                        .concurrencyGroup("customer" + (i % 4))
+                        .topic(i % 2 == 0 ? "emails" : "reports");
+            }
+            limitedTaskDao.submitTask(limitedConfig.build(), randomTaskBody());
+            fairShareTaskDao.submitTask(taskConfigBuilder().attemptCount(3).tenant("tenant" + (i % 3)).build(), randomTaskBody());
+            clock.increaseBySeconds(1);
+        }
+
+        // a mix of all the states a busy queue goes through
+        for (int i = 0; i < 250; i++) {
+            ExecutionId executionId = taskDao.createNextExecution().get().executionId;
+            switch (i % 5) {
+                case 0:
+                    taskDao.markAsSucceeded(executionId);
+                    break;
+                case 1:
+                    taskDao.markAsSucceeded(executionId, randomTaskResult());
+                    break;
+                case 2:
+                    taskDao.markAsFailed(executionId);
+                    break;
+                case 3:
+                    taskDao.releaseExecution(executionId);
+                    break;
+                default:
+                    // left running
+            }
+            bucketedTaskDao.createNextExecution();
+            Optional<Execution> limitedExecution = limitedTaskDao.createNextExecution();
+            if (limitedExecution.isPresent() && i % 2 == 0) {
+                limitedTaskDao.markAsSucceeded(limitedExecution.get().executionId);
+            }
+            fairShareTaskDao.createNextExecution();
+            clock.increaseBySeconds(1);
+        }
+        clock.increaseByDays(2);
+    }
+
+    private static void exerciseAllOperations() {
+        TaskId taskId = taskDao.submitTask(taskConfig(2), randomTaskBody());
+        TaskId unknownTaskId = randomTaskId();
+        for (TaskId id : newList(taskId, unknownTaskId)) {
+            taskDao.loadTask(id);
+            taskDao.loadTaskBody(id);
+            taskDao.loadTaskBodyStream(id);
+            taskDao.loadTaskResult(id);
+            taskDao.getTTL(id);
+            taskDao.setTTL(id, Duration.ofDays(7));
+            taskDao.keepForever(id);
+            taskDao.cancelTask(id, Optional.empty());
+            taskDao.cancelTask(id, Optional.of(randomExecutionId()));
+        }
+
+        taskDao.markAsSucceeded(taskDao.createNextExecution().get().executionId);
+        taskDao.markAsSucceeded(taskDao.createNextExecutionWithBody().get().execution.executionId, randomTaskResult());
+        taskDao.markAsFailed(taskDao.createNextExecution().get().executionId);
+        taskDao.markAsFailed(taskDao.createNextExecution().get().executionId, randomTaskResult());
+        taskDao.releaseExecution(taskDao.createNextExecution().get().executionId);
+        taskDao.markAsSucceeded(newList(
+                taskDao.createNextExecution().get().executionId,
+                taskDao.createNextExecution().get().executionId,
+                randomExecutionId()
+        ));
+        taskDao.markAsFailed(newList(
+                taskDao.createNextExecution().get().executionId,
+                taskDao.createNextExecution().get().executionId,
+                randomExecutionId()
+        ));
+        taskDao.markAsSucceeded(randomExecutionId());
+        taskDao.markAsFailed(randomExecutionId());
+
+        taskDao.moveExhaustedTasksToDeadLetters(100);
+        List<TaskId> deadLetteredIds = taskDao.loadDeadLetteredTaskIds(5);
+        taskDao.redriveDeadLetters(newList(deadLetteredIds.get(0), unknownTaskId), 2);
+        taskDao.archiveTerminalTasks(Duration.ofDays(1), 20);
+        taskDao.loadTask(deadLetteredIds.get(1));
+
+        for (int i = 0; i < 10; i++) {
+            bucketedTaskDao.createNextExecution();
+        }
+
+        // claims until every lane is either empty or blocked by a saturated group or a throttled topic
+        List<ExecutionId> limitedExecutionIds = new ArrayList<>();
+        Optional<Execution> limitedExecution;
+        while ((limitedExecution = limitedTaskDao.createNextExecution()).isPresent()) {
+            limitedExecutionIds.add(limitedExecution.get().executionId);
+        }
+        // frees the running slots
+        limitedExecutionIds.forEach(limitedTaskDao::markAsSucceeded);
+
+        for (int i = 0; i < 10; i++) {
+            fairShareTaskDao.createNextExecution();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.Execution;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.limitedTasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.rateLimitBucketsCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.dao.mongo.RateLimit.rateLimit;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfigBuilder;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoRateLimitIntegrationTest {
+
+    private static final String LIMITED_TOPIC = "payments";
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> tasks;
+    private static MongoCollection<Document> bodies;
+    private static MongoCollection<Document> rateLimitBuckets;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = limitedTasksCollection(database, "rateLimitedTasks");
+        bodies = bodiesCollection(database, "rateLimitedBodies");
+        rateLimitBuckets = rateLimitBucketsCollection(database, "rateLimitBuckets");
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldSkipTasksOfTopicWithoutTokens() {
+        MongoTaskDao taskDao = taskDao(rateLimit(1, 2), 1);
+        TaskId limitedTask1 = submitTask(taskDao, LIMITED_TOPIC);
+        TaskId limitedTask2 = submitTask(taskDao, LIMITED_TOPIC);
+        submitTask(taskDao, LIMITED_TOPIC);
+        TaskId otherTopicTask = submitTask(taskDao, "notifications");
+        TaskId noTopicTask = submitTask(taskDao, null);
+
+        // When
+        List<TaskId> claimedIds = claimAll(taskDao);
+
+        // Then
+        assertThat(claimedIds, containsInAnyOrder(limitedTask1, limitedTask2, otherTopicTask, noTopicTask));
+    }
+
+    @Test
+    public void shouldClaimAgainOnceTokensAreRefilled() {
+        MongoTaskDao taskDao = taskDao(rateLimit(2, 1), 1);
+        for (int i = 0; i < 5; i++) {
+            submitTask(taskDao, LIMITED_TOPIC);
+        }
+        assertThat(claimAll(taskDao), hasSize(1));
+
+        // When & Then
+        clock.increaseBy(Duration.ofMillis(250));
+        assertThat(taskDao.createNextExecution(), isNotPresent());
+
+        clock.increaseBy(Duration.ofMillis(250));
+        assertThat(claimAll(taskDao), hasSize(1));
+
+        clock.increaseBySeconds(10);
+        // refill is capped by the burst
+        assertThat(claimAll(taskDao), hasSize(1));
+    }
+
+    @Test
+    public void shouldLeaseTokensInBlocks() {
+        MongoTaskDao taskDao = taskDao(rateLimit(1, 10), 4);
+        for (int i = 0; i < 5; i++) {
+            submitTask(taskDao, LIMITED_TOPIC);
+        }
+
+        // When
+        taskDao.createNextExecution().get();
+
+        // Then
+        assertThat(bucketTokens(), is(6.0));
+
+        // When
+        taskDao.createNextExecution().get();
+        taskDao.createNextExecution().get();
+        taskDao.createNextExecution().get();
+        taskDao.createNextExecution().get();
+
+        // Then
+        assertThat(bucketTokens(), is(2.0));
+    }
+
+    @Test
+    public void shouldShareLimitAcrossNodes() {
+        MongoTaskDao node1TaskDao = taskDao(rateLimit(1, 5), 2);
+        MongoTaskDao node2TaskDao = taskDao(rateLimit(1, 5), 2);
+        for (int i = 0; i < 20; i++) {
+            submitTask(node1TaskDao, LIMITED_TOPIC);
+        }
+
+        // When
+        int claimedCount = 0;
+        for (int i = 0; i < 10; i++) {
+            claimedCount += node1TaskDao.createNextExecution().isPresent() ? 1 : 0;
+            claimedCount += node2TaskDao.createNextExecution().isPresent() ? 1 : 0;
+        }
+
+        // Then
+        assertThat(claimedCount, is(5));
+    }
+
+    @Test
+    public void shouldReturnUnusedTokensOfExpiredLease() {
+        MongoTaskDao taskDao = taskDao(rateLimit(0.001, 5), 5);
+        for (int i = 0; i < 5; i++) {
+            submitTask(taskDao, LIMITED_TOPIC);
+        }
+        taskDao.createNextExecution().get();
+        assertThat(bucketTokens(), is(0.0));
+
+        // When
+        clock.increaseBy(TopicRateLimiter.LEASE_VALIDITY);
+        List<TaskId> claimedIds = claimAll(taskDao);
+
+        // Then
+        assertThat(claimedIds, hasSize(4));
+    }
+
+    private MongoTaskDao taskDao(RateLimit rateLimit, int leaseSize) {
+        return new MongoTaskDao(
+                tasks,
+                Optional.of(bodies),
+                mongoTaskDaoConfigBuilder()
+                        .rateLimitBuckets(rateLimitBuckets)
+                        .topicRateLimit(LIMITED_TOPIC, rateLimit)
+                        .rateLimitLeaseSize(leaseSize)
+                        .build(),
+                clock
+        );
+    }
+
+    private TaskId submitTask(MongoTaskDao taskDao, String topic) {
+        clock.increaseBy(Duration.ofMillis(1));
+        return taskDao.submitTask(
+                topic != null
+                        ? taskConfigBuilder().topic(topic).build()
+                        : taskConfig(1),
+                randomTaskBody()
+        );
+    }
+
+    private List<TaskId> claimAll(MongoTaskDao taskDao) {
+        List<TaskId> claimedIds = new ArrayList<>();
+        Optional<Execution> execution;
+        while ((execution = taskDao.createNextExecution()).isPresent()) {
+            claimedIds.add(execution.get().taskId);
+        }
+        return claimedIds;
+    }
+
+    private double bucketTokens() {
+        return rateLimitBuckets.find(doc("_id", LIMITED_TOPIC)).first().getDouble("tokens");
+    }
+}
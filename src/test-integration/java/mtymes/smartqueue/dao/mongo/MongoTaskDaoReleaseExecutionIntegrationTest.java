@@ -0,0 +1,124 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.*;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.Random.randomExecutionId;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoReleaseExecutionIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        taskDao = new MongoTaskDao(
+                tasksCollection(database, "tasks"),
+                Optional.of(bodiesCollection(database, "bodies")),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldReleaseExecutionWithoutUsingUpAttempt() {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        Execution execution = taskDao.createNextExecution().get();
+
+        // When
+        boolean released = taskDao.releaseExecution(execution.executionId);
+
+        // Then
+        assertThat(released, is(true));
+        Task task = taskDao.loadTask(taskId).get();
+        assertThat(task.state, is(TaskState.SUBMITTED));
+        assertThat(task.executions.get(0).state, is(ExecutionState.RELEASED));
+
+        Execution nextExecution = taskDao.createNextExecution().get();
+        assertThat(nextExecution.taskId, is(taskId));
+        assertThat(taskDao.markAsSucceeded(nextExecution.executionId), is(true));
+    }
+
+    @Test
+    public void shouldKeepOriginalPositionOfReleasedTaskInQueue() {
+        TaskId olderTaskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        clock.increaseBySeconds(1);
+        TaskId newerTaskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        Execution execution = taskDao.createNextExecution().get();
+        assertThat(execution.taskId, is(olderTaskId));
+        clock.increaseBySeconds(1);
+
+        // When
+        taskDao.releaseExecution(execution.executionId);
+
+        // Then
+        assertThat(taskDao.createNextExecution().get().taskId, is(olderTaskId));
+        assertThat(taskDao.createNextExecution().get().taskId, is(newerTaskId));
+    }
+
+    @Test
+    public void shouldRestoreFailedStateIfPreviousExecutionFailed() {
+        TaskId taskId = taskDao.submitTask(taskConfig(2), randomTaskBody());
+        taskDao.markAsFailed(taskDao.createNextExecution().get().executionId);
+        Execution execution = taskDao.createNextExecution().get();
+
+        // When
+        boolean released = taskDao.releaseExecution(execution.executionId);
+
+        // Then
+        assertThat(released, is(true));
+        assertThat(taskDao.loadTask(taskId).get().state, is(TaskState.FAILED));
+        assertThat(taskDao.createNextExecution().get().taskId, is(taskId));
+    }
+
+    @Test
+    public void shouldNotReleaseFinishedOrUnknownExecution() {
+        taskDao.submitTask(taskConfig(1), randomTaskBody());
+        Execution execution = taskDao.createNextExecution().get();
+        taskDao.markAsSucceeded(execution.executionId);
+
+        assertThat(taskDao.releaseExecution(execution.executionId), is(false));
+        assertThat(taskDao.releaseExecution(randomExecutionId()), is(false));
+        assertThat(taskDao.createNextExecution(), isNotPresent());
+    }
+
+    @Test
+    public void shouldReleaseExecutionOnlyOnce() {
+        taskDao.submitTask(taskConfig(1), randomTaskBody());
+        Execution execution = taskDao.createNextExecution().get();
+
+        assertThat(taskDao.releaseExecution(execution.executionId), is(true));
+        assertThat(taskDao.releaseExecution(execution.executionId), is(false));
+        assertThat(taskDao.markAsSucceeded(execution.executionId), is(false));
+    }
+}
@@ -0,0 +1,178 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.Execution;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.smartqueue.domain.TaskState;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.db.QueryPlan;
+import mtymes.test.db.QueryPlanRecorder;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.*;
+
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.shardedTasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.dao.mongo.ShardPartitions.partitionOf;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.Random.randomExecutionId;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoShardPartitionsIntegrationTest {
+
+    private static final int PARTITION_COUNT = 8;
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoDatabase database;
+    private static MongoCollection<Document> tasks;
+    private static MongoTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+        database = db.getDatabase();
+
+        tasks = shardedTasksCollection(database, "shardedTasks");
+        taskDao = new MongoTaskDao(
+                tasks,
+                Optional.of(bodiesCollection(database, "shardedBodies")),
+                mongoTaskDaoConfigBuilder()
+                        .shardPartitionCount(PARTITION_COUNT)
+                        .build(),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldStoreShardPartitionDerivedFromTaskId() {
+        for (int i = 0; i < 50; i++) {
+            taskDao.submitTask(taskConfig(1), randomTaskBody());
+        }
+
+        for (Document task : tasks.find()) {
+            UUID taskId = UUID.fromString(task.getString(MongoTaskDao._ID));
+            assertThat(task.getInteger(MongoTaskDao.SHARD_PARTITION), equalTo(partitionOf(taskId, PARTITION_COUNT)));
+        }
+    }
+
+    @Test
+    public void shouldIssueExecutionIdsWithinShardPartitionOfTheirTask() {
+        Set<TaskId> submittedIds = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            submittedIds.add(taskDao.submitTask(taskConfig(1), randomTaskBody()));
+        }
+
+        // When
+        Set<TaskId> claimedIds = new HashSet<>();
+        Optional<Execution> execution;
+        while ((execution = taskDao.createNextExecution()).isPresent()) {
+            Execution claimed = execution.get();
+            claimedIds.add(claimed.taskId);
+
+            // Then
+            assertThat(
+                    partitionOf(claimed.executionId.getValue(), PARTITION_COUNT),
+                    equalTo(partitionOf(claimed.taskId.getValue(), PARTITION_COUNT))
+            );
+            assertThat(taskDao.markAsSucceeded(claimed.executionId), is(true));
+            assertThat(taskDao.loadTask(claimed.taskId).get().state, is(TaskState.SUCCEEDED));
+        }
+        assertThat(claimedIds, equalTo(submittedIds));
+    }
+
+    @Test
+    public void shouldRotateClaimsOverShardPartitions() {
+        for (int i = 0; i < 160; i++) {
+            taskDao.submitTask(taskConfig(1), randomTaskBody());
+        }
+
+        // When
+        Set<Integer> claimedPartitions = new HashSet<>();
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            claimedPartitions.add(partitionOf(taskDao.createNextExecution().get().taskId.getValue(), PARTITION_COUNT));
+        }
+
+        // Then
+        assertThat(claimedPartitions.size(), is(PARTITION_COUNT));
+    }
+
+    @Test
+    public void shouldNotClaimAnythingFromEmptyPartitions() {
+        assertThat(taskDao.createNextExecution(), isNotPresent());
+    }
+
+    @Test
+    public void shouldTargetAllSingleTaskOperationsToShardPartition() {
+        TaskId taskId = taskDao.submitTask(taskConfig(2), randomTaskBody());
+        taskDao.submitTask(taskConfig(2), randomTaskBody());
+
+        try (QueryPlanRecorder recorder = QueryPlanRecorder.startRecording(database)) {
+            taskDao.loadTask(taskId);
+            taskDao.setTTL(taskId, Duration.ofDays(1));
+            taskDao.keepForever(taskId);
+            taskDao.getTTL(taskId);
+            taskDao.markAsFailed(taskDao.createNextExecution().get().executionId);
+            taskDao.releaseExecution(taskDao.createNextExecution().get().executionId);
+            taskDao.markAsSucceeded(Arrays.asList(
+                    taskDao.createNextExecution().get().executionId,
+                    randomExecutionId()
+            ));
+            taskDao.cancelTask(taskId, Optional.empty());
+
+            // When
+            List<QueryPlan> plans = recorder.explainRecordedQueries("shardedTasks");
+
+            // Then
+            List<String> untargetedOperations = new ArrayList<>();
+            for (QueryPlan plan : plans) {
+                Optional<Document> singleTaskFilter = singleTaskFilterOf(plan.explainedCommand);
+                if (singleTaskFilter.isPresent() && !singleTaskFilter.get().containsKey(MongoTaskDao.SHARD_PARTITION)) {
+                    untargetedOperations.add(plan.explainedCommand.toJson());
+                }
+            }
+            assertThat(plans, is(not(empty())));
+            assertThat(untargetedOperations, is(empty()));
+        }
+    }
+
+    // filter of operations that have to be targeted to one shard (single document writes and lookups by _id)
+    private static Optional<Document> singleTaskFilterOf(Document command) {
+        if (command.containsKey("findAndModify")) {
+            return Optional.of(command.get("query", Document.class));
+        } else if (command.containsKey("updates")) {
+            Document update = (Document) command.get("updates", List.class).get(0);
+            return update.getBoolean("multi", false) ? Optional.empty() : Optional.of(update.get("q", Document.class));
+        } else if (command.containsKey("deletes")) {
+            Document delete = (Document) command.get("deletes", List.class).get(0);
+            return delete.get("limit", Number.class).intValue() == 1 ? Optional.of(delete.get("q", Document.class)) : Optional.empty();
+        } else if (command.containsKey("find")) {
+            Document filter = command.get("filter", Document.class);
+            return filter != null && filter.get(MongoTaskDao._ID) instanceof String ? Optional.of(filter) : Optional.empty();
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,196 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.*;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static java.util.Collections.singletonList;
+import static mtymes.common.mongo.DocBuilder.doc;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.resultsCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfigBuilder;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.*;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class MongoTaskDaoTaskResultIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoCollection<Document> results;
+    private static MongoTaskDao inlineTaskDao;
+    private static MongoTaskDao bodiesTaskDao;
+    private static MongoTaskDao resultsTaskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        inlineTaskDao = new MongoTaskDao(
+                tasksCollection(database, "inlineTasks"),
+                Optional.empty(),
+                clock
+        );
+        bodiesTaskDao = new MongoTaskDao(
+                tasksCollection(database, "tasks"),
+                Optional.of(bodiesCollection(database, "bodies")),
+                clock
+        );
+        results = resultsCollection(database, "results");
+        resultsTaskDao = new MongoTaskDao(
+                tasksCollection(database, "resultTasks"),
+                Optional.of(bodiesCollection(database, "resultBodies")),
+                mongoTaskDaoConfigBuilder()
+                        .results(results)
+                        .build(),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldStoreResultOfSucceededExecution() {
+        for (MongoTaskDao taskDao : new MongoTaskDao[]{inlineTaskDao, bodiesTaskDao, resultsTaskDao}) {
+            TaskBody body = randomTaskBody();
+            TaskId taskId = taskDao.submitTask(taskConfig(1), body);
+            Execution execution = taskDao.createNextExecution().get();
+            TaskResult result = randomTaskResult();
+
+            // When
+            boolean succeeded = taskDao.markAsSucceeded(execution.executionId, result);
+
+            // Then
+            assertThat(succeeded, is(true));
+            assertThat(taskDao.loadTask(taskId).get().state, is(TaskState.SUCCEEDED));
+            assertThat(taskDao.loadTaskResult(taskId), isPresentAndEqualTo(result));
+            assertThat(taskDao.loadTaskBody(taskId), isPresentAndEqualTo(body));
+        }
+    }
+
+    @Test
+    public void shouldReplaceErrorDetailsOfFailedExecutionWithResultOfRetry() {
+        for (MongoTaskDao taskDao : new MongoTaskDao[]{inlineTaskDao, bodiesTaskDao, resultsTaskDao}) {
+            TaskId taskId = taskDao.submitTask(taskConfig(2), randomTaskBody());
+            TaskResult errorDetails = randomTaskResult();
+            TaskResult result = randomTaskResult();
+
+            // When
+            taskDao.markAsFailed(taskDao.createNextExecution().get().executionId, errorDetails);
+
+            // Then
+            assertThat(taskDao.loadTaskResult(taskId), isPresentAndEqualTo(errorDetails));
+
+            // When
+            ExecutionWithBody retry = taskDao.createNextExecutionWithBody().get();
+            taskDao.markAsSucceeded(retry.execution.executionId, result);
+
+            // Then
+            assertThat(retry.execution.taskId, is(taskId));
+            assertThat(taskDao.loadTaskResult(taskId), isPresentAndEqualTo(result));
+        }
+    }
+
+    @Test
+    public void shouldDropErrorDetailsOfFailedExecutionOnceRetrySucceedsWithoutResult() {
+        for (MongoTaskDao taskDao : new MongoTaskDao[]{inlineTaskDao, bodiesTaskDao, resultsTaskDao}) {
+            TaskId taskId = taskDao.submitTask(taskConfig(2), randomTaskBody());
+            taskDao.markAsFailed(taskDao.createNextExecution().get().executionId, randomTaskResult());
+
+            // When
+            taskDao.markAsSucceeded(taskDao.createNextExecution().get().executionId);
+
+            // Then
+            assertThat(taskDao.loadTask(taskId).get().state, is(TaskState.SUCCEEDED));
+            assertThat(taskDao.loadTaskResult(taskId), isNotPresent());
+
+            TaskId bulkTaskId = taskDao.submitTask(taskConfig(2), randomTaskBody());
+            taskDao.markAsFailed(taskDao.createNextExecution().get().executionId, randomTaskResult());
+
+            // When
+            taskDao.markAsSucceeded(singletonList(taskDao.createNextExecution().get().executionId));
+
+            // Then
+            assertThat(taskDao.loadTask(bulkTaskId).get().state, is(TaskState.SUCCEEDED));
+            assertThat(taskDao.loadTaskResult(bulkTaskId), isNotPresent());
+        }
+    }
+
+    @Test
+    public void shouldNotStoreResultOfStaleExecution() {
+        for (MongoTaskDao taskDao : new MongoTaskDao[]{inlineTaskDao, bodiesTaskDao, resultsTaskDao}) {
+            TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+            Execution execution = taskDao.createNextExecution().get();
+            TaskResult result = randomTaskResult();
+            taskDao.markAsSucceeded(execution.executionId, result);
+
+            // When
+            boolean failed = taskDao.markAsFailed(execution.executionId, randomTaskResult());
+            boolean unknownSucceeded = taskDao.markAsSucceeded(randomExecutionId(), randomTaskResult());
+
+            // Then
+            assertThat(failed, is(false));
+            assertThat(unknownSucceeded, is(false));
+            assertThat(taskDao.loadTaskResult(taskId), isPresentAndEqualTo(result));
+        }
+    }
+
+    @Test
+    public void shouldNotFindResultOfUnfinishedOrUnknownTask() {
+        for (MongoTaskDao taskDao : new MongoTaskDao[]{inlineTaskDao, bodiesTaskDao, resultsTaskDao}) {
+            TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+            taskDao.markAsSucceeded(taskDao.createNextExecution().get().executionId);
+
+            assertThat(taskDao.loadTaskResult(taskId), isNotPresent());
+            assertThat(taskDao.loadTaskResult(randomTaskId()), isNotPresent());
+        }
+    }
+
+    @Test
+    public void shouldExpireStoredResultTogetherWithTask() {
+        TaskId taskId = resultsTaskDao.submitTask(taskConfigBuilder().ttl(Duration.ofHours(1)).build(), randomTaskBody());
+        resultsTaskDao.markAsSucceeded(resultsTaskDao.createNextExecution().get().executionId, randomTaskResult());
+
+        assertThat(results.find(doc("_id", taskId)).first().get(MongoTaskDao.DELETE_AFTER), is(notNullValue()));
+
+        // When
+        resultsTaskDao.keepForever(taskId);
+
+        // Then
+        assertThat(results.find(doc("_id", taskId)).first().get(MongoTaskDao.DELETE_AFTER), is(nullValue()));
+
+        // When
+        resultsTaskDao.setTTL(taskId, Duration.ofMinutes(5));
+
+        // Then
+        assertThat(results.find(doc("_id", taskId)).first().get(MongoTaskDao.DELETE_AFTER), is(notNullValue()));
+    }
+}
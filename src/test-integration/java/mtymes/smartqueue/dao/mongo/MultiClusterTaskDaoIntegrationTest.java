@@ -0,0 +1,223 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.*;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.ZonedDateTime;
+import java.util.*;
+
+import static javafixes.collection.CollectionUtil.newList;
+import static mtymes.common.mongo.DocBuilder.emptyDoc;
+import static mtymes.common.time.DateUtil.UTC_ZONE_ID;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.defaultMongoTaskDaoConfig;
+import static mtymes.smartqueue.dao.mongo.TaskCluster.taskCluster;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomExecutionId;
+import static mtymes.test.Random.randomTaskBody;
+import static mtymes.test.Random.randomTaskId;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MultiClusterTaskDaoIntegrationTest {
+
+    private static final ZonedDateTime NOW = ZonedDateTime.of(2019, 3, 1, 10, 0, 0, 0, UTC_ZONE_ID);
+    private static final int CLUSTER_COUNT = 3;
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static final List<EmbeddedDB> dbs = new ArrayList<>();
+
+    @BeforeClass
+    public static void initDBs() {
+        for (int i = 0; i < CLUSTER_COUNT; i++) {
+            dbs.add(EmbeddedDB.embeddedDB().start());
+        }
+    }
+
+    @Before
+    public void setUp() {
+        clock.setNow(NOW);
+        for (EmbeddedDB db : dbs) {
+            for (String collectionName : newList(db.getDatabase().listCollectionNames())) {
+                db.getDatabase().getCollection(collectionName).deleteMany(emptyDoc());
+            }
+        }
+    }
+
+    @AfterClass
+    public static void releaseDBs() {
+        for (EmbeddedDB db : dbs) {
+            db.stop();
+        }
+    }
+
+    @Test
+    public void shouldSpreadSubmittedTasksOverAllClusters() {
+        MultiClusterTaskDao taskDao = taskDao(ClusterClaimStrategy.ROUND_ROBIN, 0, 1, 2);
+
+        // When
+        for (int i = 0; i < 300; i++) {
+            taskDao.submitTask(taskConfig(1), randomTaskBody());
+        }
+
+        // Then
+        for (int clusterId = 0; clusterId < CLUSTER_COUNT; clusterId++) {
+            assertThat(tasksOf(clusterId).countDocuments(), greaterThan(50L));
+        }
+    }
+
+    @Test
+    public void shouldStoreClusterInTaskAndExecutionIds() {
+        MultiClusterTaskDao taskDao = taskDao(ClusterClaimStrategy.ROUND_ROBIN, 0, 1, 2);
+
+        // When
+        TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        Execution execution = taskDao.createNextExecution().get();
+
+        // Then
+        int clusterId = ClusterIds.clusterOf(taskId.getValue());
+        assertThat(tasksOf(clusterId).countDocuments(), equalTo(1L));
+        assertThat(ClusterIds.clusterOf(execution.executionId.getValue()), equalTo(clusterId));
+        assertThat(execution.taskId, equalTo(taskId));
+    }
+
+    @Test
+    public void shouldRouteIdBasedOperationsToTheOwningCluster() {
+        MultiClusterTaskDao taskDao = taskDao(ClusterClaimStrategy.ROUND_ROBIN, 0, 1, 2);
+        TaskBody body = randomTaskBody();
+        TaskId taskId = taskDao.submitTask(taskConfig(1), body);
+
+        // When & Then
+        assertThat(taskDao.loadTaskBody(taskId), isPresentAndEqualTo(body));
+        assertThat(taskDao.loadTask(taskId).get().state, equalTo(TaskState.SUBMITTED));
+
+        Execution execution = taskDao.createNextExecution().get();
+        assertThat(taskDao.markAsSucceeded(execution.executionId), is(true));
+        assertThat(taskDao.loadTask(taskId).get().state, equalTo(TaskState.SUCCEEDED));
+    }
+
+    @Test
+    public void shouldNotFindUnknownIds() {
+        MultiClusterTaskDao taskDao = taskDao(ClusterClaimStrategy.ROUND_ROBIN, 0, 1, 2);
+        TaskId unknownClusterTaskId = TaskId.taskId(ClusterIds.withCluster(randomTaskId().getValue(), 200));
+        ExecutionId unknownClusterExecutionId = ExecutionId.executionId(ClusterIds.withCluster(randomExecutionId().getValue(), 200));
+
+        // When & Then
+        assertThat(taskDao.loadTask(unknownClusterTaskId), isNotPresent());
+        assertThat(taskDao.loadTask(TaskId.taskId(ClusterIds.withCluster(randomTaskId().getValue(), 1))), isNotPresent());
+        assertThat(taskDao.cancelTask(unknownClusterTaskId, Optional.empty()), is(false));
+        assertThat(taskDao.markAsSucceeded(unknownClusterExecutionId), is(false));
+    }
+
+    @Test
+    public void shouldClaimFromClustersInRoundRobinOrder() {
+        MultiClusterTaskDao taskDao = taskDao(ClusterClaimStrategy.ROUND_ROBIN, 0, 1, 2);
+        for (int i = 0; i < 300; i++) {
+            taskDao.submitTask(taskConfig(1), randomTaskBody());
+        }
+
+        // When
+        Set<Integer> claimedFromClusters = new HashSet<>();
+        for (int i = 0; i < CLUSTER_COUNT; i++) {
+            claimedFromClusters.add(ClusterIds.clusterOf(taskDao.createNextExecution().get().executionId.getValue()));
+        }
+
+        // Then
+        assertThat(claimedFromClusters, hasSize(CLUSTER_COUNT));
+    }
+
+    @Test
+    public void shouldPreferLeastLoadedCluster() {
+        MultiClusterTaskDao taskDao = taskDao(ClusterClaimStrategy.LEAST_LOADED, 0, 1, 2);
+        for (int i = 0; i < 300; i++) {
+            taskDao.submitTask(taskConfig(1), randomTaskBody());
+        }
+        List<Execution> executions = new ArrayList<>();
+        for (int i = 0; i < CLUSTER_COUNT; i++) {
+            executions.add(taskDao.createNextExecution().get());
+        }
+        Execution completedExecution = executions.get(1);
+        int completedCluster = ClusterIds.clusterOf(completedExecution.executionId.getValue());
+
+        // When
+        taskDao.markAsSucceeded(completedExecution.executionId);
+        Execution execution = taskDao.createNextExecution().get();
+
+        // Then
+        assertThat(ClusterIds.clusterOf(execution.executionId.getValue()), equalTo(completedCluster));
+        for (int clusterId = 0; clusterId < CLUSTER_COUNT; clusterId++) {
+            assertThat(taskDao.inFlightCount(clusterId), equalTo(1));
+        }
+    }
+
+    @Test
+    public void shouldCompleteExecutionsOfSeveralClustersInBulk() {
+        MultiClusterTaskDao taskDao = taskDao(ClusterClaimStrategy.ROUND_ROBIN, 0, 1, 2);
+        for (int i = 0; i < 300; i++) {
+            taskDao.submitTask(taskConfig(1), randomTaskBody());
+        }
+        List<ExecutionId> executionIds = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            executionIds.add(taskDao.createNextExecution().get().executionId);
+        }
+        ExecutionId unknownExecutionId = randomExecutionId();
+        executionIds.add(2, unknownExecutionId);
+
+        // When
+        Map<ExecutionId, Boolean> results = taskDao.markAsSucceeded(executionIds);
+
+        // Then
+        assertThat(newList(results.keySet()), equalTo(executionIds));
+        for (ExecutionId executionId : executionIds) {
+            assertThat(results.get(executionId), equalTo(executionId != unknownExecutionId));
+        }
+    }
+
+    @Test
+    public void shouldKeepFindingTasksAfterClusterHasBeenAdded() {
+        MultiClusterTaskDao twoClusterDao = taskDao(ClusterClaimStrategy.ROUND_ROBIN, 0, 1);
+        List<TaskId> taskIds = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            taskIds.add(twoClusterDao.submitTask(taskConfig(1), randomTaskBody()));
+        }
+
+        // When
+        MultiClusterTaskDao threeClusterDao = taskDao(ClusterClaimStrategy.ROUND_ROBIN, 0, 1, 2);
+
+        // Then
+        for (TaskId taskId : taskIds) {
+            assertThat(threeClusterDao.loadTask(taskId).isPresent(), is(true));
+        }
+        assertThat(tasksOf(2).countDocuments(), equalTo(0L));
+    }
+
+    private MultiClusterTaskDao taskDao(ClusterClaimStrategy claimStrategy, int... clusterIds) {
+        List<TaskCluster> clusters = new ArrayList<>();
+        for (int clusterId : clusterIds) {
+            MongoDatabase database = dbs.get(clusterId).getDatabase();
+            clusters.add(taskCluster(
+                    clusterId,
+                    tasksCollection(database, "clusterTasks"),
+                    Optional.of(bodiesCollection(database, "clusterBodies")),
+                    defaultMongoTaskDaoConfig()
+            ));
+        }
+        return new MultiClusterTaskDao(clusters, claimStrategy, clock);
+    }
+
+    private MongoCollection<Document> tasksOf(int clusterId) {
+        return dbs.get(clusterId).getDatabase().getCollection("clusterTasks");
+    }
+}
@@ -0,0 +1,226 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.*;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toSet;
+import static javafixes.collection.CollectionUtil.newList;
+import static javafixes.collection.CollectionUtil.newSet;
+import static mtymes.common.time.DateUtil.UTC_ZONE_ID;
+import static mtymes.common.uuid.TimeOrderedUUID.epochMillisOf;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.concurrencyGroupsCollection;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.defaultMongoTaskDaoConfig;
+import static mtymes.smartqueue.dao.mongo.MongoTaskDaoConfigBuilder.mongoTaskDaoConfigBuilder;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomExecutionId;
+import static mtymes.test.Random.randomTaskBody;
+import static mtymes.test.Random.randomTaskId;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PartitionedTaskDaoIntegrationTest {
+
+    private static final ZonedDateTime DAY_1 = ZonedDateTime.of(2019, 3, 1, 10, 0, 0, 0, UTC_ZONE_ID);
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoDatabase database;
+
+    private PartitionedTaskDao taskDao;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+        database = db.getDatabase();
+    }
+
+    @Before
+    public void setUp() {
+        for (String collectionName : newList(database.listCollectionNames())) {
+            if (collectionName.startsWith("partitioned")) {
+                database.getCollection(collectionName).drop();
+            }
+        }
+        clock.setNow(DAY_1);
+        taskDao = new PartitionedTaskDao(
+                database,
+                "partitionedTasks",
+                Optional.of("partitionedBodies"),
+                PartitionPeriod.DAY,
+                Duration.ofDays(2),
+                defaultMongoTaskDaoConfig(),
+                clock
+        );
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldStoreTasksInCollectionOfTheirSubmitDay() {
+        TaskBody body = randomTaskBody();
+
+        // When
+        TaskId taskId = taskDao.submitTask(taskConfig(1), body);
+
+        // Then
+        assertThat(epochMillisOf(taskId.getValue()), is(DAY_1.toInstant().toEpochMilli()));
+        assertThat(newSet(database.listCollectionNames()), hasItems("partitionedTasks_2019_03_01", "partitionedBodies_2019_03_01"));
+        assertThat(database.getCollection("partitionedTasks_2019_03_01").countDocuments(), is(1L));
+        assertThat(taskDao.loadTask(taskId).get().state, is(TaskState.SUBMITTED));
+        assertThat(taskDao.loadTaskBody(taskId), isPresentAndEqualTo(body));
+        assertThat(taskDao.loadTask(randomTaskId()), isNotPresent());
+    }
+
+    @Test
+    public void shouldClaimFromOldestActivePartitionFirstAndCompleteInTheRightPartition() {
+        TaskId olderTaskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        clock.increaseByDays(1);
+        TaskId newerTaskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+
+        // When
+        Execution olderExecution = taskDao.createNextExecution().get();
+        Execution newerExecution = taskDao.createNextExecution().get();
+
+        // Then
+        assertThat(olderExecution.taskId, equalTo(olderTaskId));
+        assertThat(newerExecution.taskId, equalTo(newerTaskId));
+        assertThat(taskDao.createNextExecution(), isNotPresent());
+
+        // When
+        Map<ExecutionId, Boolean> completed = taskDao.markAsSucceeded(newList(
+                olderExecution.executionId,
+                newerExecution.executionId,
+                randomExecutionId()
+        ));
+
+        // Then
+        assertThat(completed.get(olderExecution.executionId), is(true));
+        assertThat(completed.get(newerExecution.executionId), is(true));
+        assertThat(completed.containsValue(false), is(true));
+        assertThat(taskDao.loadTask(olderTaskId).get().state, is(TaskState.SUCCEEDED));
+        assertThat(taskDao.loadTask(newerTaskId).get().state, is(TaskState.SUCCEEDED));
+    }
+
+    @Test
+    public void shouldDropExpiredPartitions() {
+        TaskId expiredTaskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        clock.increaseByDays(2);
+        TaskId activeTaskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        clock.increaseByDays(1);
+
+        // When
+        int droppedCount = taskDao.dropExpiredPartitions();
+
+        // Then
+        assertThat(droppedCount, is(1));
+        assertThat(newSet(database.listCollectionNames()), not(hasItem("partitionedTasks_2019_03_01")));
+        assertThat(newSet(database.listCollectionNames()), not(hasItem("partitionedBodies_2019_03_01")));
+        assertThat(taskDao.loadTask(expiredTaskId), isNotPresent());
+        assertThat(taskDao.loadTask(activeTaskId).isPresent(), is(true));
+        assertThat(taskDao.createNextExecution().get().taskId, equalTo(activeTaskId));
+    }
+
+    @Test
+    public void shouldClaimRetryOfTaskInOlderPartitionFoundEmpty() {
+        TaskId olderTaskId = taskDao.submitTask(taskConfig(2), randomTaskBody());
+        clock.increaseByDays(1);
+        Execution execution = taskDao.createNextExecution().get();
+        assertThat(taskDao.createNextExecution(), isNotPresent());
+
+        // When
+        taskDao.markAsFailed(execution.executionId);
+
+        // Then
+        assertThat(taskDao.createNextExecution().get().taskId, equalTo(olderTaskId));
+    }
+
+    @Test
+    public void shouldAllowTTLsEndingBeforeThePartitionIsDropped() {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+
+        // When
+        boolean updated = taskDao.setTTL(taskId, Duration.ofDays(2).plusHours(14));
+
+        // Then
+        assertThat(updated, is(true));
+        assertThat(taskDao.getTTL(taskId), isPresentAndEqualTo(Duration.ofDays(2).plusHours(14)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTTLsOutlivingThePartition() {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+
+        // partition of the task ends at the next midnight and is dropped 2 days later
+        taskDao.setTTL(taskId, Duration.ofDays(2).plusHours(14).plusMinutes(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectKeepingTasksForever() {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+
+        taskDao.keepForever(taskId);
+    }
+
+    @Test
+    public void shouldCreatePartitionsWithTenantLanesIndexForFairShare() {
+        PartitionedTaskDao fairShareDao = new PartitionedTaskDao(
+                database,
+                "partitionedFairShareTasks",
+                Optional.empty(),
+                PartitionPeriod.DAY,
+                Duration.ofDays(2),
+                mongoTaskDaoConfigBuilder().fairShare(true).build(),
+                clock
+        );
+
+        // When
+        fairShareDao.submitTask(taskConfig(1), randomTaskBody());
+
+        // Then
+        assertThat(indexNames("partitionedFairShareTasks_2019_03_01"), hasItem("tenant_1_availableSince_1"));
+    }
+
+    @Test
+    public void shouldCreatePartitionsWithLimitLanesIndexForConcurrencyGroups() {
+        PartitionedTaskDao limitedDao = new PartitionedTaskDao(
+                database,
+                "partitionedLimitedTasks",
+                Optional.empty(),
+                PartitionPeriod.DAY,
+                Duration.ofDays(2),
+                mongoTaskDaoConfigBuilder().concurrencyGroups(concurrencyGroupsCollection(database, "partitionedConcurrencyGroups")).build(),
+                clock
+        );
+
+        // When
+        limitedDao.submitTask(taskConfig(1), randomTaskBody());
+
+        // Then
+        assertThat(indexNames("partitionedLimitedTasks_2019_03_01"), hasItems("limitLane_1_availableSince_1", "concurrencyGroup_1"));
+    }
+
+    private static Set<String> indexNames(String collectionName) {
+        return newList(database.getCollection(collectionName).listIndexes()).stream()
+                .map(index -> index.getString("name"))
+                .collect(toSet());
+    }
+}
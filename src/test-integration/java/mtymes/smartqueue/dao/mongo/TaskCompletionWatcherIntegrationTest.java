@@ -0,0 +1,133 @@
+package mtymes.smartqueue.dao.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.domain.*;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.bson.Document;
+import org.junit.*;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.Random.randomTaskBody;
+import static mtymes.test.Random.randomTaskId;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TaskCompletionWatcherIntegrationTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static MongoTaskDao taskDao;
+    private static MongoCollection<Document> tasks;
+
+    private TaskCompletionWatcher watcher;
+
+    @BeforeClass
+    public static void initDB() {
+        db = MongoManager.getEmbeddedDB();
+
+        MongoDatabase database = db.getDatabase();
+        tasks = tasksCollection(database, "tasks");
+        taskDao = new MongoTaskDao(
+                tasks,
+                Optional.of(bodiesCollection(database, "bodies")),
+                clock
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+        // the embedded db is standalone, so this exercises the polling fallback
+        watcher = new TaskCompletionWatcher(taskDao, tasks, Duration.ofMillis(20)).start();
+    }
+
+    @After
+    public void tearDown() {
+        watcher.close();
+    }
+
+    @AfterClass
+    public static void releaseDB() {
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldNotifyAllWaitersOnceTaskSucceeds() throws Exception {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+
+        // When
+        CompletableFuture<Optional<Task>> firstWaiter = watcher.awaitCompletionAsync(taskId, Duration.ofSeconds(10));
+        CompletableFuture<Optional<Task>> secondWaiter = watcher.awaitCompletionAsync(taskId, Duration.ofSeconds(10));
+
+        // Then
+        assertThat(firstWaiter.isDone(), is(false));
+        assertThat(watcher.waitedForTaskCount(), is(1));
+
+        // When
+        taskDao.markAsSucceeded(taskDao.createNextExecution().get().executionId);
+
+        // Then
+        assertThat(firstWaiter.get().get().state, is(TaskState.SUCCEEDED));
+        assertThat(secondWaiter.get().get().state, is(TaskState.SUCCEEDED));
+        assertThat(watcher.waitedForTaskCount(), is(0));
+    }
+
+    @Test
+    public void shouldWaitForLastAttemptToFail() throws Exception {
+        TaskId taskId = taskDao.submitTask(taskConfig(2), randomTaskBody());
+        CompletableFuture<Optional<Task>> waiter = watcher.awaitCompletionAsync(taskId, Duration.ofSeconds(10));
+
+        // When
+        taskDao.markAsFailed(taskDao.createNextExecution().get().executionId);
+        Thread.sleep(100);
+
+        // Then
+        assertThat(waiter.isDone(), is(false));
+
+        // When
+        taskDao.markAsFailed(taskDao.createNextExecution().get().executionId);
+
+        // Then
+        assertThat(waiter.get().get().state, is(TaskState.FAILED));
+    }
+
+    @Test
+    public void shouldReturnAlreadyCompletedTaskImmediately() throws Exception {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+        taskDao.cancelTask(taskId, Optional.empty());
+
+        // When
+        Optional<Task> task = watcher.awaitCompletion(taskId, Duration.ofSeconds(10));
+
+        // Then
+        assertThat(task.get().state, is(TaskState.CANCELLED));
+    }
+
+    @Test
+    public void shouldTimeOutWhenTaskDoesNotComplete() throws Exception {
+        TaskId taskId = taskDao.submitTask(taskConfig(1), randomTaskBody());
+
+        // When
+        Optional<Task> task = watcher.awaitCompletion(taskId, Duration.ofMillis(100));
+
+        // Then
+        assertThat(task, isNotPresent());
+        assertThat(watcher.waitedForTaskCount(), is(0));
+    }
+
+    @Test
+    public void shouldNotWaitForUnknownTask() throws Exception {
+        assertThat(watcher.awaitCompletion(randomTaskId(), Duration.ofSeconds(10)), isNotPresent());
+    }
+}
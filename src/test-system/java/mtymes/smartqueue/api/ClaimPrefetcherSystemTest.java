@@ -0,0 +1,116 @@
+package mtymes.smartqueue.api;
+
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.dao.mongo.MongoTaskDao;
+import mtymes.smartqueue.domain.ExecutionWithBody;
+import mtymes.smartqueue.domain.TaskId;
+import mtymes.smartqueue.domain.TaskState;
+import mtymes.smartqueue.server.SmartQueueServer;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.junit.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+import static de.flapdoodle.embed.process.runtime.Network.getFreeServerPort;
+import static mtymes.smartqueue.api.SmartQueueClientConfigBuilder.defaultSmartQueueClientConfig;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomTaskBody;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ClaimPrefetcherSystemTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static SmartQueueServer server;
+    private static SmartQueueClient client;
+
+    @BeforeClass
+    public static void initServer() throws IOException {
+        db = MongoManager.getEmbeddedDB();
+        MongoDatabase database = db.getDatabase();
+
+        server = new SmartQueueServer(
+                new MongoTaskDao(
+                        tasksCollection(database, "tasks"),
+                        Optional.of(bodiesCollection(database, "bodies")),
+                        clock
+                ),
+                getFreeServerPort()
+        ).start();
+        client = new HttpSmartQueueClient(defaultSmartQueueClientConfig("http://localhost:" + server.port()));
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseServer() {
+        client.close();
+        server.stop();
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldHandOutEachSubmittedTaskOnce() throws Exception {
+        Set<TaskId> submittedIds = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            submittedIds.add(client.submitTask(taskConfig(1), randomTaskBody()));
+        }
+
+        try (ClaimPrefetcher prefetcher = new ClaimPrefetcher(client, 10, Duration.ofSeconds(1), Duration.ofSeconds(30))) {
+            // When
+            Set<TaskId> claimedIds = new HashSet<>();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (claimedIds.size() < submittedIds.size() && System.currentTimeMillis() < deadline) {
+                Optional<ExecutionWithBody> claimed = prefetcher.claim();
+                claimed.ifPresent(execution -> assertThat(claimedIds.add(execution.execution.taskId), is(true)));
+                Thread.sleep(5);
+            }
+
+            // Then
+            assertThat(claimedIds, equalTo(submittedIds));
+            assertThat(prefetcher.targetPrefetchCount(), allOf(greaterThan(1), lessThanOrEqualTo(10)));
+        }
+    }
+
+    @Test
+    public void shouldReleaseExecutionsThatWereNotClaimedWithinLease() throws Exception {
+        TaskId firstTaskId = client.submitTask(taskConfig(1), randomTaskBody());
+        TaskId secondTaskId = client.submitTask(taskConfig(1), randomTaskBody());
+
+        try (ClaimPrefetcher prefetcher = new ClaimPrefetcher(client, 1, Duration.ofSeconds(1), Duration.ofMillis(100))) {
+            // When
+            Optional<ExecutionWithBody> claimed = prefetcher.claim();
+            waitUntilNothingIsBuffered(prefetcher);
+
+            // Then
+            TaskId claimedTaskId = claimed.get().execution.taskId;
+            TaskId prefetchedTaskId = claimedTaskId.equals(firstTaskId) ? secondTaskId : firstTaskId;
+            assertThat(client.getTaskState(claimedTaskId), isPresentAndEqualTo(TaskState.RUNNING));
+            assertThat(client.getTaskState(prefetchedTaskId), isPresentAndEqualTo(TaskState.SUBMITTED));
+            assertThat(prefetcher.bufferedCount(), is(0));
+            assertThat(client.claimExecution().map(execution -> execution.execution.taskId), isPresentAndEqualTo(prefetchedTaskId));
+        }
+    }
+
+    private void waitUntilNothingIsBuffered(ClaimPrefetcher prefetcher) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        do {
+            Thread.sleep(50);
+        } while (prefetcher.bufferedCount() > 0 && System.currentTimeMillis() < deadline);
+        Thread.sleep(200); // the release is asynchronous
+    }
+}
@@ -0,0 +1,223 @@
+package mtymes.smartqueue.api;
+
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.dao.mongo.MongoTaskDao;
+import mtymes.smartqueue.domain.*;
+import mtymes.smartqueue.server.SmartQueueServer;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.junit.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static de.flapdoodle.embed.process.runtime.Network.getFreeServerPort;
+import static javafixes.collection.CollectionUtil.newSet;
+import static mtymes.smartqueue.api.SmartQueueClientConfigBuilder.smartQueueClientConfigBuilder;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfigBuilder;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.*;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class HttpSmartQueueClientSystemTest {
+
+    private static final FixedClock clock = new FixedClock();
+
+    private static EmbeddedDB db;
+    private static SmartQueueServer server;
+    private static SmartQueueClient client;
+
+    @BeforeClass
+    public static void initServer() throws IOException {
+        db = MongoManager.getEmbeddedDB();
+        MongoDatabase database = db.getDatabase();
+
+        server = new SmartQueueServer(
+                new MongoTaskDao(
+                        tasksCollection(database, "tasks"),
+                        Optional.of(bodiesCollection(database, "bodies")),
+                        clock
+                ),
+                getFreeServerPort()
+        ).start();
+        client = new HttpSmartQueueClient(
+                smartQueueClientConfigBuilder("http://localhost:" + server.port())
+                        .linger(Duration.ofMillis(20))
+                        .maxBatchSize(50)
+                        .build()
+        );
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseServer() {
+        client.close();
+        server.stop();
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldSubmitClaimAndCompleteTask() {
+        TaskBody body = randomTaskBody();
+
+        // When
+        TaskId taskId = client.submitTask(taskConfig(2), body);
+
+        // Then
+        assertThat(client.getTaskState(taskId), isPresentAndEqualTo(TaskState.SUBMITTED));
+        assertThat(client.loadTaskBody(taskId), isPresentAndEqualTo(body));
+
+        // When
+        ExecutionWithBody claimed = client.claimExecution().get();
+
+        // Then
+        assertThat(claimed.execution.taskId, equalTo(taskId));
+        assertThat(claimed.body, isPresentAndEqualTo(body));
+        assertThat(client.claimExecution(), isNotPresent());
+
+        // When
+        boolean succeeded = client.markAsSucceeded(claimed.execution.executionId);
+
+        // Then
+        assertThat(succeeded, is(true));
+        assertThat(client.markAsFailed(claimed.execution.executionId), is(false));
+        Task task = client.loadTask(taskId).get();
+        assertThat(task.state, is(TaskState.SUCCEEDED));
+        assertThat(task.lastExecutionId, isPresentAndEqualTo(claimed.execution.executionId));
+    }
+
+    @Test
+    public void shouldStoreAndLoadTaskResult() {
+        TaskId taskId = client.submitTask(taskConfig(2), randomTaskBody());
+        TaskResult errorDetails = randomTaskResult();
+        TaskResult result = randomTaskResult();
+
+        // When
+        boolean failed = client.markAsFailed(client.claimExecution().get().execution.executionId, errorDetails);
+
+        // Then
+        assertThat(failed, is(true));
+        assertThat(client.loadTaskResult(taskId), isPresentAndEqualTo(errorDetails));
+
+        // When
+        boolean succeeded = client.markAsSucceeded(client.claimExecution().get().execution.executionId, result);
+
+        // Then
+        assertThat(succeeded, is(true));
+        assertThat(client.loadTaskResult(taskId), isPresentAndEqualTo(result));
+        assertThat(client.loadTaskResult(randomTaskId()), isNotPresent());
+    }
+
+    @Test
+    public void shouldCancelTaskAndUpdateTTL() {
+        TaskId taskId = client.submitTask(taskConfigBuilder().ttl(Duration.ofHours(1)).build(), randomTaskBody());
+
+        // When
+        boolean ttlUpdated = client.setTTL(taskId, Duration.ofMinutes(10));
+        boolean cancelled = client.cancelTask(taskId, Optional.empty());
+
+        // Then
+        assertThat(ttlUpdated, is(true));
+        assertThat(cancelled, is(true));
+        assertThat(client.getTTL(taskId), isPresentAndEqualTo(Duration.ofMinutes(10)));
+        assertThat(client.getTaskState(taskId), isPresentAndEqualTo(TaskState.CANCELLED));
+
+        // When
+        boolean keptForever = client.keepForever(taskId);
+
+        // Then
+        assertThat(keptForever, is(true));
+        assertThat(client.getTTL(taskId), isNotPresent());
+    }
+
+    @Test
+    public void shouldHandleUnknownTasksAndExecutions() {
+        TaskId unknownTaskId = randomTaskId();
+
+        assertThat(client.loadTask(unknownTaskId), isNotPresent());
+        assertThat(client.loadTaskBody(unknownTaskId), isNotPresent());
+        assertThat(client.getTaskState(unknownTaskId), isNotPresent());
+        assertThat(client.getTTL(unknownTaskId), isNotPresent());
+        assertThat(client.cancelTask(unknownTaskId, Optional.empty()), is(false));
+        assertThat(client.markAsSucceeded(randomExecutionId()), is(false));
+    }
+
+    @Test
+    public void shouldFailCallsMadeAfterClose() throws Exception {
+        SmartQueueClient closedClient = new HttpSmartQueueClient(
+                smartQueueClientConfigBuilder("http://localhost:" + server.port()).build()
+        );
+        closedClient.close();
+
+        // When
+        CompletableFuture<TaskId> submission = closedClient.submitTaskAsync(taskConfig(1), randomTaskBody());
+
+        // Then
+        assertThat(submission.isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void shouldCoalesceConcurrentCallsIntoBatches() throws Exception {
+        int threadCount = 8;
+        int tasksPerThread = 40;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        // When
+        List<Future<List<TaskId>>> submissions = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            submissions.add(executor.submit(() -> {
+                List<TaskId> taskIds = new ArrayList<>();
+                for (int j = 0; j < tasksPerThread; j++) {
+                    taskIds.add(client.submitTask(taskConfig(1), randomTaskBody()));
+                }
+                return taskIds;
+            }));
+        }
+        List<TaskId> submittedIds = new ArrayList<>();
+        for (Future<List<TaskId>> submission : submissions) {
+            submittedIds.addAll(submission.get());
+        }
+        executor.shutdown();
+
+        // Then
+        assertThat(newSet(submittedIds).size(), is(threadCount * tasksPerThread));
+
+        // When
+        List<CompletableFuture<Boolean>> completions = new ArrayList<>();
+        Optional<ExecutionWithBody> claimed;
+        while ((claimed = client.claimExecution()).isPresent()) {
+            completions.add(client.markAsSucceededAsync(claimed.get().execution.executionId));
+        }
+
+        // Then
+        assertThat(completions.size(), is(threadCount * tasksPerThread));
+        for (CompletableFuture<Boolean> completion : completions) {
+            assertThat(completion.get(), is(true));
+        }
+        List<CompletableFuture<Optional<TaskState>>> states = new ArrayList<>();
+        for (TaskId taskId : submittedIds) {
+            states.add(client.getTaskStateAsync(taskId));
+        }
+        for (CompletableFuture<Optional<TaskState>> state : states) {
+            assertThat(state.get(), isPresentAndEqualTo(TaskState.SUCCEEDED));
+        }
+    }
+}
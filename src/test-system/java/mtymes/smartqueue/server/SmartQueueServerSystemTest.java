@@ -0,0 +1,270 @@
+package mtymes.smartqueue.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoDatabase;
+import mtymes.smartqueue.api.dto.*;
+import mtymes.smartqueue.dao.mongo.MongoTaskDao;
+import mtymes.smartqueue.domain.*;
+import mtymes.test.db.EmbeddedDB;
+import mtymes.test.db.MongoManager;
+import mtymes.test.time.FixedClock;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.BoundRequestBuilder;
+import org.asynchttpclient.Response;
+import org.junit.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static de.flapdoodle.embed.process.runtime.Network.getFreeServerPort;
+import static javafixes.collection.CollectionUtil.newList;
+import static javafixes.collection.CollectionUtil.newSet;
+import static mtymes.common.json.JsonMapper.objectMapper;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.bodiesCollection;
+import static mtymes.smartqueue.dao.mongo.MongoCollections.tasksCollection;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfig;
+import static mtymes.smartqueue.domain.TaskConfigBuilder.taskConfigBuilder;
+import static mtymes.test.OptionalMatcher.isNotPresent;
+import static mtymes.test.OptionalMatcher.isPresentAndEqualTo;
+import static mtymes.test.Random.randomExecutionId;
+import static mtymes.test.Random.randomTaskBody;
+import static mtymes.test.Random.randomTaskId;
+import static org.asynchttpclient.Dsl.asyncHttpClient;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SmartQueueServerSystemTest {
+
+    private static final FixedClock clock = new FixedClock();
+    private static final ObjectMapper mapper = objectMapper();
+
+    private static EmbeddedDB db;
+    private static MongoTaskDao taskDao;
+    private static SmartQueueServer server;
+    private static AsyncHttpClient httpClient;
+
+    @BeforeClass
+    public static void initServer() throws IOException {
+        db = MongoManager.getEmbeddedDB();
+        MongoDatabase database = db.getDatabase();
+
+        taskDao = new MongoTaskDao(
+                tasksCollection(database, "tasks"),
+                Optional.of(bodiesCollection(database, "bodies")),
+                clock
+        );
+        server = new SmartQueueServer(taskDao, getFreeServerPort()).start();
+        httpClient = asyncHttpClient();
+    }
+
+    @Before
+    public void setUp() {
+        db.removeAllData();
+    }
+
+    @AfterClass
+    public static void releaseServer() throws IOException {
+        httpClient.close();
+        server.stop();
+        MongoManager.release(db);
+    }
+
+    @Test
+    public void shouldSubmitClaimAndCompleteTask() throws Exception {
+        TaskBody body = randomTaskBody();
+
+        // When
+        Response submitResponse = call(httpClient.preparePost(url("/tasks")), new SubmitTaskRequest(taskConfig(2), body));
+
+        // Then
+        assertThat(submitResponse.getStatusCode(), is(201));
+        TaskId taskId = read(submitResponse, SubmitTaskResponse.class).taskId;
+
+        // When
+        Response claimResponse = call(httpClient.preparePost(url("/executions")));
+
+        // Then
+        assertThat(claimResponse.getStatusCode(), is(200));
+        ExecutionWithBody claimed = read(claimResponse, ExecutionWithBody.class);
+        assertThat(claimed.execution.taskId, equalTo(taskId));
+        assertThat(claimed.body, isPresentAndEqualTo(body));
+
+        // When
+        Response succeededResponse = call(httpClient.preparePost(url("/executions/" + claimed.execution.executionId.getValue() + "/succeeded")));
+
+        // Then
+        assertThat(read(succeededResponse, AppliedResponse.class).applied, is(true));
+        Task task = read(call(httpClient.prepareGet(url("/tasks/" + taskId.getValue()))), Task.class);
+        assertThat(task.state, is(TaskState.SUCCEEDED));
+        assertThat(task.lastExecutionId, isPresentAndEqualTo(claimed.execution.executionId));
+        assertThat(read(call(httpClient.prepareGet(url("/tasks/" + taskId.getValue() + "/body"))), TaskBody.class), equalTo(body));
+        assertThat(call(httpClient.preparePost(url("/executions"))).getStatusCode(), is(204));
+    }
+
+    @Test
+    public void shouldPointToBodyStreamForBinaryBody() throws Exception {
+        byte[] body = {0, 1, 2, (byte) 255};
+        TaskId taskId = taskDao.submitTask(taskConfig(1), new ByteArrayInputStream(body));
+
+        // When
+        Response bodyResponse = call(httpClient.prepareGet(url("/tasks/" + taskId.getValue() + "/body")));
+        Response streamResponse = call(httpClient.prepareGet(url("/tasks/" + taskId.getValue() + "/body/stream")));
+
+        // Then
+        assertThat(bodyResponse.getStatusCode(), is(409));
+        assertThat(read(bodyResponse, ErrorResponse.class).error, containsString("/tasks/" + taskId.getValue() + "/body/stream"));
+        assertThat(streamResponse.getStatusCode(), is(200));
+        assertThat(streamResponse.getResponseBodyAsBytes(), equalTo(body));
+    }
+
+    @Test
+    public void shouldFailAndCancelTask() throws Exception {
+        TaskId taskId = submit(taskConfig(2));
+        ExecutionWithBody claimed = read(call(httpClient.preparePost(url("/executions?withBody=false"))), ExecutionWithBody.class);
+        assertThat(claimed.body, isNotPresent());
+
+        // When
+        Response failedResponse = call(httpClient.preparePost(url("/executions/" + claimed.execution.executionId.getValue() + "/failed")));
+        Response cancelResponse = call(
+                httpClient.preparePost(url("/tasks/" + taskId.getValue() + "/cancel")),
+                new CancelTaskRequest(Optional.of(claimed.execution.executionId))
+        );
+
+        // Then
+        assertThat(read(failedResponse, AppliedResponse.class).applied, is(true));
+        assertThat(read(cancelResponse, AppliedResponse.class).applied, is(true));
+        assertThat(read(call(httpClient.prepareGet(url("/tasks/" + taskId.getValue()))), Task.class).state, is(TaskState.CANCELLED));
+    }
+
+    @Test
+    public void shouldUpdateTTL() throws Exception {
+        TaskId taskId = submit(taskConfigBuilder().ttl(Duration.ofHours(1)).build());
+
+        // When
+        Response setTTLResponse = call(httpClient.preparePut(url("/tasks/" + taskId.getValue() + "/ttl")), new TTLRequest(Duration.ofMinutes(5)));
+
+        // Then
+        assertThat(read(setTTLResponse, AppliedResponse.class).applied, is(true));
+        assertThat(read(call(httpClient.prepareGet(url("/tasks/" + taskId.getValue() + "/ttl"))), TTLResponse.class).ttl, isPresentAndEqualTo(Duration.ofMinutes(5)));
+
+        // When
+        Response keepForeverResponse = call(httpClient.prepareDelete(url("/tasks/" + taskId.getValue() + "/ttl")));
+
+        // Then
+        assertThat(read(keepForeverResponse, AppliedResponse.class).applied, is(true));
+        assertThat(read(call(httpClient.prepareGet(url("/tasks/" + taskId.getValue() + "/ttl"))), TTLResponse.class).ttl, isNotPresent());
+    }
+
+    @Test
+    public void shouldSubmitStreamAndCompleteTasksInBatches() throws Exception {
+        List<SubmitTaskRequest> tasks = newList(
+                new SubmitTaskRequest(taskConfig(1), randomTaskBody()),
+                new SubmitTaskRequest(taskConfig(1), randomTaskBody()),
+                new SubmitTaskRequest(taskConfig(1), randomTaskBody())
+        );
+
+        // When
+        List<TaskId> taskIds = read(call(httpClient.preparePost(url("/tasks/batch")), new SubmitTasksRequest(tasks)), SubmitTasksResponse.class).taskIds;
+        Response streamResponse = call(httpClient.preparePost(url("/executions/stream?idleTimeoutMs=100")));
+
+        // Then
+        assertThat(taskIds.size(), is(3));
+        assertThat(streamResponse.getContentType(), startsWith(SmartQueueServer.NDJSON_CONTENT_TYPE));
+        Map<TaskId, ExecutionWithBody> executions = new HashMap<>();
+        for (String line : streamResponse.getResponseBody().split("\n")) {
+            ExecutionWithBody execution = mapper.readValue(line, ExecutionWithBody.class);
+            executions.put(execution.execution.taskId, execution);
+        }
+        assertThat(executions.keySet(), equalTo(newSet(taskIds)));
+        for (int i = 0; i < taskIds.size(); i++) {
+            assertThat(executions.get(taskIds.get(i)).body, isPresentAndEqualTo(tasks.get(i).body));
+        }
+
+        // When
+        CompleteExecutionsResponse completeResponse = read(
+                call(
+                        httpClient.preparePost(url("/executions/batch/complete")),
+                        new CompleteExecutionsRequest(newList(
+                                new ExecutionOutcome(executions.get(taskIds.get(0)).execution.executionId, ExecutionState.SUCCEEDED),
+                                new ExecutionOutcome(executions.get(taskIds.get(1)).execution.executionId, ExecutionState.FAILED),
+                                new ExecutionOutcome(randomExecutionId(), ExecutionState.SUCCEEDED)
+                        ))
+                ),
+                CompleteExecutionsResponse.class
+        );
+        TaskId unknownTaskId = randomTaskId();
+        TaskStatusesResponse statusesResponse = read(
+                call(
+                        httpClient.preparePost(url("/tasks/statuses")),
+                        new TaskStatusesRequest(newList(taskIds.get(0), taskIds.get(1), taskIds.get(2), unknownTaskId))
+                ),
+                TaskStatusesResponse.class
+        );
+
+        // Then
+        assertThat(completeResponse.applied, equalTo(newList(true, true, false)));
+        assertThat(statusesResponse.statuses, equalTo(newList(
+                new TaskStatus(taskIds.get(0), Optional.of(TaskState.SUCCEEDED)),
+                new TaskStatus(taskIds.get(1), Optional.of(TaskState.FAILED)),
+                new TaskStatus(taskIds.get(2), Optional.of(TaskState.RUNNING)),
+                new TaskStatus(unknownTaskId, Optional.empty())
+        )));
+    }
+
+    @Test
+    public void shouldStopStreamingOnceLimitIsReached() throws Exception {
+        submit(taskConfig(1));
+        submit(taskConfig(1));
+
+        // When
+        Response streamResponse = call(httpClient.preparePost(url("/executions/stream?limit=1&idleTimeoutMs=0")));
+
+        // Then
+        assertThat(streamResponse.getResponseBody().split("\n").length, is(1));
+        assertThat(call(httpClient.preparePost(url("/executions"))).getStatusCode(), is(200));
+        assertThat(call(httpClient.preparePost(url("/executions"))).getStatusCode(), is(204));
+    }
+
+    @Test
+    public void shouldReturnNotFoundForUnknownTask() throws Exception {
+        assertThat(call(httpClient.prepareGet(url("/tasks/" + randomTaskId().getValue()))).getStatusCode(), is(404));
+        assertThat(call(httpClient.prepareGet(url("/tasks/" + randomTaskId().getValue() + "/body"))).getStatusCode(), is(404));
+        assertThat(call(httpClient.prepareGet(url("/tasks/" + randomTaskId().getValue() + "/ttl"))).getStatusCode(), is(404));
+    }
+
+    @Test
+    public void shouldRejectInvalidRequests() throws Exception {
+        assertThat(call(httpClient.prepareGet(url("/tasks/not-a-task-id"))).getStatusCode(), is(400));
+        assertThat(call(httpClient.preparePost(url("/tasks")).setBody("{\"config\":")).getStatusCode(), is(400));
+        assertThat(call(httpClient.preparePost(url("/tasks")).setBody("{\"config\":{\"attemptCount\":0},\"body\":{\"content\":\"x\"}}")).getStatusCode(), is(400));
+    }
+
+    private TaskId submit(TaskConfig config) throws Exception {
+        return read(call(httpClient.preparePost(url("/tasks")), new SubmitTaskRequest(config, randomTaskBody())), SubmitTaskResponse.class).taskId;
+    }
+
+    private static String url(String path) {
+        return "http://localhost:" + server.port() + path;
+    }
+
+    private static Response call(BoundRequestBuilder request) throws Exception {
+        return request.execute().get();
+    }
+
+    private static Response call(BoundRequestBuilder request, Object body) throws Exception {
+        return request
+                .setHeader("Content-Type", SmartQueueServer.JSON_CONTENT_TYPE)
+                .setBody(mapper.writeValueAsString(body))
+                .execute()
+                .get();
+    }
+
+    private static <T> T read(Response response, Class<T> type) throws IOException {
+        return mapper.readValue(response.getResponseBody(), type);
+    }
+}